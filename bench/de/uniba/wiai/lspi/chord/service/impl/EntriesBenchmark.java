@@ -0,0 +1,156 @@
+package de.uniba.wiai.lspi.chord.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.uniba.wiai.lspi.chord.data.Entry;
+import de.uniba.wiai.lspi.chord.data.ID;
+import de.uniba.wiai.lspi.chord.data.URL;
+
+/*
+ * Times how long a node takes to get its entries back after a restart: filling
+ * LogEntries with URL values under random ids, then reopening it from the
+ * snapshot, from the snapshot plus a log tail of removes, and from the
+ * log alone. Also prints the heap held by the index against a TreeMap of the
+ * same entries, which is what TreeMapEntries keeps, and the cost of lookups.
+ * Lives in the open chord package because Entries is package private.
+ *
+ * Usage: EntriesBenchmark [entries] [snapshot records] [directory]
+ */
+public class EntriesBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int snapshotRecords = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+		File directory = args.length > 2 ? new File(args[2])
+				: Files.createTempDirectory("entries-bench").toFile();
+		
+		Random random = new Random(7210);
+		Entry[] entries = new Entry[count];
+		for (int i = 0; i < count; i++) {
+			byte[] id = new byte[20];
+			random.nextBytes(id);
+			entries[i] = new Entry(new ID(id), new URL("ocsocket://10." + (i >>> 16 & 255) + "."
+					+ (i >>> 8 & 255) + "." + (i & 255) + ":3333/"));
+		}
+		
+		boolean consistent = true;
+		try {
+			System.out.println("phase\tms\tns_per_entry\tentries");
+			LogEntries log = new LogEntries(directory, snapshotRecords, 4096);
+			long start = System.nanoTime();
+			for (Entry entry : entries) {
+				log.add(entry);
+			}
+			report("append", start, count, log.getNumberOfStoredEntries());
+			log.close();
+			
+			start = System.nanoTime();
+			log = new LogEntries(directory, snapshotRecords, 4096);
+			report("recover-snapshot", start, count, log.getNumberOfStoredEntries());
+			consistent &= check(log, entries, 0, count);
+			
+			// a restart after some churn, with changes in the log that the snapshot has not seen
+			int churn = Math.min(snapshotRecords / 2, count / 10);
+			for (int i = 0; i < churn; i++) {
+				log.remove(entries[i]);
+			}
+			log.close();
+			start = System.nanoTime();
+			log = new LogEntries(directory, snapshotRecords, 4096);
+			report("recover-tail", start, count, log.getNumberOfStoredEntries());
+			consistent &= log.getNumberOfStoredEntries() == count - churn && check(log, entries, churn, count);
+			
+			start = System.nanoTime();
+			int found = 0;
+			for (int i = 0; i < 100000; i++) {
+				found += log.getEntries(entries[churn + random.nextInt(count - churn)].getId()).size();
+			}
+			report("lookup", start, 100000, found);
+			
+			log.close();
+			new File(directory, "entries.index").delete();
+			start = System.nanoTime();
+			log = new LogEntries(directory, snapshotRecords, 4096);
+			report("recover-scan", start, count, log.getNumberOfStoredEntries());
+			consistent &= log.getNumberOfStoredEntries() == count - churn && check(log, entries, churn, count);
+			
+			log.close();
+			log = null;
+			long before = heap();
+			log = new LogEntries(directory, snapshotRecords, 0);
+			long logHeap = heap() - before;
+			before = heap();
+			Map<ID, Set<Entry>> map = treeMap(entries, churn);
+			long mapHeap = heap() - before;
+			System.out.println("heap\tlog-entries " + logHeap / (count - churn) + " bytes/entry\ttree-map "
+					+ mapHeap / map.size() + " bytes/entry");
+			log.close();
+		} finally {
+			delete(directory);
+		}
+		System.out.println(consistent ? "entries match" : "entries DIFFER");
+		if (!consistent) {
+			System.exit(1);
+		}
+	}
+	
+	// every thousandth entry of the range, and that the ones before it are gone
+	private static boolean check(LogEntries log, Entry[] entries, int from, int to) {
+		for (int i = 0; i < to; i += 1000) {
+			Set<Entry> found = log.getEntries(entries[i].getId());
+			if (found.contains(entries[i]) != (i >= from)) {
+				System.err.println("Entry " + i + " " + (i >= from ? "missing" : "not removed"));
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// built from fresh ids and values, so none of its heap is shared with the entries
+	private static Map<ID, Set<Entry>> treeMap(Entry[] entries, int from) throws MalformedURLException {
+		Map<ID, Set<Entry>> map = new TreeMap<ID, Set<Entry>>();
+		Random random = new Random(7210);
+		for (int i = 0; i < entries.length; i++) {
+			byte[] bytes = new byte[20];
+			random.nextBytes(bytes);
+			if (i >= from) {
+				ID id = new ID(bytes);
+				Set<Entry> set = new HashSet<Entry>();
+				set.add(new Entry(id, new URL(entries[i].getValue().toString())));
+				map.put(id, set);
+			}
+		}
+		return map;
+	}
+	
+	private static long heap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	private static void report(String phase, long start, int count, int entries) {
+		long elapsed = System.nanoTime() - start;
+		System.out.println(phase + "\t" + elapsed / 1000000 + "\t" + elapsed / Math.max(count, 1) + "\t" + entries);
+	}
+	
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,203 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.TaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BusyResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.node.JobScheduler;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode.MasterType;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * Checks the admission control of a master in this JVM, running one job at a
+ * time. A client submits as fast as it can for a few seconds under a rate limit,
+ * and the rate its jobs were taken at and the time a rejection took are printed.
+ * The client then fills the queue past its limit and prints the retry hint it is
+ * given. Last, jobs are queued straight to the scheduler under submitter names,
+ * since every connection over loopback comes from the same address: a backlog
+ * of one submitter and a job of another submitted behind it, printing how long
+ * that job waited, and two backlogs of weights 3 and 1, printing the share of
+ * each among the first jobs started.
+ *
+ * Usage: AdmissionBenchmark [rate] [burst] [seconds] [port]
+ */
+public class AdmissionBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int burst = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int port = args.length > 3 ? Integer.parseInt(args[3]) : 4860;
+		
+		File work = Files.createTempDirectory("admission-bench").toFile();
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setNodeType("JobTracker");
+		appContext.setChordPort(port);
+		appContext.setResultCacheBytes(0);
+		appContext.setEngineSpillDir(work.getPath());
+		appContext.setSchedulerConcurrency(1);
+		appContext.setAdmissionRate(rate);
+		appContext.setAdmissionBurst(burst);
+		appContext.setAdmissionQueueLimit(0);
+		appContext.setAdmissionWeights("heavy=3,light=1");
+		MasterNode master = new MasterNode(MasterType.JOB_TRACKER);
+		appContext.setNode(master);
+		final URL url = new URL("ocsocket://127.0.0.1:" + port + "/");
+		final CommandListener listener = new CommandListener();
+		listener.bind(url);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				listener.serve(url);
+			}
+		}, "listener-" + port);
+		thread.setDaemon(true);
+		thread.start();
+		CommandDispatcher dispatcher = new CommandDispatcher();
+		boolean expected = true;
+		
+		// rate limit, the client is held to the rate once its burst is spent
+		int admitted = 0;
+		int rejected = 0;
+		Histogram rejections = new Histogram();
+		long start = System.nanoTime();
+		long end = start + seconds * 1000000000L;
+		while (System.nanoTime() < end) {
+			long begin = System.nanoTime();
+			IResponse response = dispatcher.dispatch(new TaskRequest(new SleepTask(0, null, null, null), url, 0));
+			if (response instanceof BusyResponse) {
+				rejections.record((System.nanoTime() - begin) / 1000);
+				rejected++;
+			} else if (response.isSuccess()) {
+				admitted++;
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		Histogram.Snapshot snapshot = rejections.snapshot();
+		System.out.printf("rate\tadmitted=%d\trejected=%d\tadmitted_per_s=%.0f\tlimit_per_s=%.0f\treject_p50_us=%d\treject_p99_us=%d%n",
+				admitted, rejected, admitted / elapsed, rate + burst / elapsed, snapshot.getPercentile(0.5),
+				snapshot.getPercentile(0.99));
+		expected &= admitted <= rate * elapsed + burst + 1 && admitted >= rate * elapsed * 0.9;
+		
+		// overload, a full queue turns jobs away with a hint of when it will have room, a few run while it fills
+		appContext.setAdmissionRate(0);
+		listener.reconfigure(appContext);
+		master.getScheduler().setQueueLimit(20);
+		int queued = 0;
+		long retryAfter = 0;
+		for (int i = 0; i < 60; i++) {
+			IResponse response = dispatcher.dispatch(new TaskRequest(new SleepTask(10, null, null, null), url, 0));
+			if (response instanceof BusyResponse) {
+				retryAfter = ((BusyResponse)response).getRetryAfter();
+			} else if (response.isSuccess()) {
+				queued++;
+			}
+		}
+		System.out.println("overload\tqueued=" + queued + "\tlimit=20\tretry_after_ms=" + retryAfter);
+		expected &= queued <= 25 && retryAfter > 0;
+		master.getScheduler().setQueueLimit(0);
+		drain(master.getScheduler());
+		
+		// fair share, a job submitted behind another submitter's backlog waits for one job, not the backlog
+		JobScheduler scheduler = master.getScheduler();
+		ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<String>();
+		CountDownLatch gate = new CountDownLatch(1);
+		scheduler.submit(new SleepTask(0, "gate", order, gate), 0, "gate");
+		for (int i = 0; i < 100; i++) {
+			scheduler.submit(new SleepTask(5, "backlog", order, null), 0, "backlog");
+		}
+		scheduler.submit(new SleepTask(0, "interactive", order, null), 0, "interactive");
+		gate.countDown();
+		drain(scheduler);
+		List<String> started = new ArrayList<String>(order);
+		int position = started.indexOf("interactive");
+		System.out.println("fair\tbacklog=100\tinteractive_started_after=" + (position - 1) + "\tin_submission_order_after=100");
+		expected &= position >= 0 && position <= 3;
+		
+		// weighted share, two backlogs of weights 3 and 1
+		order.clear();
+		gate = new CountDownLatch(1);
+		scheduler.submit(new SleepTask(0, "gate", order, gate), 0, "gate");
+		for (int i = 0; i < 100; i++) {
+			scheduler.submit(new SleepTask(1, "light", order, null), 0, "light");
+		}
+		for (int i = 0; i < 100; i++) {
+			scheduler.submit(new SleepTask(1, "heavy", order, null), 0, "heavy");
+		}
+		gate.countDown();
+		drain(scheduler);
+		started = new ArrayList<String>(order).subList(1, 81);
+		int heavy = Collections.frequency(started, "heavy");
+		System.out.println("weighted\tfirst=80\theavy=" + heavy + "\tlight=" + (80 - heavy) + "\tweights=3:1");
+		expected &= heavy >= 55 && heavy <= 65;
+		
+		System.out.println(expected ? "admission as expected" : "admission NOT as expected");
+		System.exit(expected ? 0 : 1);
+	}
+	
+	private static void drain(JobScheduler scheduler) throws InterruptedException {
+		while (scheduler.getQueued() > 0 || scheduler.getRunning() > 0) {
+			Thread.sleep(10);
+		}
+	}
+	
+	// sleeps for its time, noting the submitter it was queued by as it starts
+	private static class SleepTask implements IEmbeddedTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private long millis;
+		private String submitter;
+		// only queued straight to the scheduler, never sent
+		private transient ConcurrentLinkedQueue<String> order;
+		private transient CountDownLatch gate;
+		
+		public SleepTask(long millis, String submitter, ConcurrentLinkedQueue<String> order, CountDownLatch gate) {
+			this.millis = millis;
+			this.submitter = submitter;
+			this.order = order;
+			this.gate = gate;
+		}
+		
+		public boolean execute(ProgressListener progress) throws InterruptedException {
+			if (order != null) {
+				order.add(submitter);
+			}
+			if (gate != null) {
+				gate.await();
+			}
+			Thread.sleep(millis);
+			return true;
+		}
+		
+		public String getTaskName() {
+			return "sleep";
+		}
+		
+		public String getCommand() {
+			return null;
+		}
+		
+		public List<String> getInputs() {
+			return Collections.emptyList();
+		}
+		
+		public String getOutput() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.Chord;
+import de.uniba.wiai.lspi.chord.service.Key;
+import de.uniba.wiai.lspi.chord.service.PropertiesLoader;
+import de.uniba.wiai.lspi.chord.service.ServiceException;
+import de.uniba.wiai.lspi.chord.service.impl.ChordImpl;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadRecord;
+import edu.gatech.cs7210.p2pmapreduce.chord.MasterSelector;
+import edu.gatech.cs7210.p2pmapreduce.chord.UrlKey;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.Envelope;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.Handshake;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.MessageCodec;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JoinRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.node.ChordNode;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode.MasterType;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobHandle;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * Runs a cluster on this machine over a real Open Chord ring on loopback sockets
+ * and times what it does under load. This JVM creates the ring, the masters are
+ * started as separate processes that join it, with Hadoop's scripts replaced by
+ * stubs that exit straight away, and then the slaves, held in this JVM, all join
+ * the ring and a master at once. Last the given number of tasks, which do nothing,
+ * are published from several client threads and polled until they finish.
+ *
+ * Every slave joins under its own loopback address, 127.0.1.1 onwards, and sends
+ * its JoinRequest to the master's own URL over a connection from that address, as
+ * a slave process on its own host would. Once all have joined, the slaves file of
+ * every master must list exactly the slaves that joined it. The chord ports of the masters are kept apart from their listener ports, as
+ * both are bound by the process.
+ *
+ * Prints one line per phase with the count, the failures, the rate over the
+ * phase and the latency percentiles in microseconds, tab separated.
+ *
+ * Usage: ClusterBenchmark [masters] [slaves] [tasks] [client threads] [first port]
+ */
+public class ClusterBenchmark {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String[] SCRIPTS = { "start-all.sh", "stop-all.sh", "hadoop-daemons.sh" };
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("master")) {
+			runMaster(Integer.parseInt(args[1]), Integer.parseInt(args[2]), new URL(args[3]), new File(args[4]));
+			return;
+		}
+		int masterCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int slaveCount = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int taskCount = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int clientCount = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		int port = args.length > 4 ? Integer.parseInt(args[4]) : 4910;
+		
+		PropertiesLoader.loadPropertyFile();
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setChordPort(port);
+		appContext.setRequestTimeout(30000);
+		File work = Files.createTempDirectory("cluster-bench").toFile();
+		writeStubs(new File(work, "bin"));
+		System.setErr(new PrintStream(new FileOutputStream(new File(work, "client.log")), true));
+		
+		ChordImpl chord = new ChordImpl();
+		ChordNode client = new ChordNode(chord);
+		appContext.setChordNode(client);
+		client.runAsFirst();
+		URL bootstrapUrl = appContext.getUrl();
+		
+		List<Process> masters = new ArrayList<Process>();
+		boolean complete = true;
+		try {
+			System.out.println("phase\tcount\tfailed\tops_per_s\tp50_us\tp99_us\tp999_us\tmax_us");
+			long start = System.nanoTime();
+			for (int i = 0; i < masterCount; i++) {
+				masters.add(startMaster(port + 100 + i, port + 1 + i, bootstrapUrl, work));
+			}
+			waitForMasters(chord, masterCount);
+			Histogram up = new Histogram();
+			up.record((System.nanoTime() - start) / 1000);
+			report("masters-up", up, 0, System.nanoTime() - start);
+			
+			complete &= joinStorm(slaveCount, port + 200, bootstrapUrl, work);
+			complete &= submitTasks(client, taskCount, clientCount);
+		} finally {
+			for (Process master : masters) {
+				master.destroyForcibly().waitFor();
+			}
+		}
+		System.out.println("logs in " + work);
+		System.out.println(complete ? "all joins and tasks completed" : "some joins or tasks NOT completed");
+		System.exit(complete ? 0 : 1);
+	}
+	
+	// every slave joins the ring and then the cluster of the master placement picks for it, all at the same time
+	private static boolean joinStorm(int slaveCount, final int firstPort, final URL bootstrapUrl, File work) 
+			throws Exception {
+		final Histogram chordJoin = new Histogram();
+		final Histogram clusterJoin = new Histogram();
+		final Histogram join = new Histogram();
+		final MasterSelector selector = new MasterSelector(3, Long.MAX_VALUE, new Random());
+		final CountDownLatch gate = new CountDownLatch(1);
+		final Map<URL, Set<String>> placed = new HashMap<URL, Set<String>>();
+		ExecutorService slaves = Executors.newFixedThreadPool(slaveCount);
+		List<Future<Boolean>> joined = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < slaveCount; i++) {
+			final String host = "127.0." + (1 + i / 250) + "." + (1 + i % 250);
+			final int port = firstPort + i;
+			joined.add(slaves.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					String protocol = URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL);
+					URL url = new URL(protocol + "://" + host + ":" + port + "/");
+					Chord chord = new ChordImpl();
+					gate.await();
+					long start = System.nanoTime();
+					chord.join(url, bootstrapUrl, false);
+					long ringJoined = System.nanoTime();
+					chordJoin.record((ringJoined - start) / 1000);
+					
+					// until the ring has settled around a new node its lookups can miss the load records
+					LoadRecord master = null;
+					for (int attempt = 0; master == null && attempt < 100; attempt++) {
+						if (attempt > 0) {
+							Thread.sleep(100);
+						}
+						master = selector.select(new UrlKey(url), loadsFollowing(chord, new UrlKey(url), selector), 
+								System.currentTimeMillis());
+					}
+					if (master == null) {
+						System.err.println("No master found for [" + url + "]");
+						return false;
+					}
+					boolean success = join(host, master.getMasterUrl());
+					long end = System.nanoTime();
+					clusterJoin.record((end - ringJoined) / 1000);
+					join.record((end - start) / 1000);
+					if (success) {
+						synchronized (placed) {
+							if (!placed.containsKey(master.getMasterUrl())) {
+								placed.put(master.getMasterUrl(), new HashSet<String>());
+							}
+							placed.get(master.getMasterUrl()).add(host);
+						}
+					}
+					return success;
+				}
+			}));
+		}
+		long start = System.nanoTime();
+		gate.countDown();
+		int failed = 0;
+		for (Future<Boolean> future : joined) {
+			try {
+				if (!future.get()) {
+					failed++;
+				}
+			} catch (Exception e) {
+				System.err.println("Slave failed to join");
+				e.printStackTrace();
+				failed++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		slaves.shutdown();
+		failed += checkSlaves(placed, work);
+		report("chord-join", chordJoin, failed, elapsed);
+		report("cluster-join", clusterJoin, failed, elapsed);
+		report("join", join, failed, elapsed);
+		return failed == 0;
+	}
+	
+	// over a connection of its own from the slave's address, as the slave process would send it
+	private static boolean join(String host, URL master) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.bind(new InetSocketAddress(host, 0));
+			socket.connect(new InetSocketAddress(master.getHost(), master.getPort()));
+			MessageCodec codec = Handshake.client(new BufferedInputStream(socket.getInputStream()), 
+					new BufferedOutputStream(socket.getOutputStream()), MessageCodec.BINARY);
+			codec.write(new Envelope(Envelope.CONNECTION + 1, new JoinRequest(master)));
+			return ((IResponse)codec.read().getPayload()).isSuccess();
+		} finally {
+			socket.close();
+		}
+	}
+	
+	// the number of slaves missing from the slaves file of the master they joined, or listed in one they did not
+	private static int checkSlaves(Map<URL, Set<String>> placed, File work) throws IOException {
+		int misplaced = 0;
+		for (Map.Entry<URL, Set<String>> master : placed.entrySet()) {
+			File file = new File(new File(work, "master-" + master.getKey().getPort()), "slaves");
+			Set<String> listed = new LinkedHashSet<String>(Files.readAllLines(file.toPath(), UTF8));
+			Set<String> missing = new HashSet<String>(master.getValue());
+			missing.removeAll(listed);
+			listed.removeAll(master.getValue());
+			if (!missing.isEmpty() || !listed.isEmpty()) {
+				System.err.println("Slaves file of [" + master.getKey() + "] is missing " + missing + " and lists " + listed);
+				misplaced += missing.size() + listed.size();
+			}
+		}
+		return misplaced;
+	}
+	
+	// the tasks are published by clientCount threads and then polled until every one has finished
+	private static boolean submitTasks(final ChordNode client, int taskCount, int clientCount) throws Exception {
+		final Histogram submit = new Histogram();
+		final List<JobHandle> handles = Collections.synchronizedList(new ArrayList<JobHandle>());
+		final List<Long> submitted = Collections.synchronizedList(new ArrayList<Long>());
+		ExecutorService clients = Executors.newFixedThreadPool(clientCount);
+		List<Future<Boolean>> published = new ArrayList<Future<Boolean>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < taskCount; i++) {
+			final String name = "noop-" + i;
+			published.add(clients.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					long begin = System.nanoTime();
+					JobHandle handle = client.publishTask(new NoopTask(name));
+					submit.record((System.nanoTime() - begin) / 1000);
+					if (handle == null) {
+						return false;
+					}
+					synchronized (handles) {
+						handles.add(handle);
+						submitted.add(begin);
+					}
+					return true;
+				}
+			}));
+		}
+		int failed = 0;
+		for (Future<Boolean> future : published) {
+			if (!future.get()) {
+				failed++;
+			}
+		}
+		report("submit", submit, failed, System.nanoTime() - start);
+		
+		// completion is seen by polling, so it is late by up to one pass over the jobs still running
+		Histogram completion = new Histogram();
+		Set<Integer> pending = new HashSet<Integer>();
+		for (int i = 0; i < handles.size(); i++) {
+			pending.add(i);
+		}
+		long deadline = System.nanoTime() + 60L * 1000000000;
+		while (!pending.isEmpty() && System.nanoTime() < deadline) {
+			for (Integer i : new ArrayList<Integer>(pending)) {
+				JobStatus status = client.getJobStatus(handles.get(i));
+				if (status == null || !status.getState().isFinished()) {
+					continue;
+				}
+				pending.remove(i);
+				if (status.getState() == State.SUCCEEDED) {
+					completion.record((System.nanoTime() - submitted.get(i)) / 1000);
+				} else {
+					failed++;
+				}
+			}
+			Thread.sleep(10);
+		}
+		failed += pending.size();
+		clients.shutdown();
+		report("complete", completion, failed, System.nanoTime() - start);
+		return failed == 0;
+	}
+	
+	private static void report(String phase, Histogram latency, int failed, long elapsed) {
+		Histogram.Snapshot snapshot = latency.snapshot();
+		System.out.printf("%s\t%d\t%d\t%.1f\t%d\t%d\t%d\t%d%n", phase, snapshot.getCount(), failed,
+				snapshot.getCount() * 1e9 / elapsed, snapshot.getPercentile(0.5), snapshot.getPercentile(0.99),
+				snapshot.getPercentile(0.999), snapshot.getMax());
+	}
+	
+	private static void waitForMasters(Chord chord, int count) throws Exception {
+		while (true) {
+			Set<URL> masters = new HashSet<URL>();
+			for (Serializable value : loads(chord)) {
+				if (value instanceof LoadRecord) {
+					masters.add(((LoadRecord)value).getMasterUrl());
+				}
+			}
+			if (masters.size() >= count) {
+				return;
+			}
+			Thread.sleep(50);
+		}
+	}
+	
+	// the load records a segment at a time from the key on, as placement reads them, until enough candidates follow it
+	private static Set<Serializable> loadsFollowing(Chord chord, Key key, MasterSelector selector) throws ServiceException {
+		BigInteger position = MasterSelector.position(key);
+		int first = LoadKey.segment(position);
+		Set<Serializable> loads = new HashSet<Serializable>();
+		for (int i = 0; i < LoadKey.SEGMENTS; i++) {
+			loads.addAll(chord.retrieve(new LoadKey(first + i)));
+			if (selector.countWithin(position, LoadKey.start(first + i + 1), loads, System.currentTimeMillis(), null) 
+					>= selector.getCandidates()) {
+				break;
+			}
+		}
+		return loads;
+	}
+	
+	// the load records of every master, from all the segments of the ring they are kept in
+	private static Set<Serializable> loads(Chord chord) throws ServiceException {
+		Set<Serializable> loads = new HashSet<Serializable>();
+		for (int i = 0; i < LoadKey.SEGMENTS; i++) {
+			loads.addAll(chord.retrieve(new LoadKey(i)));
+		}
+		return loads;
+	}
+	
+	// Hadoop's control scripts, replaced by ones that succeed without doing anything
+	private static void writeStubs(File bin) throws IOException {
+		bin.mkdirs();
+		for (String script : SCRIPTS) {
+			File file = new File(bin, script);
+			Files.write(file.toPath(), Collections.singletonList("#!/bin/sh\nexit 0"), UTF8);
+			file.setExecutable(true);
+		}
+	}
+	
+	private static Process startMaster(int port, int chordPort, URL bootstrapUrl, File work) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				ClusterBenchmark.class.getName(), "master", String.valueOf(port), String.valueOf(chordPort),
+				bootstrapUrl.toString(), work.getPath());
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(work, "master-" + port + ".log"));
+		return builder.start();
+	}
+	
+	// a master with its own slaves file and spill directory, joining the ring at chordPort and listening at port
+	private static void runMaster(int port, int chordPort, URL bootstrapUrl, File work) throws Exception {
+		PropertiesLoader.loadPropertyFile();
+		File dir = new File(work, "master-" + port);
+		dir.mkdirs();
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setNodeType("JobTracker");
+		appContext.setChordPort(port);
+		appContext.setBinDir(new File(work, "bin").getPath());
+		appContext.setConfigDir(dir.getPath());
+		appContext.setSlaveConfigFile("slaves");
+		appContext.setEngineSpillDir(dir.getPath());
+		appContext.setJoinBatchWindow(50);
+		appContext.setLoadPublishInterval(1000);
+		appContext.setResultCacheBytes(0);
+		// the slaves held by the client send no heartbeats
+		appContext.setHeartbeatTimeout(0);
+		// every task comes from the one client address, as fast as it can publish them
+		appContext.setAdmissionRate(0);
+		URL url = appContext.getUrl();
+		
+		Chord chord = new ChordImpl();
+		chord.join(new URL(url.getProtocol() + "://" + url.getHost() + ":" + chordPort + "/"), bootstrapUrl, true);
+		ChordNode node = new ChordNode(chord);
+		appContext.setChordNode(node);
+		MasterNode master = new MasterNode(MasterType.JOB_TRACKER);
+		appContext.setNode(master);
+		CommandListener listener = new CommandListener();
+		listener.bind(url);
+		node.startLoadReporting(master);
+		master.recoverJobs();
+		listener.serve(url);
+	}
+	
+	// finishes as soon as it is run
+	private static class NoopTask implements IEmbeddedTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private String name;
+		
+		public NoopTask(String name) {
+			this.name = name;
+		}
+		
+		public boolean execute(ProgressListener progress) {
+			return true;
+		}
+		
+		public String getTaskName() {
+			return this.name;
+		}
+		
+		public String getCommand() {
+			return null;
+		}
+		
+		public List<String> getInputs() {
+			return Collections.emptyList();
+		}
+		
+		public String getOutput() {
+			return null;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.node.ProcessExecutor;
+import edu.gatech.cs7210.p2pmapreduce.node.ProcessResult;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceEngine;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceTask;
+import edu.gatech.cs7210.p2pmapreduce.task.imp.GrepTask;
+import edu.gatech.cs7210.p2pmapreduce.task.imp.WordCountTask;
+
+/*
+ * Compares running wordcount and grep in the master's JVM with the embedded engine
+ * against shelling out for the same job. The shell-out runs the hadoop-examples jar
+ * in local mode when HADOOP_HOME is set, and otherwise a child JVM running the same
+ * embedded job, which isolates the cost of process and JVM startup. Outputs of the
+ * two paths are compared when both are produced by the embedded engine.
+ *
+ * Usage: EngineBenchmark [input-mb] [runs] [memory-mb]
+ *        EngineBenchmark --run wordcount|grep input output
+ */
+public class EngineBenchmark {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String REGEX = "dfs[a-z.]+";
+	private static final long SPLIT_SIZE = 4L << 20;
+
+	public static void main(String[] args) throws Exception {
+		// small splits so the map phase uses every core on a modest input
+		ApplicationContext.getInstance().setEngineSplitSize(SPLIT_SIZE);
+		if (args.length > 0 && args[0].equals("--run")) {
+			new MapReduceEngine(Runtime.getRuntime().availableProcessors(), 64L << 20, 
+					new File(System.getProperty("java.io.tmpdir"))).run(task(args[1], args[2], args[3]), null);
+			return;
+		}
+		int inputMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		long memory = (args.length > 2 ? Long.parseLong(args[2]) : 64) << 20;
+		
+		File dir = Files.createTempDirectory("engine-bench").toFile();
+		File input = new File(dir, "input");
+		input.mkdirs();
+		generate(new File(input, "text"), inputMb << 20, 7210);
+		
+		String hadoopHome = System.getenv("HADOOP_HOME");
+		ProcessExecutor processes = new ProcessExecutor(1, 20, 65536);
+		MapReduceEngine engine = new MapReduceEngine(Runtime.getRuntime().availableProcessors(), memory, dir);
+		
+		System.out.println("job\tpath\trun\twall_ms\toutput_records\tspills");
+		for (String job : new String[] { "wordcount", "grep" }) {
+			for (int run = 0; run < runs; run++) {
+				File embeddedOutput = new File(dir, job + "-embedded-" + run);
+				MapReduceEngine.Counters counters = engine.run(task(job, input.getPath(), embeddedOutput.getPath()), null);
+				System.out.println(job + "\tembedded\t" + run + "\t" + counters.getWallTime() + "\t" 
+						+ counters.getOutputRecords() + "\t" + counters.getSpills());
+				
+				File shellOutput = new File(dir, job + "-shell-" + run);
+				String command;
+				if (hadoopHome != null) {
+					command = "cd " + hadoopHome + " && bin/hadoop jar hadoop-examples-*.jar " 
+							+ (job.equals("grep") ? "grep " + input + " " + shellOutput + " '" + REGEX + "'" 
+									: "wordcount " + input + " " + shellOutput);
+				} else {
+					command = System.getProperty("java.home") + "/bin/java -cp " + System.getProperty("java.class.path") 
+							+ " " + EngineBenchmark.class.getName() + " --run " + job + " " + input + " " + shellOutput;
+				}
+				ProcessResult result = processes.execute(command, 0).get();
+				if (!result.isSuccess()) {
+					System.err.println("Shell-out failed [" + result.getExitCode() + "] " + result.getTail());
+					System.exit(1);
+				}
+				System.out.println(job + "\t" + (hadoopHome != null ? "hadoop" : "child-jvm") + "\t" + run + "\t" 
+						+ result.getWallTime() + "\t" + readOutput(shellOutput).size() + "\t-");
+				
+				if (hadoopHome == null && !readOutput(embeddedOutput).equals(readOutput(shellOutput))) {
+					System.err.println("Output mismatch for [" + job + "]");
+					System.exit(1);
+				}
+			}
+		}
+		processes.shutdown();
+		delete(dir);
+	}
+	
+	private static MapReduceTask task(String job, String input, String output) {
+		List<String> inputs = Collections.singletonList(input);
+		if (job.equals("grep")) {
+			return new GrepTask(inputs, output, REGEX, 4);
+		}
+		return new WordCountTask(inputs, output, 4);
+	}
+	
+	// words drawn from a skewed vocabulary, with the odd token for the grep job to find
+	private static void generate(File file, long bytes, long seed) throws IOException {
+		Random random = new Random(seed);
+		String[] vocabulary = new String[50000];
+		for (int i = 0; i < vocabulary.length; i++) {
+			vocabulary[i] = (i % 97 == 0 ? "dfs." : "w") + Integer.toString(i, 36);
+		}
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+		long written = 0;
+		try {
+			while (written < bytes) {
+				StringBuilder line = new StringBuilder();
+				int words = 4 + random.nextInt(12);
+				for (int i = 0; i < words; i++) {
+					double u = random.nextDouble();
+					line.append(vocabulary[(int)(vocabulary.length * u * u * u)]).append(' ');
+				}
+				line.append('\n');
+				writer.write(line.toString());
+				written += line.length();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private static List<String> readOutput(File dir) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		File[] parts = dir.listFiles();
+		if (parts != null) {
+			for (File part : parts) {
+				if (part.getName().startsWith("part-")) {
+					lines.addAll(Files.readAllLines(part.toPath(), UTF8));
+				}
+			}
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,323 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.Chord;
+import de.uniba.wiai.lspi.chord.service.Key;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadKey;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.node.ChordNode;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode.MasterType;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobHandle;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * Times how long the jobs of a master that is killed take to come back on
+ * another one. Each round starts the masters as separate processes, submits
+ * jobs that sleep to one of them, waits for some to be running and kills that
+ * master's process outright. The client then polls its old handles, which lead
+ * it to the master that adopted the jobs, and the time from the kill until every
+ * job is known again and until one is running again is printed, with the median
+ * and worst over the rounds. The ring the processes share is a directory, one
+ * file per entry, standing in for Chord and its replication, so the time is that
+ * of noticing the failure and taking the jobs over, not of the ring stabilising.
+ * The output of the masters, and the errors the client prints while the killed
+ * master refuses its polls, are left in a log directory.
+ *
+ * Usage: FailoverBenchmark [rounds] [masters] [jobs] [load publish interval ms] [first port]
+ */
+public class FailoverBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("master")) {
+			runMaster(Integer.parseInt(args[1]), new File(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int masterCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int jobCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int interval = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		int port = args.length > 4 ? Integer.parseInt(args[4]) : 4810;
+		
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setChordPort(port - 1);
+		appContext.setRequestTimeout(5000);
+		File logs = Files.createTempDirectory("failover-logs").toFile();
+		System.setErr(new PrintStream(new FileOutputStream(new File(logs, "client.log")), true));
+		
+		System.out.println("round\tadopted_ms\trunning_ms\tjobs");
+		long[] adoptedTimes = new long[rounds];
+		long[] runningTimes = new long[rounds];
+		boolean recovered = true;
+		for (int round = 0; round < rounds; round++) {
+			File ring = Files.createTempDirectory("failover-ring").toFile();
+			List<Process> masters = new ArrayList<Process>();
+			try {
+				ChordNode client = new ChordNode(directoryRing(ring, appContext.getUrl()));
+				appContext.setChordNode(client);
+				for (int i = 0; i < masterCount; i++) {
+					masters.add(startMaster(port + i, ring, interval, new File(logs, round + "-" + (port + i) + ".log")));
+				}
+				URL victim = url(port);
+				waitForMasters(masterCount, ring);
+				
+				List<JobHandle> handles = new ArrayList<JobHandle>();
+				for (int i = 0; i < jobCount; i++) {
+					JobHandle handle = client.submitTask(new SleepTask("sleep-" + i, 600000), 0, victim);
+					if (handle == null) {
+						throw new IllegalStateException("Master [" + victim + "] did not take job " + i);
+					}
+					handles.add(handle);
+				}
+				// the jobs are killed with the master once the scheduler is busy with them
+				while (client.getJobStatus(handles.get(0)).getState() != State.RUNNING) {
+					Thread.sleep(10);
+				}
+				
+				masters.get(0).destroyForcibly().waitFor();
+				long killed = System.nanoTime();
+				long adopted = -1;
+				long running = -1;
+				while (adopted < 0 || running < 0) {
+					if (System.nanoTime() - killed > 60L * interval * 1000000) {
+						break;
+					}
+					int known = 0;
+					for (JobHandle handle : handles) {
+						JobStatus status = client.getJobStatus(handle);
+						if (status == null) {
+							continue;
+						}
+						known++;
+						if (running < 0 && status.getState() == State.RUNNING) {
+							running = System.nanoTime() - killed;
+						}
+					}
+					if (adopted < 0 && known == handles.size()) {
+						adopted = System.nanoTime() - killed;
+					}
+					Thread.sleep(10);
+				}
+				adoptedTimes[round] = adopted / 1000000;
+				runningTimes[round] = running / 1000000;
+				recovered &= adopted >= 0 && running >= 0;
+				System.out.println(round + "\t" + adoptedTimes[round] + "\t" + runningTimes[round] + "\t" + jobCount);
+			} finally {
+				for (Process master : masters) {
+					master.destroyForcibly().waitFor();
+				}
+				delete(ring);
+			}
+		}
+		Arrays.sort(adoptedTimes);
+		Arrays.sort(runningTimes);
+		System.out.println("p50\t" + adoptedTimes[rounds / 2] + "\t" + runningTimes[rounds / 2]);
+		System.out.println("max\t" + adoptedTimes[rounds - 1] + "\t" + runningTimes[rounds - 1]);
+		System.out.println("a master is taken to have failed " + 3 * interval + "ms after its last load report, "
+				+ "checked every " + interval + "ms");
+		System.out.println("logs in " + logs);
+		System.out.println(recovered ? "all jobs recovered" : "some jobs NOT recovered");
+		System.exit(recovered ? 0 : 1);
+	}
+	
+	private static Process startMaster(int port, File ring, int interval, File log) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				FailoverBenchmark.class.getName(), "master", String.valueOf(port), ring.getPath(),
+				String.valueOf(interval));
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(log);
+		return builder.start();
+	}
+	
+	// a master with the journal on and every part that needs Hadoop left unused
+	private static void runMaster(int port, File ring, int interval) throws IOException {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setNodeType("JobTracker");
+		appContext.setChordPort(port);
+		appContext.setLoadPublishInterval(interval);
+		appContext.setResultCacheBytes(0);
+		appContext.setTaskJournal(true);
+		URL url = appContext.getUrl();
+		
+		ChordNode node = new ChordNode(directoryRing(ring, url));
+		appContext.setChordNode(node);
+		MasterNode master = new MasterNode(MasterType.JOB_TRACKER);
+		appContext.setNode(master);
+		CommandListener listener = new CommandListener();
+		listener.bind(url);
+		node.startLoadReporting(master);
+		master.recoverJobs();
+		listener.serve(url);
+	}
+	
+	private static URL url(int port) throws IOException {
+		return new URL(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL) + "://"
+				+ InetAddress.getLocalHost().getHostAddress() + ":" + port + "/");
+	}
+	
+	private static void waitForMasters(int count, File ring) throws InterruptedException {
+		while (true) {
+			int published = 0;
+			for (int i = 0; i < LoadKey.SEGMENTS; i++) {
+				String[] records = new File(ring, hex(new LoadKey(i).getBytes())).list();
+				published += records == null ? 0 : records.length;
+			}
+			if (published >= count) {
+				return;
+			}
+			Thread.sleep(20);
+		}
+	}
+	
+	// the parts of Chord the masters use, as a directory per key and a file per value shared by the processes
+	private static Chord directoryRing(final File dir, final URL self) {
+		return (Chord)Proxy.newProxyInstance(Chord.class.getClassLoader(), new Class<?>[] { Chord.class },
+				new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (args == null || !(args[0] instanceof Key)) {
+					throw new UnsupportedOperationException(name);
+				}
+				File keyDir = new File(dir, hex(((Key)args[0]).getBytes()));
+				if (name.equals("retrieve") && args.length == 1) {
+					return new HashSet<Serializable>(read(keyDir).values());
+				}
+				if (name.equals("insert") && args.length == 2) {
+					if (!read(keyDir).containsValue(args[1])) {
+						keyDir.mkdirs();
+						File tmp = new File(dir, UUID.randomUUID() + ".tmp");
+						Files.write(tmp.toPath(), serialize(args[1]));
+						Files.move(tmp.toPath(), new File(keyDir, tmp.getName().replace(".tmp", "")).toPath(),
+								StandardCopyOption.ATOMIC_MOVE);
+					}
+					return self;
+				}
+				if (name.equals("remove") && args.length == 2) {
+					for (Map.Entry<File, Serializable> value : read(keyDir).entrySet()) {
+						if (value.getValue().equals(args[1])) {
+							Files.deleteIfExists(value.getKey().toPath());
+						}
+					}
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+	
+	// values removed by another process while the directory is read are left out
+	private static Map<File, Serializable> read(File keyDir) throws ClassNotFoundException, IOException {
+		Map<File, Serializable> values = new HashMap<File, Serializable>();
+		File[] files = keyDir.listFiles();
+		if (files == null) {
+			return values;
+		}
+		for (File file : files) {
+			try {
+				ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+				values.put(file, (Serializable)in.readObject());
+			} catch (NoSuchFileException e) {
+				continue;
+			}
+		}
+		return values;
+	}
+	
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+	
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+	
+	// sleeps in the master for the given time, reporting its progress
+	private static class SleepTask implements IEmbeddedTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private String name;
+		private long millis;
+		
+		public SleepTask(String name, long millis) {
+			this.name = name;
+			this.millis = millis;
+		}
+		
+		public boolean execute(ProgressListener progress) throws InterruptedException {
+			for (long slept = 0; slept < millis; slept += 100) {
+				if (progress != null) {
+					progress.progress((float)slept / millis);
+				}
+				Thread.sleep(100);
+			}
+			return true;
+		}
+		
+		public String getTaskName() {
+			return this.name;
+		}
+		
+		public String getCommand() {
+			return null;
+		}
+		
+		public List<String> getInputs() {
+			return Collections.emptyList();
+		}
+		
+		public String getOutput() {
+			return null;
+		}
+	}
+}
\ No newline at end of file
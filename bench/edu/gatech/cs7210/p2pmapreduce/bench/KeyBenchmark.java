@@ -0,0 +1,117 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.chord.BlockKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.ChordKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.JobKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.StringKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.TaskKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.UrlKey;
+
+/*
+ * Checks that ring positions of the key family match the values recorded when
+ * the canonical encoding was introduced, then times key generation against the
+ * old approach of Java serializing the URL on every call.
+ *
+ * Usage: KeyBenchmark [iterations]
+ */
+public class KeyBenchmark {
+	
+	// SHA-1 of each key's bytes, which is what Open Chord hashes to place the key
+	private static final String[][] EXPECTED = {
+		{ "url:10.0.0.1:4000", "5cefe098ab0ec6f69e5a3a3a280c6bcef4bdf213" },
+		{ "task:hadoop-examples", "03c56401c8209ef35e4de53cc7711b2efb108bae" },
+		{ "job:0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0", "2bb8e1d52fc321a9481050ecfeca142cdc1df776" },
+		{ "block:blk_1073741825", "c5e14d7c365532bc1a69919a0a43a4ecbb8bf554" },
+		{ "name:master-load", "f416097f69b446c3de2b913362dea339122f9d3c" },
+	};
+	
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		
+		boolean stable = checkStability();
+		
+		final URL url = new URL("ocsocket://10.0.0.1:4000/");
+		System.out.println("key\tns_per_op\tbytes_per_op");
+		for (int round = 0; round < 3; round++) {
+			boolean print = round == 2;
+			time("serialized-url", iterations / 10, print, new Runnable() {
+				public void run() {
+					sink ^= serialize(url).length;
+				}
+			});
+			time("url-key", iterations, print, new Runnable() {
+				public void run() {
+					sink ^= new UrlKey(url).getBytes().length;
+				}
+			});
+			final UrlKey cached = new UrlKey(url);
+			time("url-key-cached", iterations, print, new Runnable() {
+				public void run() {
+					sink ^= cached.getBytes().length;
+				}
+			});
+		}
+		if (!stable) {
+			System.exit(1);
+		}
+	}
+	
+	private static boolean checkStability() throws IOException, NoSuchAlgorithmException {
+		ChordKey[] keys = {
+			new UrlKey(new URL("ocsocket://10.0.0.1:4000/")),
+			new TaskKey("hadoop-examples"),
+			new JobKey("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0"),
+			new BlockKey("blk_1073741825"),
+			new StringKey("master-load"),
+		};
+		boolean stable = true;
+		for (int i = 0; i < keys.length; i++) {
+			String encoded = new String(keys[i].getBytes(), "UTF-8");
+			String hash = String.format("%040x", new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(keys[i].getBytes())));
+			if (!encoded.equals(EXPECTED[i][0]) || !hash.equals(EXPECTED[i][1])) {
+				System.err.println("Key [" + encoded + "] hashes to " + hash + ", expected [" + EXPECTED[i][0] + "] " + EXPECTED[i][1]);
+				stable = false;
+			}
+		}
+		System.out.println(stable ? "key encoding stable" : "key encoding CHANGED");
+		return stable;
+	}
+	
+	private static volatile int sink;
+	
+	private static void time(String name, int iterations, boolean print, Runnable op) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		if (print) {
+			System.out.printf("%s\t%.1f\t%d%n", name, (double)elapsed / iterations, allocated / iterations);
+		}
+	}
+	
+	private static byte[] serialize(URL url) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(url);
+			oos.close();
+			return bos.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.chord.DataRecord;
+import edu.gatech.cs7210.p2pmapreduce.chord.LocalitySelector;
+
+/*
+ * Simulates routing tasks over several clusters that each store a share of the
+ * data blocks, with a number of replicas spread over random clusters. Every task
+ * reads a few random blocks; any block not stored on the cluster the task runs on
+ * is counted as moved across clusters. Compares routing on the submitter (which
+ * lands on an effectively random cluster) against routing to the cluster holding
+ * the most input bytes.
+ *
+ * Usage: LocalitySimulation [clusters] [blocks] [replicas] [tasks] [inputs-per-task] [seed]
+ */
+public class LocalitySimulation {
+	
+	private static final long MIN_BLOCK = 16L << 20;
+	private static final long MAX_BLOCK = 128L << 20;
+
+	public static void main(String[] args) throws MalformedURLException {
+		int clusters = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int replicas = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		int tasks = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+		int inputs = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 7210;
+		Random random = new Random(seed);
+		
+		URL[] masters = new URL[clusters];
+		for (int i = 0; i < clusters; i++) {
+			masters[i] = new URL("ocsocket://10.0.0." + (i + 1) + ":4000/");
+		}
+		
+		// what the masters would have published into the ring for each block
+		Map<String, Set<DataRecord>> ring = new HashMap<String, Set<DataRecord>>();
+		List<String> blockIds = new ArrayList<String>();
+		for (int b = 0; b < blocks; b++) {
+			String blockId = "blk_" + b;
+			long bytes = MIN_BLOCK + (long)(random.nextDouble() * (MAX_BLOCK - MIN_BLOCK));
+			Set<DataRecord> records = new HashSet<DataRecord>();
+			while (records.size() < Math.min(replicas, clusters)) {
+				records.add(new DataRecord(blockId, masters[random.nextInt(clusters)], bytes));
+			}
+			ring.put(blockId, records);
+			blockIds.add(blockId);
+		}
+		
+		LocalitySelector selector = new LocalitySelector();
+		long total = 0;
+		long movedSubmitter = 0;
+		long movedLocality = 0;
+		for (int t = 0; t < tasks; t++) {
+			Map<String, Set<DataRecord>> locations = new HashMap<String, Set<DataRecord>>();
+			for (int i = 0; i < inputs; i++) {
+				String blockId = blockIds.get(random.nextInt(blocks));
+				locations.put(blockId, ring.get(blockId));
+			}
+			for (Set<DataRecord> records : locations.values()) {
+				total += records.iterator().next().getBytes();
+			}
+			movedSubmitter += moved(locations, masters[random.nextInt(clusters)]);
+			movedLocality += moved(locations, selector.select(locations));
+		}
+		
+		System.out.println("policy\ttasks\tinput_mb\tmoved_mb\tmoved_pct");
+		report("submitter", tasks, total, movedSubmitter);
+		report("locality", tasks, total, movedLocality);
+	}
+	
+	private static long moved(Map<String, Set<DataRecord>> locations, URL master) {
+		long moved = 0;
+		for (Set<DataRecord> records : locations.values()) {
+			boolean local = false;
+			for (DataRecord record : records) {
+				local |= record.getMasterUrl().equals(master);
+			}
+			if (!local) {
+				moved += records.iterator().next().getBytes();
+			}
+		}
+		return moved;
+	}
+	
+	private static void report(String policy, int tasks, long total, long moved) {
+		System.out.printf("%s\t%d\t%d\t%d\t%.1f%n", policy, tasks, total >> 20, moved >> 20, 100.0 * moved / total);
+	}
+}
@@ -0,0 +1,235 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.UUID;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.chord.MasterSelector;
+import edu.gatech.cs7210.p2pmapreduce.chord.UrlKey;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.Envelope;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.BinaryCodec;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.MessageCodec;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.SerializationCodec;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JobStatusRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.TaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.JobStatusResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.node.INode;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+import edu.gatech.cs7210.p2pmapreduce.task.imp.HadoopExamplesTask;
+import edu.gatech.cs7210.p2pmapreduce.task.imp.WordCountTask;
+
+/*
+ * Times the small operations every request goes through: a message written and
+ * read back by each codec, the ring position of a UrlKey, and a request sent with
+ * the CommandDispatcher to a listener in this JVM and answered. Each operation is
+ * run for three rounds and the last is printed, with its rate, the percentiles of
+ * the single calls in nanoseconds, which include the cost of reading the clock,
+ * and the bytes allocated per call on the calling thread.
+ *
+ * Usage: MicroBenchmarks [iterations] [listener port]
+ */
+public class MicroBenchmarks {
+	
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 4710;
+		
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setNodeType("JobTracker");
+		appContext.setChordPort(port);
+		appContext.setNode(new StatusNode());
+		// every request comes from the one client address, as fast as it can send them
+		appContext.setAdmissionRate(0);
+		final URL url = new URL("ocsocket://127.0.0.1:" + port + "/");
+		final CommandListener listener = new CommandListener();
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				listener.listen(url);
+			}
+		}, "listener-" + port);
+		thread.setDaemon(true);
+		thread.start();
+		Thread.sleep(500);
+		
+		final Envelope hadoopTask = new Envelope(1, new TaskRequest(new HadoopExamplesTask(), url, 0));
+		// not registered with the binary codec, so it goes through its serialized fallback
+		final Envelope wordCount = new Envelope(2, new TaskRequest(
+				new WordCountTask(Arrays.asList("/data/part-0", "/data/part-1"), "/out/wc", 4), url, 0));
+		final Envelope status = new Envelope(3, new JobStatusResponse(true, new JobStatus(
+				UUID.randomUUID().toString(), "hadoop-examples", State.RUNNING, System.currentTimeMillis(),
+				System.currentTimeMillis(), 0, 0, 0.5f)));
+		final CommandDispatcher dispatcher = new CommandDispatcher();
+		final JobStatusRequest statusRequest = new JobStatusRequest(UUID.randomUUID().toString(), url);
+		final TaskRequest taskRequest = new TaskRequest(new HadoopExamplesTask(), url, 0);
+		
+		boolean answered = true;
+		System.out.println("benchmark\tops_per_s\tp50_ns\tp99_ns\tp999_ns\tmax_ns\tbytes_per_op");
+		for (int round = 0; round < 3; round++) {
+			boolean print = round == 2;
+			for (final MessageCodec codec : new MessageCodec[] { codec(MessageCodec.BINARY), codec(MessageCodec.SERIALIZED) }) {
+				String format = codec.getFormat() == MessageCodec.BINARY ? "binary" : "serialized";
+				time("codec-" + format + "-task-request", iterations, print, roundTrip(codec, hadoopTask));
+				time("codec-" + format + "-wordcount-request", iterations, print, roundTrip(codec, wordCount));
+				time("codec-" + format + "-status-response", iterations, print, roundTrip(codec, status));
+			}
+			time("url-key-position", iterations, print, new Runnable() {
+				public void run() {
+					sink ^= MasterSelector.position(new UrlKey(url)).intValue();
+				}
+			});
+			time("dispatch-status", iterations / 20, print, new Runnable() {
+				public void run() {
+					sink ^= dispatcher.dispatch(statusRequest).isSuccess() ? 1 : 0;
+				}
+			});
+			time("dispatch-task", iterations / 20, print, new Runnable() {
+				public void run() {
+					sink ^= dispatcher.dispatch(taskRequest).isSuccess() ? 1 : 0;
+				}
+			});
+		}
+		answered &= dispatcher.dispatch(statusRequest).isSuccess();
+		System.out.println(answered ? "all requests answered" : "some requests NOT answered");
+		System.exit(answered ? 0 : 1);
+	}
+	
+	private static MessageCodec codec(byte format) throws IOException {
+		Loopback loopback = new Loopback();
+		if (format == MessageCodec.BINARY) {
+			return new BinaryCodec(loopback.in, loopback.out);
+		}
+		return new SerializationCodec(loopback.in, loopback.out);
+	}
+	
+	private static Runnable roundTrip(final MessageCodec codec, final Envelope envelope) {
+		return new Runnable() {
+			public void run() {
+				try {
+					codec.write(envelope);
+					sink ^= (int)codec.read().getId();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+	
+	private static volatile int sink;
+	
+	private static void time(String name, int iterations, boolean print, Runnable op) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Histogram latency = new Histogram();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			long begin = System.nanoTime();
+			op.run();
+			latency.record(System.nanoTime() - begin);
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		if (print) {
+			Histogram.Snapshot snapshot = latency.snapshot();
+			System.out.printf("%s\t%.0f\t%d\t%d\t%d\t%d\t%d%n", name, iterations * 1e9 / elapsed,
+					snapshot.getPercentile(0.5), snapshot.getPercentile(0.99), snapshot.getPercentile(0.999),
+					snapshot.getMax(), allocated / iterations);
+		}
+	}
+	
+	// what is written to out is read back from in, on the same thread
+	private static class Loopback {
+		
+		private byte[] buffer = new byte[4096];
+		private int written;
+		private int read;
+		
+		private OutputStream out = new OutputStream() {
+			public void write(int b) {
+				write(new byte[] { (byte)b }, 0, 1);
+			}
+			
+			public void write(byte[] b, int off, int len) {
+				// the serialized codec leaves its reset marker unread until the next message
+				if (read > 0) {
+					System.arraycopy(buffer, read, buffer, 0, written - read);
+					written -= read;
+					read = 0;
+				}
+				if (written + len > buffer.length) {
+					buffer = Arrays.copyOf(buffer, Math.max(written + len, buffer.length * 2));
+				}
+				System.arraycopy(b, off, buffer, written, len);
+				written += len;
+			}
+		};
+		
+		private InputStream in = new InputStream() {
+			public int read() throws IOException {
+				if (read == written) {
+					return -1;
+				}
+				return buffer[read++] & 0xFF;
+			}
+			
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				}
+				if (read == written) {
+					return -1;
+				}
+				int n = Math.min(len, written - read);
+				System.arraycopy(buffer, read, b, off, n);
+				read += n;
+				return n;
+			}
+			
+			public int available() {
+				return written - read;
+			}
+		};
+	}
+	
+	// answers every status request with the same running job and queues every task
+	private static class StatusNode implements INode {
+		
+		private JobStatus status = new JobStatus(UUID.randomUUID().toString(), "hadoop-examples", State.RUNNING,
+				System.currentTimeMillis(), System.currentTimeMillis(), 0, 0, 0.5f);
+		
+		public boolean run() {
+			return true;
+		}
+		
+		public boolean update(URL url) {
+			return true;
+		}
+		
+		public boolean executeTask(ITask task) {
+			return true;
+		}
+		
+		public String submitTask(ITask task, int priority) {
+			return UUID.randomUUID().toString();
+		}
+		
+		public JobStatus getJobStatus(String jobId) {
+			return status;
+		}
+		
+		public JobStatus cancelJob(String jobId) {
+			return null;
+		}
+	}
+}
\ No newline at end of file
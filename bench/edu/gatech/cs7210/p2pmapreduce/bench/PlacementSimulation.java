@@ -0,0 +1,192 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.net.MalformedURLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadRecord;
+import edu.gatech.cs7210.p2pmapreduce.chord.MasterSelector;
+import edu.gatech.cs7210.p2pmapreduce.chord.UrlKey;
+
+/*
+ * Discrete-event simulation of task placement over synthetic masters. Clients
+ * submit at Zipf-skewed rates, so keying every task on its submitter piles the
+ * hot clients onto a few masters. Compares that against power-of-two-choices
+ * over load records that are only refreshed every publish interval, and prints
+ * the job wait-time distribution for both.
+ *
+ * Usage: PlacementSimulation [masters] [clients] [utilization] [jobs] [seed]
+ */
+public class PlacementSimulation {
+	
+	private static final int SLOTS_PER_MASTER = 2;
+	private static final int SLAVES_PER_MASTER = 4;
+	private static final double MEAN_SERVICE = 60.0;
+	private static final double PUBLISH_INTERVAL = 10.0;
+	private static final int CANDIDATES = 3;
+	
+	private static final int ARRIVAL = 0;
+	private static final int DEPARTURE = 1;
+	private static final int PUBLISH = 2;
+	
+	public static void main(String[] args) throws MalformedURLException {
+		int masters = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		double utilization = args.length > 2 ? Double.parseDouble(args[2]) : 0.5;
+		int jobs = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 7210;
+		
+		URL[] masterUrls = new URL[masters];
+		for (int i = 0; i < masters; i++) {
+			masterUrls[i] = new URL("ocsocket://10.0." + (i / 250) + "." + (i % 250 + 1) + ":4000/");
+		}
+		UrlKey[] clientKeys = new UrlKey[clients];
+		for (int i = 0; i < clients; i++) {
+			clientKeys[i] = new UrlKey(new URL("ocsocket://10.1." + (i / 250) + "." + (i % 250 + 1) + ":4000/"));
+		}
+		
+		System.out.println("policy\tjobs\tmean_s\tp50_s\tp90_s\tp99_s\tmax_s");
+		report("submitter", new PlacementSimulation(masterUrls, clientKeys, utilization, seed).run(jobs, 
+				new MasterSelector(1, Long.MAX_VALUE, new Random(seed)), false));
+		report("p2c-k" + CANDIDATES, new PlacementSimulation(masterUrls, clientKeys, utilization, seed).run(jobs, 
+				new MasterSelector(CANDIDATES, Long.MAX_VALUE, new Random(seed)), true));
+	}
+	
+	private static void report(String policy, double[] waits) {
+		Arrays.sort(waits);
+		double sum = 0;
+		for (double w : waits) {
+			sum += w;
+		}
+		System.out.printf("%s\t%d\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f%n", policy, waits.length, sum / waits.length, 
+				percentile(waits, 0.50), percentile(waits, 0.90), percentile(waits, 0.99), waits[waits.length - 1]);
+	}
+	
+	private static double percentile(double[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int)(p * sorted.length))];
+	}
+	
+	private URL[] masterUrls;
+	private UrlKey[] clientKeys;
+	private double[] clientWeights;
+	private double arrivalRate;
+	private Random random;
+	
+	public PlacementSimulation(URL[] masterUrls, UrlKey[] clientKeys, double utilization, long seed) {
+		this.masterUrls = masterUrls;
+		this.clientKeys = clientKeys;
+		this.random = new Random(seed);
+		this.arrivalRate = utilization * masterUrls.length * SLOTS_PER_MASTER / MEAN_SERVICE;
+		
+		// cumulative Zipf weights, client i submits in proportion to 1 / (i + 1)
+		clientWeights = new double[clientKeys.length];
+		double total = 0;
+		for (int i = 0; i < clientKeys.length; i++) {
+			total += 1.0 / (i + 1);
+			clientWeights[i] = total;
+		}
+		for (int i = 0; i < clientWeights.length; i++) {
+			clientWeights[i] /= total;
+		}
+	}
+	
+	public double[] run(int jobs, MasterSelector selector, boolean staleLoads) {
+		int masters = masterUrls.length;
+		int[] running = new int[masters];
+		List<ArrayDeque<Double>> queues = new ArrayList<ArrayDeque<Double>>();
+		for (int i = 0; i < masters; i++) {
+			queues.add(new ArrayDeque<Double>());
+		}
+		List<LoadRecord> published = new ArrayList<LoadRecord>();
+		
+		PriorityQueue<Event> events = new PriorityQueue<Event>();
+		events.add(new Event(exponential(1.0 / arrivalRate), ARRIVAL, -1));
+		events.add(new Event(0, PUBLISH, -1));
+		
+		double[] waits = new double[jobs];
+		int arrived = 0;
+		int started = 0;
+		while (started < jobs) {
+			Event event = events.poll();
+			double now = event.time;
+			
+			if (event.type == PUBLISH) {
+				published = snapshot(queues, running, now);
+				events.add(new Event(now + PUBLISH_INTERVAL, PUBLISH, -1));
+			} else if (event.type == ARRIVAL) {
+				if (arrived < jobs) {
+					arrived++;
+					UrlKey client = clientKeys[pickClient()];
+					List<LoadRecord> loads = staleLoads ? published : snapshot(queues, running, now);
+					int master = indexOf(selector.select(client, loads, (long)(now * 1000)).getMasterUrl());
+					if (running[master] < SLOTS_PER_MASTER) {
+						running[master]++;
+						waits[started++] = 0;
+						events.add(new Event(now + exponential(MEAN_SERVICE), DEPARTURE, master));
+					} else {
+						queues.get(master).add(now);
+					}
+					events.add(new Event(now + exponential(1.0 / arrivalRate), ARRIVAL, -1));
+				}
+			} else {
+				int master = event.master;
+				Double queuedAt = queues.get(master).poll();
+				if (queuedAt == null) {
+					running[master]--;
+				} else {
+					waits[started++] = now - queuedAt;
+					events.add(new Event(now + exponential(MEAN_SERVICE), DEPARTURE, master));
+				}
+			}
+		}
+		return waits;
+	}
+	
+	private List<LoadRecord> snapshot(List<ArrayDeque<Double>> queues, int[] running, double now) {
+		List<LoadRecord> loads = new ArrayList<LoadRecord>();
+		for (int i = 0; i < masterUrls.length; i++) {
+			loads.add(new LoadRecord(masterUrls[i], queues.get(i).size(), running[i], SLAVES_PER_MASTER, (long)(now * 1000)));
+		}
+		return loads;
+	}
+	
+	private int indexOf(URL url) {
+		for (int i = 0; i < masterUrls.length; i++) {
+			if (masterUrls[i].equals(url)) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Unknown master [" + url + "]");
+	}
+	
+	private int pickClient() {
+		int index = Arrays.binarySearch(clientWeights, random.nextDouble());
+		return Math.min(index < 0 ? -index - 1 : index, clientWeights.length - 1);
+	}
+	
+	private double exponential(double mean) {
+		return -mean * Math.log(1.0 - random.nextDouble());
+	}
+	
+	private static class Event implements Comparable<Event> {
+		
+		private double time;
+		private int type;
+		private int master;
+		
+		public Event(double time, int type, int master) {
+			this.time = time;
+			this.type = type;
+			this.master = master;
+		}
+		
+		public int compareTo(Event other) {
+			return Double.compare(time, other.time);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import edu.gatech.cs7210.p2pmapreduce.store.MergeCursor;
+import edu.gatech.cs7210.p2pmapreduce.store.RecordCursor;
+import edu.gatech.cs7210.p2pmapreduce.store.Run;
+import edu.gatech.cs7210.p2pmapreduce.store.RunWriter;
+import edu.gatech.cs7210.p2pmapreduce.store.SortBuffer;
+import edu.gatech.cs7210.p2pmapreduce.store.SpillStore;
+
+/*
+ * Times the spill store against the heap structures it replaced: sorting records
+ * in an off-heap sort buffer against inserting them into a TreeMap, and a k-way
+ * merge of mapped runs against building one TreeMap out of k sorted maps. Prints
+ * ns and heap bytes allocated per record for each, and checks that both sides
+ * see the same keys in the same order.
+ *
+ * Usage: StoreBenchmark [records] [runs] [distinct keys]
+ */
+public class StoreBenchmark {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public static void main(String[] args) throws Exception {
+		int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int runCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int distinct = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		
+		byte[][] keys = new byte[records][];
+		Random random = new Random(7210);
+		for (int i = 0; i < records; i++) {
+			keys[i] = ("word" + random.nextInt(distinct)).getBytes(UTF8);
+		}
+		byte[] value = "1".getBytes(UTF8);
+		
+		SpillStore store = new SpillStore(new File(System.getProperty("java.io.tmpdir")), 256L * 1024 * 1024);
+		boolean consistent = true;
+		try {
+			System.out.println("phase\tns_per_record\tbytes_per_record");
+			for (int round = 0; round < 3; round++) {
+				boolean print = round == 2;
+				long sorted = sortBuffer(store, keys, value, print);
+				long mapped = treeMapSort(keys, print);
+				List<Run> runs = writeRuns(store, keys, value, runCount, print);
+				long merged = merge(runs, records, print);
+				long baseline = treeMapMerge(keys, runCount, print);
+				for (Run run : runs) {
+					run.delete();
+				}
+				if (sorted != mapped || merged != baseline) {
+					System.err.println("Checksums differ: sort " + sorted + "/" + mapped + " merge " + merged + "/" + baseline);
+					consistent = false;
+				}
+			}
+		} finally {
+			store.close();
+		}
+		System.out.println(consistent ? "orders match" : "orders DIFFER");
+		if (!consistent) {
+			System.exit(1);
+		}
+	}
+	
+	private static long sortBuffer(SpillStore store, byte[][] keys, byte[] value, boolean print) throws InterruptedException {
+		SortBuffer buffer = store.newSortBuffer(keys.length * 32);
+		try {
+			Timer timer = new Timer();
+			for (byte[] key : keys) {
+				buffer.add(0, key, value);
+			}
+			long checksum = checksum(buffer.cursor());
+			timer.report("sort-buffer", keys.length, print);
+			return checksum;
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	private static long treeMapSort(byte[][] keys, boolean print) {
+		Timer timer = new Timer();
+		TreeMap<String, List<String>> map = new TreeMap<String, List<String>>();
+		for (byte[] key : keys) {
+			add(map, new String(key, UTF8), "1");
+		}
+		long checksum = checksum(map);
+		timer.report("tree-map-sort", keys.length, print);
+		return checksum;
+	}
+	
+	// spills runs of the records in slices, the way maps spill their sort buffers
+	private static List<Run> writeRuns(SpillStore store, byte[][] keys, byte[] value, int runCount, boolean print)
+			throws IOException, InterruptedException {
+		List<Run> runs = new ArrayList<Run>();
+		int slice = (keys.length + runCount - 1) / runCount;
+		SortBuffer buffer = store.newSortBuffer(slice * 32);
+		try {
+			Timer timer = new Timer();
+			for (int from = 0; from < keys.length; from += slice) {
+				buffer.clear();
+				for (int i = from; i < Math.min(from + slice, keys.length); i++) {
+					buffer.add(0, keys[i], value);
+				}
+				RecordCursor cursor = buffer.cursor();
+				RunWriter writer = store.newRun();
+				while (cursor.next()) {
+					writer.append(cursor.key(), cursor.value());
+				}
+				runs.add(writer.close());
+			}
+			timer.report("write-runs", keys.length, print);
+		} finally {
+			buffer.release();
+		}
+		return runs;
+	}
+	
+	private static long merge(List<Run> runs, int records, boolean print) {
+		Timer timer = new Timer();
+		List<RecordCursor> cursors = new ArrayList<RecordCursor>();
+		for (Run run : runs) {
+			cursors.add(run.cursor());
+		}
+		long checksum = checksum(new MergeCursor(cursors));
+		timer.report("merge-runs", records, print);
+		return checksum;
+	}
+	
+	private static long treeMapMerge(byte[][] keys, int runCount, boolean print) {
+		int slice = (keys.length + runCount - 1) / runCount;
+		List<TreeMap<String, List<String>>> maps = new ArrayList<TreeMap<String, List<String>>>();
+		for (int from = 0; from < keys.length; from += slice) {
+			TreeMap<String, List<String>> map = new TreeMap<String, List<String>>();
+			for (int i = from; i < Math.min(from + slice, keys.length); i++) {
+				add(map, new String(keys[i], UTF8), "1");
+			}
+			maps.add(map);
+		}
+		Timer timer = new Timer();
+		TreeMap<String, List<String>> merged = new TreeMap<String, List<String>>();
+		for (TreeMap<String, List<String>> map : maps) {
+			for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+				for (String value : entry.getValue()) {
+					add(merged, entry.getKey(), value);
+				}
+			}
+		}
+		long checksum = checksum(merged);
+		timer.report("tree-map-merge", keys.length, print);
+		return checksum;
+	}
+	
+	private static void add(TreeMap<String, List<String>> map, String key, String value) {
+		List<String> values = map.get(key);
+		if (values == null) {
+			values = new ArrayList<String>(1);
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+	
+	// order-sensitive hash of the key sequence, so both sides can be compared without copying
+	private static long checksum(RecordCursor cursor) {
+		long checksum = 0;
+		while (cursor.next()) {
+			ByteBuffer key = cursor.key();
+			int hash = 0;
+			for (int i = key.position(); i < key.limit(); i++) {
+				hash = 31 * hash + key.get(i);
+			}
+			checksum = checksum * 1000003 + hash;
+		}
+		return checksum;
+	}
+	
+	private static long checksum(TreeMap<String, List<String>> map) {
+		long checksum = 0;
+		for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+			byte[] key = entry.getKey().getBytes(UTF8);
+			int hash = 0;
+			for (byte b : key) {
+				hash = 31 * hash + b;
+			}
+			for (int i = 0; i < entry.getValue().size(); i++) {
+				checksum = checksum * 1000003 + hash;
+			}
+		}
+		return checksum;
+	}
+	
+	private static class Timer {
+		
+		private com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		private long thread = Thread.currentThread().getId();
+		private long allocated = threads.getThreadAllocatedBytes(thread);
+		private long start = System.nanoTime();
+		
+		public void report(String name, int records, boolean print) {
+			long elapsed = System.nanoTime() - start;
+			long bytes = threads.getThreadAllocatedBytes(thread) - allocated;
+			if (print) {
+				System.out.printf("%s\t%.1f\t%d%n", name, (double)elapsed / records, bytes / records);
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.StreamJobRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.TaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.TaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode.MasterType;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * Streams the output of a job from a master in this JVM. Each run submits a task
+ * that writes a file while reporting its progress, follows it with an iterator
+ * reading ahead by window events, checks that every byte of the file arrived in
+ * order and prints the events received and the rate at which the chunks came.
+ * A last run cancels its stream after the first chunk and checks the master lets
+ * go of it.
+ *
+ * Usage: StreamBenchmark [file MB] [window] [runs] [port] [wire format]
+ */
+public class StreamBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int window = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int port = args.length > 3 ? Integer.parseInt(args[3]) : 4760;
+		String format = args.length > 4 ? args[4] : "binary";
+		
+		File work = Files.createTempDirectory("stream-bench").toFile();
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setNodeType("JobTracker");
+		appContext.setChordPort(port);
+		appContext.setWireFormat(format);
+		appContext.setResultCacheBytes(0);
+		appContext.setEngineSpillDir(new File(work, "spill").getPath());
+		appContext.setNode(new MasterNode(MasterType.JOB_TRACKER));
+		final URL url = new URL("ocsocket://127.0.0.1:" + port + "/");
+		final CommandListener listener = new CommandListener();
+		listener.bind(url);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				listener.serve(url);
+			}
+		}, "listener-" + port);
+		thread.setDaemon(true);
+		thread.start();
+		
+		CommandDispatcher dispatcher = new CommandDispatcher();
+		long bytes = megabytes * 1024L * 1024;
+		boolean complete = true;
+		System.out.println("run\tprogress\toutput\tchunks\tbytes\tMB_per_s\tstate");
+		for (int run = 0; run < runs; run++) {
+			File output = new File(work, "out-" + run);
+			String jobId = submit(dispatcher, url, new WriteTask(output.getPath(), bytes));
+			int progress = 0;
+			int lines = 0;
+			int chunks = 0;
+			long received = 0;
+			long first = 0;
+			State state = null;
+			Iterator<IResponse> events = dispatcher.iterate(new StreamJobRequest(jobId, url), window);
+			while (events.hasNext()) {
+				IResponse response = events.next();
+				if (!(response instanceof StreamEvent)) {
+					System.err.println("Stream failed: " + response);
+					break;
+				}
+				StreamEvent event = (StreamEvent)response;
+				switch (event.getType()) {
+				case PROGRESS:
+					progress++;
+					break;
+				case OUTPUT:
+					lines += new String(event.getData(), "UTF-8").split("\n").length;
+					break;
+				case CHUNK:
+					if (chunks++ == 0) {
+						first = System.nanoTime();
+					}
+					if (event.getOffset() != received) {
+						System.err.println("Chunk at " + event.getOffset() + ", expected " + received);
+					}
+					received += event.getData() == null ? 0 : event.getData().length;
+					break;
+				case END:
+					state = event.getStatus().getState();
+					break;
+				}
+			}
+			double seconds = (System.nanoTime() - first) / 1e9;
+			complete &= state == State.SUCCEEDED && received == bytes;
+			System.out.printf("%d\t%d\t%d\t%d\t%d\t%.0f\t%s%n", run, progress, lines, chunks, received,
+					received / 1048576.0 / seconds, state);
+		}
+		
+		// the master's streamer lets go of a stream its client cancels
+		String jobId = submit(dispatcher, url, new WriteTask(new File(work, "out-cancel").getPath(), bytes));
+		final CountDownLatch chunk = new CountDownLatch(1);
+		dispatcher.stream(new StreamJobRequest(jobId, url)).subscribe(new Flow.Subscriber<IResponse>() {
+			private Flow.Subscription subscription;
+			
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+			
+			public void onNext(IResponse response) {
+				if (((StreamEvent)response).getType() == StreamEvent.Type.CHUNK) {
+					subscription.cancel();
+					chunk.countDown();
+				} else {
+					subscription.request(1);
+				}
+			}
+			
+			public void onError(Throwable t) {
+				t.printStackTrace();
+			}
+			
+			public void onComplete() {
+			}
+		});
+		chunk.await();
+		Gauge open = MetricsRegistry.getInstance().getGauges().get("listener_open_streams");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (open.getValue() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		boolean released = open.getValue() == 0;
+		System.out.println("cancelled stream " + (released ? "released" : "NOT released"));
+		System.out.println("streamed bytes " + MetricsRegistry.getInstance().getCounters().get("listener_streamed_bytes_total"));
+		delete(work);
+		System.out.println(complete && released ? "all output streamed" : "some output NOT streamed");
+		System.exit(complete && released ? 0 : 1);
+	}
+	
+	private static String submit(CommandDispatcher dispatcher, URL url, WriteTask task) {
+		IResponse response = dispatcher.dispatch(new TaskRequest(task, url, 0));
+		if (!(response instanceof TaskResponse) || !response.isSuccess()) {
+			throw new IllegalStateException("Master did not take the task");
+		}
+		return ((TaskResponse)response).getJobId();
+	}
+	
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+	
+	// writes a part file of the given size into its output directory, reporting its progress
+	private static class WriteTask implements IEmbeddedTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private String output;
+		private long bytes;
+		
+		public WriteTask(String output, long bytes) {
+			this.output = output;
+			this.bytes = bytes;
+		}
+		
+		public boolean execute(ProgressListener progress) throws IOException {
+			File dir = new File(output);
+			dir.mkdirs();
+			byte[] block = new byte[1024 * 1024];
+			for (int i = 0; i < block.length; i++) {
+				block[i] = (byte)i;
+			}
+			OutputStream out = new FileOutputStream(new File(dir, "part-00000"));
+			try {
+				for (long written = 0; written < bytes; written += block.length) {
+					out.write(block, 0, (int)Math.min(block.length, bytes - written));
+					progress.progress((float)written / bytes);
+				}
+			} finally {
+				out.close();
+			}
+			return true;
+		}
+		
+		public String getTaskName() {
+			return "write";
+		}
+		
+		public String getCommand() {
+			return null;
+		}
+		
+		public List<String> getInputs() {
+			return Collections.emptyList();
+		}
+		
+		public String getOutput() {
+			return this.output;
+		}
+	}
+}
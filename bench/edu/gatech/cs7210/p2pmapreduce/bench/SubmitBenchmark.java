@@ -0,0 +1,183 @@
+package edu.gatech.cs7210.p2pmapreduce.bench;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.Chord;
+import de.uniba.wiai.lspi.chord.service.Key;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadRecord;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.node.ChordNode;
+import edu.gatech.cs7210.p2pmapreduce.node.INode;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobHandle;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+import edu.gatech.cs7210.p2pmapreduce.task.imp.WordCountTask;
+
+/*
+ * Times submitting batches of tasks through publishTask, one ring lookup and one
+ * request per task, against publishTasks, which looks up inputs side by side and
+ * sends one request per master. The masters are listeners in this JVM that queue
+ * jobs without running them, and the ring is held in memory with every lookup
+ * delayed by the given latency, standing in for the hops of a real ring. Prints
+ * the time and tasks per second of both paths for each batch size, and how
+ * many lookups the routing cache answered, 0 as its size turning it off.
+ *
+ * Usage: SubmitBenchmark [ring latency ms] [masters] [first port] [routing cache size]
+ */
+public class SubmitBenchmark {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int[] SIZES = { 1, 10, 100, 1000 };
+	
+	public static void main(String[] args) throws Exception {
+		long latency = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		int masterCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : 4610;
+		int cacheSize = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+		
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setProtocol(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL));
+		appContext.setNodeType("NameNode");
+		appContext.setChordPort(port);
+		appContext.setNode(new QueueingNode());
+		// keeps the load records below fresh for the whole run
+		appContext.setLoadPublishInterval(Integer.MAX_VALUE);
+		appContext.setRoutingCacheSize(cacheSize);
+		// every task comes from the one client address, as fast as it can publish them
+		appContext.setAdmissionRate(0);
+		
+		ChordNode node = new ChordNode(memoryRing(latency, new URL("ocsocket://127.0.0.1:" + (port + 1) + "/")));
+		for (int i = 1; i <= masterCount; i++) {
+			final URL url = new URL("ocsocket://127.0.0.1:" + (port + i) + "/");
+			final CommandListener listener = new CommandListener();
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					listener.listen(url);
+				}
+			}, "listener-" + (port + i));
+			thread.setDaemon(true);
+			thread.start();
+			node.publishLoad(new LoadRecord(url, 0, 0, 1, System.currentTimeMillis()));
+		}
+		Thread.sleep(500);
+		
+		boolean placed = true;
+		System.out.println("tasks\tserial_ms\tserial_tasks_per_s\tbatch_ms\tbatch_tasks_per_s");
+		for (int round = 0; round < 3; round++) {
+			for (int size : SIZES) {
+				List<ITask> tasks = tasks(size);
+				
+				long start = System.nanoTime();
+				for (ITask task : tasks) {
+					placed &= node.publishTask(task) != null;
+				}
+				long serial = System.nanoTime() - start;
+				
+				start = System.nanoTime();
+				for (JobHandle handle : node.publishTasks(tasks)) {
+					placed &= handle != null;
+				}
+				long batch = System.nanoTime() - start;
+				
+				if (round == 2) {
+					System.out.printf("%d\t%.1f\t%.0f\t%.1f\t%.0f%n", size, serial / 1e6, size * 1e9 / serial,
+							batch / 1e6, size * 1e9 / batch);
+				}
+			}
+		}
+		System.out.println("routing cache " + node.getRoutingCache());
+		System.out.println(placed ? "all tasks placed" : "some tasks NOT placed");
+		System.exit(placed ? 0 : 1);
+	}
+	
+	private static List<ITask> tasks(int count) {
+		List<ITask> tasks = new ArrayList<ITask>(count);
+		for (int i = 0; i < count; i++) {
+			tasks.add(new WordCountTask(Collections.singletonList("/data/part-" + i), "/out/part-" + i, 1));
+		}
+		return tasks;
+	}
+	
+	// the parts of Chord that task placement uses, with every call taking latency ms
+	private static Chord memoryRing(final long latency, final URL responsible) {
+		final Map<String, Set<Serializable>> entries = new ConcurrentHashMap<String, Set<Serializable>>();
+		return (Chord)Proxy.newProxyInstance(Chord.class.getClassLoader(), new Class<?>[] { Chord.class },
+				new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Thread.sleep(latency);
+				String name = method.getName();
+				if (args == null || !(args[0] instanceof Key)) {
+					throw new UnsupportedOperationException(name);
+				}
+				String key = new String(((Key)args[0]).getBytes(), UTF8);
+				Set<Serializable> values = entries.get(key);
+				if (name.equals("retrieve") && args.length == 1) {
+					return values == null ? new HashSet<Serializable>() : new HashSet<Serializable>(values);
+				}
+				if (name.equals("insert") && args.length == 2) {
+					if (values == null) {
+						values = Collections.newSetFromMap(new ConcurrentHashMap<Serializable, Boolean>());
+						entries.put(key, values);
+					}
+					values.add((Serializable)args[1]);
+					return responsible;
+				}
+				if (name.equals("remove") && args.length == 2) {
+					if (values != null) {
+						values.remove(args[1]);
+					}
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+	
+	// accepts every job and leaves it queued
+	private static class QueueingNode implements INode {
+		
+		private Map<String, JobStatus> jobs = new ConcurrentHashMap<String, JobStatus>();
+		
+		public boolean run() {
+			return true;
+		}
+		
+		public boolean update(URL url) {
+			return true;
+		}
+		
+		public boolean executeTask(ITask task) {
+			return true;
+		}
+		
+		public String submitTask(ITask task, int priority) {
+			String jobId = UUID.randomUUID().toString();
+			jobs.put(jobId, new JobStatus(jobId, task.getTaskName(), State.QUEUED, System.currentTimeMillis(),
+					0, 0, 0, -1));
+			return jobId;
+		}
+		
+		public JobStatus getJobStatus(String jobId) {
+			return jobs.get(jobId);
+		}
+		
+		public JobStatus cancelJob(String jobId) {
+			return jobs.remove(jobId);
+		}
+	}
+}
@@ -0,0 +1,812 @@
+package de.uniba.wiai.lspi.chord.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import de.uniba.wiai.lspi.chord.data.Entry;
+import de.uniba.wiai.lspi.chord.data.ID;
+import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.Chord;
+
+/*
+ * Entries kept in an append-only log so a node that restarts finds its key range
+ * where it left it. Every add and remove is a checksummed record at the end of
+ * entries.log; values stay on disk and only their ids, log offsets and value
+ * hashes are held in memory. The index is a sorted base of flat arrays, loaded
+ * in one read from the entries.index snapshot, plus a small TreeMap of changes
+ * since. Every SnapshotRecords changes the two are merged and a new snapshot is
+ * written, and once most of the log is dead records it is rewritten with only
+ * the live ones. Recovery loads the snapshot and replays the log after it; a
+ * torn record at the end of the log is cut off, and a snapshot that does not
+ * belong to the log is ignored in favour of a full scan.
+ *
+ * Appends are not forced to disk one by one, a process that dies loses nothing
+ * but a host that loses power may lose the last records, which the ring
+ * republishes anyway. This class has to live in the open chord package since
+ * Entries and its methods are package private.
+ */
+public final class LogEntries extends Entries {
+	
+	public static final String DIRECTORY_PROPERTY = LogEntries.class.getName() + ".Directory";
+	public static final String SNAPSHOT_PROPERTY = LogEntries.class.getName() + ".SnapshotRecords";
+	public static final String CACHE_PROPERTY = LogEntries.class.getName() + ".CacheSize";
+	
+	private static final String LOG_FILE = "entries.log";
+	private static final String INDEX_FILE = "entries.index";
+	private static final int LOG_MAGIC = 0x4f434c47;
+	private static final int INDEX_MAGIC = 0x4f434958;
+	private static final int LOG_HEADER = 12;
+	private static final int RECORD_HEADER = 8;
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+	// values are tagged, strings and urls, most of what the ring holds, skip java serialization
+	private static final byte SERIALIZED = 0;
+	private static final byte STRING = 1;
+	private static final byte LOCATION = 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// a first read of this many bytes gets most records whole
+	private static final int READ_AHEAD = 256;
+	// unsigned, the order ID.compareTo uses without the copy it makes on every call
+	private static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			int order = LogEntries.compare(a, 0, b, 0, Math.min(a.length, b.length));
+			return order != 0 ? order : a.length - b.length;
+		}
+	};
+	private static final Field ID_BYTES = idField();
+	// the log is only rewritten once it is at least this large and mostly dead
+	private static final long COMPACT_MIN = 1024 * 1024;
+	
+	private File directory;
+	private int snapshotRecords;
+	private FileChannel log;
+	private long generation;
+	private long logLength;
+	private long liveBytes;
+	private int changes;
+	
+	// base rows are sorted by id, idLength bytes each in baseIds
+	private int idLength = -1;
+	private byte[] baseIds = new byte[0];
+	private long[] baseOffsets = new long[0];
+	private int[] baseHashes = new int[0];
+	private BitSet baseRemoved = new BitSet();
+	private int baseCount;
+	private int baseLive;
+	private TreeMap<byte[], Slots> delta = new TreeMap<byte[], Slots>(ORDER);
+	private int deltaCount;
+	private Map<Long, Serializable> cache;
+	
+	public LogEntries(Chord chord) {
+		this(directory(chord), Integer.getInteger(SNAPSHOT_PROPERTY, 65536), Integer.getInteger(CACHE_PROPERTY, 4096));
+	}
+	
+	LogEntries(File directory, int snapshotRecords, final int cacheSize) {
+		this.directory = directory;
+		this.snapshotRecords = Math.max(snapshotRecords, 1);
+		this.cache = new LinkedHashMap<Long, Serializable>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Long, Serializable> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		try {
+			open();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open entries in [" + directory + "]", e);
+		}
+	}
+	
+	// one directory per node, so several nodes on a host never share a log
+	private static File directory(Chord chord) {
+		String path = System.getProperty(DIRECTORY_PROPERTY);
+		File directory = path == null || path.trim().isEmpty()
+				? new File(System.getProperty("java.io.tmpdir"), "chord-entries") : new File(path.trim());
+		URL url = chord == null ? null : chord.getURL();
+		if (url == null) {
+			return directory;
+		}
+		return new File(directory, (url.getHost() + "_" + url.getPort()).replaceAll("[^A-Za-z0-9._-]", "_"));
+	}
+	
+	private void open() throws IOException {
+		long start = System.currentTimeMillis();
+		Files.createDirectories(directory.toPath());
+		File logFile = new File(directory, LOG_FILE);
+		boolean exists = logFile.length() >= LOG_HEADER;
+		log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (!exists) {
+			log.truncate(0);
+			generation = new Random().nextLong();
+			writeLogHeader(log, generation);
+			logLength = LOG_HEADER;
+			writeIndex();
+			return;
+		}
+		ByteBuffer header = read(log, 0, LOG_HEADER);
+		if (header.getInt() != LOG_MAGIC) {
+			throw new IOException("Not an entries log [" + logFile + "]");
+		}
+		generation = header.getLong();
+		long from = readIndex();
+		boolean scanned = from < 0;
+		if (scanned) {
+			from = LOG_HEADER;
+			liveBytes = 0;
+		}
+		long end = replay(from);
+		if (end < log.size()) {
+			logger.warn("Cutting torn records off the end of [" + logFile + "] at " + end);
+			log.truncate(end);
+		}
+		logLength = end;
+		if (scanned || changes >= snapshotRecords) {
+			snapshot();
+		}
+		logger.info("Recovered " + getNumberOfStoredEntries() + " entries from [" + directory + "] in "
+				+ (System.currentTimeMillis() - start) + "ms" + (scanned ? " by scanning the log" : ""));
+	}
+	
+	final synchronized void addAll(Set<Entry> entries) {
+		for (Entry entry : entries) {
+			addEntry(entry);
+		}
+		maintain();
+	}
+	
+	final synchronized void add(Entry entry) {
+		addEntry(entry);
+		maintain();
+	}
+	
+	final synchronized void remove(Entry entry) {
+		removeEntry(entry);
+		maintain();
+	}
+	
+	final synchronized void removeAll(Set<Entry> entries) {
+		for (Entry entry : entries) {
+			removeEntry(entry);
+		}
+		maintain();
+	}
+	
+	final synchronized Set<Entry> getEntries(ID id) {
+		if (id == null) {
+			throw new NullPointerException("ID to find entries for must not be null!");
+		}
+		Slots rows = rows(bytes(id));
+		Set<Entry> entries = new HashSet<Entry>();
+		for (int i = 0; i < rows.size; i++) {
+			entries.add(new Entry(id, value(rows.offsets[i])));
+		}
+		return entries;
+	}
+	
+	// ids in (from, to), wrapping round the ring, and those equal to to, as TreeMapEntries does
+	final synchronized Set<Entry> getEntriesInInterval(ID from, ID to) {
+		if (from == null || to == null) {
+			throw new NullPointerException("Neither of the given IDs may have value null!");
+		}
+		Set<Entry> entries = new HashSet<Entry>();
+		byte[] lower = bytes(from);
+		byte[] upper = bytes(to);
+		for (int row = 0; row < baseCount; row++) {
+			if (!baseRemoved.get(row) && inInterval(baseIds, row * idLength, lower, upper)) {
+				entries.add(new Entry(new ID(Arrays.copyOfRange(baseIds, row * idLength, (row + 1) * idLength)),
+						value(baseOffsets[row])));
+			}
+		}
+		for (Slots slots : delta.values()) {
+			if (inInterval(slots.id, 0, lower, upper)) {
+				ID id = new ID(slots.id.clone());
+				for (int i = 0; i < slots.size; i++) {
+					entries.add(new Entry(id, value(slots.offsets[i])));
+				}
+			}
+		}
+		return entries;
+	}
+	
+	final synchronized Map<ID, Set<Entry>> getEntries() {
+		Map<ID, Set<Entry>> entries = new HashMap<ID, Set<Entry>>();
+		for (int row = 0; row < baseCount; row++) {
+			if (!baseRemoved.get(row)) {
+				ID id = new ID(Arrays.copyOfRange(baseIds, row * idLength, (row + 1) * idLength));
+				entriesOf(entries, id).add(new Entry(id, value(baseOffsets[row])));
+			}
+		}
+		for (Slots slots : delta.values()) {
+			ID id = new ID(slots.id.clone());
+			for (int i = 0; i < slots.size; i++) {
+				entriesOf(entries, id).add(new Entry(id, value(slots.offsets[i])));
+			}
+		}
+		return entries;
+	}
+	
+	final synchronized int getNumberOfStoredEntries() {
+		return baseLive + deltaCount;
+	}
+	
+	public final synchronized String toString() {
+		return "LogEntries[" + directory + ", " + getNumberOfStoredEntries() + " entries, " + logLength + " log bytes, "
+				+ liveBytes + " live]";
+	}
+	
+	// forces the log and closes it; the entries cannot be used afterwards
+	synchronized void close() throws IOException {
+		log.force(false);
+		log.close();
+	}
+	
+	private void addEntry(Entry entry) {
+		byte[] id = bytes(entry.getId());
+		byte[] value = serialize(entry.getValue());
+		int hash = hash(value);
+		Slots rows = rows(id);
+		for (int i = 0; i < rows.size; i++) {
+			// an equal value may serialize differently, getEntries collapses those through the set
+			if (rows.hashes[i] == hash && Arrays.equals(valueBytes(rows.offsets[i]), value)) {
+				return;
+			}
+		}
+		ByteBuffer body = ByteBuffer.allocate(2 + id.length + 4 + value.length);
+		body.put(ADD).put((byte)id.length).put(id).putInt(hash).put(value);
+		long offset = append(body);
+		insert(id, offset, hash);
+		liveBytes += RECORD_HEADER + body.capacity();
+	}
+	
+	private void removeEntry(Entry entry) {
+		byte[] id = bytes(entry.getId());
+		byte[] value = serialize(entry.getValue());
+		int hash = hash(value);
+		Slots rows = rows(id);
+		for (int i = 0; i < rows.size; i++) {
+			long offset = rows.offsets[i];
+			if ((rows.hashes[i] == hash && Arrays.equals(valueBytes(offset), value))
+					|| entry.getValue().equals(value(offset))) {
+				ByteBuffer body = ByteBuffer.allocate(2 + id.length + 8);
+				body.put(REMOVE).put((byte)id.length).put(id).putLong(offset);
+				liveBytes -= recordLength(offset);
+				append(body);
+				delete(id, offset);
+			}
+		}
+	}
+	
+	private void maintain() {
+		try {
+			long dead = logLength - LOG_HEADER - liveBytes;
+			if (logLength > COMPACT_MIN && dead > liveBytes) {
+				compact();
+			} else if (changes >= snapshotRecords) {
+				snapshot();
+			}
+		} catch (IOException e) {
+			logger.error("Could not write a snapshot of [" + directory + "], the log stays authoritative", e);
+		}
+	}
+	
+	// live base rows and changed rows of one id, offsets and hashes only
+	private Slots rows(byte[] id) {
+		Slots rows = new Slots(id);
+		if (baseCount > 0 && id.length == idLength) {
+			for (int row = lowerBound(id); row < baseCount && compare(baseIds, row * idLength, id, 0, idLength) == 0; row++) {
+				if (!baseRemoved.get(row)) {
+					rows.add(baseOffsets[row], baseHashes[row]);
+				}
+			}
+		}
+		Slots changed = delta.get(id);
+		if (changed != null) {
+			for (int i = 0; i < changed.size; i++) {
+				rows.add(changed.offsets[i], changed.hashes[i]);
+			}
+		}
+		return rows;
+	}
+	
+	private void insert(byte[] id, long offset, int hash) {
+		if (idLength < 0) {
+			idLength = id.length;
+		} else if (id.length != idLength) {
+			throw new IllegalArgumentException("Entries must all have ids of " + idLength + " bytes, not " + id.length);
+		}
+		Slots slots = delta.get(id);
+		if (slots == null) {
+			slots = new Slots(id);
+			delta.put(id, slots);
+		}
+		slots.add(offset, hash);
+		deltaCount++;
+	}
+	
+	private void delete(byte[] id, long offset) {
+		Slots slots = delta.get(id);
+		if (slots != null && slots.remove(offset)) {
+			deltaCount--;
+			if (slots.size == 0) {
+				delta.remove(id);
+			}
+			return;
+		}
+		if (baseCount == 0 || id.length != idLength) {
+			return;
+		}
+		for (int row = lowerBound(id); row < baseCount && compare(baseIds, row * idLength, id, 0, idLength) == 0; row++) {
+			if (baseOffsets[row] == offset && !baseRemoved.get(row)) {
+				baseRemoved.set(row);
+				baseLive--;
+				return;
+			}
+		}
+	}
+	
+	private int lowerBound(byte[] id) {
+		int low = 0;
+		int high = baseCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(baseIds, middle * idLength, id, 0, idLength) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	private long append(ByteBuffer body) {
+		body.flip();
+		CRC32 crc = new CRC32();
+		crc.update(body.array(), 0, body.limit());
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + body.limit());
+		record.putInt(body.limit()).putInt((int)crc.getValue()).put(body);
+		record.flip();
+		long offset = logLength;
+		try {
+			write(log, record, offset);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not append to entries log in [" + directory + "]", e);
+		}
+		logLength += record.limit();
+		changes++;
+		return offset;
+	}
+	
+	// reads records from the given offset on, returns where the last whole one ends
+	private long replay(long from) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(log.position(from)), 1 << 16));
+		long position = from;
+		CRC32 crc = new CRC32();
+		byte[] body = new byte[256];
+		while (true) {
+			int length;
+			int checksum;
+			try {
+				length = in.readInt();
+				checksum = in.readInt();
+				if (length < 2 || length > log.size() - position) {
+					return position;
+				}
+				if (body.length < length) {
+					body = new byte[Math.max(length, body.length * 2)];
+				}
+				in.readFully(body, 0, length);
+			} catch (EOFException e) {
+				return position;
+			}
+			crc.reset();
+			crc.update(body, 0, length);
+			if ((int)crc.getValue() != checksum) {
+				return position;
+			}
+			ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+			byte op = record.get();
+			byte[] id = new byte[record.get()];
+			record.get(id);
+			if (op == ADD) {
+				insert(id, position, record.getInt());
+				liveBytes += RECORD_HEADER + length;
+			} else {
+				long target = record.getLong();
+				liveBytes -= recordLength(target);
+				delete(id, target);
+			}
+			changes++;
+			position += RECORD_HEADER + length;
+		}
+	}
+	
+	// merges the changes into the base and writes it out as the new snapshot
+	private void snapshot() throws IOException {
+		int count = baseLive + deltaCount;
+		int length = Math.max(idLength, 0);
+		byte[] ids = new byte[count * length];
+		long[] offsets = new long[count];
+		int[] hashes = new int[count];
+		int row = 0;
+		int merged = 0;
+		for (Slots slots : delta.values()) {
+			for (; row < baseCount && compare(baseIds, row * length, slots.id, 0, length) <= 0; row++) {
+				merged = copyRow(row, ids, offsets, hashes, merged);
+			}
+			for (int i = 0; i < slots.size; i++) {
+				System.arraycopy(slots.id, 0, ids, merged * length, length);
+				offsets[merged] = slots.offsets[i];
+				hashes[merged] = slots.hashes[i];
+				merged++;
+			}
+		}
+		for (; row < baseCount; row++) {
+			merged = copyRow(row, ids, offsets, hashes, merged);
+		}
+		baseIds = ids;
+		baseOffsets = offsets;
+		baseHashes = hashes;
+		baseRemoved = new BitSet();
+		baseCount = merged;
+		baseLive = merged;
+		delta.clear();
+		deltaCount = 0;
+		changes = 0;
+		writeIndex();
+	}
+	
+	private int copyRow(int row, byte[] ids, long[] offsets, int[] hashes, int merged) {
+		if (baseRemoved.get(row)) {
+			return merged;
+		}
+		System.arraycopy(baseIds, row * idLength, ids, merged * idLength, idLength);
+		offsets[merged] = baseOffsets[row];
+		hashes[merged] = baseHashes[row];
+		return merged + 1;
+	}
+	
+	// copies the live records into a new log in id order and swaps it in
+	private void compact() throws IOException {
+		snapshot();
+		long start = System.currentTimeMillis();
+		long before = logLength;
+		File logFile = new File(directory, LOG_FILE);
+		File compacted = new File(directory, LOG_FILE + ".compact");
+		long next = new Random().nextLong();
+		FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long position = LOG_HEADER;
+		try {
+			writeLogHeader(out, next);
+			for (int row = 0; row < baseCount; row++) {
+				int length = recordLength(baseOffsets[row]);
+				long copied = 0;
+				while (copied < length) {
+					copied += log.transferTo(baseOffsets[row] + copied, length - copied, out.position(position + copied));
+				}
+				baseOffsets[row] = position;
+				position += length;
+			}
+			out.force(true);
+		} catch (IOException e) {
+			out.close();
+			compacted.delete();
+			throw e;
+		}
+		log.close();
+		Files.move(compacted.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		log = out;
+		generation = next;
+		logLength = position;
+		liveBytes = position - LOG_HEADER;
+		cache.clear();
+		writeIndex();
+		logger.info("Compacted [" + logFile + "] from " + before + " to " + logLength + " bytes in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	private void writeIndex() throws IOException {
+		int length = Math.max(idLength, 0);
+		ByteBuffer index = ByteBuffer.allocate(40 + baseCount * (length + 12));
+		index.putInt(INDEX_MAGIC).putLong(generation).putLong(logLength).putLong(liveBytes)
+				.putInt(baseCount).putInt(idLength);
+		index.put(baseIds, 0, baseCount * length);
+		index.asLongBuffer().put(baseOffsets, 0, baseCount);
+		index.position(index.position() + baseCount * 8);
+		index.asIntBuffer().put(baseHashes, 0, baseCount);
+		index.position(index.position() + baseCount * 4);
+		CRC32 crc = new CRC32();
+		crc.update(index.array(), 0, index.position());
+		index.putInt((int)crc.getValue());
+		index.flip();
+		File file = new File(directory, INDEX_FILE);
+		File written = new File(directory, INDEX_FILE + ".tmp");
+		FileChannel out = FileChannel.open(written.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		// not forced, a snapshot lost to a crash fails its checksum and the log is scanned instead
+		try {
+			write(out, index, 0);
+		} finally {
+			out.close();
+		}
+		Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	// loads the snapshot, returns the log offset it covers or -1 if it cannot be used
+	private long readIndex() throws IOException {
+		File file = new File(directory, INDEX_FILE);
+		if (!file.isFile() || file.length() < 40) {
+			return -1;
+		}
+		FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer index;
+		try {
+			// mapped rather than read, so recovery does not hold a second copy of the index on the heap
+			index = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+		} finally {
+			in.close();
+		}
+		CRC32 crc = new CRC32();
+		ByteBuffer body = index.duplicate();
+		body.limit(index.limit() - 4);
+		crc.update(body);
+		if (index.getInt(index.limit() - 4) != (int)crc.getValue() || index.getInt() != INDEX_MAGIC
+				|| index.getLong() != generation) {
+			logger.warn("Ignoring snapshot [" + file + "] that does not match the log");
+			return -1;
+		}
+		long covered = index.getLong();
+		long live = index.getLong();
+		int count = index.getInt();
+		int length = index.getInt();
+		if (covered > log.size()) {
+			return -1;
+		}
+		idLength = length;
+		baseIds = new byte[count * Math.max(idLength, 0)];
+		baseOffsets = new long[count];
+		baseHashes = new int[count];
+		index.get(baseIds);
+		index.asLongBuffer().get(baseOffsets);
+		index.position(index.position() + count * 8);
+		index.asIntBuffer().get(baseHashes);
+		baseRemoved = new BitSet();
+		baseCount = count;
+		baseLive = count;
+		liveBytes = live;
+		return covered;
+	}
+	
+	private Serializable value(long offset) {
+		Serializable value = cache.get(offset);
+		if (value == null) {
+			value = deserialize(valueBytes(offset));
+			cache.put(offset, value);
+		}
+		return value;
+	}
+	
+	private byte[] valueBytes(long offset) {
+		try {
+			ByteBuffer record = read(log, offset, (int)Math.min(READ_AHEAD, logLength - offset));
+			int length = RECORD_HEADER + record.getInt(0);
+			if (length > record.limit()) {
+				record = read(log, offset, length);
+			}
+			record.position(RECORD_HEADER + 2 + record.get(RECORD_HEADER + 1) + 4);
+			record.limit(length);
+			byte[] value = new byte[record.remaining()];
+			record.get(value);
+			return value;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read entry at " + offset + " in [" + directory + "]", e);
+		}
+	}
+	
+	private int recordLength(long offset) {
+		try {
+			return RECORD_HEADER + read(log, offset, 4).getInt();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read entry at " + offset + " in [" + directory + "]", e);
+		}
+	}
+	
+	private static Set<Entry> entriesOf(Map<ID, Set<Entry>> entries, ID id) {
+		Set<Entry> set = entries.get(id);
+		if (set == null) {
+			set = new HashSet<Entry>();
+			entries.put(id, set);
+		}
+		return set;
+	}
+	
+	// ID keeps its bytes to itself, the hex it prints them as is the way in when the field cannot be read
+	private static byte[] bytes(ID id) {
+		if (ID_BYTES != null) {
+			try {
+				return ((byte[])ID_BYTES.get(id)).clone();
+			} catch (IllegalAccessException e) {
+				// fall back to the hex
+			}
+		}
+		String hex = id.toHexString();
+		byte[] bytes = new byte[(hex.length() + 1) / 3];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte)((Character.digit(hex.charAt(i * 3), 16) << 4) | Character.digit(hex.charAt(i * 3 + 1), 16));
+		}
+		return bytes;
+	}
+	
+	// ID.isInInterval on raw bytes, plus the upper bound itself
+	private static boolean inInterval(byte[] ids, int offset, byte[] from, byte[] to) {
+		int length = from.length;
+		int toUpper = compare(ids, offset, to, 0, length);
+		if (toUpper == 0) {
+			return true;
+		}
+		int fromLower = compare(ids, offset, from, 0, length);
+		int order = compare(from, 0, to, 0, length);
+		if (order < 0) {
+			return fromLower > 0 && toUpper < 0;
+		}
+		return fromLower > 0 || toUpper < 0;
+	}
+	
+	// unsigned, the order ID.compareTo uses
+	private static int compare(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			int difference = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return 0;
+	}
+	
+	private static Field idField() {
+		try {
+			Field field = ID.class.getDeclaredField("id");
+			field.setAccessible(true);
+			return field.getType() == byte[].class ? field : null;
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// not open to reflection on this jvm
+			return null;
+		}
+	}
+	
+	private static int hash(byte[] value) {
+		CRC32 crc = new CRC32();
+		crc.update(value, 0, value.length);
+		return (int)crc.getValue();
+	}
+	
+	private static byte[] serialize(Serializable value) {
+		if (value.getClass() == String.class || value.getClass() == URL.class) {
+			byte[] text = value.toString().getBytes(UTF8);
+			byte[] bytes = new byte[1 + text.length];
+			bytes[0] = value.getClass() == String.class ? STRING : LOCATION;
+			System.arraycopy(text, 0, bytes, 1, text.length);
+			return bytes;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			bytes.write(SERIALIZED);
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not serialize entry value [" + value + "]", e);
+		}
+	}
+	
+	private static Serializable deserialize(byte[] value) {
+		try {
+			if (value[0] == STRING) {
+				return new String(value, 1, value.length - 1, UTF8);
+			} else if (value[0] == LOCATION) {
+				return new URL(new String(value, 1, value.length - 1, UTF8));
+			}
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value, 1, value.length - 1));
+			try {
+				return (Serializable)in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read entry value", e);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException("Could not read entry value", e);
+		}
+	}
+	
+	private static void writeLogHeader(FileChannel channel, long generation) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+		header.putInt(LOG_MAGIC).putLong(generation).flip();
+		write(channel, header, 0);
+	}
+	
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+	
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Entry at " + position + " runs past the end of the log");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	// the log offsets and value hashes of one id
+	private static class Slots {
+		
+		private byte[] id;
+		private long[] offsets = new long[1];
+		private int[] hashes = new int[1];
+		private int size;
+		
+		Slots(byte[] id) {
+			this.id = id;
+		}
+		
+		void add(long offset, int hash) {
+			if (size == offsets.length) {
+				offsets = Arrays.copyOf(offsets, size * 2);
+				hashes = Arrays.copyOf(hashes, size * 2);
+			}
+			offsets[size] = offset;
+			hashes[size] = hash;
+			size++;
+		}
+		
+		boolean remove(long offset) {
+			for (int i = 0; i < size; i++) {
+				if (offsets[i] == offset) {
+					size--;
+					offsets[i] = offsets[size];
+					hashes[i] = hashes[size];
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
\ No newline at end of file
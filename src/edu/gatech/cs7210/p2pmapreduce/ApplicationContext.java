@@ -3,6 +3,12 @@ package edu.gatech.cs7210.p2pmapreduce;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import de.uniba.wiai.lspi.chord.data.URL;
 import edu.gatech.cs7210.p2pmapreduce.node.ChordNode;
@@ -16,7 +22,8 @@ public class ApplicationContext {
 	private String protocol = "http://";
 	private ChordNode chordNode;
 	private INode node;
-	private URL bootstrapUrl;
+	private List<URL> bootstrapUrls = Collections.emptyList();
+	private URL url;
 	private MasterType masterType;
 	private SlaveType slaveType;
 	private String configDir;
@@ -26,6 +33,58 @@ public class ApplicationContext {
 	private boolean isSlave = false;
 	private int mapReducePort;
 	private int chordPort;
+	private int chordBootstrapPort;
+	private volatile int listenerConnections = 64;
+	private volatile int listenerThreads = 16;
+	private int listenerQueueSize = 64;
+	private volatile int readTimeout = 30000;
+	private volatile int requestTimeout = 300000;
+	private volatile int keepAlive = 20000;
+	private String wireFormat = "binary";
+	private volatile int joinBatchWindow = 2000;
+	private volatile int maxProcesses = 8;
+	private int outputTailLines = 200;
+	private int outputTailBytes = 65536;
+	private volatile int commandTimeout = 600000;
+	private volatile int schedulerConcurrency = 2;
+	private int jobHistory = 1000;
+	private volatile int taskTimeout = 0;
+	private int loadPublishInterval = 10000;
+	private int placementCandidates = 3;
+	private String dataManifest;
+	private volatile int engineParallelism = Runtime.getRuntime().availableProcessors();
+	private volatile long engineMemory = 64L * 1024 * 1024;
+	private volatile long engineSplitSize = 32L * 1024 * 1024;
+	private String engineSpillDir = System.getProperty("java.io.tmpdir");
+	private int shuffleChunkSize = 1024 * 1024;
+	private int shuffleWindow = 4;
+	private int shuffleRetries = 3;
+	private long resultCacheBytes = 1024L * 1024 * 1024;
+	private long resultCacheTtl = 24L * 60 * 60 * 1000;
+	private boolean resultCachePublish = false;
+	private String resultCacheDir;
+	private int speculationPercentile = 90;
+	private int speculationMinSamples = 5;
+	private int speculationStallTimeout = 300000;
+	private int speculationPollInterval = 2000;
+	private int speculationHistory = 100;
+	private volatile int batchResolveThreads = 8;
+	private int metricsPort = 0;
+	private int metricsLogInterval = 0;
+	private volatile int joinRetries = 5;
+	private volatile int joinBackoff = 1000;
+	private volatile int joinBackoffMax = 30000;
+	private boolean taskJournal = true;
+	private volatile int routingCacheSize = 1024;
+	private volatile int heartbeatInterval = 1000;
+	private volatile int heartbeatBatch = 5;
+	private volatile int heartbeatTimeout = 30000;
+	private volatile int admissionRate = 50;
+	private volatile int admissionBurst = 200;
+	private volatile int admissionQueueLimit = 10000;
+	private volatile Map<String, Integer> admissionWeights = Collections.emptyMap();
+	private Configuration configuration;
+	private List<Reconfigurable> reconfigurables = new CopyOnWriteArrayList<Reconfigurable>();
 
 	private ApplicationContext() { }
 	
@@ -55,20 +114,31 @@ public class ApplicationContext {
 		this.mapReducePort = port;
 	}
 	
-	public void setChordPort(int port) {
+	public synchronized void setChordPort(int port) {
 		this.chordPort = port;
+		this.url = null;
 	}
 	
-	public void setProtocol(String protocol) {
+	public void setChordBootstrapPort(int port) {
+		this.chordBootstrapPort = port;
+	}
+	
+	public synchronized void setProtocol(String protocol) {
 		this.protocol = protocol;
+		this.url = null;
 	}
 	
-	public URL getUrl() {
+	// resolved once, the local address lookup can take seconds on a host with slow DNS
+	public synchronized URL getUrl() {
+		if (this.url != null) {
+			return this.url;
+		}
 		String url = "";
 		try {
 			InetAddress localhost = InetAddress.getLocalHost();
 			url = this.protocol + "://" + localhost.getHostAddress() + ":" + chordPort + "/";
-			return new URL(url);
+			this.url = new URL(url);
+			return this.url;
 		} catch (UnknownHostException e) {
 			System.err.println("Failed to get address of localhost");
 			e.printStackTrace();
@@ -88,18 +158,37 @@ public class ApplicationContext {
 	}
 
 	public URL getBootstrapUrl() {
-		return bootstrapUrl;
+		return bootstrapUrls.isEmpty() ? null : bootstrapUrls.get(0);
+	}
+	
+	public List<URL> getBootstrapUrls() {
+		return this.bootstrapUrls;
 	}
 
+	// a comma separated list of host or host:port, tried in order when joining
 	public void setBootstrapUrl(String bootstrapUrl) {
-		try {
-			System.out.println("tcp://" + bootstrapUrl + ":" + this.chordPort + "/");
-			this.bootstrapUrl = new URL(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL).toString() + "://" + bootstrapUrl + ":" + this.chordPort + "/");
-		} catch (MalformedURLException e) {
-			System.err.println("Bootstrap URL is malformed");
-			e.printStackTrace();
-			System.exit(-1);
+		if (bootstrapUrl == null) {
+			this.bootstrapUrls = Collections.emptyList();
+			return;
 		}
+		int defaultPort = this.chordBootstrapPort > 0 ? this.chordBootstrapPort : this.chordPort;
+		List<URL> urls = new ArrayList<URL>();
+		for (String host : bootstrapUrl.split(",")) {
+			host = host.trim();
+			if (host.length() == 0) {
+				continue;
+			}
+			try {
+				String address = host.indexOf(':') < 0 ? host + ":" + defaultPort : host;
+				urls.add(new URL(URL.KNOWN_PROTOCOLS.get(URL.SOCKET_PROTOCOL).toString() + "://" + address + "/"));
+			} catch (MalformedURLException e) {
+				System.err.println("Bootstrap URL is malformed [" + host + "]");
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+		System.out.println("bootstrap nodes: " + urls);
+		this.bootstrapUrls = urls;
 	}
 
 	public String getConfigDir() {
@@ -180,4 +269,442 @@ public class ApplicationContext {
 	public void setBinDir(String binDir) {
 		this.binDir = binDir;
 	}
-}
+	
+	public int getListenerConnections() {
+		return this.listenerConnections;
+	}
+	
+	public void setListenerConnections(int listenerConnections) {
+		this.listenerConnections = listenerConnections;
+	}
+	
+	public int getListenerThreads() {
+		return this.listenerThreads;
+	}
+	
+	public void setListenerThreads(int listenerThreads) {
+		this.listenerThreads = listenerThreads;
+	}
+	
+	public int getListenerQueueSize() {
+		return this.listenerQueueSize;
+	}
+	
+	public void setListenerQueueSize(int listenerQueueSize) {
+		this.listenerQueueSize = listenerQueueSize;
+	}
+	
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+	
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+	
+	public int getRequestTimeout() {
+		return this.requestTimeout;
+	}
+	
+	public void setRequestTimeout(int requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+	
+	public int getKeepAlive() {
+		return this.keepAlive;
+	}
+	
+	public void setKeepAlive(int keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+	
+	public String getWireFormat() {
+		return this.wireFormat;
+	}
+	
+	public void setWireFormat(String wireFormat) {
+		this.wireFormat = wireFormat;
+	}
+	
+	public int getJoinBatchWindow() {
+		return this.joinBatchWindow;
+	}
+	
+	public void setJoinBatchWindow(int joinBatchWindow) {
+		this.joinBatchWindow = joinBatchWindow;
+	}
+	
+	public int getMaxProcesses() {
+		return this.maxProcesses;
+	}
+	
+	public void setMaxProcesses(int maxProcesses) {
+		this.maxProcesses = maxProcesses;
+	}
+	
+	public int getOutputTailLines() {
+		return this.outputTailLines;
+	}
+	
+	public void setOutputTailLines(int outputTailLines) {
+		this.outputTailLines = outputTailLines;
+	}
+	
+	public int getOutputTailBytes() {
+		return this.outputTailBytes;
+	}
+	
+	public void setOutputTailBytes(int outputTailBytes) {
+		this.outputTailBytes = outputTailBytes;
+	}
+	
+	public int getCommandTimeout() {
+		return this.commandTimeout;
+	}
+	
+	public void setCommandTimeout(int commandTimeout) {
+		this.commandTimeout = commandTimeout;
+	}
+	
+	public int getSchedulerConcurrency() {
+		return this.schedulerConcurrency;
+	}
+	
+	public void setSchedulerConcurrency(int schedulerConcurrency) {
+		this.schedulerConcurrency = schedulerConcurrency;
+	}
+	
+	public int getJobHistory() {
+		return this.jobHistory;
+	}
+	
+	public void setJobHistory(int jobHistory) {
+		this.jobHistory = jobHistory;
+	}
+	
+	public int getTaskTimeout() {
+		return this.taskTimeout;
+	}
+	
+	public void setTaskTimeout(int taskTimeout) {
+		this.taskTimeout = taskTimeout;
+	}
+	
+	public int getLoadPublishInterval() {
+		return this.loadPublishInterval;
+	}
+	
+	public void setLoadPublishInterval(int loadPublishInterval) {
+		this.loadPublishInterval = loadPublishInterval;
+	}
+	
+	public int getPlacementCandidates() {
+		return this.placementCandidates;
+	}
+	
+	public void setPlacementCandidates(int placementCandidates) {
+		this.placementCandidates = placementCandidates;
+	}
+	
+	public String getDataManifest() {
+		return this.dataManifest;
+	}
+	
+	public void setDataManifest(String dataManifest) {
+		this.dataManifest = dataManifest;
+	}
+	
+	public int getEngineParallelism() {
+		return this.engineParallelism;
+	}
+	
+	public void setEngineParallelism(int engineParallelism) {
+		this.engineParallelism = engineParallelism;
+	}
+	
+	public long getEngineMemory() {
+		return this.engineMemory;
+	}
+	
+	public void setEngineMemory(long engineMemory) {
+		this.engineMemory = engineMemory;
+	}
+	
+	public long getEngineSplitSize() {
+		return this.engineSplitSize;
+	}
+	
+	public void setEngineSplitSize(long engineSplitSize) {
+		this.engineSplitSize = engineSplitSize;
+	}
+	
+	public String getEngineSpillDir() {
+		return this.engineSpillDir;
+	}
+	
+	public void setEngineSpillDir(String engineSpillDir) {
+		this.engineSpillDir = engineSpillDir;
+	}
+	
+	public int getShuffleChunkSize() {
+		return this.shuffleChunkSize;
+	}
+	
+	public void setShuffleChunkSize(int shuffleChunkSize) {
+		this.shuffleChunkSize = shuffleChunkSize;
+	}
+	
+	public int getShuffleWindow() {
+		return this.shuffleWindow;
+	}
+	
+	public void setShuffleWindow(int shuffleWindow) {
+		this.shuffleWindow = shuffleWindow;
+	}
+	
+	public int getShuffleRetries() {
+		return this.shuffleRetries;
+	}
+	
+	public void setShuffleRetries(int shuffleRetries) {
+		this.shuffleRetries = shuffleRetries;
+	}
+	
+	public long getResultCacheBytes() {
+		return this.resultCacheBytes;
+	}
+	
+	public void setResultCacheBytes(long resultCacheBytes) {
+		this.resultCacheBytes = resultCacheBytes;
+	}
+	
+	public long getResultCacheTtl() {
+		return this.resultCacheTtl;
+	}
+	
+	public void setResultCacheTtl(long resultCacheTtl) {
+		this.resultCacheTtl = resultCacheTtl;
+	}
+	
+	public boolean isResultCachePublish() {
+		return this.resultCachePublish;
+	}
+	
+	public void setResultCachePublish(boolean resultCachePublish) {
+		this.resultCachePublish = resultCachePublish;
+	}
+	
+	public String getResultCacheDir() {
+		return this.resultCacheDir;
+	}
+	
+	public void setResultCacheDir(String resultCacheDir) {
+		this.resultCacheDir = resultCacheDir;
+	}
+	
+	public int getSpeculationPercentile() {
+		return this.speculationPercentile;
+	}
+	
+	public void setSpeculationPercentile(int speculationPercentile) {
+		this.speculationPercentile = speculationPercentile;
+	}
+	
+	public int getSpeculationMinSamples() {
+		return this.speculationMinSamples;
+	}
+	
+	public void setSpeculationMinSamples(int speculationMinSamples) {
+		this.speculationMinSamples = speculationMinSamples;
+	}
+	
+	public int getSpeculationStallTimeout() {
+		return this.speculationStallTimeout;
+	}
+	
+	public void setSpeculationStallTimeout(int speculationStallTimeout) {
+		this.speculationStallTimeout = speculationStallTimeout;
+	}
+	
+	public int getSpeculationPollInterval() {
+		return this.speculationPollInterval;
+	}
+	
+	public void setSpeculationPollInterval(int speculationPollInterval) {
+		this.speculationPollInterval = speculationPollInterval;
+	}
+	
+	public int getSpeculationHistory() {
+		return this.speculationHistory;
+	}
+	
+	public void setSpeculationHistory(int speculationHistory) {
+		this.speculationHistory = speculationHistory;
+	}
+	
+	public int getBatchResolveThreads() {
+		return this.batchResolveThreads;
+	}
+	
+	public void setBatchResolveThreads(int batchResolveThreads) {
+		this.batchResolveThreads = batchResolveThreads;
+	}
+	
+	public int getMetricsPort() {
+		return this.metricsPort;
+	}
+	
+	public void setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+	
+	public int getMetricsLogInterval() {
+		return this.metricsLogInterval;
+	}
+	
+	public void setMetricsLogInterval(int metricsLogInterval) {
+		this.metricsLogInterval = metricsLogInterval;
+	}
+	
+	public int getJoinRetries() {
+		return this.joinRetries;
+	}
+	
+	public void setJoinRetries(int joinRetries) {
+		this.joinRetries = joinRetries;
+	}
+	
+	public int getJoinBackoff() {
+		return this.joinBackoff;
+	}
+	
+	public void setJoinBackoff(int joinBackoff) {
+		this.joinBackoff = joinBackoff;
+	}
+	
+	public int getJoinBackoffMax() {
+		return this.joinBackoffMax;
+	}
+	
+	public void setJoinBackoffMax(int joinBackoffMax) {
+		this.joinBackoffMax = joinBackoffMax;
+	}
+	
+	public boolean isTaskJournal() {
+		return this.taskJournal;
+	}
+	
+	public void setTaskJournal(boolean taskJournal) {
+		this.taskJournal = taskJournal;
+	}
+	
+	public int getRoutingCacheSize() {
+		return this.routingCacheSize;
+	}
+	
+	public void setRoutingCacheSize(int routingCacheSize) {
+		this.routingCacheSize = routingCacheSize;
+	}
+	
+	public int getHeartbeatInterval() {
+		return this.heartbeatInterval;
+	}
+	
+	public void setHeartbeatInterval(int heartbeatInterval) {
+		this.heartbeatInterval = heartbeatInterval;
+	}
+	
+	public int getHeartbeatBatch() {
+		return this.heartbeatBatch;
+	}
+	
+	public void setHeartbeatBatch(int heartbeatBatch) {
+		this.heartbeatBatch = heartbeatBatch;
+	}
+	
+	public int getHeartbeatTimeout() {
+		return this.heartbeatTimeout;
+	}
+	
+	public void setHeartbeatTimeout(int heartbeatTimeout) {
+		this.heartbeatTimeout = heartbeatTimeout;
+	}
+	
+	public int getAdmissionRate() {
+		return this.admissionRate;
+	}
+	
+	public void setAdmissionRate(int admissionRate) {
+		this.admissionRate = admissionRate;
+	}
+	
+	public int getAdmissionBurst() {
+		return this.admissionBurst;
+	}
+	
+	public void setAdmissionBurst(int admissionBurst) {
+		this.admissionBurst = admissionBurst;
+	}
+	
+	public int getAdmissionQueueLimit() {
+		return this.admissionQueueLimit;
+	}
+	
+	public void setAdmissionQueueLimit(int admissionQueueLimit) {
+		this.admissionQueueLimit = admissionQueueLimit;
+	}
+	
+	// the fair share weight of each submitter address, those not listed have a weight of 1
+	public Map<String, Integer> getAdmissionWeights() {
+		return this.admissionWeights;
+	}
+	
+	// a list of address=weight pairs separated by commas, a malformed pair is reported and left out
+	public void setAdmissionWeights(String admissionWeights) {
+		Map<String, Integer> weights = new HashMap<String, Integer>();
+		if (admissionWeights != null) {
+			for (String pair : admissionWeights.split(",")) {
+				if (pair.trim().length() == 0) {
+					continue;
+				}
+				String[] parts = pair.split("=");
+				int weight = 0;
+				try {
+					weight = parts.length == 2 ? Integer.parseInt(parts[1].trim()) : 0;
+				} catch (NumberFormatException e) {
+					// reported below with the other malformed pairs
+				}
+				if (weight < 1) {
+					System.err.println("Admission weight is malformed [" + pair.trim() + "]");
+					continue;
+				}
+				weights.put(parts[0].trim(), weight);
+			}
+		}
+		this.admissionWeights = Collections.unmodifiableMap(weights);
+	}
+	
+	public Configuration getConfiguration() {
+		return this.configuration;
+	}
+	
+	public void setConfiguration(Configuration configuration) {
+		this.configuration = configuration;
+	}
+	
+	public void addReconfigurable(Reconfigurable reconfigurable) {
+		reconfigurables.add(reconfigurable);
+	}
+	
+	// tells everything holding on to a live setting that the context has new values
+	public void reconfigured() {
+		for (Reconfigurable reconfigurable : reconfigurables) {
+			try {
+				reconfigurable.reconfigure(this);
+			} catch (RuntimeException e) {
+				System.err.println("Failed to reconfigure [" + reconfigurable + "]");
+				e.printStackTrace();
+			}
+		}
+	}
+}
\ No newline at end of file
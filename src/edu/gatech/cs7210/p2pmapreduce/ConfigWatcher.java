@@ -0,0 +1,109 @@
+package edu.gatech.cs7210.p2pmapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Watches the directories of a few files and hands each file that was written
+ * to the consumer. Editors tend to write a file in several steps, or replace it
+ * with a new one, so events are collected until the directory has been quiet for
+ * SETTLE milliseconds and each file is reported once.
+ */
+public class ConfigWatcher {
+	
+	private static final long SETTLE = 500;
+	
+	private Set<Path> files = new HashSet<Path>();
+	private Consumer<File> changed;
+	private WatchService watcher;
+	private Thread thread;
+	
+	public ConfigWatcher(Consumer<File> changed) {
+		this.changed = changed;
+	}
+	
+	public synchronized void watch(File file) throws IOException {
+		if (watcher == null) {
+			watcher = FileSystems.getDefault().newWatchService();
+		}
+		Path path = file.getAbsoluteFile().toPath().normalize();
+		path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		files.add(path);
+	}
+	
+	public synchronized void start() {
+		if (thread != null || watcher == null) {
+			return;
+		}
+		thread = new Thread(new Runnable() {
+			public void run() {
+				poll();
+			}
+		}, "config-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public synchronized void stop() {
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				// nothing left to release
+			}
+		}
+	}
+	
+	private void poll() {
+		try {
+			while (true) {
+				Set<Path> written = new LinkedHashSet<Path>();
+				WatchKey key = watcher.take();
+				while (key != null) {
+					collect(key, written);
+					key = watcher.poll(SETTLE, TimeUnit.MILLISECONDS);
+				}
+				for (Path path : written) {
+					try {
+						changed.accept(path.toFile());
+					} catch (RuntimeException e) {
+						System.err.println("Failed to apply changes to [" + path + "]");
+						e.printStackTrace();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+	
+	private void collect(WatchKey key, Set<Path> written) {
+		Path dir = (Path)key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				written.addAll(files);
+				continue;
+			}
+			Path path = dir.resolve((Path)event.context()).normalize();
+			if (files.contains(path)) {
+				written.add(path);
+			}
+		}
+		key.reset();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+package edu.gatech.cs7210.p2pmapreduce;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * A properties file read against a declared set of settings, each with a type,
+ * bounds, a default and whether it may change while the node runs. validate
+ * reports every missing or malformed key at once, and settings that do not fit
+ * together, and the typed getters are only meant to be used on a configuration
+ * that validated.
+ */
+public class Configuration {
+	
+	public enum Type { INT, LONG, BOOLEAN, STRING }
+	
+	private static final boolean LIVE = true;
+	private static final boolean RESTART = false;
+	
+	public static final Map<String, Setting> APP = new LinkedHashMap<String, Setting>();
+	public static final Map<String, Setting> CHORD = new LinkedHashMap<String, Setting>();
+	
+	static {
+		required(APP, "map_reduce_port", Type.INT, 1, 65535);
+		required(APP, "chord_port", Type.INT, 1, 65535);
+		optional(APP, "chord_bootstrap_port", Type.INT, "0", 0, 65535, RESTART);
+		optional(APP, "bootstrap_url", Type.STRING, null, 0, 0, RESTART);
+		optional(APP, "first_node", Type.BOOLEAN, "false", 0, 0, RESTART);
+		required(APP, "node_type", Type.STRING, 0, 0).choices = new String[] { "NameNode", "JobTracker", "DataNode", "TaskTracker" };
+		required(APP, "config_dir", Type.STRING, 0, 0);
+		required(APP, "bin_dir", Type.STRING, 0, 0);
+		required(APP, "slave_config_file", Type.STRING, 0, 0);
+		optional(APP, "listener_connections", Type.INT, "64", 1, 65536, LIVE);
+		optional(APP, "listener_threads", Type.INT, "16", 1, 65536, LIVE);
+		optional(APP, "listener_queue_size", Type.INT, "64", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "read_timeout", Type.INT, "30000", 1, Integer.MAX_VALUE, LIVE);
+		optional(APP, "request_timeout", Type.INT, "300000", 1, Integer.MAX_VALUE, LIVE);
+		optional(APP, "keep_alive", Type.INT, "20000", 2, Integer.MAX_VALUE, LIVE);
+		optional(APP, "wire_format", Type.STRING, "binary", 0, 0, RESTART).choices = new String[] { "binary", "serialized" };
+		optional(APP, "join_batch_window", Type.INT, "2000", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "max_processes", Type.INT, "8", 1, 65536, LIVE);
+		optional(APP, "output_tail_lines", Type.INT, "200", 0, Integer.MAX_VALUE, RESTART);
+		optional(APP, "output_tail_bytes", Type.INT, "65536", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "command_timeout", Type.INT, "600000", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "scheduler_concurrency", Type.INT, "2", 1, 65536, LIVE);
+		optional(APP, "job_history", Type.INT, "1000", 0, Integer.MAX_VALUE, RESTART);
+		optional(APP, "task_timeout", Type.INT, "0", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "load_publish_interval", Type.INT, "10000", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "placement_candidates", Type.INT, "3", 1, 1024, RESTART);
+		optional(APP, "data_manifest", Type.STRING, null, 0, 0, RESTART);
+		optional(APP, "engine_parallelism", Type.INT, String.valueOf(Runtime.getRuntime().availableProcessors()),
+				1, 65536, LIVE);
+		optional(APP, "engine_memory", Type.LONG, "67108864", 1024, Long.MAX_VALUE, LIVE);
+		optional(APP, "engine_split_size", Type.LONG, "33554432", 1, Long.MAX_VALUE, LIVE);
+		optional(APP, "engine_spill_dir", Type.STRING, System.getProperty("java.io.tmpdir"), 0, 0, RESTART);
+		optional(APP, "shuffle_chunk_size", Type.INT, "1048576", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "shuffle_window", Type.INT, "4", 1, 1024, RESTART);
+		optional(APP, "shuffle_retries", Type.INT, "3", 0, 1024, RESTART);
+		optional(APP, "result_cache_bytes", Type.LONG, "1073741824", 0, Long.MAX_VALUE, RESTART);
+		optional(APP, "result_cache_ttl", Type.LONG, "86400000", 0, Long.MAX_VALUE, RESTART);
+		optional(APP, "result_cache_publish", Type.BOOLEAN, "false", 0, 0, RESTART);
+		optional(APP, "result_cache_dir", Type.STRING, null, 0, 0, RESTART);
+		optional(APP, "speculation_percentile", Type.INT, "90", 1, 100, RESTART);
+		optional(APP, "speculation_min_samples", Type.INT, "5", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "speculation_stall_timeout", Type.INT, "300000", 0, Integer.MAX_VALUE, RESTART);
+		optional(APP, "speculation_poll_interval", Type.INT, "2000", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "speculation_history", Type.INT, "100", 1, Integer.MAX_VALUE, RESTART);
+		optional(APP, "batch_resolve_threads", Type.INT, "8", 1, 1024, LIVE);
+		optional(APP, "metrics_port", Type.INT, "0", 0, 65535, RESTART);
+		optional(APP, "metrics_log_interval", Type.INT, "0", 0, Integer.MAX_VALUE, RESTART);
+		optional(APP, "join_retries", Type.INT, "5", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "join_backoff", Type.INT, "1000", 1, Integer.MAX_VALUE, LIVE);
+		optional(APP, "join_backoff_max", Type.INT, "30000", 1, Integer.MAX_VALUE, LIVE);
+		optional(APP, "task_journal", Type.BOOLEAN, "true", 0, 0, RESTART);
+		optional(APP, "routing_cache_size", Type.INT, "1024", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "heartbeat_interval", Type.INT, "1000", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "heartbeat_batch", Type.INT, "5", 1, 1024, LIVE);
+		optional(APP, "heartbeat_timeout", Type.INT, "30000", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "admission_rate", Type.INT, "50", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "admission_burst", Type.INT, "200", 1, Integer.MAX_VALUE, LIVE);
+		optional(APP, "admission_queue_limit", Type.INT, "10000", 0, Integer.MAX_VALUE, LIVE);
+		optional(APP, "admission_weights", Type.STRING, null, 0, 0, LIVE);
+		
+		// open chord reads these once, when the ring node is created
+		String chord = "de.uniba.wiai.lspi.chord.";
+		String impl = chord + "service.impl.";
+		optional(CHORD, "log4j.properties.file", Type.STRING, null, 0, 0, RESTART);
+		optional(CHORD, chord + "data.ID.number.of.displayed.bytes", Type.INT, "4", 1, 20, RESTART);
+		optional(CHORD, chord + "data.ID.displayed.representation", Type.INT, "2", 0, 2, RESTART);
+		optional(CHORD, impl + "Entries.ClassName", Type.STRING, null, 0, 0, RESTART);
+		optional(CHORD, impl + "SerializedDiskEntries.Directory", Type.STRING, null, 0, 0, RESTART);
+		optional(CHORD, impl + "LogEntries.Directory", Type.STRING, null, 0, 0, RESTART);
+		optional(CHORD, impl + "LogEntries.SnapshotRecords", Type.INT, "65536", 1, Integer.MAX_VALUE, RESTART);
+		optional(CHORD, impl + "LogEntries.CacheSize", Type.INT, "4096", 0, Integer.MAX_VALUE, RESTART);
+		required(CHORD, impl + "ChordImpl.successors", Type.INT, 1, 160);
+		required(CHORD, impl + "ChordImpl.AsyncThread.no", Type.INT, 1, 1024);
+		for (String task : new String[] { "StabilizeTask", "FixFingerTask", "CheckPredecessorTask" }) {
+			required(CHORD, impl + "ChordImpl." + task + ".start", Type.INT, 0, Integer.MAX_VALUE);
+			required(CHORD, impl + "ChordImpl." + task + ".interval", Type.INT, 1, Integer.MAX_VALUE);
+		}
+		optional(CHORD, chord + "com.socket.InvocationThread.corepoolsize", Type.INT, "10", 1, 65536, RESTART);
+		optional(CHORD, chord + "com.socket.InvocationThread.maxpoolsize", Type.INT, "50", 1, 65536, RESTART);
+		optional(CHORD, chord + "com.socket.InvocationThread.keepalivetime", Type.INT, "20", 0, Integer.MAX_VALUE, RESTART);
+	}
+	
+	private File file;
+	private Map<String, Setting> settings;
+	private Properties properties;
+	
+	private Configuration(File file, Map<String, Setting> settings, Properties properties) {
+		this.file = file;
+		this.settings = settings;
+		this.properties = properties;
+	}
+	
+	public static Configuration load(File file, Map<String, Setting> settings) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return new Configuration(file.getAbsoluteFile().toPath().normalize().toFile(), settings, properties);
+	}
+	
+	public File getFile() {
+		return this.file;
+	}
+	
+	// one message per missing or malformed key, empty if the file can be used
+	public List<String> validate() {
+		List<String> errors = new ArrayList<String>();
+		for (Setting setting : settings.values()) {
+			String value = getValue(setting.name);
+			if (value == null) {
+				if (setting.required) {
+					errors.add("[" + setting.name + "] is required");
+				}
+				continue;
+			}
+			String error = setting.check(value);
+			if (error != null) {
+				errors.add("[" + setting.name + "=" + value + "] " + error);
+			}
+		}
+		// a pooled connection must be closed as idle before the listener times it out
+		if (isValid("keep_alive") && isValid("read_timeout") && getInt("keep_alive") >= getInt("read_timeout")) {
+			errors.add("[keep_alive=" + getValue("keep_alive") + "] must be less than [read_timeout=" 
+					+ getValue("read_timeout") + "]");
+		}
+		return errors;
+	}
+	
+	private boolean isValid(String key) {
+		Setting setting = settings.get(key);
+		String value = getValue(key);
+		return setting != null && value != null && setting.check(value) == null;
+	}
+	
+	// keys that are not declared, most likely misspelt
+	public List<String> getUnknownKeys() {
+		List<String> unknown = new ArrayList<String>();
+		for (String key : properties.stringPropertyNames()) {
+			if (!settings.containsKey(key)) {
+				unknown.add(key);
+			}
+		}
+		Collections.sort(unknown);
+		return unknown;
+	}
+	
+	// the declared keys whose value differs from the previous configuration
+	public List<String> getChangedKeys(Configuration previous) {
+		List<String> changed = new ArrayList<String>();
+		for (String key : settings.keySet()) {
+			String value = getValue(key);
+			String old = previous == null ? null : previous.getValue(key);
+			if (value == null ? old != null : !value.equals(old)) {
+				changed.add(key);
+			}
+		}
+		return changed;
+	}
+	
+	public boolean isLive(String key) {
+		Setting setting = settings.get(key);
+		return setting != null && setting.live;
+	}
+	
+	public String getString(String key) {
+		return getValue(key);
+	}
+	
+	public int getInt(String key) {
+		return Integer.parseInt(getValue(key));
+	}
+	
+	public long getLong(String key) {
+		return Long.parseLong(getValue(key));
+	}
+	
+	public boolean getBoolean(String key) {
+		return Boolean.parseBoolean(getValue(key));
+	}
+	
+	private String getValue(String key) {
+		String value = properties.getProperty(key);
+		if (value != null) {
+			value = value.trim();
+		}
+		if (value == null || value.isEmpty()) {
+			Setting setting = settings.get(key);
+			return setting == null ? null : setting.defaultValue;
+		}
+		return value;
+	}
+	
+	private static Setting required(Map<String, Setting> settings, String name, Type type, long min, long max) {
+		Setting setting = new Setting(name, type, null, true, min, max, RESTART);
+		settings.put(name, setting);
+		return setting;
+	}
+	
+	private static Setting optional(Map<String, Setting> settings, String name, Type type, String defaultValue,
+			long min, long max, boolean live) {
+		Setting setting = new Setting(name, type, defaultValue, false, min, max, live);
+		settings.put(name, setting);
+		return setting;
+	}
+	
+	public static class Setting {
+		
+		private String name;
+		private Type type;
+		private String defaultValue;
+		private boolean required;
+		private long min;
+		private long max;
+		private boolean live;
+		private String[] choices;
+		
+		Setting(String name, Type type, String defaultValue, boolean required, long min, long max, boolean live) {
+			this.name = name;
+			this.type = type;
+			this.defaultValue = defaultValue;
+			this.required = required;
+			this.min = min;
+			this.max = max;
+			this.live = live;
+		}
+		
+		public String getName() {
+			return this.name;
+		}
+		
+		public boolean isLive() {
+			return this.live;
+		}
+		
+		// null if the value is usable, otherwise what is wrong with it
+		String check(String value) {
+			switch (type) {
+			case INT:
+			case LONG:
+				long number;
+				try {
+					number = type == Type.INT ? Integer.parseInt(value) : Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					return "is not " + (type == Type.INT ? "an integer" : "a number");
+				}
+				if (number < min || number > max) {
+					return "must be between " + min + " and " + max;
+				}
+				return null;
+			case BOOLEAN:
+				if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+					return "must be true or false";
+				}
+				return null;
+			default:
+				if (choices == null) {
+					return null;
+				}
+				for (String choice : choices) {
+					if (choice.equalsIgnoreCase(value)) {
+						return null;
+					}
+				}
+				StringBuilder expected = new StringBuilder();
+				for (String choice : choices) {
+					expected.append(expected.length() == 0 ? "" : ", ").append(choice);
+				}
+				return "must be one of " + expected;
+			}
+		}
+	}
+}
\ No newline at end of file
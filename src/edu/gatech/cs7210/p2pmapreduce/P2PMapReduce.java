@@ -1,8 +1,13 @@
 package edu.gatech.cs7210.p2pmapreduce;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.util.Properties;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -10,12 +15,17 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 
 import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.PropertiesLoader;
 
 import org.apache.commons.cli.ParseException;
 import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
 import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
 import edu.gatech.cs7210.p2pmapreduce.comm.requests.JoinRequest;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsEndpoint;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+import edu.gatech.cs7210.p2pmapreduce.node.Backoff;
 import edu.gatech.cs7210.p2pmapreduce.node.ChordNode;
+import edu.gatech.cs7210.p2pmapreduce.node.HeartbeatAgent;
 import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
 import edu.gatech.cs7210.p2pmapreduce.node.MasterNode.MasterType;
 import edu.gatech.cs7210.p2pmapreduce.node.SlaveNode;
@@ -25,49 +35,293 @@ public class P2PMapReduce {
 	
 	private static final String PROPERTIES_FILE = "app.properties";
 	
+	private StartupTimer startup = new StartupTimer();
+	
 	public void startHadoopMaster(MasterType type) {
-		ApplicationContext.getInstance().setNode(new MasterNode(type));
-		runAsMaster(ApplicationContext.getInstance().getUrl());
+		final ApplicationContext appContext = ApplicationContext.getInstance();
+		URL url = appContext.getUrl();
+		
+		// joining the ring does not depend on anything below, so it runs while this master comes up
+		CompletableFuture<Void> joined = CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				long start = startup.start();
+				appContext.getChordNode().join(appContext.getBootstrapUrls(), true);
+				startup.finish("chord-join", start);
+			}
+		});
+		
+		long start = startup.start();
+		final MasterNode master = new MasterNode(type);
+		appContext.setNode(master);
+		startup.finish("master-init", start);
+		
+		start = startup.start();
+		final CommandListener listener = new CommandListener();
+		listener.bind(url);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				listener.shutdown();
+			}
+		});
+		startup.finish("listener-bind", start);
+		
+		CompletableFuture<Void> daemons = CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				long start = startup.start();
+				if (!master.restartDaemons()) {
+					System.err.println("Failed to restart the Hadoop daemons of known slaves");
+				}
+				startup.finish("hadoop-daemons", start);
+			}
+		});
+		
+		CompletableFuture<Void> announced = joined.thenRun(new Runnable() {
+			public void run() {
+				if (!appContext.getChordNode().isJoined()) {
+					System.err.println("Could not join Chord topology, shutting down");
+					System.exit(-1);
+				}
+				long start = startup.start();
+				appContext.getChordNode().startLoadReporting(master);
+				master.recoverJobs();
+				if (appContext.getDataManifest() != null) {
+					appContext.getChordNode().publishDataManifest(appContext.getDataManifest());
+				}
+				if (master.getResultCache() != null) {
+					master.getResultCache().publishAll();
+				}
+				startup.finish("announce", start);
+			}
+		});
+		CompletableFuture.allOf(announced, daemons).thenRun(new Runnable() {
+			public void run() {
+				System.out.println(startup.report());
+			}
+		});
+		listener.serve(url);
 	}
 	
-	private void runAsMaster(URL url) {
-		ApplicationContext.getInstance().getChordNode().run(
-				ApplicationContext.getInstance().getBootstrapUrl(), true);
-		CommandListener listener = new CommandListener();
-		listener.listen(url);
+	public void startHadoopSlave(SlaveType type) {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setNode(new SlaveNode(type));
+		
+		long start = startup.start();
+		URL url = appContext.getChordNode().join(appContext.getBootstrapUrls(), false);
+		startup.finish("chord-join", start);
+		if (!appContext.getChordNode().isJoined() || url == null) {
+			System.err.println("Could not join Chord topology");
+			System.exit(-1);
+		}
+		
+		start = startup.start();
+		if (!joinCluster(url)) {
+			System.err.println("Could not join the cluster of [" + url + "]");
+			System.exit(-1);
+		}
+		startup.finish("cluster-join", start);
+		System.out.println(startup.report());
+		
+		// stays up to tell the master how the host is doing, or exits once joined without the agent
+		if (appContext.getHeartbeatInterval() > 0) {
+			new HeartbeatAgent(url).run();
+		}
 	}
 	
-	private void runAsSlave() {
-		URL url = ApplicationContext.getInstance().getChordNode().run(
-				ApplicationContext.getInstance().getBootstrapUrl(), false);
+	// a master that is restarting or busy starting other slaves turns the join away, so it is retried
+	private boolean joinCluster(URL url) {
+		ApplicationContext appContext = ApplicationContext.getInstance();
 		CommandDispatcher dispatcher = new CommandDispatcher();
-		dispatcher.dispatch(new JoinRequest(url));
-	}
-	
-	public void startHadoopSlave(SlaveType type) {
-		ApplicationContext.getInstance().setNode(new SlaveNode(type));
-		runAsSlave();
+		Backoff backoff = new Backoff(appContext.getJoinBackoff(), appContext.getJoinBackoffMax());
+		for (int attempt = 0; attempt <= appContext.getJoinRetries(); attempt++) {
+			if (attempt > 0 && !backoff.pause()) {
+				return false;
+			}
+			if (dispatcher.dispatch(new JoinRequest(url)).isSuccess()) {
+				return true;
+			}
+			System.err.println("Join request to [" + url + "] failed, attempt " + (attempt + 1));
+		}
+		return false;
 	}
 
+	private static void startMetrics() {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.registerMBean();
+		if (appContext.getMetricsPort() > 0) {
+			try {
+				new MetricsEndpoint(metrics).start(appContext.getMetricsPort());
+			} catch (IOException e) {
+				System.err.println("Could not serve metrics on port: " + appContext.getMetricsPort());
+				e.printStackTrace();
+			}
+		}
+		if (appContext.getMetricsLogInterval() > 0) {
+			metrics.startLogging(appContext.getMetricsLogInterval());
+		}
+	}
+	
 	private static void configure(String propertiesFile) {
+		Configuration config = loadConfiguration(new File(propertiesFile), Configuration.APP);
+		if (config == null) {
+			System.exit(-1);
+		}
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setMapReducePort(config.getInt("map_reduce_port"));
+		appContext.setChordPort(config.getInt("chord_port"));
+		appContext.setChordBootstrapPort(config.getInt("chord_bootstrap_port"));
+		appContext.setBootstrapUrl(config.getString("bootstrap_url"));
+		appContext.setFirstNode(config.getBoolean("first_node"));
+		appContext.setNodeType(config.getString("node_type"));
+		appContext.setConfigDir(config.getString("config_dir"));
+		appContext.setBinDir(config.getString("bin_dir"));
+		appContext.setSlaveConfigFile(config.getString("slave_config_file"));
+		appContext.setListenerQueueSize(config.getInt("listener_queue_size"));
+		appContext.setWireFormat(config.getString("wire_format"));
+		appContext.setOutputTailLines(config.getInt("output_tail_lines"));
+		appContext.setOutputTailBytes(config.getInt("output_tail_bytes"));
+		appContext.setJobHistory(config.getInt("job_history"));
+		appContext.setLoadPublishInterval(config.getInt("load_publish_interval"));
+		appContext.setPlacementCandidates(config.getInt("placement_candidates"));
+		appContext.setDataManifest(config.getString("data_manifest"));
+		appContext.setEngineSpillDir(config.getString("engine_spill_dir"));
+		appContext.setShuffleChunkSize(config.getInt("shuffle_chunk_size"));
+		appContext.setShuffleWindow(config.getInt("shuffle_window"));
+		appContext.setShuffleRetries(config.getInt("shuffle_retries"));
+		appContext.setResultCacheBytes(config.getLong("result_cache_bytes"));
+		appContext.setResultCacheTtl(config.getLong("result_cache_ttl"));
+		appContext.setResultCachePublish(config.getBoolean("result_cache_publish"));
+		appContext.setResultCacheDir(config.getString("result_cache_dir"));
+		appContext.setSpeculationPercentile(config.getInt("speculation_percentile"));
+		appContext.setSpeculationMinSamples(config.getInt("speculation_min_samples"));
+		appContext.setSpeculationStallTimeout(config.getInt("speculation_stall_timeout"));
+		appContext.setSpeculationPollInterval(config.getInt("speculation_poll_interval"));
+		appContext.setSpeculationHistory(config.getInt("speculation_history"));
+		appContext.setMetricsPort(config.getInt("metrics_port"));
+		appContext.setMetricsLogInterval(config.getInt("metrics_log_interval"));
+		appContext.setTaskJournal(config.getBoolean("task_journal"));
+		configureLive(config);
+		appContext.setConfiguration(config);
+		
+		File chordFile = getChordPropertiesFile();
+		if (chordFile != null && loadConfiguration(chordFile, Configuration.CHORD) == null) {
+			System.exit(-1);
+		}
+	}
+	
+	// the settings that are read again whenever the properties file changes
+	private static void configureLive(Configuration config) {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		appContext.setListenerConnections(config.getInt("listener_connections"));
+		appContext.setListenerThreads(config.getInt("listener_threads"));
+		appContext.setReadTimeout(config.getInt("read_timeout"));
+		appContext.setRequestTimeout(config.getInt("request_timeout"));
+		appContext.setKeepAlive(config.getInt("keep_alive"));
+		appContext.setJoinBatchWindow(config.getInt("join_batch_window"));
+		appContext.setMaxProcesses(config.getInt("max_processes"));
+		appContext.setCommandTimeout(config.getInt("command_timeout"));
+		appContext.setSchedulerConcurrency(config.getInt("scheduler_concurrency"));
+		appContext.setTaskTimeout(config.getInt("task_timeout"));
+		appContext.setEngineParallelism(config.getInt("engine_parallelism"));
+		appContext.setEngineMemory(config.getLong("engine_memory"));
+		appContext.setEngineSplitSize(config.getLong("engine_split_size"));
+		appContext.setBatchResolveThreads(config.getInt("batch_resolve_threads"));
+		appContext.setJoinRetries(config.getInt("join_retries"));
+		appContext.setJoinBackoff(config.getInt("join_backoff"));
+		appContext.setJoinBackoffMax(config.getInt("join_backoff_max"));
+		appContext.setRoutingCacheSize(config.getInt("routing_cache_size"));
+		appContext.setHeartbeatInterval(config.getInt("heartbeat_interval"));
+		appContext.setHeartbeatBatch(config.getInt("heartbeat_batch"));
+		appContext.setHeartbeatTimeout(config.getInt("heartbeat_timeout"));
+		appContext.setAdmissionRate(config.getInt("admission_rate"));
+		appContext.setAdmissionBurst(config.getInt("admission_burst"));
+		appContext.setAdmissionQueueLimit(config.getInt("admission_queue_limit"));
+		appContext.setAdmissionWeights(config.getString("admission_weights"));
+	}
+	
+	// null, with every problem printed, if the file cannot be read or does not validate
+	private static Configuration loadConfiguration(File file, Map<String, Configuration.Setting> settings) {
+		Configuration config;
 		try {
-			Properties config = new Properties();
-			File configFile = new File(propertiesFile);
-			config.load(new FileInputStream(configFile));
-			
-			ApplicationContext appContext = ApplicationContext.getInstance();
-			appContext.setMapReducePort(Integer.parseInt(config.getProperty("map_reduce_port")));
-			appContext.setChordPort(Integer.parseInt(config.getProperty("chord_port")));
-			appContext.setBootstrapUrl(config.getProperty("bootstrap_url"));
-			appContext.setFirstNode(config.getProperty("first_node"));
-			appContext.setNodeType(config.getProperty("node_type"));
-			appContext.setConfigDir(config.getProperty("config_dir"));
-			appContext.setBinDir(config.getProperty("bin_dir"));
-			appContext.setSlaveConfigFile(config.getProperty("slave_config_file"));
-			
-			
-		} catch (Exception e) {
-			System.err.println("Failed to load properties file [" + propertiesFile + "]");
+			config = Configuration.load(file, settings);
+		} catch (IOException e) {
+			System.err.println("Failed to load properties file [" + file + "]");
+			e.printStackTrace();
+			return null;
+		}
+		for (String key : config.getUnknownKeys()) {
+			System.err.println("Unknown key [" + key + "] in [" + file + "]");
+		}
+		List<String> errors = config.validate();
+		for (String error : errors) {
+			System.err.println("Invalid properties file [" + file + "]: " + error);
+		}
+		return errors.isEmpty() ? config : null;
+	}
+	
+	// open chord finds its properties through a system property or on the classpath
+	private static File getChordPropertiesFile() {
+		String path = System.getProperty(PropertiesLoader.PROPERTY_WHERE_TO_FIND_PROPERTY_FILE);
+		if (path != null) {
+			return new File(path);
+		}
+		java.net.URL resource = ClassLoader.getSystemResource(PropertiesLoader.STANDARD_PROPERTY_FILE);
+		if (resource == null || !resource.getProtocol().equals("file")) {
+			return null;
+		}
+		try {
+			return new File(resource.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+	
+	// applies the live settings of a changed properties file; the rest wait for a restart
+	private static void reload(File file) {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		Configuration previous = appContext.getConfiguration();
+		if (!file.equals(previous.getFile())) {
+			if (loadConfiguration(file, Configuration.CHORD) != null) {
+				System.out.println("Chord properties [" + file + "] changed, restart the node to apply them");
+			}
+			return;
+		}
+		Configuration config = loadConfiguration(file, Configuration.APP);
+		if (config == null) {
+			System.err.println("Keeping the running configuration");
+			return;
+		}
+		List<String> applied = new ArrayList<String>();
+		for (String key : config.getChangedKeys(previous)) {
+			if (config.isLive(key)) {
+				applied.add(key + "=" + config.getString(key));
+			} else {
+				System.out.println("Setting [" + key + "] changed, restart the node to apply it");
+			}
+		}
+		appContext.setConfiguration(config);
+		if (!applied.isEmpty()) {
+			configureLive(config);
+			appContext.reconfigured();
+			System.out.println("Reconfigured " + applied);
+		}
+	}
+	
+	private static void watchConfiguration() {
+		ConfigWatcher watcher = new ConfigWatcher(new Consumer<File>() {
+			public void accept(File file) {
+				reload(file);
+			}
+		});
+		try {
+			watcher.watch(ApplicationContext.getInstance().getConfiguration().getFile());
+			File chordFile = getChordPropertiesFile();
+			if (chordFile != null) {
+				watcher.watch(chordFile);
+			}
+			watcher.start();
+		} catch (IOException e) {
+			System.err.println("Could not watch the properties files, changes need a restart");
 			e.printStackTrace();
 		}
 	}
@@ -88,14 +342,19 @@ public class P2PMapReduce {
 		CommandLineParser parser = new PosixParser();
 		try {
 			CommandLine cmd = parser.parse(options, args);
-			
-			ChordNode node = new ChordNode();
+			StartupTimer startup = p2pMapReduce.startup;
 			
 			String propertiesFile = cmd.getOptionValue("propertiesFile");
 			if (propertiesFile == null) {
 				propertiesFile = PROPERTIES_FILE;
 			}
+			long start = startup.start();
 			configure(propertiesFile);
+			watchConfiguration();
+			startup.finish("configure", start);
+			start = startup.start();
+			startMetrics();
+			startup.finish("metrics", start);
 			ApplicationContext appContext = ApplicationContext.getInstance();
 			
 			if (!appContext.isFirstNode() && appContext.getBootstrapUrl() == null) {
@@ -103,15 +362,28 @@ public class P2PMapReduce {
 				System.exit(-1);
 			}
 			
+			start = startup.start();
 			if (appContext.getUrl() == null) {
 				System.err.println("Must specifiy port");
 				System.exit(-1);
 			}
+			startup.finish("resolve-url", start);
+			
+			// created once configured, the node reads its placement settings when it is built
+			start = startup.start();
+			// open chord reads its settings from system properties, which must be loaded before the ring is created
+			PropertiesLoader.loadPropertyFile();
+			ChordNode node = new ChordNode();
+			appContext.setChordNode(node);
+			startup.finish("chord-init", start);
 			
 			if (appContext.isFirstNode()) {
 				System.out.println("Starting ChordNode as first node in chord topology");
 				appContext.setFirstNode(true);
+				start = startup.start();
 				node.runAsFirst();
+				startup.finish("chord-create", start);
+				System.out.println(startup.report());
 			} else if (appContext.isMaster()) {
 				System.out.println("Joining Chord topology as Master");
 				p2pMapReduce.startHadoopMaster(appContext.getMasterType());
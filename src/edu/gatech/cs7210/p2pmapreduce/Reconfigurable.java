@@ -0,0 +1,20 @@
+package edu.gatech.cs7210.p2pmapreduce;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+public interface Reconfigurable {
+
+	// called on the config watcher thread after live settings in the context have changed
+	public void reconfigure(ApplicationContext appContext);
+	
+	// grows the maximum before the core and shrinks it after, so the core never exceeds the maximum
+	public static void resize(ThreadPoolExecutor pool, int size) {
+		if (size > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(size);
+			pool.setCorePoolSize(size);
+		} else {
+			pool.setCorePoolSize(size);
+			pool.setMaximumPoolSize(size);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+package edu.gatech.cs7210.p2pmapreduce;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+/*
+ * Times the phases of bringing a node up. Phases may run side by side, so the
+ * total is the wall time since the timer was created rather than the sum of the
+ * phases. Each phase is also kept as a startup_phase_ms gauge.
+ */
+public class StartupTimer {
+	
+	private long created = System.currentTimeMillis();
+	private Map<String, Long> phases = new LinkedHashMap<String, Long>();
+	
+	public long start() {
+		return System.currentTimeMillis();
+	}
+	
+	public synchronized void finish(String phase, long start) {
+		final long elapsed = System.currentTimeMillis() - start;
+		phases.put(phase, elapsed);
+		MetricsRegistry.getInstance().gauge(MetricsRegistry.label("startup_phase_ms", "phase", phase), new Gauge() {
+			public long getValue() {
+				return elapsed;
+			}
+		});
+	}
+	
+	public synchronized String report() {
+		StringBuilder report = new StringBuilder("Started in " + (System.currentTimeMillis() - created) + "ms");
+		String separator = " (";
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			report.append(separator).append(phase.getKey()).append(" ").append(phase.getValue()).append("ms");
+			separator = ", ";
+		}
+		return report.append(phases.isEmpty() ? "" : ")").toString();
+	}
+}
\ No newline at end of file
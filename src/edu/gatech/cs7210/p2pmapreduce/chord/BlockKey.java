@@ -0,0 +1,13 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+public class BlockKey extends ChordKey {
+
+	public BlockKey(String blockId) {
+		super(blockId);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "block";
+	}
+}
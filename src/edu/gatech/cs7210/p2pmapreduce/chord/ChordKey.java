@@ -0,0 +1,54 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.nio.charset.Charset;
+
+import de.uniba.wiai.lspi.chord.service.Key;
+
+/*
+ * Base of the keys this application stores in the ring. A key's bytes are the
+ * UTF-8 encoding of its namespace and canonical name, e.g. "url:10.0.0.1:4000",
+ * so every node maps the same name to the same ring position regardless of JVM,
+ * and keys of different kinds with the same name do not collide.
+ */
+public abstract class ChordKey implements Key {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private String name;
+	private byte[] bytes;
+	
+	protected ChordKey(String name) {
+		this.name = name;
+	}
+	
+	protected abstract String getNamespace();
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	// cached on first use; callers must not modify the returned array
+	public byte[] getBytes() {
+		byte[] b = this.bytes;
+		if (b == null) {
+			b = (getNamespace() + ":" + name).getBytes(UTF8);
+			this.bytes = b;
+		}
+		return b;
+	}
+	
+	public int hashCode() {
+		return getNamespace().hashCode() * 31 + name.hashCode();
+	}
+	
+	public boolean equals(Object o) {
+		if (o == null || o.getClass() != getClass()) {
+			return false;
+		}
+		return ((ChordKey)o).name.equals(this.name);
+	}
+	
+	public String toString() {
+		return getNamespace() + ":" + name;
+	}
+}
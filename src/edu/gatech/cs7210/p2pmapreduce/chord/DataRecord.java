@@ -0,0 +1,48 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.io.Serializable;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+public class DataRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	private String blockId;
+	private URL masterUrl;
+	private long bytes;
+	
+	public DataRecord(String blockId, URL masterUrl, long bytes) {
+		this.blockId = blockId;
+		this.masterUrl = masterUrl;
+		this.bytes = bytes;
+	}
+	
+	public String getBlockId() {
+		return this.blockId;
+	}
+	
+	public URL getMasterUrl() {
+		return this.masterUrl;
+	}
+	
+	public long getBytes() {
+		return this.bytes;
+	}
+	
+	public int hashCode() {
+		return blockId.hashCode() * 31 + masterUrl.hashCode();
+	}
+	
+	public boolean equals(Object o) {
+		if (!(o instanceof DataRecord)) {
+			return false;
+		}
+		DataRecord other = (DataRecord)o;
+		return other.blockId.equals(blockId) && other.masterUrl.equals(masterUrl) && other.bytes == bytes;
+	}
+	
+	public String toString() {
+		return blockId + "@" + masterUrl + " (" + bytes + " bytes)";
+	}
+}
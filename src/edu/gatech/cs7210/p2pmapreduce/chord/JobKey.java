@@ -0,0 +1,13 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+public class JobKey extends ChordKey {
+
+	public JobKey(String jobId) {
+		super(jobId);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "job";
+	}
+}
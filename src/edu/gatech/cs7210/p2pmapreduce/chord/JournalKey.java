@@ -0,0 +1,16 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+// a master keeps a TaskRecord under this key for every job it has accepted and not yet forgotten
+public class JournalKey extends ChordKey {
+
+	public JournalKey(URL masterUrl) {
+		super(masterUrl.getHost().toLowerCase() + ":" + masterUrl.getPort());
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "journal";
+	}
+}
\ No newline at end of file
@@ -0,0 +1,30 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.math.BigInteger;
+
+// a master keeps its load record under the key of the segment of the ring its node falls in, so the records
+// of all masters are spread over SEGMENTS nodes and a reader reads only the segments near the position it wants
+public class LoadKey extends ChordKey {
+
+	// a power of two, the same on every node of the ring
+	public static final int SEGMENTS = 16;
+	private static final int SEGMENT_BITS = 160 - Integer.numberOfTrailingZeros(SEGMENTS);
+	
+	public LoadKey(int segment) {
+		super(Integer.toString(Math.floorMod(segment, SEGMENTS)));
+	}
+	
+	public static int segment(BigInteger position) {
+		return position.shiftRight(SEGMENT_BITS).intValue();
+	}
+	
+	// the first ring position of the segment, segments past the last wrap round to the first
+	public static BigInteger start(int segment) {
+		return BigInteger.valueOf(Math.floorMod(segment, SEGMENTS)).shiftLeft(SEGMENT_BITS);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "load";
+	}
+}
@@ -0,0 +1,66 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.io.Serializable;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+public class LoadRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	private URL masterUrl;
+	private int queuedJobs;
+	private int runningJobs;
+	private int slaves;
+	private long timestamp;
+	
+	public LoadRecord(URL masterUrl, int queuedJobs, int runningJobs, int slaves, long timestamp) {
+		this.masterUrl = masterUrl;
+		this.queuedJobs = queuedJobs;
+		this.runningJobs = runningJobs;
+		this.slaves = slaves;
+		this.timestamp = timestamp;
+	}
+	
+	public URL getMasterUrl() {
+		return this.masterUrl;
+	}
+	
+	public int getQueuedJobs() {
+		return this.queuedJobs;
+	}
+	
+	public int getRunningJobs() {
+		return this.runningJobs;
+	}
+	
+	public int getSlaves() {
+		return this.slaves;
+	}
+	
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+	
+	// outstanding jobs per worker, so a large cluster can take a longer queue
+	public double getLoad() {
+		return (double)(queuedJobs + runningJobs) / (slaves + 1);
+	}
+	
+	public int hashCode() {
+		return masterUrl.hashCode() ^ (int)timestamp;
+	}
+	
+	public boolean equals(Object o) {
+		if (!(o instanceof LoadRecord)) {
+			return false;
+		}
+		LoadRecord other = (LoadRecord)o;
+		return other.masterUrl.equals(masterUrl) && other.timestamp == timestamp 
+				&& other.queuedJobs == queuedJobs && other.runningJobs == runningJobs && other.slaves == slaves;
+	}
+	
+	public String toString() {
+		return masterUrl + " queued=" + queuedJobs + " running=" + runningJobs + " slaves=" + slaves;
+	}
+}
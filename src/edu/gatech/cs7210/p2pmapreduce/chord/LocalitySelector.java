@@ -0,0 +1,37 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+/*
+ * Picks the master whose cluster already stores the most bytes of a task's
+ * input, given the data records found in the ring for each input block.
+ */
+public class LocalitySelector {
+
+	public URL select(Map<String, ? extends Collection<?>> locations) {
+		Map<URL, Long> local = new HashMap<URL, Long>();
+		for (Collection<?> records : locations.values()) {
+			for (Object o : records) {
+				if (o instanceof DataRecord) {
+					DataRecord record = (DataRecord)o;
+					Long bytes = local.get(record.getMasterUrl());
+					local.put(record.getMasterUrl(), (bytes == null ? 0 : bytes) + record.getBytes());
+				}
+			}
+		}
+		
+		URL best = null;
+		long bestBytes = -1;
+		for (Map.Entry<URL, Long> entry : local.entrySet()) {
+			if (entry.getValue() > bestBytes) {
+				best = entry.getKey();
+				bestBytes = entry.getValue();
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,170 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.Key;
+
+/*
+ * Picks a master for a task from the load records published in the ring. The
+ * candidates are the masters that follow the task's key most closely on the ring,
+ * and of those two are drawn at random and the less loaded one wins, which keeps
+ * queues short without every client piling onto the same idle master. Masters
+ * are placed where Open Chord places their nodes, so the masters following a key
+ * here are the ones following it on the ring itself.
+ */
+public class MasterSelector {
+	
+	private static final BigInteger RING = BigInteger.ONE.shiftLeft(160);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private int candidates;
+	private long maxAge;
+	private Random random;
+	
+	public MasterSelector(int candidates, long maxAge, Random random) {
+		this.candidates = candidates;
+		this.maxAge = maxAge;
+		this.random = random;
+	}
+	
+	public int getCandidates() {
+		return this.candidates;
+	}
+	
+	public long getMaxAge() {
+		return this.maxAge;
+	}
+	
+	public LoadRecord select(Key key, Collection<?> records, long now) {
+		return select(key, records, now, Collections.<URL, Integer>emptyMap());
+	}
+	
+	// assigned counts the jobs already sent to each master since its record was published
+	public LoadRecord select(Key key, Collection<?> records, long now, Map<URL, Integer> assigned) {
+		final BigInteger position = position(key);
+		List<LoadRecord> fresh = new ArrayList<LoadRecord>();
+		for (Object o : records) {
+			if (o instanceof LoadRecord && now - ((LoadRecord)o).getTimestamp() <= maxAge) {
+				fresh.add((LoadRecord)o);
+			}
+		}
+		if (fresh.isEmpty()) {
+			return null;
+		}
+		
+		final List<BigInteger> distances = new ArrayList<BigInteger>(fresh.size());
+		for (LoadRecord record : fresh) {
+			distances.add(position(record.getMasterUrl()).subtract(position).mod(RING));
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < fresh.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return distances.get(a).compareTo(distances.get(b));
+			}
+		});
+		
+		int k = Math.min(candidates, order.size());
+		if (k == 1) {
+			return fresh.get(order.get(0));
+		}
+		int first = random.nextInt(k);
+		int second = random.nextInt(k - 1);
+		if (second >= first) {
+			second++;
+		}
+		LoadRecord a = fresh.get(order.get(Math.min(first, second)));
+		LoadRecord b = fresh.get(order.get(Math.max(first, second)));
+		// ties go to the closer of the two
+		return load(b, assigned) < load(a, assigned) ? b : a;
+	}
+	
+	private static double load(LoadRecord record, Map<URL, Integer> assigned) {
+		Integer extra = assigned.get(record.getMasterUrl());
+		if (extra == null) {
+			return record.getLoad();
+		}
+		return (double)(record.getQueuedJobs() + record.getRunningJobs() + extra) / (record.getSlaves() + 1);
+	}
+	
+	// a master whose record is older than maxAge has stopped publishing and is taken to be gone
+	public boolean isFresh(LoadRecord record, long now) {
+		return now - record.getTimestamp() <= maxAge;
+	}
+	
+	// the fresh master that follows the given one on the ring, or null if there is no other
+	public LoadRecord successor(URL master, Collection<?> records, long now) {
+		List<LoadRecord> fresh = new ArrayList<LoadRecord>();
+		for (Object o : records) {
+			if (o instanceof LoadRecord && now - ((LoadRecord)o).getTimestamp() <= maxAge) {
+				fresh.add((LoadRecord)o);
+			}
+		}
+		return successor(master, fresh);
+	}
+	
+	// the master of those given, taken to be live, that follows the given one on the ring, or null if there is no other
+	public LoadRecord successor(URL master, Collection<LoadRecord> live) {
+		BigInteger position = position(master);
+		LoadRecord next = null;
+		BigInteger closest = null;
+		for (LoadRecord record : live) {
+			if (record.getMasterUrl().equals(master)) {
+				continue;
+			}
+			BigInteger distance = position(record.getMasterUrl()).subtract(position).mod(RING);
+			if (closest == null || distance.compareTo(closest) < 0) {
+				closest = distance;
+				next = record;
+			}
+		}
+		return next;
+	}
+	
+	// the fresh masters other than exclude from position from up to position to, going round the ring
+	public int countWithin(BigInteger from, BigInteger to, Collection<?> records, long now, URL exclude) {
+		BigInteger range = to.subtract(from).mod(RING);
+		Set<URL> masters = new HashSet<URL>();
+		for (Object o : records) {
+			if (o instanceof LoadRecord && now - ((LoadRecord)o).getTimestamp() <= maxAge 
+					&& !((LoadRecord)o).getMasterUrl().equals(exclude)
+					&& position(((LoadRecord)o).getMasterUrl()).subtract(from).mod(RING).compareTo(range) < 0) {
+				masters.add(((LoadRecord)o).getMasterUrl());
+			}
+		}
+		return masters.size();
+	}
+	
+	// the hash Open Chord gives a key
+	public static BigInteger position(Key key) {
+		return hash(key.getBytes());
+	}
+	
+	// the ID Open Chord gives the node at url, the hash of the whole URL
+	public static BigInteger position(URL node) {
+		return hash(node.toString().getBytes(UTF8));
+	}
+	
+	private static BigInteger hash(byte[] bytes) {
+		try {
+			return new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(bytes));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 not available", e);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+// the master responsible for this key reduces the partition of a distributed job
+public class PartitionKey extends ChordKey {
+
+	public PartitionKey(String jobId, int partition) {
+		super(jobId + "/" + partition);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "partition";
+	}
+}
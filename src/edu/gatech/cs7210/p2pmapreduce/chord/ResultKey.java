@@ -0,0 +1,14 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+// masters holding a cached task result publish a DataRecord under this key
+public class ResultKey extends ChordKey {
+
+	public ResultKey(String cacheKey) {
+		super(cacheKey);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "result";
+	}
+}
@@ -0,0 +1,174 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import de.uniba.wiai.lspi.chord.service.Key;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+/*
+ * Keeps what the ring answered for the keys a client looks up to place tasks,
+ * the master load records and the locations of inputs, so a client publishing
+ * many tasks does not walk the ring for each of them. Entries are evicted least
+ * recently used first beyond maxEntries and expire after ttl milliseconds, which
+ * is the stabilize interval, the time the ring takes to notice nodes coming and
+ * going. Every entry naming a master is dropped as soon as a request to that
+ * master is refused or fails. Jobs placed from cached load records are counted
+ * against their masters, as resolving a batch does, so placement does not keep
+ * choosing the master that was idle when the records were read.
+ */
+public class RoutingCache {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private int maxEntries;
+	private long ttl;
+	// in access order, so the eldest entry is the least recently used
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	// the nodes in the ring as counted from the latest segment of load records, for the hops a lookup takes
+	private volatile int ringSize = 1;
+	private LongAdder hits = MetricsRegistry.getInstance().counter("routing_cache_hits_total");
+	private LongAdder misses = MetricsRegistry.getInstance().counter("routing_cache_misses_total");
+	private LongAdder hopsSaved = MetricsRegistry.getInstance().counter("routing_cache_hops_saved_total");
+	private LongAdder invalidations = MetricsRegistry.getInstance().counter("routing_cache_invalidations_total");
+	
+	public RoutingCache(int maxEntries, long ttl) {
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+	}
+	
+	// the values the ring last answered for the key, or null if they are not cached or too old
+	public synchronized Set<Serializable> get(Key key, long now) {
+		if (maxEntries == 0) {
+			return null;
+		}
+		String name = name(key);
+		Entry entry = entries.get(name);
+		if (entry != null && now >= entry.expires) {
+			entries.remove(name);
+			entry = null;
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		hopsSaved.add(hops());
+		return entry.values;
+	}
+	
+	public synchronized void put(Key key, Set<Serializable> values, long now) {
+		if (maxEntries == 0) {
+			return;
+		}
+		int nodes = 0;
+		for (Serializable value : values) {
+			if (value instanceof LoadRecord) {
+				nodes += 1 + ((LoadRecord)value).getSlaves();
+			}
+		}
+		if (nodes > 0) {
+			ringSize = nodes;
+		}
+		entries.put(name(key), new Entry(Collections.unmodifiableSet(new HashSet<Serializable>(values)), now + ttl));
+		evict();
+	}
+	
+	// the jobs placed on each master since the key's values were cached
+	public synchronized Map<URL, Integer> getAssigned(Key key) {
+		Entry entry = entries.get(name(key));
+		if (entry == null) {
+			return new HashMap<URL, Integer>();
+		}
+		return new HashMap<URL, Integer>(entry.assigned);
+	}
+	
+	public synchronized void assign(Key key, URL master) {
+		Entry entry = entries.get(name(key));
+		if (entry != null) {
+			Integer count = entry.assigned.get(master);
+			entry.assigned.put(master, count == null ? 1 : count + 1);
+		}
+	}
+	
+	// drops every entry with a record of the master, so the next placement asks the ring again
+	public synchronized void invalidate(URL master) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			for (Serializable value : it.next().values) {
+				if ((value instanceof LoadRecord && ((LoadRecord)value).getMasterUrl().equals(master))
+						|| (value instanceof DataRecord && ((DataRecord)value).getMasterUrl().equals(master))) {
+					it.remove();
+					invalidations.increment();
+					break;
+				}
+			}
+		}
+	}
+	
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		evict();
+	}
+	
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > maxEntries && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+	
+	// a lookup from an arbitrary node takes half of log2 of the ring size hops on average
+	private int hops() {
+		return Math.max(1, (int)Math.round(Math.log(ringSize) / Math.log(2) / 2));
+	}
+	
+	private static String name(Key key) {
+		return new String(key.getBytes(), UTF8);
+	}
+	
+	public long getHits() {
+		return this.hits.sum();
+	}
+	
+	public long getMisses() {
+		return this.misses.sum();
+	}
+	
+	public long getHopsSaved() {
+		return this.hopsSaved.sum();
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public String toString() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return "hits=" + hits + " misses=" + getMisses() + " hitRate="
+				+ (lookups == 0 ? 0 : Math.round(100.0 * hits / lookups)) + "% hopsSaved=" + getHopsSaved();
+	}
+	
+	private static class Entry {
+		
+		private Set<Serializable> values;
+		private long expires;
+		private Map<URL, Integer> assigned = new HashMap<URL, Integer>();
+		
+		public Entry(Set<Serializable> values, long expires) {
+			this.values = values;
+			this.expires = expires;
+		}
+	}
+}
\ No newline at end of file
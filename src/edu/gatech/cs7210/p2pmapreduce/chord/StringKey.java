@@ -0,0 +1,13 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+public class StringKey extends ChordKey {
+
+	public StringKey(String name) {
+		super(name);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "name";
+	}
+}
@@ -0,0 +1,13 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+public class TaskKey extends ChordKey {
+
+	public TaskKey(String taskName) {
+		super(taskName);
+	}
+	
+	@Override
+	protected String getNamespace() {
+		return "task";
+	}
+}
@@ -0,0 +1,83 @@
+package edu.gatech.cs7210.p2pmapreduce.chord;
+
+import java.io.Serializable;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+
+// a job a master has accepted, in its latest state, kept in the ring under the master's JournalKey
+public class TaskRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	private String jobId;
+	private ITask task;
+	private int priority;
+	private State state;
+	private URL masterUrl;
+	private long submitted;
+	private long timestamp;
+	
+	public TaskRecord(String jobId, ITask task, int priority, State state, URL masterUrl, long submitted,
+			long timestamp) {
+		this.jobId = jobId;
+		this.task = task;
+		this.priority = priority;
+		this.state = state;
+		this.masterUrl = masterUrl;
+		this.submitted = submitted;
+		this.timestamp = timestamp;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public ITask getTask() {
+		return this.task;
+	}
+	
+	public int getPriority() {
+		return this.priority;
+	}
+	
+	public State getState() {
+		return this.state;
+	}
+	
+	public URL getMasterUrl() {
+		return this.masterUrl;
+	}
+	
+	public long getSubmitted() {
+		return this.submitted;
+	}
+	
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+	
+	// the same job in a later state, as replacing the record in the ring writes it
+	public TaskRecord withState(State state, long timestamp) {
+		return new TaskRecord(jobId, task, priority, state, masterUrl, submitted, timestamp);
+	}
+	
+	// the task is left out, the job id, master and time of the write tell records apart
+	public int hashCode() {
+		return jobId.hashCode() ^ (int)timestamp;
+	}
+	
+	public boolean equals(Object o) {
+		if (!(o instanceof TaskRecord)) {
+			return false;
+		}
+		TaskRecord other = (TaskRecord)o;
+		return other.jobId.equals(jobId) && other.masterUrl.equals(masterUrl) && other.state == state
+				&& other.timestamp == timestamp;
+	}
+	
+	public String toString() {
+		return "[" + jobId + "] " + task.getTaskName() + " " + state + "@" + masterUrl;
+	}
+}
\ No newline at end of file
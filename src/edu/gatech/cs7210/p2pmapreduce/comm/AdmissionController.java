@@ -0,0 +1,78 @@
+package edu.gatech.cs7210.p2pmapreduce.comm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Limits the rate at which each submitter, by the address it connects from, hands
+ * jobs to a master. Every submitter has a token bucket holding up to burst jobs
+ * and refilled at rate jobs a second, kept as the one time at which the bucket
+ * will be full again, so taking tokens is a compare-and-set on the submitter's own
+ * counter and submitters never wait on each other. A bucket that has filled up
+ * again is no different from a new one, and is dropped by expire. A batch is
+ * charged a token for every job in it. One larger than the burst fits no bucket,
+ * so it is taken once the bucket is full and leaves it in debt, and the submitter
+ * waits out every token it went over by before its next job is taken.
+ */
+public class AdmissionController {
+	
+	private ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+	// nanoseconds to refill a token, 0 when the rate is not limited
+	private volatile long interval;
+	private volatile int burst;
+	
+	public AdmissionController(int rate, int burst) {
+		setRate(rate, burst);
+	}
+	
+	public void setRate(int rate, int burst) {
+		this.interval = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+		this.burst = burst;
+	}
+	
+	// 0 if the jobs are admitted, otherwise the milliseconds until the submitter has tokens for them
+	public long admit(String submitter, int jobs, long now) {
+		long interval = this.interval;
+		if (interval == 0) {
+			return 0;
+		}
+		long tolerance = interval * burst;
+		long cost = interval * jobs;
+		boolean oversized = cost > tolerance;
+		AtomicLong bucket = buckets.get(submitter);
+		if (bucket == null) {
+			AtomicLong created = new AtomicLong(now);
+			bucket = buckets.putIfAbsent(submitter, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		while (true) {
+			long full = bucket.get();
+			long next = (full - now > 0 ? full : now) + cost;
+			long wait = oversized ? full - now : next - now - tolerance;
+			if (wait > 0) {
+				return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+			}
+			if (bucket.compareAndSet(full, next)) {
+				return 0;
+			}
+		}
+	}
+	
+	// jobs admitted into a bucket while it is being dropped go uncounted, a request's worth at most
+	public void expire(long now) {
+		for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+			if (entry.getValue().get() - now <= 0) {
+				buckets.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	public int size() {
+		return buckets.size();
+	}
+}
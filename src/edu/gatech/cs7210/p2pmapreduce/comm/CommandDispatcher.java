@@ -1,36 +1,183 @@
 package edu.gatech.cs7210.p2pmapreduce.comm;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
 import edu.gatech.cs7210.p2pmapreduce.comm.requests.IRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BusyResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ErrorResponse;
 import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
 
 public class CommandDispatcher {
+	
+	// per request type, from the request being sent to its response arriving, in microseconds
+	private static final ClassValue<Histogram> LATENCY = new ClassValue<Histogram>() {
+		protected Histogram computeValue(Class<?> type) {
+			return MetricsRegistry.getInstance().histogram(
+					MetricsRegistry.label("dispatcher_latency_us", "type", type.getSimpleName()));
+		}
+	};
+	private static final ClassValue<LongAdder> FAILURES = new ClassValue<LongAdder>() {
+		protected LongAdder computeValue(Class<?> type) {
+			return MetricsRegistry.getInstance().counter(
+					MetricsRegistry.label("dispatcher_failures_total", "type", type.getSimpleName()));
+		}
+	};
+	private static final LongAdder TIMEOUTS = MetricsRegistry.getInstance().counter("dispatcher_timeouts_total");
 
-	public void dispatch(IRequest request) {
-
+	public IResponse dispatch(IRequest request) {
+		return await(request.getUrl(), dispatchAsync(request));
+	}
+	
+	// waits for the response to a request sent to url with dispatchAsync
+	public IResponse await(URL url, CompletableFuture<IResponse> future) {
 		try {
-			Socket client = new Socket(request.getUrl().getHost(), request.getUrl().getPort());
-			
-			ObjectOutputStream oos = new ObjectOutputStream(client.getOutputStream());
-			ObjectInputStream ois = new ObjectInputStream(client.getInputStream());
-			
-			oos.writeObject(request);
-			
-			IResponse response = (IResponse)ois.readObject();
-			if (response.isSuccess() == false) {
-				System.err.println("Failed to send request to [" + request.getUrl().getPath() + "]");
+			// the listener gives up on the request after request_timeout, allow for the read on top of that
+			ApplicationContext appContext = ApplicationContext.getInstance();
+			long timeout = appContext.getRequestTimeout() + appContext.getReadTimeout();
+			IResponse response = future.get(timeout, TimeUnit.MILLISECONDS);
+			// a request turned away was delivered, the caller decides whether to send it again
+			if (response.isSuccess() == false && !(response instanceof BusyResponse)) {
+				System.err.println("Failed to send request to [" + url + "]");
+			}
+			return response;
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			TIMEOUTS.increment();
+			System.err.println("Timed out waiting for response from [" + url + "]");
+			return new ErrorResponse("Timed out waiting for response");
+		} catch (ExecutionException e) {
+			System.err.println("Failed to send IRequest to [" + url + "]");
+			e.getCause().printStackTrace();
+			return new ErrorResponse(String.valueOf(e.getCause()));
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			return new ErrorResponse("Interrupted waiting for response");
+		}
+	}
+	
+	public CompletableFuture<IResponse> dispatchAsync(IRequest request) {
+		CompletableFuture<IResponse> future = send(request);
+		final Class<?> type = request.getClass();
+		final long start = System.nanoTime();
+		future.whenComplete(new BiConsumer<IResponse, Throwable>() {
+			public void accept(IResponse response, Throwable t) {
+				LATENCY.get(type).record((System.nanoTime() - start) / 1000);
+				if (t != null || !response.isSuccess()) {
+					FAILURES.get(type).increment();
+				}
 			}
-			
+		});
+		return future;
+	}
+	
+	// the responses to a request the listener answers as a stream, e.g. a StreamJobRequest, sent as they are asked for
+	public Flow.Publisher<IResponse> stream(IRequest request) {
+		return new ResponseStream(request, ForkJoinPool.commonPool());
+	}
+	
+	// the same responses read ahead by up to window, ending with an ErrorResponse if the stream fails
+	public Iterator<IResponse> iterate(IRequest request, int window) {
+		StreamIterator iterator = new StreamIterator(request, window);
+		stream(request).subscribe(iterator);
+		return iterator;
+	}
+	
+	private CompletableFuture<IResponse> send(IRequest request) {
+		ConnectionPool pool = ConnectionPool.getInstance();
+		try {
+			return pool.getConnection(request.getUrl()).send(request);
 		} catch (IOException e) {
-			System.err.println("Failed to write IRequest to ObjectOutputStream");
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			System.err.println("Failed to receive IResponse object from CommandListener");
-			e.printStackTrace();
+			// a pooled connection may have been dropped by the listener while idle, retry once on a fresh one
+			try {
+				return pool.getConnection(request.getUrl()).send(request);
+			} catch (IOException retry) {
+				CompletableFuture<IResponse> failed = new CompletableFuture<IResponse>();
+				failed.completeExceptionally(retry);
+				return failed;
+			}
+		}
+	}
+	
+	private static class StreamIterator implements Flow.Subscriber<IResponse>, Iterator<IResponse> {
+		
+		// queued after the last response
+		private static final IResponse END = new ErrorResponse(null);
+		
+		private IRequest request;
+		private int window;
+		private BlockingQueue<IResponse> responses = new LinkedBlockingQueue<IResponse>();
+		private volatile Flow.Subscription subscription;
+		private IResponse next;
+		
+		public StreamIterator(IRequest request, int window) {
+			this.request = request;
+			this.window = window;
+		}
+		
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(window);
+		}
+		
+		public void onNext(IResponse response) {
+			responses.add(response);
+		}
+		
+		public void onError(Throwable t) {
+			FAILURES.get(request.getClass()).increment();
+			System.err.println("Stream from [" + request.getUrl() + "] failed");
+			responses.add(new ErrorResponse(String.valueOf(t)));
+			responses.add(END);
+		}
+		
+		public void onComplete() {
+			responses.add(END);
+		}
+		
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = responses.take();
+				} catch (InterruptedException e) {
+					subscription.cancel();
+					Thread.currentThread().interrupt();
+					responses.clear();
+					next = new ErrorResponse("Interrupted waiting for response");
+					responses.add(END);
+				}
+			}
+			return next != END;
+		}
+		
+		public IResponse next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IResponse response = next;
+			next = null;
+			if (response instanceof StreamEvent && ((StreamEvent)response).getType() != StreamEvent.Type.END) {
+				// one taken, one more may be sent
+				subscription.request(1);
+			}
+			return response;
 		}
 	}
 }
@@ -1,27 +1,149 @@
 package edu.gatech.cs7210.p2pmapreduce.comm;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 import de.uniba.wiai.lspi.chord.data.URL;
 import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.Reconfigurable;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.Handshake;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.MessageCodec;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.BatchTaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.CancelJobRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.FetchResultRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.HeartbeatRequest;
 import edu.gatech.cs7210.p2pmapreduce.comm.requests.IRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JobStatusRequest;
 import edu.gatech.cs7210.p2pmapreduce.comm.requests.JoinRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.MapRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ReduceRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ReleaseShuffleRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ResendRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ShuffleRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.StreamCreditRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.StreamJobRequest;
 import edu.gatech.cs7210.p2pmapreduce.comm.requests.TaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BatchTaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BusyResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ErrorResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.HeartbeatResponse;
 import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.JobStatusResponse;
 import edu.gatech.cs7210.p2pmapreduce.comm.responses.JoinResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ResultResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ShuffleResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
 import edu.gatech.cs7210.p2pmapreduce.comm.responses.TaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
 import edu.gatech.cs7210.p2pmapreduce.node.INode;
+import edu.gatech.cs7210.p2pmapreduce.node.JobScheduler;
 import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
+import edu.gatech.cs7210.p2pmapreduce.node.ResultCache;
+import edu.gatech.cs7210.p2pmapreduce.node.ShuffleService;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
 
-public class CommandListener {
+public class CommandListener implements Reconfigurable {
+	
+	private static final int REJECT_TIMEOUT = 1000;
+	// how often the token buckets of submitters that have gone quiet are dropped
+	private static final long ADMISSION_EXPIRY = 10000;
+	
+	// per request type, from the request being read to its response being sent, in microseconds
+	private static final ClassValue<Histogram> LATENCY = new ClassValue<Histogram>() {
+		protected Histogram computeValue(Class<?> type) {
+			return MetricsRegistry.getInstance().histogram(
+					MetricsRegistry.label("listener_latency_us", "type", type.getSimpleName()));
+		}
+	};
+	private static final ClassValue<LongAdder> ERRORS = new ClassValue<LongAdder>() {
+		protected LongAdder computeValue(Class<?> type) {
+			return MetricsRegistry.getInstance().counter(
+					MetricsRegistry.label("listener_errors_total", "type", type.getSimpleName()));
+		}
+	};
 
 	private ServerSocket server;
+	private ThreadPoolExecutor workers;
+	private ThreadPoolExecutor handlers;
+	private ThreadPoolExecutor streamers;
+	private ScheduledExecutorService timer;
+	private AdmissionController admission;
+	private volatile boolean running = false;
+	private volatile int readTimeout;
+	private volatile int requestTimeout;
+	private AtomicInteger connections = new AtomicInteger(0);
+	private LongAdder rejectedConnections;
+	private LongAdder rejectedRequests;
+	private LongAdder rejectedRate;
+	private LongAdder rejectedOverload;
+	private LongAdder timeouts;
+	private LongAdder streamedBytes;
 	
 	public void listen(URL url) {
+		bind(url);
+		serve(url);
+	}
+	
+	// opens the server socket, connections queue in its backlog until serve is called
+	public void bind(URL url) {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		readTimeout = appContext.getReadTimeout();
+		requestTimeout = appContext.getRequestTimeout();
+		
+		// connections are read on their own bounded pool so a slow request cannot
+		// hold up the accept loop, and requests are handled on a second bounded pool
+		// so one busy connection cannot starve the others; when either queue is
+		// full the client is turned away rather than buffered
+		workers = new ThreadPoolExecutor(appContext.getListenerConnections(), appContext.getListenerConnections(),
+				60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		handlers = new ThreadPoolExecutor(appContext.getListenerThreads(), appContext.getListenerThreads(),
+				60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(appContext.getListenerQueueSize()));
+		// an open stream holds its thread until the job ends, so they get a pool of their own
+		streamers = new ThreadPoolExecutor(appContext.getListenerConnections(), appContext.getListenerConnections(),
+				60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		scheduler.setRemoveOnCancelPolicy(true);
+		timer = scheduler;
+		admission = new AdmissionController(appContext.getAdmissionRate(), appContext.getAdmissionBurst());
+		timer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				admission.expire(System.nanoTime());
+			}
+		}, ADMISSION_EXPIRY, ADMISSION_EXPIRY, TimeUnit.MILLISECONDS);
+		registerMetrics();
+		appContext.addReconfigurable(this);
+		
 		try {
 			server = new ServerSocket(url.getPort());
 			System.out.println("listening on port: " + url.getPort());
@@ -30,43 +152,478 @@ public class CommandListener {
 			System.err.println(e.getMessage());
 			System.exit(-1);
 		}
-		
-		while(true) {
+		running = true;
+	}
+	
+	// the queue of the handler pool keeps the size it was created with
+	public void reconfigure(ApplicationContext appContext) {
+		readTimeout = appContext.getReadTimeout();
+		requestTimeout = appContext.getRequestTimeout();
+		Reconfigurable.resize(workers, appContext.getListenerConnections());
+		Reconfigurable.resize(handlers, appContext.getListenerThreads());
+		Reconfigurable.resize(streamers, appContext.getListenerConnections());
+		admission.setRate(appContext.getAdmissionRate(), appContext.getAdmissionBurst());
+	}
+	
+	public void serve(URL url) {
+		while (running) {
+			Socket client;
 			try {
-				Socket client = server.accept();
-				ObjectInputStream is = new ObjectInputStream(client.getInputStream());
-				ObjectOutputStream os = new ObjectOutputStream(client.getOutputStream());
-				
-				IRequest request = (IRequest)is.readObject();
-				IResponse response = request.handleRequest(this);
-				if (!response.isSuccess()) {
-					System.err.println("Failed to add Slave node");
-				}
-				
+				client = server.accept();
 			} catch (IOException e) {
-				System.out.println("Accept failed: " + url.getPort());
-				System.exit(-1);
-			} catch (ClassNotFoundException e) {
-				System.out.println("Failed to parse request object");
-				System.exit(-1);
+				if (!running) {
+					break;
+				}
+				System.err.println("Accept failed: " + url.getPort());
+				e.printStackTrace();
+				continue;
+			}
+			
+			try {
+				workers.execute(new Connection(client));
+			} catch (RejectedExecutionException e) {
+				System.err.println("Too many connections, rejecting [" + client.getInetAddress() + "]");
+				rejectedConnections.increment();
+				reject(client, "Too many connections");
 			}
 		}
 	}
 	
-	protected void finalize() {
+	private void registerMetrics() {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		rejectedConnections = metrics.counter(MetricsRegistry.label("listener_rejected_total", "reason", "connections"));
+		rejectedRequests = metrics.counter(MetricsRegistry.label("listener_rejected_total", "reason", "busy"));
+		rejectedRate = metrics.counter(MetricsRegistry.label("listener_rejected_total", "reason", "rate"));
+		rejectedOverload = metrics.counter(MetricsRegistry.label("listener_rejected_total", "reason", "overload"));
+		timeouts = metrics.counter("listener_timeouts_total");
+		streamedBytes = metrics.counter("listener_streamed_bytes_total");
+		metrics.gauge("listener_connections", new Gauge() {
+			public long getValue() {
+				return connections.get();
+			}
+		});
+		metrics.gauge("listener_queue_depth", new Gauge() {
+			public long getValue() {
+				return handlers.getQueue().size();
+			}
+		});
+		metrics.gauge("listener_active_handlers", new Gauge() {
+			public long getValue() {
+				return handlers.getActiveCount();
+			}
+		});
+		metrics.gauge("listener_open_streams", new Gauge() {
+			public long getValue() {
+				return streamers.getActiveCount();
+			}
+		});
+		metrics.gauge("listener_admission_buckets", new Gauge() {
+			public long getValue() {
+				return admission.size();
+			}
+		});
+	}
+	
+	public void shutdown() {
+		if (!running) {
+			return;
+		}
+		running = false;
 		try {
 			server.close();
 		} catch (IOException e) {
-			System.out.println("Could not close socket.");
-			System.exit(-1);
+			System.err.println("Could not close socket.");
+			e.printStackTrace();
 		}
+		
+		// let in-flight requests finish before closing their connections
+		handlers.shutdown();
+		try {
+			if (!handlers.awaitTermination(requestTimeout, TimeUnit.MILLISECONDS)) {
+				handlers.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			handlers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		timer.shutdownNow();
+		streamers.shutdownNow();
+		workers.shutdownNow();
 	}
 	
-	public IResponse handleRequest(IRequest request) {
-		// TODO: should not be needed, due to dynamic invocation
+	private void reject(Socket client, String reason) {
+		try {
+			// the dispatcher sends its handshake as soon as it connects, so this does not wait long
+			client.setSoTimeout(REJECT_TIMEOUT);
+			MessageCodec codec = Handshake.server(new BufferedInputStream(client.getInputStream()), 
+					new BufferedOutputStream(client.getOutputStream()));
+			codec.write(new Envelope(Envelope.CONNECTION, new ErrorResponse(reason)));
+		} catch (IOException e) {
+			System.err.println("Failed to send rejection to [" + client.getInetAddress() + "]");
+		} finally {
+			close(client);
+		}
+	}
+	
+	private void close(Socket client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			System.err.println("Could not close client socket.");
+		}
+	}
+	
+	private void handle(long id, IRequest request, Connection connection) {
+		if (request instanceof StreamCreditRequest) {
+			// credits are never answered, and must not queue behind the requests they would unblock
+			connection.credit((StreamCreditRequest)request);
+			return;
+		}
+		request.setSender(connection.getAddress().getHostAddress());
+		if (request instanceof TaskRequest || request instanceof BatchTaskRequest) {
+			// turned away on the reader, before taking a handler or a place in the queue
+			IResponse busy = admit(request);
+			if (busy != null) {
+				connection.send(id, busy);
+				return;
+			}
+		}
+		connection.inFlight.incrementAndGet();
+		if (request instanceof StreamJobRequest) {
+			stream(id, (StreamJobRequest)request, connection);
+			return;
+		}
+		final PendingRequest pending = new PendingRequest(id, request, connection);
+		try {
+			pending.timeout = timer.schedule(new Runnable() {
+				public void run() {
+					pending.expire();
+				}
+			}, requestTimeout, TimeUnit.MILLISECONDS);
+			if (request instanceof JoinRequest && join(pending)) {
+				return;
+			}
+			pending.future = handlers.submit(pending);
+		} catch (RejectedExecutionException e) {
+			rejectedRequests.increment();
+			pending.respond(new ErrorResponse("Listener busy"));
+		}
+	}
+	
+	// answered once the join's batch has been applied, without holding a handler through the window and the daemon start
+	private boolean join(final PendingRequest pending) {
+		INode node = ApplicationContext.getInstance().getNode();
+		if (!ApplicationContext.getInstance().isMaster() || !(node instanceof MasterNode)) {
+			return false;
+		}
+		// the request names the master it is sent to, the slave is the host it came from
+		final String host = pending.request.getSender();
+		((MasterNode)node).join(host).whenComplete(new BiConsumer<Boolean, Throwable>() {
+			public void accept(Boolean joined, Throwable failure) {
+				if (failure != null) {
+					System.err.println("Failed to add Slave node [" + host + "]");
+					failure.printStackTrace();
+				}
+				pending.respond(new JoinResponse(failure == null && joined));
+			}
+		});
+		return true;
+	}
+	
+	// null if the master takes the jobs, otherwise the response turning them away
+	private IResponse admit(IRequest request) {
+		INode node = ApplicationContext.getInstance().getNode();
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return null;
+		}
+		int jobs = request instanceof BatchTaskRequest ? ((BatchTaskRequest)request).getTasks().size() : 1;
+		if (jobs > BatchTaskRequest.MAX_TASKS) {
+			return new ErrorResponse("Batch of " + jobs + " tasks is over the limit of " + BatchTaskRequest.MAX_TASKS);
+		}
+		// checked first, so a submitter is not charged for jobs the master has no room for
+		long retryAfter = node instanceof MasterNode ? ((MasterNode)node).getScheduler().getRetryAfter(jobs) : 0;
+		if (retryAfter > 0) {
+			rejectedOverload.increment();
+			return new BusyResponse("Master overloaded", retryAfter);
+		}
+		retryAfter = admission.admit(request.getSender(), jobs, System.nanoTime());
+		if (retryAfter > 0) {
+			rejectedRate.increment();
+			return new BusyResponse("Submission rate of [" + request.getSender() + "] exceeded", retryAfter);
+		}
 		return null;
 	}
 	
+	private void stream(long id, StreamJobRequest request, Connection connection) {
+		OpenStream stream = new OpenStream(id, request, connection);
+		connection.streams.put(id, stream);
+		try {
+			stream.future = streamers.submit(stream);
+		} catch (RejectedExecutionException e) {
+			rejectedRequests.increment();
+			stream.close(new ErrorResponse("Too many streams"));
+		}
+	}
+	
+	private class PendingRequest implements Runnable {
+		
+		private long id;
+		private IRequest request;
+		private Connection connection;
+		private long received = System.nanoTime();
+		private AtomicBoolean done = new AtomicBoolean(false);
+		private volatile Future<?> future;
+		private volatile ScheduledFuture<?> timeout;
+		
+		public PendingRequest(long id, IRequest request, Connection connection) {
+			this.id = id;
+			this.request = request;
+			this.connection = connection;
+		}
+		
+		public void run() {
+			IResponse response;
+			try {
+				response = request.handleRequest(CommandListener.this);
+			} catch (RuntimeException e) {
+				System.err.println("Failed to handle request");
+				e.printStackTrace();
+				response = new ErrorResponse(String.valueOf(e));
+			}
+			if (!response.isSuccess()) {
+				System.err.println("Failed to handle request from [" + connection.getAddress() + "]");
+			}
+			CompletableFuture<Void> journaled = journaled(response);
+			if (journaled == null) {
+				respond(response);
+				return;
+			}
+			// the jobs are journaled off this handler, and answered for once they are
+			final IResponse accepted = response;
+			journaled.whenComplete(new BiConsumer<Void, Throwable>() {
+				public void accept(Void result, Throwable failure) {
+					respond(accepted);
+				}
+			});
+		}
+		
+		private void expire() {
+			System.err.println("Request timed out after " + requestTimeout + "ms");
+			timeouts.increment();
+			if (respond(new ErrorResponse("Request timed out after " + requestTimeout + "ms")) && future != null) {
+				future.cancel(true);
+			}
+		}
+		
+		private boolean respond(IResponse response) {
+			if (!done.compareAndSet(false, true)) {
+				return false;
+			}
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			connection.send(id, response);
+			connection.inFlight.decrementAndGet();
+			LATENCY.get(request.getClass()).record((System.nanoTime() - received) / 1000);
+			if (!response.isSuccess()) {
+				ERRORS.get(request.getClass()).increment();
+			}
+			return true;
+		}
+	}
+	
+	// sends the events of a job as the client grants credits for them, until the job ends or the client cancels
+	private class OpenStream implements StreamSink, Runnable {
+		
+		private long id;
+		private StreamJobRequest request;
+		private Connection connection;
+		private long received = System.nanoTime();
+		private Semaphore credits = new Semaphore(0);
+		private AtomicBoolean done = new AtomicBoolean(false);
+		private volatile Future<?> future;
+		
+		public OpenStream(long id, StreamJobRequest request, Connection connection) {
+			this.id = id;
+			this.request = request;
+			this.connection = connection;
+		}
+		
+		public void run() {
+			IResponse error = null;
+			try {
+				if (!ApplicationContext.getInstance().isMaster()) {
+					error = new ErrorResponse("Not a master");
+				} else if (!getScheduler().stream(request.getJobId(), this)) {
+					error = new ErrorResponse("Unknown job [" + request.getJobId() + "]");
+				}
+			} catch (InterruptedException e) {
+				// cancelled, there is no one left to tell
+			} catch (IOException e) {
+				System.err.println("Failed to stream output of job [" + request.getJobId() + "]");
+				e.printStackTrace();
+				error = new ErrorResponse(String.valueOf(e));
+			} catch (RuntimeException e) {
+				System.err.println("Failed to stream job [" + request.getJobId() + "]");
+				e.printStackTrace();
+				error = new ErrorResponse(String.valueOf(e));
+			}
+			close(error);
+		}
+		
+		public boolean send(StreamEvent event) throws InterruptedException {
+			credits.acquire();
+			synchronized (this) {
+				return !done.get() && connection.send(id, event);
+			}
+		}
+		
+		public boolean send(StreamEvent chunk, FileChannel file, long position, int length) throws InterruptedException {
+			credits.acquire();
+			synchronized (this) {
+				if (done.get() || !connection.send(id, chunk, file, position, length)) {
+					return false;
+				}
+			}
+			streamedBytes.add(length);
+			return true;
+		}
+		
+		private void grant(int count) {
+			if (count == StreamCreditRequest.CANCEL) {
+				cancel();
+			} else if (count > 0) {
+				// only the connection's reader adds credits, so they cannot overflow between the check and the release
+				credits.release(Math.min(count, Integer.MAX_VALUE - credits.availablePermits()));
+			}
+		}
+		
+		// an interrupt while a chunk is copied from its file would close the socket under the frame
+		private void cancel() {
+			if (close(null)) {
+				synchronized (this) {
+					if (future != null) {
+						future.cancel(true);
+					}
+				}
+			}
+		}
+		
+		// an error ends the stream in place of the END event, and is sent without waiting for a credit
+		private boolean close(IResponse error) {
+			if (!done.compareAndSet(false, true)) {
+				return false;
+			}
+			connection.streams.remove(id);
+			if (error != null) {
+				connection.send(id, error);
+				ERRORS.get(request.getClass()).increment();
+			}
+			connection.inFlight.decrementAndGet();
+			LATENCY.get(request.getClass()).record((System.nanoTime() - received) / 1000);
+			return true;
+		}
+	}
+	
+	private class Connection implements Runnable {
+		
+		private Socket client;
+		private MessageCodec codec;
+		private AtomicInteger inFlight = new AtomicInteger(0);
+		private ConcurrentMap<Long, OpenStream> streams = new ConcurrentHashMap<Long, OpenStream>();
+		
+		public Connection(Socket client) {
+			this.client = client;
+		}
+		
+		public InetAddress getAddress() {
+			return client.getInetAddress();
+		}
+		
+		public boolean send(long id, IResponse response) {
+			try {
+				synchronized (this) {
+					codec.write(new Envelope(id, response));
+				}
+				return true;
+			} catch (IOException e) {
+				System.err.println("Failed to send response to [" + client.getInetAddress() + "]");
+				close(client);
+				return false;
+			}
+		}
+		
+		public boolean send(long id, StreamEvent chunk, FileChannel file, long position, int length) {
+			try {
+				synchronized (this) {
+					codec.write(id, chunk, file, position, length);
+				}
+				return true;
+			} catch (IOException e) {
+				// part of the frame may have been written, so the connection cannot carry anything more
+				System.err.println("Failed to send chunk of [" + chunk.getPath() + "] to [" + client.getInetAddress() + "]");
+				close(client);
+				return false;
+			}
+		}
+		
+		public void credit(StreamCreditRequest request) {
+			OpenStream stream = streams.get(request.getStreamId());
+			if (stream != null) {
+				stream.grant(request.getCredits());
+			}
+		}
+		
+		public void run() {
+			connections.incrementAndGet();
+			try {
+				// the read timeout doubles as the keep-alive for idle connections
+				client.setSoTimeout(readTimeout);
+				synchronized (this) {
+					codec = Handshake.server(new BufferedInputStream(client.getInputStream()), 
+							new BufferedOutputStream(client.getOutputStream()));
+				}
+				
+				while (running) {
+					Envelope envelope;
+					try {
+						envelope = codec.read();
+					} catch (SocketTimeoutException e) {
+						// only thrown between frames, a timeout partway through one is an IOException and closes the connection
+						if (inFlight.get() > 0) {
+							continue;
+						}
+						// idle past the keep-alive, the dispatcher reconnects on its next request
+						break;
+					}
+					handle(envelope.getId(), (IRequest)envelope.getPayload(), this);
+				}
+			} catch (EOFException e) {
+				// dispatcher closed the connection
+			} catch (SocketException e) {
+				if (running) {
+					System.err.println("Connection to [" + client.getInetAddress() + "] dropped");
+				}
+			} catch (IOException e) {
+				System.err.println("Failed to read request from [" + client.getInetAddress() + "]");
+				e.printStackTrace();
+			} catch (ClassCastException e) {
+				System.err.println("Failed to parse request object");
+				e.printStackTrace();
+			} finally {
+				for (OpenStream stream : streams.values()) {
+					stream.cancel();
+				}
+				connections.decrementAndGet();
+				close(client);
+			}
+		}
+	}
+	
+	public IResponse handleRequest(IRequest request) {
+		return ErrorResponse.unsupported(request);
+	}
+	
 	public IResponse handleRequest(JoinRequest request) {
 		if (!ApplicationContext.getInstance().isMaster()) {
 			return new JoinResponse(false);
@@ -75,11 +632,142 @@ public class CommandListener {
 		return new JoinResponse(node.update(request.getUrl()));
 	}
 	
+	public IResponse handleRequest(HeartbeatRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new HeartbeatResponse(false, false);
+		}
+		MasterNode master = (MasterNode)ApplicationContext.getInstance().getNode();
+		try {
+			return new HeartbeatResponse(true, master.heartbeat(request.getSender(), request.getSamples()));
+		} catch (IOException e) {
+			return new ErrorResponse("Malformed heartbeat from [" + request.getSender() + "]: " + e.getMessage());
+		}
+	}
+	
 	public IResponse handleRequest(TaskRequest request) {
 		if (!ApplicationContext.getInstance().isMaster()) {
-			return new JoinResponse(false);
+			return new TaskResponse(false);
 		}
 		INode node = ApplicationContext.getInstance().getNode();
-		return new TaskResponse(node.executeTask(request.getTask()));
+		String jobId = submitTask(node, request.getTask(), request.getPriority(), request.getSender());
+		return new TaskResponse(jobId != null, jobId);
+	}
+	
+	public IResponse handleRequest(BatchTaskRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new BatchTaskResponse(false, null);
+		}
+		INode node = ApplicationContext.getInstance().getNode();
+		List<JobStatus> statuses = new ArrayList<JobStatus>(request.getTasks().size());
+		for (ITask task : request.getTasks()) {
+			try {
+				String jobId = submitTask(node, task, request.getPriority(), request.getSender());
+				statuses.add(jobId == null ? null : node.getJobStatus(jobId));
+			} catch (RuntimeException e) {
+				// one task the scheduler turns away does not fail the rest of the batch
+				System.err.println("Failed to submit task [" + task.getTaskName() + "]");
+				e.printStackTrace();
+				statuses.add(null);
+			}
+		}
+		return new BatchTaskResponse(true, statuses);
+	}
+	
+	// a master queues the job fairly against those of other submitters
+	private String submitTask(INode node, ITask task, int priority, String submitter) {
+		if (node instanceof MasterNode) {
+			return ((MasterNode)node).submitTask(task, priority, submitter);
+		}
+		return node.submitTask(task, priority);
+	}
+	
+	public IResponse handleRequest(JobStatusRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new JobStatusResponse(false, null);
+		}
+		INode node = ApplicationContext.getInstance().getNode();
+		JobStatus status = node.getJobStatus(request.getJobId());
+		return new JobStatusResponse(status != null, status);
+	}
+	
+	public IResponse handleRequest(CancelJobRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new JobStatusResponse(false, null);
+		}
+		INode node = ApplicationContext.getInstance().getNode();
+		JobStatus status = node.cancelJob(request.getJobId());
+		return new JobStatusResponse(status != null && status.getState() == State.CANCELLED, status);
+	}
+	
+	public IResponse handleRequest(MapRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new ShuffleResponse(false, null);
+		}
+		return getShuffle().map(request);
+	}
+	
+	public IResponse handleRequest(ShuffleRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new ShuffleResponse(false, null);
+		}
+		return getShuffle().receive(request);
+	}
+	
+	public IResponse handleRequest(ReduceRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new ShuffleResponse(false, null);
+		}
+		return getShuffle().reduce(request);
+	}
+	
+	public IResponse handleRequest(ResendRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new ShuffleResponse(false, null);
+		}
+		return getShuffle().resend(request);
+	}
+	
+	public IResponse handleRequest(ReleaseShuffleRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new ShuffleResponse(false, null);
+		}
+		return getShuffle().release(request);
+	}
+	
+	public IResponse handleRequest(FetchResultRequest request) {
+		if (!ApplicationContext.getInstance().isMaster()) {
+			return new ResultResponse(false, 0, null, null);
+		}
+		ResultCache cache = ((MasterNode)ApplicationContext.getInstance().getNode()).getResultCache();
+		if (cache == null) {
+			return new ResultResponse(false, 0, null, null);
+		}
+		return cache.fetch(request);
+	}
+	
+	// null unless the response tells a client the ids of jobs this master has queued
+	private CompletableFuture<Void> journaled(IResponse response) {
+		List<String> jobIds = new ArrayList<String>();
+		if (response instanceof TaskResponse && ((TaskResponse)response).getJobId() != null) {
+			jobIds.add(((TaskResponse)response).getJobId());
+		} else if (response instanceof BatchTaskResponse && response.isSuccess()) {
+			for (JobStatus status : ((BatchTaskResponse)response).getStatuses()) {
+				if (status != null) {
+					jobIds.add(status.getJobId());
+				}
+			}
+		}
+		if (jobIds.isEmpty() || !(ApplicationContext.getInstance().getNode() instanceof MasterNode)) {
+			return null;
+		}
+		return getScheduler().journaled(jobIds);
+	}
+	
+	private JobScheduler getScheduler() {
+		return ((MasterNode)ApplicationContext.getInstance().getNode()).getScheduler();
+	}
+	
+	private ShuffleService getShuffle() {
+		return ((MasterNode)ApplicationContext.getInstance().getNode()).getShuffle();
 	}
 }
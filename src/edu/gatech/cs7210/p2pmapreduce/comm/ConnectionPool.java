@@ -0,0 +1,105 @@
+package edu.gatech.cs7210.p2pmapreduce.comm;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.Reconfigurable;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.Handshake;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+public class ConnectionPool implements Reconfigurable {
+	
+	private ConcurrentMap<String, PooledConnection> connections = 
+			new ConcurrentHashMap<String, PooledConnection>();
+	private ScheduledExecutorService reaper;
+	private volatile long keepAlive;
+	private byte format;
+
+	private ConnectionPool() {
+		keepAlive = ApplicationContext.getInstance().getKeepAlive();
+		format = Handshake.parseFormat(ApplicationContext.getInstance().getWireFormat());
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "connection-reaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reaper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				closeIdle();
+			}
+		}, keepAlive, keepAlive / 2, TimeUnit.MILLISECONDS);
+		MetricsRegistry.getInstance().gauge("dispatcher_connections", new Gauge() {
+			public long getValue() {
+				return getOpenConnections();
+			}
+		});
+		ApplicationContext.getInstance().addReconfigurable(this);
+	}
+	
+	// idle connections are still looked for at half the keep alive the pool started with
+	public void reconfigure(ApplicationContext appContext) {
+		keepAlive = appContext.getKeepAlive();
+	}
+	
+	private static ConnectionPool INSTANCE;
+	
+	public static synchronized ConnectionPool getInstance() {
+		if (INSTANCE == null) {
+			INSTANCE = new ConnectionPool();
+		}
+		return INSTANCE;
+	}
+	
+	PooledConnection getConnection(URL url) throws IOException {
+		String key = url.getHost() + ":" + url.getPort();
+		while (true) {
+			PooledConnection existing = connections.get(key);
+			if (existing != null && existing.isOpen()) {
+				return existing;
+			}
+			
+			PooledConnection created = new PooledConnection(this, key, url.getHost(), url.getPort(), format);
+			boolean added = existing == null 
+					? connections.putIfAbsent(key, created) == null
+					: connections.replace(key, existing, created);
+			if (added) {
+				return created;
+			}
+			// another thread connected to the same master first, use theirs
+			created.close(null);
+		}
+	}
+	
+	void remove(String key, PooledConnection connection) {
+		connections.remove(key, connection);
+	}
+	
+	public int getOpenConnections() {
+		return connections.size();
+	}
+	
+	private void closeIdle() {
+		for (PooledConnection connection : connections.values()) {
+			if (connection.isIdle(keepAlive)) {
+				connection.close(null);
+			}
+		}
+	}
+	
+	public void shutdown() {
+		reaper.shutdownNow();
+		for (PooledConnection connection : connections.values()) {
+			connection.close(null);
+		}
+	}
+}
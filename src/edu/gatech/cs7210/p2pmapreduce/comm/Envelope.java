@@ -0,0 +1,28 @@
+package edu.gatech.cs7210.p2pmapreduce.comm;
+
+import java.io.Serializable;
+
+public class Envelope implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	// responses sent with this id apply to every request on the connection,
+	// e.g. when the listener turns the whole connection away
+	public static final long CONNECTION = 0L;
+	
+	private long id;
+	private Serializable payload;
+	
+	public Envelope(long id, Serializable payload) {
+		this.id = id;
+		this.payload = payload;
+	}
+	
+	public long getId() {
+		return this.id;
+	}
+	
+	public Serializable getPayload() {
+		return this.payload;
+	}
+}
@@ -0,0 +1,199 @@
+package edu.gatech.cs7210.p2pmapreduce.comm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.Handshake;
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.MessageCodec;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.IRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.StreamCreditRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+
+class PooledConnection implements Runnable {
+
+	private ConnectionPool pool;
+	private String key;
+	private Socket socket;
+	private MessageCodec codec;
+	private AtomicLong nextId = new AtomicLong(Envelope.CONNECTION + 1);
+	private ConcurrentMap<Long, CompletableFuture<IResponse>> pending = 
+			new ConcurrentHashMap<Long, CompletableFuture<IResponse>>();
+	private ConcurrentMap<Long, ResponseStream> streams = new ConcurrentHashMap<Long, ResponseStream>();
+	private volatile boolean open = true;
+	private volatile long lastUsed = System.currentTimeMillis();
+	
+	PooledConnection(ConnectionPool pool, String key, String host, int port, byte format) throws IOException {
+		this.pool = pool;
+		this.key = key;
+		this.socket = connect(host, port, format);
+		if (codec == null) {
+			// the listener only speaks an older binary format, java serialization has not changed
+			socket.close();
+			this.socket = connect(host, port, MessageCodec.SERIALIZED);
+		}
+		
+		Thread reader = new Thread(this, "connection-" + key);
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	private Socket connect(String host, int port, byte format) throws IOException {
+		Socket socket = new Socket();
+		try {
+			// a master that is gone is given up on after the read timeout rather than the system's connect timeout
+			int timeout = ApplicationContext.getInstance().getReadTimeout();
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			socket.setKeepAlive(true);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeout);
+			codec = Handshake.client(new BufferedInputStream(socket.getInputStream()), 
+					new BufferedOutputStream(socket.getOutputStream()), format);
+			// the reader waits on responses for as long as requests are pending
+			socket.setSoTimeout(0);
+			return socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+	
+	CompletableFuture<IResponse> send(IRequest request) throws IOException {
+		final long id = nextId.getAndIncrement();
+		CompletableFuture<IResponse> future = new CompletableFuture<IResponse>();
+		pending.put(id, future);
+		// drop the entry if the caller gives up on it before the listener answers
+		future.whenComplete(new BiConsumer<IResponse, Throwable>() {
+			public void accept(IResponse response, Throwable t) {
+				pending.remove(id);
+			}
+		});
+		lastUsed = System.currentTimeMillis();
+		
+		try {
+			synchronized (codec) {
+				codec.write(new Envelope(id, request));
+			}
+		} catch (IOException e) {
+			pending.remove(id);
+			close(e);
+			throw e;
+		}
+		return future;
+	}
+	
+	// the responses to the request go to the stream until its last one, returns the stream's id
+	long open(IRequest request, ResponseStream stream) throws IOException {
+		long id = nextId.getAndIncrement();
+		streams.put(id, stream);
+		lastUsed = System.currentTimeMillis();
+		try {
+			synchronized (codec) {
+				codec.write(new Envelope(id, request));
+			}
+		} catch (IOException e) {
+			streams.remove(id);
+			close(e);
+			throw e;
+		}
+		return id;
+	}
+	
+	// the listener does not answer credits, so they take an id that nothing waits on
+	void credit(long streamId, int credits, URL url) throws IOException {
+		if (credits == StreamCreditRequest.CANCEL && streams.remove(streamId) == null) {
+			return;
+		}
+		try {
+			synchronized (codec) {
+				codec.write(new Envelope(nextId.getAndIncrement(), new StreamCreditRequest(streamId, credits, url)));
+			}
+		} catch (IOException e) {
+			close(e);
+			throw e;
+		}
+	}
+	
+	public void run() {
+		try {
+			while (open) {
+				Envelope envelope = codec.read();
+				lastUsed = System.currentTimeMillis();
+				IResponse response = (IResponse)envelope.getPayload();
+				if (envelope.getId() == Envelope.CONNECTION) {
+					for (CompletableFuture<IResponse> future : pending.values()) {
+						future.complete(response);
+					}
+					for (ResponseStream stream : streams.values()) {
+						stream.receive(response);
+					}
+					streams.clear();
+					close(null);
+					return;
+				}
+				ResponseStream stream = streams.get(envelope.getId());
+				if (stream != null) {
+					if (!(response instanceof StreamEvent) || ((StreamEvent)response).getType() == StreamEvent.Type.END) {
+						streams.remove(envelope.getId());
+					}
+					stream.receive(response);
+					continue;
+				}
+				CompletableFuture<IResponse> future = pending.remove(envelope.getId());
+				if (future != null) {
+					future.complete(response);
+				}
+			}
+		} catch (IOException e) {
+			close(e);
+		} catch (ClassCastException e) {
+			System.err.println("Failed to receive IResponse object from CommandListener");
+			e.printStackTrace();
+			close(e);
+		}
+	}
+	
+	boolean isOpen() {
+		return this.open;
+	}
+	
+	boolean isIdle(long keepAlive) {
+		return pending.isEmpty() && streams.isEmpty() && System.currentTimeMillis() - lastUsed > keepAlive;
+	}
+	
+	void close(Throwable cause) {
+		if (!open) {
+			return;
+		}
+		open = false;
+		pool.remove(key, this);
+		try {
+			socket.close();
+		} catch (IOException e) {
+			System.err.println("Could not close connection to [" + key + "]");
+		}
+		
+		Throwable failure = cause != null ? cause : new IOException("Connection to [" + key + "] closed");
+		Iterator<CompletableFuture<IResponse>> it = pending.values().iterator();
+		while (it.hasNext()) {
+			it.next().completeExceptionally(failure);
+			it.remove();
+		}
+		Iterator<ResponseStream> streamIt = streams.values().iterator();
+		while (streamIt.hasNext()) {
+			streamIt.next().fail(failure);
+			streamIt.remove();
+		}
+	}
+}
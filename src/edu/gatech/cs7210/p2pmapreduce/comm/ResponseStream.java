@@ -0,0 +1,194 @@
+package edu.gatech.cs7210.p2pmapreduce.comm;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.IRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.StreamCreditRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ErrorResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+
+/*
+ * The client's end of a stream, opened when it is subscribed to. The demand the
+ * subscriber signals is passed on to the listener as credits, so no more events
+ * are sent than it asked for and a slow subscriber holds up the master rather
+ * than filling the connection. Events are delivered in order on the executor,
+ * never on the connection's reader. The stream completes after the END event and
+ * fails on an error response or a lost connection.
+ */
+public class ResponseStream implements Flow.Publisher<IResponse>, Flow.Subscription {
+	
+	private IRequest request;
+	private Executor executor;
+	private Flow.Subscriber<? super IResponse> subscriber;
+	private PooledConnection connection;
+	private long id;
+	// signalled before the stream was open, sent as credits once it is
+	private long requested = 0;
+	private boolean cancelled = false;
+	// responses, and the failure of the connection, waiting to be delivered
+	private Queue<Object> received = new ConcurrentLinkedQueue<Object>();
+	private AtomicInteger missed = new AtomicInteger(0);
+	private volatile boolean finished = false;
+	
+	ResponseStream(IRequest request, Executor executor) {
+		this.request = request;
+		this.executor = executor;
+	}
+	
+	public void subscribe(Flow.Subscriber<? super IResponse> subscriber) {
+		synchronized (this) {
+			if (this.subscriber == null) {
+				this.subscriber = subscriber;
+				subscriber = null;
+			}
+		}
+		if (subscriber != null) {
+			// a stream is opened once, the second subscriber would only see what the first left
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+				
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Stream already subscribed to"));
+			return;
+		}
+		
+		this.subscriber.onSubscribe(this);
+		ConnectionPool pool = ConnectionPool.getInstance();
+		PooledConnection opened;
+		long openedId;
+		try {
+			try {
+				opened = pool.getConnection(request.getUrl());
+				openedId = opened.open(request, this);
+			} catch (IOException e) {
+				// a pooled connection may have been dropped by the listener while idle, retry once on a fresh one
+				opened = pool.getConnection(request.getUrl());
+				openedId = opened.open(request, this);
+			}
+		} catch (IOException e) {
+			fail(e);
+			return;
+		}
+		
+		long credits;
+		synchronized (this) {
+			connection = opened;
+			id = openedId;
+			credits = cancelled ? StreamCreditRequest.CANCEL : requested;
+		}
+		if (credits != 0) {
+			credit(credits);
+		}
+	}
+	
+	public void request(long n) {
+		if (n <= 0) {
+			fail(new IllegalArgumentException("Requested " + n + " responses"));
+			stop();
+			return;
+		}
+		synchronized (this) {
+			if (connection == null) {
+				requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+				return;
+			}
+		}
+		credit(n);
+	}
+	
+	public void cancel() {
+		finished = true;
+		stop();
+	}
+	
+	// tells the listener to send nothing more
+	private void stop() {
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			if (connection == null) {
+				return;
+			}
+		}
+		credit(StreamCreditRequest.CANCEL);
+	}
+	
+	// the listener counts credits in an int, more than that is as good as unbounded
+	private void credit(long credits) {
+		try {
+			connection.credit(id, (int)Math.min(credits, Integer.MAX_VALUE), request.getUrl());
+		} catch (IOException e) {
+			// the connection fails the stream as it closes
+			System.err.println("Failed to send credits to [" + request.getUrl() + "]");
+		}
+	}
+	
+	// called on the connection's reader
+	void receive(IResponse response) {
+		received.add(response);
+		drain();
+	}
+	
+	void fail(Throwable cause) {
+		received.add(cause);
+		drain();
+	}
+	
+	// one task delivers at a time, picking up whatever arrives while it runs
+	private void drain() {
+		if (missed.getAndIncrement() != 0) {
+			return;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				int pending = 1;
+				while (pending != 0) {
+					Object next;
+					while ((next = received.poll()) != null) {
+						deliver(next);
+					}
+					pending = missed.addAndGet(-pending);
+				}
+			}
+		});
+	}
+	
+	private void deliver(Object next) {
+		if (finished) {
+			return;
+		}
+		try {
+			if (next instanceof Throwable) {
+				finished = true;
+				subscriber.onError((Throwable)next);
+			} else if (next instanceof StreamEvent) {
+				subscriber.onNext((StreamEvent)next);
+				if (((StreamEvent)next).getType() == StreamEvent.Type.END) {
+					finished = true;
+					subscriber.onComplete();
+				}
+			} else {
+				finished = true;
+				String message = next instanceof ErrorResponse ? ((ErrorResponse)next).getMessage()
+						: "Unexpected response [" + next.getClass().getName() + "]";
+				subscriber.onError(new IOException(message));
+			}
+		} catch (RuntimeException e) {
+			// a subscriber that throws gets nothing more
+			System.err.println("Subscriber to [" + request.getUrl() + "] failed");
+			e.printStackTrace();
+			cancel();
+		}
+	}
+}
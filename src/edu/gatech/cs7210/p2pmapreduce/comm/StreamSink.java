@@ -0,0 +1,19 @@
+package edu.gatech.cs7210.p2pmapreduce.comm;
+
+import java.nio.channels.FileChannel;
+
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+
+/*
+ * The listener's end of a stream opened by a StreamJobRequest. Each event waits
+ * for a credit from the client, so a consumer that falls behind holds up the
+ * sender rather than filling the connection. Both calls return false once the
+ * client has cancelled the stream or its connection is gone.
+ */
+public interface StreamSink {
+	
+	public boolean send(StreamEvent event) throws InterruptedException;
+	
+	// a CHUNK whose data is length bytes of file from position, copied from the channel into the frame
+	public boolean send(StreamEvent chunk, FileChannel file, long position, int length) throws InterruptedException;
+}
@@ -0,0 +1,518 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.Envelope;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.BatchTaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.CancelJobRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.HeartbeatRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JobStatusRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JoinRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ShuffleRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.TaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BatchTaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BusyResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ErrorResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.HeartbeatResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.JobStatusResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.JoinResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ShuffleResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.TaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+import edu.gatech.cs7210.p2pmapreduce.task.imp.HadoopExamplesTask;
+
+/*
+ * Frames are a varint length followed by a varint envelope id and a tagged value.
+ * Each value starts with a tag byte naming its type; types without a registered
+ * codec are sent as Java serialized bytes under the SERIALIZED tag, so new
+ * message types work on the wire before they are given a compact encoding.
+ */
+public class BinaryCodec implements MessageCodec {
+	
+	public static final int MAX_FRAME = 64 * 1024 * 1024;
+	
+	public static final byte NULL = 0;
+	public static final byte JOIN_REQUEST = 1;
+	public static final byte TASK_REQUEST = 2;
+	public static final byte JOIN_RESPONSE = 3;
+	public static final byte TASK_RESPONSE = 4;
+	public static final byte ERROR_RESPONSE = 5;
+	public static final byte HADOOP_EXAMPLES_TASK = 6;
+	public static final byte JOB_STATUS_REQUEST = 7;
+	public static final byte CANCEL_JOB_REQUEST = 8;
+	public static final byte JOB_STATUS_RESPONSE = 9;
+	public static final byte JOB_STATUS = 10;
+	public static final byte SHUFFLE_REQUEST = 11;
+	public static final byte SHUFFLE_RESPONSE = 12;
+	public static final byte BATCH_TASK_REQUEST = 13;
+	public static final byte BATCH_TASK_RESPONSE = 14;
+	public static final byte STREAM_EVENT = 15;
+	public static final byte HEARTBEAT_REQUEST = 16;
+	public static final byte HEARTBEAT_RESPONSE = 17;
+	public static final byte BUSY_RESPONSE = 18;
+	public static final byte SERIALIZED_VALUE = 127;
+	
+	private static final Map<Class<?>, Byte> TAGS = new HashMap<Class<?>, Byte>();
+	private static final Map<Byte, ValueCodec<?>> CODECS = new HashMap<Byte, ValueCodec<?>>();
+	
+	static {
+		register(JOIN_REQUEST, JoinRequest.class, new ValueCodec<JoinRequest>() {
+			public void encode(WireBuffer buffer, JoinRequest value) {
+				buffer.putUrl(value.getUrl());
+			}
+			public JoinRequest decode(WireBuffer buffer) throws IOException {
+				return new JoinRequest(buffer.getUrl());
+			}
+		});
+		register(TASK_REQUEST, TaskRequest.class, new ValueCodec<TaskRequest>() {
+			public void encode(WireBuffer buffer, TaskRequest value) throws IOException {
+				buffer.putUrl(value.getUrl());
+				buffer.putSignedVarLong(value.getPriority());
+				encodeValue(buffer, value.getTask());
+			}
+			public TaskRequest decode(WireBuffer buffer) throws IOException {
+				URL url = buffer.getUrl();
+				int priority = (int)buffer.getSignedVarLong();
+				return new TaskRequest((ITask)decodeValue(buffer), url, priority);
+			}
+		});
+		register(JOIN_RESPONSE, JoinResponse.class, new ValueCodec<JoinResponse>() {
+			public void encode(WireBuffer buffer, JoinResponse value) {
+				buffer.putBoolean(value.isSuccess());
+			}
+			public JoinResponse decode(WireBuffer buffer) {
+				return new JoinResponse(buffer.getBoolean());
+			}
+		});
+		register(TASK_RESPONSE, TaskResponse.class, new ValueCodec<TaskResponse>() {
+			public void encode(WireBuffer buffer, TaskResponse value) {
+				buffer.putBoolean(value.isSuccess());
+				buffer.putString(value.getJobId());
+			}
+			public TaskResponse decode(WireBuffer buffer) throws IOException {
+				boolean success = buffer.getBoolean();
+				return new TaskResponse(success, buffer.getString());
+			}
+		});
+		register(ERROR_RESPONSE, ErrorResponse.class, new ValueCodec<ErrorResponse>() {
+			public void encode(WireBuffer buffer, ErrorResponse value) {
+				buffer.putString(value.getMessage());
+			}
+			public ErrorResponse decode(WireBuffer buffer) throws IOException {
+				return new ErrorResponse(buffer.getString());
+			}
+		});
+		register(HADOOP_EXAMPLES_TASK, HadoopExamplesTask.class, new ValueCodec<HadoopExamplesTask>() {
+			public void encode(WireBuffer buffer, HadoopExamplesTask value) {
+			}
+			public HadoopExamplesTask decode(WireBuffer buffer) {
+				return new HadoopExamplesTask();
+			}
+		});
+		register(JOB_STATUS_REQUEST, JobStatusRequest.class, new ValueCodec<JobStatusRequest>() {
+			public void encode(WireBuffer buffer, JobStatusRequest value) {
+				buffer.putUrl(value.getUrl());
+				buffer.putString(value.getJobId());
+			}
+			public JobStatusRequest decode(WireBuffer buffer) throws IOException {
+				URL url = buffer.getUrl();
+				return new JobStatusRequest(buffer.getString(), url);
+			}
+		});
+		register(CANCEL_JOB_REQUEST, CancelJobRequest.class, new ValueCodec<CancelJobRequest>() {
+			public void encode(WireBuffer buffer, CancelJobRequest value) {
+				buffer.putUrl(value.getUrl());
+				buffer.putString(value.getJobId());
+			}
+			public CancelJobRequest decode(WireBuffer buffer) throws IOException {
+				URL url = buffer.getUrl();
+				return new CancelJobRequest(buffer.getString(), url);
+			}
+		});
+		register(JOB_STATUS_RESPONSE, JobStatusResponse.class, new ValueCodec<JobStatusResponse>() {
+			public void encode(WireBuffer buffer, JobStatusResponse value) throws IOException {
+				buffer.putBoolean(value.isSuccess());
+				encodeValue(buffer, value.getStatus());
+			}
+			public JobStatusResponse decode(WireBuffer buffer) throws IOException {
+				boolean success = buffer.getBoolean();
+				return new JobStatusResponse(success, (JobStatus)decodeValue(buffer));
+			}
+		});
+		register(JOB_STATUS, JobStatus.class, new ValueCodec<JobStatus>() {
+			public void encode(WireBuffer buffer, JobStatus value) {
+				buffer.putString(value.getJobId());
+				buffer.putString(value.getTaskName());
+				buffer.putByte(value.getState().ordinal());
+				buffer.putVarLong(value.getSubmitted());
+				buffer.putVarLong(value.getStarted());
+				buffer.putVarLong(value.getFinished());
+				buffer.putSignedVarLong(value.getExitCode());
+				// in thousandths, -1 when unknown
+				buffer.putSignedVarLong(Math.round(value.getProgress() * 1000));
+			}
+			public JobStatus decode(WireBuffer buffer) throws IOException {
+				String jobId = buffer.getString();
+				String taskName = buffer.getString();
+				State state = buffer.getEnum(State.values());
+				long submitted = buffer.getVarLong();
+				long started = buffer.getVarLong();
+				long finished = buffer.getVarLong();
+				int exitCode = (int)buffer.getSignedVarLong();
+				return new JobStatus(jobId, taskName, state, submitted, started, finished, exitCode, 
+						buffer.getSignedVarLong() / 1000f);
+			}
+		});
+		register(SHUFFLE_REQUEST, ShuffleRequest.class, new ValueCodec<ShuffleRequest>() {
+			public void encode(WireBuffer buffer, ShuffleRequest value) {
+				buffer.putUrl(value.getUrl());
+				buffer.putString(value.getJobId());
+				buffer.putVarInt(value.getPartition());
+				buffer.putUrl(value.getSource());
+				buffer.putVarInt(value.getSequence());
+				buffer.putBoolean(value.isLast());
+				buffer.putBytes(value.getData());
+			}
+			public ShuffleRequest decode(WireBuffer buffer) throws IOException {
+				URL url = buffer.getUrl();
+				String jobId = buffer.getString();
+				int partition = buffer.getVarInt();
+				URL source = buffer.getUrl();
+				int sequence = buffer.getVarInt();
+				boolean last = buffer.getBoolean();
+				return new ShuffleRequest(jobId, partition, source, sequence, buffer.getBytes(), last, url);
+			}
+		});
+		register(SHUFFLE_RESPONSE, ShuffleResponse.class, new ValueCodec<ShuffleResponse>() {
+			public void encode(WireBuffer buffer, ShuffleResponse value) {
+				buffer.putBoolean(value.isSuccess());
+				// count + 1, with 0 for no list
+				List<Integer> failed = value.getFailedPartitions();
+				buffer.putVarInt(failed == null ? 0 : failed.size() + 1);
+				if (failed != null) {
+					for (Integer partition : failed) {
+						buffer.putVarInt(partition);
+					}
+				}
+			}
+			public ShuffleResponse decode(WireBuffer buffer) throws IOException {
+				boolean success = buffer.getBoolean();
+				int count = buffer.getCount() - 1;
+				List<Integer> failed = null;
+				if (count >= 0) {
+					failed = new ArrayList<Integer>(count);
+					for (int i = 0; i < count; i++) {
+						failed.add(buffer.getVarInt());
+					}
+				}
+				return new ShuffleResponse(success, failed);
+			}
+		});
+		register(BATCH_TASK_REQUEST, BatchTaskRequest.class, new ValueCodec<BatchTaskRequest>() {
+			public void encode(WireBuffer buffer, BatchTaskRequest value) throws IOException {
+				buffer.putUrl(value.getUrl());
+				buffer.putSignedVarLong(value.getPriority());
+				buffer.putVarInt(value.getTasks().size());
+				for (ITask task : value.getTasks()) {
+					encodeValue(buffer, task);
+				}
+			}
+			public BatchTaskRequest decode(WireBuffer buffer) throws IOException {
+				URL url = buffer.getUrl();
+				int priority = (int)buffer.getSignedVarLong();
+				int count = buffer.getCount();
+				// the count is the sender's word, the listener turns away a batch over the limit once it is read
+				List<ITask> tasks = new ArrayList<ITask>(Math.min(count, BatchTaskRequest.MAX_TASKS));
+				for (int i = 0; i < count; i++) {
+					tasks.add((ITask)decodeValue(buffer));
+				}
+				return new BatchTaskRequest(tasks, url, priority);
+			}
+		});
+		register(BATCH_TASK_RESPONSE, BatchTaskResponse.class, new ValueCodec<BatchTaskResponse>() {
+			public void encode(WireBuffer buffer, BatchTaskResponse value) throws IOException {
+				buffer.putBoolean(value.isSuccess());
+				// count + 1, with 0 for no list
+				List<JobStatus> statuses = value.getStatuses();
+				buffer.putVarInt(statuses == null ? 0 : statuses.size() + 1);
+				if (statuses != null) {
+					for (JobStatus status : statuses) {
+						encodeValue(buffer, status);
+					}
+				}
+			}
+			public BatchTaskResponse decode(WireBuffer buffer) throws IOException {
+				boolean success = buffer.getBoolean();
+				int count = buffer.getCount() - 1;
+				List<JobStatus> statuses = null;
+				if (count >= 0) {
+					statuses = new ArrayList<JobStatus>(count);
+					for (int i = 0; i < count; i++) {
+						statuses.add((JobStatus)decodeValue(buffer));
+					}
+				}
+				return new BatchTaskResponse(success, statuses);
+			}
+		});
+		register(STREAM_EVENT, StreamEvent.class, new ValueCodec<StreamEvent>() {
+			public void encode(WireBuffer buffer, StreamEvent value) throws IOException {
+				encodeEventHeader(buffer, value);
+				buffer.putBytes(value.getData());
+			}
+			public StreamEvent decode(WireBuffer buffer) throws IOException {
+				StreamEvent.Type type = buffer.getEnum(StreamEvent.Type.values());
+				JobStatus status = (JobStatus)decodeValue(buffer);
+				String path = buffer.getString();
+				long offset = buffer.getVarLong();
+				return new StreamEvent(type, status, path, offset, buffer.getBytes());
+			}
+		});
+		register(HEARTBEAT_REQUEST, HeartbeatRequest.class, new ValueCodec<HeartbeatRequest>() {
+			public void encode(WireBuffer buffer, HeartbeatRequest value) {
+				buffer.putUrl(value.getUrl());
+				buffer.putBytes(value.getSamples());
+			}
+			public HeartbeatRequest decode(WireBuffer buffer) throws IOException {
+				URL url = buffer.getUrl();
+				return new HeartbeatRequest(url, buffer.getBytes());
+			}
+		});
+		register(HEARTBEAT_RESPONSE, HeartbeatResponse.class, new ValueCodec<HeartbeatResponse>() {
+			public void encode(WireBuffer buffer, HeartbeatResponse value) {
+				buffer.putBoolean(value.isSuccess());
+				buffer.putBoolean(value.isMember());
+			}
+			public HeartbeatResponse decode(WireBuffer buffer) {
+				boolean success = buffer.getBoolean();
+				return new HeartbeatResponse(success, buffer.getBoolean());
+			}
+		});
+		register(BUSY_RESPONSE, BusyResponse.class, new ValueCodec<BusyResponse>() {
+			public void encode(WireBuffer buffer, BusyResponse value) {
+				buffer.putString(value.getMessage());
+				buffer.putVarLong(value.getRetryAfter());
+			}
+			public BusyResponse decode(WireBuffer buffer) throws IOException {
+				String message = buffer.getString();
+				return new BusyResponse(message, buffer.getVarLong());
+			}
+		});
+	}
+	
+	// every field but the data, which comes last so a chunk can be written straight from its file
+	private static void encodeEventHeader(WireBuffer buffer, StreamEvent event) throws IOException {
+		buffer.putByte(event.getType().ordinal());
+		encodeValue(buffer, event.getStatus());
+		buffer.putString(event.getPath());
+		buffer.putVarLong(event.getOffset());
+	}
+	
+	public static synchronized <T> void register(byte tag, Class<T> type, ValueCodec<T> codec) {
+		if (CODECS.containsKey(tag) || tag == NULL || tag == SERIALIZED_VALUE) {
+			throw new IllegalArgumentException("Tag [" + tag + "] already in use");
+		}
+		TAGS.put(type, tag);
+		CODECS.put(tag, codec);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void encodeValue(WireBuffer buffer, Object value) throws IOException {
+		if (value == null) {
+			buffer.putByte(NULL);
+			return;
+		}
+		Byte tag = TAGS.get(value.getClass());
+		if (tag == null) {
+			buffer.putByte(SERIALIZED_VALUE);
+			buffer.putBytes(serialize((Serializable)value));
+			return;
+		}
+		buffer.putByte(tag);
+		((ValueCodec<Object>)CODECS.get(tag)).encode(buffer, value);
+	}
+	
+	public static Object decodeValue(WireBuffer buffer) throws IOException {
+		byte tag = buffer.getByte();
+		if (tag == NULL) {
+			return null;
+		}
+		if (tag == SERIALIZED_VALUE) {
+			byte[] bytes = buffer.getBytes();
+			if (bytes == null) {
+				throw new IOException("Serialized value without bytes");
+			}
+			return deserialize(bytes);
+		}
+		ValueCodec<?> codec = CODECS.get(tag);
+		if (codec == null) {
+			throw new IOException("Unknown message tag [" + tag + "]");
+		}
+		return codec.decode(buffer);
+	}
+	
+	private static byte[] serialize(Serializable value) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(value);
+		oos.close();
+		return bos.toByteArray();
+	}
+	
+	private static Object deserialize(byte[] bytes) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Failed to parse serialized value", e);
+		} finally {
+			ois.close();
+		}
+	}
+	
+	private InputStream in;
+	private OutputStream out;
+	// reused across messages, writes are serialized by the caller and reads by the single reader
+	private WireBuffer writeBuffer = new WireBuffer(256);
+	private WireBuffer lengthBuffer = new WireBuffer(5);
+	private byte[] readBuffer = new byte[256];
+	private WritableByteChannel channel;
+	
+	public BinaryCodec(InputStream in, OutputStream out) {
+		this.in = in;
+		this.out = out;
+	}
+	
+	@Override
+	public byte getFormat() {
+		return BINARY;
+	}
+	
+	public static void encode(WireBuffer buffer, Envelope envelope) throws IOException {
+		buffer.putVarLong(envelope.getId());
+		encodeValue(buffer, envelope.getPayload());
+	}
+	
+	public static Envelope decode(WireBuffer buffer) throws IOException {
+		try {
+			long id = buffer.getVarLong();
+			Serializable payload = (Serializable)decodeValue(buffer);
+			if (buffer.remaining() != 0) {
+				throw new IOException("Trailing bytes in frame");
+			}
+			return new Envelope(id, payload);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated frame", e);
+		} catch (ClassCastException e) {
+			// a value of the wrong type where a message expects, say, a task
+			throw new IOException("Malformed frame", e);
+		}
+	}
+	
+	@Override
+	public void write(Envelope envelope) throws IOException {
+		writeBuffer.clear();
+		encode(writeBuffer, envelope);
+		lengthBuffer.clear();
+		lengthBuffer.putVarInt(writeBuffer.position());
+		out.write(lengthBuffer.array(), 0, lengthBuffer.position());
+		out.write(writeBuffer.array(), 0, writeBuffer.position());
+		out.flush();
+	}
+	
+	@Override
+	public void write(long id, StreamEvent chunk, FileChannel file, long position, int length) throws IOException {
+		writeBuffer.clear();
+		writeBuffer.putVarLong(id);
+		writeBuffer.putByte(STREAM_EVENT);
+		encodeEventHeader(writeBuffer, chunk);
+		// the data field as putBytes frames it, the bytes themselves follow from the file
+		writeBuffer.putVarInt(length + 1);
+		lengthBuffer.clear();
+		lengthBuffer.putVarInt(writeBuffer.position() + length);
+		out.write(lengthBuffer.array(), 0, lengthBuffer.position());
+		out.write(writeBuffer.array(), 0, writeBuffer.position());
+		if (channel == null) {
+			channel = Channels.newChannel(out);
+		}
+		long sent = 0;
+		while (sent < length) {
+			long n = file.transferTo(position + sent, length - sent, channel);
+			if (n <= 0) {
+				// the frame is already promised length bytes, the connection cannot be used after this
+				throw new EOFException("File ended " + (length - sent) + " bytes into a chunk");
+			}
+			sent += n;
+		}
+		out.flush();
+	}
+	
+	@Override
+	public Envelope read() throws IOException {
+		long frame = readLength();
+		if (frame > MAX_FRAME) {
+			throw new IOException("Frame of " + frame + " bytes exceeds limit");
+		}
+		int length = (int)frame;
+		if (readBuffer.length < length) {
+			readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+		}
+		int read = 0;
+		try {
+			while (read < length) {
+				int n = in.read(readBuffer, read, length - read);
+				if (n < 0) {
+					throw new EOFException("Connection closed mid-frame");
+				}
+				read += n;
+			}
+		} catch (SocketTimeoutException e) {
+			throw new IOException("Timed out " + read + " bytes into a frame of " + length, e);
+		}
+		return decode(new WireBuffer(readBuffer, length));
+	}
+	
+	// a long, five bytes of seven bits can hold more than an int
+	private long readLength() throws IOException {
+		long length = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b;
+			try {
+				b = in.read();
+			} catch (SocketTimeoutException e) {
+				if (shift == 0) {
+					throw e;
+				}
+				throw new IOException("Timed out partway through a frame length", e);
+			}
+			if (b < 0) {
+				throw new EOFException();
+			}
+			length |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return length;
+			}
+		}
+		throw new IOException("Malformed frame length");
+	}
+}
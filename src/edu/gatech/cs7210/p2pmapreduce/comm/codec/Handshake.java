@@ -0,0 +1,74 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ * The dispatcher opens each connection with a magic number, its protocol version
+ * and the message format it would like to use. The listener answers with its own
+ * version and the format both sides will use, falling back to Java serialization
+ * whenever the binary format is not understood by either end. A listener older
+ * than the dispatcher agrees to a binary format the dispatcher no longer speaks,
+ * so the dispatcher then connects again asking for Java serialization.
+ */
+public class Handshake {
+	
+	private static final int MAGIC = 0x50324d52;
+	// 2 added job progress to the binary job status
+	public static final byte VERSION = 2;
+
+	// null if the listener agreed to the binary format of an older version, the connection is then of no use
+	public static MessageCodec client(InputStream in, OutputStream out, byte format) throws IOException {
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeInt(MAGIC);
+		dos.writeByte(VERSION);
+		dos.writeByte(format);
+		dos.flush();
+		
+		DataInputStream dis = new DataInputStream(in);
+		byte version = dis.readByte();
+		byte agreed = dis.readByte();
+		if (version < VERSION && agreed == MessageCodec.BINARY) {
+			return null;
+		}
+		return create(agreed, in, out);
+	}
+	
+	public static MessageCodec server(InputStream in, OutputStream out) throws IOException {
+		DataInputStream dis = new DataInputStream(in);
+		if (dis.readInt() != MAGIC) {
+			throw new IOException("Connection did not open with a P2PMapReduce handshake");
+		}
+		byte version = dis.readByte();
+		byte format = dis.readByte();
+		byte agreed = version >= VERSION && format == MessageCodec.BINARY 
+				? MessageCodec.BINARY : MessageCodec.SERIALIZED;
+		
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeByte(VERSION);
+		dos.writeByte(agreed);
+		dos.flush();
+		return create(agreed, in, out);
+	}
+	
+	private static MessageCodec create(byte format, InputStream in, OutputStream out) throws IOException {
+		switch (format) {
+		case MessageCodec.BINARY:
+			return new BinaryCodec(in, out);
+		case MessageCodec.SERIALIZED:
+			return new SerializationCodec(in, out);
+		default:
+			throw new IOException("Unknown message format [" + format + "]");
+		}
+	}
+	
+	public static byte parseFormat(String format) {
+		if (format != null && format.equalsIgnoreCase("serialized")) {
+			return MessageCodec.SERIALIZED;
+		}
+		return MessageCodec.BINARY;
+	}
+}
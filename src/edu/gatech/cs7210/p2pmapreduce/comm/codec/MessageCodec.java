@@ -0,0 +1,23 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.codec;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import edu.gatech.cs7210.p2pmapreduce.comm.Envelope;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+
+public interface MessageCodec {
+	
+	public static final byte SERIALIZED = 0;
+	public static final byte BINARY = 1;
+
+	public byte getFormat();
+	
+	public void write(Envelope envelope) throws IOException;
+	
+	// writes the chunk with length bytes of file from position as its data
+	public void write(long id, StreamEvent chunk, FileChannel file, long position, int length) throws IOException;
+	
+	// a SocketTimeoutException means the read timed out before the first byte of a message, any later timeout is an IOException
+	public Envelope read() throws IOException;
+}
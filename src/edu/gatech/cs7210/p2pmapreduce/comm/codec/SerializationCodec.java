@@ -0,0 +1,74 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.gatech.cs7210.p2pmapreduce.comm.Envelope;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+
+public class SerializationCodec implements MessageCodec {
+
+	private InputStream in;
+	private ObjectOutputStream os;
+	private ObjectInputStream is;
+	
+	public SerializationCodec(InputStream in, OutputStream out) throws IOException {
+		this.in = in;
+		// both ends write their stream header before reading the other's, so neither blocks
+		os = new ObjectOutputStream(out);
+		os.flush();
+		is = new ObjectInputStream(in);
+	}
+	
+	@Override
+	public byte getFormat() {
+		return SERIALIZED;
+	}
+	
+	@Override
+	public void write(Envelope envelope) throws IOException {
+		os.writeObject(envelope);
+		// the stream's back-reference table would otherwise grow for the life of the connection
+		os.reset();
+		os.flush();
+	}
+	
+	// the chunk has to be a whole object to be serialized, so its data is read in first
+	@Override
+	public void write(long id, StreamEvent chunk, FileChannel file, long position, int length) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(length);
+		while (data.hasRemaining()) {
+			if (file.read(data, position + data.position()) < 0) {
+				throw new EOFException("File ended " + data.remaining() + " bytes into a chunk");
+			}
+		}
+		write(new Envelope(id, new StreamEvent(chunk.getType(), chunk.getStatus(), chunk.getPath(), 
+				chunk.getOffset(), data.array())));
+	}
+	
+	@Override
+	public Envelope read() throws IOException {
+		// waits for the first byte on its own, the object stream cannot say how far into an envelope it timed out
+		if (in.markSupported()) {
+			in.mark(1);
+			if (in.read() < 0) {
+				throw new EOFException();
+			}
+			in.reset();
+		}
+		try {
+			return (Envelope)is.readObject();
+		} catch (SocketTimeoutException e) {
+			throw new IOException("Timed out partway through an envelope", e);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Failed to parse envelope", e);
+		}
+	}
+}
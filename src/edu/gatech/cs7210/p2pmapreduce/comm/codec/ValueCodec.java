@@ -0,0 +1,10 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.codec;
+
+import java.io.IOException;
+
+public interface ValueCodec<T> {
+
+	public void encode(WireBuffer buffer, T value) throws IOException;
+	
+	public T decode(WireBuffer buffer) throws IOException;
+}
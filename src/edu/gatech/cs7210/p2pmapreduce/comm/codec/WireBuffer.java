@@ -0,0 +1,182 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.codec;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+public class WireBuffer {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private ByteBuffer buffer;
+	
+	public WireBuffer(int capacity) {
+		this.buffer = ByteBuffer.allocate(capacity);
+	}
+	
+	public WireBuffer(byte[] bytes, int length) {
+		this.buffer = ByteBuffer.wrap(bytes, 0, length);
+	}
+	
+	public void clear() {
+		buffer.clear();
+	}
+	
+	public byte[] array() {
+		return buffer.array();
+	}
+	
+	public int position() {
+		return buffer.position();
+	}
+	
+	public int remaining() {
+		return buffer.remaining();
+	}
+	
+	private void ensure(int length) {
+		if (buffer.remaining() < length) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+	}
+	
+	public void putByte(int b) {
+		ensure(1);
+		buffer.put((byte)b);
+	}
+	
+	public byte getByte() {
+		return buffer.get();
+	}
+	
+	// the constant at the ordinal in the next byte, as the encoder wrote it with putByte
+	public <E extends Enum<E>> E getEnum(E[] values) throws IOException {
+		int ordinal = getByte();
+		if (ordinal < 0 || ordinal >= values.length) {
+			throw new IOException("Unknown ordinal [" + ordinal + "] of " + values.getClass().getComponentType().getSimpleName());
+		}
+		return values[ordinal];
+	}
+	
+	public void putBoolean(boolean b) {
+		putByte(b ? 1 : 0);
+	}
+	
+	public boolean getBoolean() {
+		return buffer.get() != 0;
+	}
+	
+	// unsigned LEB128, seven bits per byte with the high bit marking continuation
+	public void putVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+	
+	public long getVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	public void putVarInt(int value) {
+		putVarLong(value & 0xFFFFFFFFL);
+	}
+	
+	public int getVarInt() throws IOException {
+		return (int)getVarLong();
+	}
+	
+	// a count of the items that follow, each of which takes at least a byte of what is left of the frame
+	public int getCount() throws IOException {
+		long count = getVarLong();
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IOException("Count of " + count + " exceeds frame");
+		}
+		return (int)count;
+	}
+	
+	// zig-zag encoded so small negative values stay short
+	public void putSignedVarLong(long value) {
+		putVarLong((value << 1) ^ (value >> 63));
+	}
+	
+	public long getSignedVarLong() throws IOException {
+		long value = getVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	public void putBytes(byte[] bytes) {
+		if (bytes == null) {
+			putVarInt(0);
+			return;
+		}
+		putVarInt(bytes.length + 1);
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+	
+	public byte[] getBytes() throws IOException {
+		long length = getVarLong();
+		if (length == 0) {
+			return null;
+		}
+		if (length < 0 || length - 1 > buffer.remaining()) {
+			throw new IOException("Field length exceeds frame");
+		}
+		byte[] bytes = new byte[(int)(length - 1)];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+	public void putString(String s) {
+		putBytes(s == null ? null : s.getBytes(UTF8));
+	}
+	
+	public String getString() throws IOException {
+		byte[] bytes = getBytes();
+		return bytes == null ? null : new String(bytes, UTF8);
+	}
+	
+	public void putUrl(URL url) {
+		if (url == null) {
+			putByte(-1);
+			return;
+		}
+		putByte(URL.KNOWN_PROTOCOLS.indexOf(url.getProtocol()));
+		putString(url.getHost());
+		putVarInt(url.getPort());
+		putString(url.getPath());
+	}
+	
+	public URL getUrl() throws IOException {
+		int protocol = getByte();
+		if (protocol < 0) {
+			return null;
+		}
+		if (protocol >= URL.KNOWN_PROTOCOLS.size()) {
+			throw new IOException("Unknown URL protocol [" + protocol + "]");
+		}
+		String url = URL.KNOWN_PROTOCOLS.get(protocol) + "://" + getString() + ":" + getVarInt() + "/" + getString();
+		try {
+			return new URL(url);
+		} catch (MalformedURLException e) {
+			throw new IOException("Malformed URL [" + url + "]", e);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import java.util.List;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+
+public class BatchTaskRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+	
+	// the most tasks a master takes in one request, a client splits larger batches
+	public static final int MAX_TASKS = 256;
+
+	private List<ITask> tasks;
+	private URL url;
+	private int priority;
+	
+	public BatchTaskRequest(List<ITask> tasks, URL url, int priority) {
+		this.tasks = tasks;
+		this.url = url;
+		this.priority = priority;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public List<ITask> getTasks() {
+		return this.tasks;
+	}
+	
+	public int getPriority() {
+		return this.priority;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
\ No newline at end of file
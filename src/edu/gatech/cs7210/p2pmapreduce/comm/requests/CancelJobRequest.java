@@ -0,0 +1,32 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+
+public class CancelJobRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private String jobId;
+	private URL url;
+	
+	public CancelJobRequest(String jobId, URL url) {
+		this.jobId = jobId;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
@@ -0,0 +1,33 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+
+// asks a master that published a cached result to send it over
+public class FetchResultRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private String key;
+	private URL url;
+	
+	public FetchResultRequest(String key, URL url) {
+		this.key = key;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public String getKey() {
+		return this.key;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
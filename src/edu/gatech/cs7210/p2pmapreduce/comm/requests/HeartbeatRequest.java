@@ -0,0 +1,33 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+
+// a batch of encoded ResourceSamples, from the slave at the address it is received from as a JoinRequest is
+public class HeartbeatRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private URL url;
+	private byte[] samples;
+	
+	public HeartbeatRequest(URL url, byte[] samples) {
+		this.url = url;
+		this.samples = samples;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public byte[] getSamples() {
+		return this.samples;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
@@ -1,13 +1,28 @@
 package edu.gatech.cs7210.p2pmapreduce.comm.requests;
 
+import java.io.Serializable;
+
 import de.uniba.wiai.lspi.chord.data.URL;
 import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
 import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
 
-public abstract class IRequest {
+public abstract class IRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// the address the request was received from, set by the listener and never sent
+	private transient String sender;
 
 	public abstract URL getUrl();
 
+	public String getSender() {
+		return this.sender;
+	}
+
+	public void setSender(String sender) {
+		this.sender = sender;
+	}
+
 	public IResponse handleRequest(CommandListener listener) {
 		return listener.handleRequest(this);
 	}
@@ -1,9 +1,13 @@
 package edu.gatech.cs7210.p2pmapreduce.comm.requests;
 
 import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
 
 public class JoinRequest extends IRequest {
 
+	private static final long serialVersionUID = 1L;
+
 	private URL url;
 	
 	public JoinRequest(URL url) {
@@ -13,4 +17,9 @@ public class JoinRequest extends IRequest {
 	public URL getUrl() {
 		return this.url;
 	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
 }
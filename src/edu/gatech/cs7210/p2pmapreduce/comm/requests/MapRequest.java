@@ -0,0 +1,54 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import java.util.List;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceTask;
+
+public class MapRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private String jobId;
+	private MapReduceTask task;
+	private List<String> inputs;
+	private List<URL> owners;
+	private URL url;
+	
+	public MapRequest(String jobId, MapReduceTask task, List<String> inputs, List<URL> owners, URL url) {
+		this.jobId = jobId;
+		this.task = task;
+		this.inputs = inputs;
+		this.owners = owners;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public MapReduceTask getTask() {
+		return this.task;
+	}
+	
+	public List<String> getInputs() {
+		return this.inputs;
+	}
+	
+	// the master each partition is shuffled to, by partition number
+	public List<URL> getOwners() {
+		return this.owners;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
@@ -0,0 +1,54 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import java.util.List;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceTask;
+
+public class ReduceRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private String jobId;
+	private int partition;
+	private MapReduceTask task;
+	private List<URL> sources;
+	private URL url;
+	
+	public ReduceRequest(String jobId, int partition, MapReduceTask task, List<URL> sources, URL url) {
+		this.jobId = jobId;
+		this.partition = partition;
+		this.task = task;
+		this.sources = sources;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public int getPartition() {
+		return this.partition;
+	}
+	
+	public MapReduceTask getTask() {
+		return this.task;
+	}
+	
+	// the mappers whose output must have arrived before the partition is reduced
+	public List<URL> getSources() {
+		return this.sources;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
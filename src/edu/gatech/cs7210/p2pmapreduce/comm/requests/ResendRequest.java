@@ -0,0 +1,44 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+
+public class ResendRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private String jobId;
+	private int partition;
+	private URL owner;
+	private URL url;
+	
+	public ResendRequest(String jobId, int partition, URL owner, URL url) {
+		this.jobId = jobId;
+		this.partition = partition;
+		this.owner = owner;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public int getPartition() {
+		return this.partition;
+	}
+	
+	public URL getOwner() {
+		return this.owner;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
@@ -0,0 +1,66 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+
+/*
+ * One compressed chunk of a mapper's output for a partition. The last request of
+ * a stream carries no data and its sequence is the number of chunks sent.
+ */
+public class ShuffleRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+
+	private String jobId;
+	private int partition;
+	private URL source;
+	private int sequence;
+	private byte[] data;
+	private boolean last;
+	private URL url;
+	
+	public ShuffleRequest(String jobId, int partition, URL source, int sequence, byte[] data, boolean last, URL url) {
+		this.jobId = jobId;
+		this.partition = partition;
+		this.source = source;
+		this.sequence = sequence;
+		this.data = data;
+		this.last = last;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public int getPartition() {
+		return this.partition;
+	}
+	
+	public URL getSource() {
+		return this.source;
+	}
+	
+	public int getSequence() {
+		return this.sequence;
+	}
+	
+	public byte[] getData() {
+		return this.data;
+	}
+	
+	public boolean isLast() {
+		return this.last;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
+}
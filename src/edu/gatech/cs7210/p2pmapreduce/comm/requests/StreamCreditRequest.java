@@ -0,0 +1,36 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.requests;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+// lets the listener send that many more events on a stream opened on the same connection, never answered
+public class StreamCreditRequest extends IRequest {
+
+	private static final long serialVersionUID = 1L;
+	
+	// closes the stream instead
+	public static final int CANCEL = -1;
+	
+	private long streamId;
+	private int credits;
+	private URL url;
+	
+	public StreamCreditRequest(long streamId, int credits, URL url) {
+		this.streamId = streamId;
+		this.credits = credits;
+		this.url = url;
+	}
+	
+	@Override
+	public URL getUrl() {
+		return this.url;
+	}
+	
+	// the envelope id of the StreamJobRequest
+	public long getStreamId() {
+		return this.streamId;
+	}
+	
+	public int getCredits() {
+		return this.credits;
+	}
+}
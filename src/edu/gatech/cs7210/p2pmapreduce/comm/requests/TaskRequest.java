@@ -1,16 +1,26 @@
 package edu.gatech.cs7210.p2pmapreduce.comm.requests;
 
 import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandListener;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
 import edu.gatech.cs7210.p2pmapreduce.task.ITask;
 
 public class TaskRequest extends IRequest {
 
+	private static final long serialVersionUID = 1L;
+
 	private ITask task;
 	private URL url;
+	private int priority;
 	
 	public TaskRequest(ITask task, URL url) {
+		this(task, url, 0);
+	}
+	
+	public TaskRequest(ITask task, URL url, int priority) {
 		this.task = task;
 		this.url = url;
+		this.priority = priority;
 	}
 	
 	@Override
@@ -21,4 +31,13 @@ public class TaskRequest extends IRequest {
 	public ITask getTask() {
 		return this.task;
 	}
+	
+	public int getPriority() {
+		return this.priority;
+	}
+	
+	@Override
+	public IResponse handleRequest(CommandListener listener) {
+		return listener.handleRequest(this);
+	}
 }
@@ -0,0 +1,28 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+import java.util.List;
+
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+
+public class BatchTaskResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean success;
+	// one per task in the order they were sent, null for a task the master did not accept
+	private List<JobStatus> statuses;
+	
+	public BatchTaskResponse(boolean success, List<JobStatus> statuses) {
+		this.success = success;
+		this.statuses = statuses;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return this.success;
+	}
+	
+	public List<JobStatus> getStatuses() {
+		return this.statuses;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,28 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+// a request turned away before it was handled, to be sent again no sooner than retryAfter milliseconds
+public class BusyResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+
+	private String message;
+	private long retryAfter;
+	
+	public BusyResponse(String message, long retryAfter) {
+		this.message = message;
+		this.retryAfter = retryAfter;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return false;
+	}
+	
+	public String getMessage() {
+		return this.message;
+	}
+	
+	public long getRetryAfter() {
+		return this.retryAfter;
+	}
+}
@@ -0,0 +1,33 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+public class ErrorResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+	
+	// how a listener answers a request it has no handler for
+	private static final String UNSUPPORTED = "Unsupported request type";
+
+	private String message;
+	
+	public ErrorResponse(String message) {
+		this.message = message;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return false;
+	}
+	
+	public String getMessage() {
+		return this.message;
+	}
+	
+	public static ErrorResponse unsupported(Object request) {
+		return new ErrorResponse(UNSUPPORTED + " [" + request.getClass().getName() + "]");
+	}
+	
+	// true if the listener did not handle the request at all, rather than failing it
+	public boolean isUnsupported() {
+		return message != null && message.startsWith(UNSUPPORTED);
+	}
+}
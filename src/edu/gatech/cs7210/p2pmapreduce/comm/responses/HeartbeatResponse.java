@@ -0,0 +1,23 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+public class HeartbeatResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean success = false;
+	// false once the master has no record of the slave, which then has to join again
+	private boolean member = false;
+	
+	public HeartbeatResponse(boolean success, boolean member) {
+		this.success = success;
+		this.member = member;
+	}
+	
+	public boolean isSuccess() {
+		return this.success;
+	}
+	
+	public boolean isMember() {
+		return this.member;
+	}
+}
@@ -1,6 +1,8 @@
 package edu.gatech.cs7210.p2pmapreduce.comm.responses;
 
-public interface IResponse {
+import java.io.Serializable;
+
+public interface IResponse extends Serializable {
 
 	public boolean isSuccess();
 }
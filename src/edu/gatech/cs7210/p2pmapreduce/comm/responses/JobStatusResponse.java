@@ -0,0 +1,25 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+
+public class JobStatusResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+	
+	private boolean success;
+	private JobStatus status;
+	
+	public JobStatusResponse(boolean success, JobStatus status) {
+		this.success = success;
+		this.status = status;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return this.success;
+	}
+	
+	public JobStatus getStatus() {
+		return this.status;
+	}
+}
@@ -2,6 +2,8 @@ package edu.gatech.cs7210.p2pmapreduce.comm.responses;
 
 public class JoinResponse implements IResponse {
 
+	private static final long serialVersionUID = 1L;
+
 	private boolean success = false;
 	
 	public JoinResponse(boolean success) {
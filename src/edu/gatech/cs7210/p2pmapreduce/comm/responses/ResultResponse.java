@@ -0,0 +1,39 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+import java.util.List;
+
+public class ResultResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+	
+	private boolean success;
+	private long created;
+	private List<String> paths;
+	private List<byte[]> contents;
+	
+	public ResultResponse(boolean success, long created, List<String> paths, List<byte[]> contents) {
+		this.success = success;
+		this.created = created;
+		this.paths = paths;
+		this.contents = contents;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return this.success;
+	}
+	
+	// when the result was first cached, so a copy expires with the original
+	public long getCreated() {
+		return this.created;
+	}
+	
+	// output files relative to the output directory, separated by '/'
+	public List<String> getPaths() {
+		return this.paths;
+	}
+	
+	public List<byte[]> getContents() {
+		return this.contents;
+	}
+}
@@ -0,0 +1,26 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+import java.util.List;
+
+public class ShuffleResponse implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+	
+	private boolean success;
+	private List<Integer> failedPartitions;
+	
+	public ShuffleResponse(boolean success, List<Integer> failedPartitions) {
+		this.success = success;
+		this.failedPartitions = failedPartitions;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return this.success;
+	}
+	
+	// partitions a mapper could not deliver to their owner
+	public List<Integer> getFailedPartitions() {
+		return this.failedPartitions;
+	}
+}
@@ -0,0 +1,61 @@
+package edu.gatech.cs7210.p2pmapreduce.comm.responses;
+
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+
+/*
+ * One of the responses to a StreamJobRequest. PROGRESS carries the status of the
+ * job each time its state or progress changes, OUTPUT the lines the job printed
+ * since the last one, CHUNK a piece of an output file of a job that succeeded,
+ * starting at offset, and END the final status of the job, after which nothing
+ * more is sent on the stream.
+ */
+public class StreamEvent implements IResponse {
+
+	private static final long serialVersionUID = 1L;
+	
+	public enum Type {
+		PROGRESS, OUTPUT, CHUNK, END
+	}
+	
+	private Type type;
+	private JobStatus status;
+	private String path;
+	private long offset;
+	private byte[] data;
+	
+	public StreamEvent(Type type, JobStatus status, String path, long offset, byte[] data) {
+		this.type = type;
+		this.status = status;
+		this.path = path;
+		this.offset = offset;
+		this.data = data;
+	}
+	
+	@Override
+	public boolean isSuccess() {
+		return true;
+	}
+	
+	public Type getType() {
+		return this.type;
+	}
+	
+	// null for OUTPUT and CHUNK
+	public JobStatus getStatus() {
+		return this.status;
+	}
+	
+	// the output file relative to the output directory, separated by '/'
+	public String getPath() {
+		return this.path;
+	}
+	
+	public long getOffset() {
+		return this.offset;
+	}
+	
+	// UTF-8 lines ending in '\n' for OUTPUT
+	public byte[] getData() {
+		return this.data;
+	}
+}
@@ -2,14 +2,26 @@ package edu.gatech.cs7210.p2pmapreduce.comm.responses;
 
 public class TaskResponse implements IResponse {
 
+	private static final long serialVersionUID = 1L;
+
 	private boolean success;
+	private String jobId;
 	
 	public TaskResponse(boolean success) {
+		this(success, null);
+	}
+	
+	public TaskResponse(boolean success, String jobId) {
 		this.success = success;
+		this.jobId = jobId;
 	}
 	
 	@Override
 	public boolean isSuccess() {
 		return this.success;
 	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
 }
@@ -0,0 +1,7 @@
+package edu.gatech.cs7210.p2pmapreduce.metrics;
+
+public interface Gauge {
+
+	// read whenever the metrics are exported, so this should be cheap
+	public long getValue();
+}
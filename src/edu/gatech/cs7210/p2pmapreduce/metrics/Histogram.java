@@ -0,0 +1,115 @@
+package edu.gatech.cs7210.p2pmapreduce.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counts recorded values in log-linear buckets, the way HdrHistogram does: every
+ * power of two is split into 16 equal buckets, so any value is reported within
+ * 1/16 of what was recorded while the whole range of a long fits in 960 buckets.
+ * Recording is a bucket increment and an add, with no locks, so it can stay on
+ * in the request path.
+ */
+public class Histogram {
+	
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+	
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private LongAdder sum = new LongAdder();
+	private AtomicLong max = new AtomicLong();
+	
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+	
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total, sum.sum(), max.get());
+	}
+	
+	static int index(long value) {
+		if (value < 2 * SUB_COUNT) {
+			return (int)value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift << SUB_BITS) + (int)(value >>> shift);
+	}
+	
+	// the largest value that falls into the bucket
+	static long highest(int index) {
+		if (index < 2 * SUB_COUNT) {
+			return index;
+		}
+		int shift = (index >> SUB_BITS) - 1;
+		long lowest = (long)(index - (shift << SUB_BITS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+	
+	/*
+	 * The counts as they were when the snapshot was taken. Buckets are copied one at
+	 * a time while recording goes on, so a snapshot may be a few values behind but
+	 * never reports a value that was not recorded.
+	 */
+	public static class Snapshot {
+		
+		private long[] counts;
+		private long count;
+		private long sum;
+		private long max;
+		
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+		
+		public long getCount() {
+			return this.count;
+		}
+		
+		public long getSum() {
+			return this.sum;
+		}
+		
+		public long getMax() {
+			return this.max;
+		}
+		
+		public double getMean() {
+			return count == 0 ? 0 : (double)sum / count;
+		}
+		
+		// the value at or below which the given fraction of recorded values fall, 0 when empty
+		public long getPercentile(double fraction) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long)Math.ceil(fraction * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highest(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
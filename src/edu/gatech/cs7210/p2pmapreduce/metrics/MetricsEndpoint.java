@@ -0,0 +1,60 @@
+package edu.gatech.cs7210.p2pmapreduce.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Serves the registry in the Prometheus text format at /metrics, on a single
+ * thread of its own so scrapes never compete with the command listener.
+ */
+public class MetricsEndpoint {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private MetricsRegistry registry;
+	private HttpServer server;
+	
+	public MetricsEndpoint(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+	
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = registry.toText().getBytes(UTF8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-endpoint");
+				t.setDaemon(true);
+				return t;
+			}
+		}));
+		server.start();
+		System.out.println("serving metrics on port: " + port);
+	}
+	
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+}
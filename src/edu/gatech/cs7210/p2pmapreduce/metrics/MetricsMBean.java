@@ -0,0 +1,108 @@
+package edu.gatech.cs7210.p2pmapreduce.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+
+/*
+ * Shows the registry over JMX with one read-only attribute per counter and gauge,
+ * and one per statistic of each histogram, named after the metric with the
+ * statistic appended. Metrics registered after a console has connected appear
+ * the next time it reads the MBean info.
+ */
+class MetricsMBean implements DynamicMBean {
+	
+	private static final String[] STATISTICS = { ".count", ".mean", ".p50", ".p90", ".p99", ".p999", ".max" };
+	
+	private MetricsRegistry registry;
+	
+	MetricsMBean(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+	
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		if (registry.getCounters().containsKey(attribute)) {
+			return registry.getCounters().get(attribute).sum();
+		}
+		Gauge gauge = registry.getGauges().get(attribute);
+		if (gauge != null) {
+			return registry.readGauge(attribute, gauge);
+		}
+		for (String statistic : STATISTICS) {
+			if (!attribute.endsWith(statistic)) {
+				continue;
+			}
+			Histogram histogram = registry.getHistograms().get(attribute.substring(0, attribute.length() - statistic.length()));
+			if (histogram != null) {
+				return statistic(histogram.snapshot(), statistic);
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+	
+	private Object statistic(Histogram.Snapshot snapshot, String statistic) {
+		if (statistic.equals(".count")) {
+			return snapshot.getCount();
+		} else if (statistic.equals(".mean")) {
+			return snapshot.getMean();
+		} else if (statistic.equals(".p50")) {
+			return snapshot.getPercentile(0.5);
+		} else if (statistic.equals(".p90")) {
+			return snapshot.getPercentile(0.9);
+		} else if (statistic.equals(".p99")) {
+			return snapshot.getPercentile(0.99);
+		} else if (statistic.equals(".p999")) {
+			return snapshot.getPercentile(0.999);
+		}
+		return snapshot.getMax();
+	}
+	
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// left out, as the interface asks
+			}
+		}
+		return list;
+	}
+	
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metric [" + attribute.getName() + "] is read only");
+	}
+	
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+	
+	public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(action));
+	}
+	
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String name : registry.getCounters().keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", "counter", true, false, false));
+		}
+		for (String name : registry.getGauges().keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", "gauge", true, false, false));
+		}
+		for (String name : registry.getHistograms().keySet()) {
+			for (String statistic : STATISTICS) {
+				String type = statistic.equals(".mean") ? "java.lang.Double" : "java.lang.Long";
+				attributes.add(new MBeanAttributeInfo(name + statistic, type, "histogram", true, false, false));
+			}
+		}
+		return new MBeanInfo(getClass().getName(), "P2PMapReduce node metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+	}
+}
@@ -0,0 +1,183 @@
+package edu.gatech.cs7210.p2pmapreduce.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/*
+ * Holds the counters, gauges and histograms of this node by name. Names follow
+ * the Prometheus text format, with labels written into the name, so the same
+ * strings are used for the scrape endpoint, the JMX attributes and the log.
+ * Looking a metric up goes through a map, so callers on a hot path keep the
+ * metric they were handed rather than asking for it again.
+ */
+public class MetricsRegistry {
+	
+	public static final String OBJECT_NAME = "edu.gatech.cs7210.p2pmapreduce:type=Metrics";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final Logger LOG = Logger.getLogger(MetricsRegistry.class);
+	
+	private ConcurrentNavigableMap<String, LongAdder> counters = new ConcurrentSkipListMap<String, LongAdder>();
+	private ConcurrentNavigableMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+	private ConcurrentNavigableMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+	private ScheduledExecutorService reporter;
+	
+	private MetricsRegistry() {
+	}
+	
+	private static MetricsRegistry INSTANCE;
+	
+	public static synchronized MetricsRegistry getInstance() {
+		if (INSTANCE == null) {
+			INSTANCE = new MetricsRegistry();
+		}
+		return INSTANCE;
+	}
+	
+	// name{key="value"}
+	public static String label(String name, String key, String value) {
+		return name + "{" + key + "=\"" + value + "\"}";
+	}
+	
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+	
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+	
+	// replaces any gauge already registered under the name
+	public void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+	
+	public Map<String, LongAdder> getCounters() {
+		return this.counters;
+	}
+	
+	public Map<String, Gauge> getGauges() {
+		return this.gauges;
+	}
+	
+	public Map<String, Histogram> getHistograms() {
+		return this.histograms;
+	}
+	
+	public void writeText(Writer out) throws IOException {
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+			out.write(counter.getKey() + " " + counter.getValue().sum() + "\n");
+		}
+		for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+			out.write(gauge.getKey() + " " + readGauge(gauge.getKey(), gauge.getValue()) + "\n");
+		}
+		for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+			String name = histogram.getKey();
+			Histogram.Snapshot snapshot = histogram.getValue().snapshot();
+			for (double quantile : QUANTILES) {
+				out.write(withLabel(name, "quantile", String.valueOf(quantile)) + " "
+						+ snapshot.getPercentile(quantile) + "\n");
+			}
+			out.write(withSuffix(name, "_max") + " " + snapshot.getMax() + "\n");
+			out.write(withSuffix(name, "_sum") + " " + snapshot.getSum() + "\n");
+			out.write(withSuffix(name, "_count") + " " + snapshot.getCount() + "\n");
+		}
+	}
+	
+	public String toText() {
+		StringWriter out = new StringWriter();
+		try {
+			writeText(out);
+		} catch (IOException e) {
+			// not thrown by a StringWriter
+		}
+		return out.toString();
+	}
+	
+	long readGauge(String name, Gauge gauge) {
+		try {
+			return gauge.getValue();
+		} catch (RuntimeException e) {
+			System.err.println("Failed to read gauge [" + name + "]");
+			return -1;
+		}
+	}
+	
+	public void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			System.err.println("Could not register metrics MBean [" + OBJECT_NAME + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	// writes every metric to the log4j logger of this class once per interval
+	public synchronized void startLogging(long interval) {
+		if (reporter != null) {
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				if (LOG.isInfoEnabled()) {
+					LOG.info("metrics\n" + toText());
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	// adds a label to a name that may already carry some
+	static String withLabel(String name, String key, String value) {
+		String label = key + "=\"" + value + "\"";
+		int brace = name.indexOf('{');
+		if (brace < 0) {
+			return name + "{" + label + "}";
+		}
+		return name.substring(0, name.length() - 1) + "," + label + "}";
+	}
+	
+	static String withSuffix(String name, String suffix) {
+		int brace = name.indexOf('{');
+		if (brace < 0) {
+			return name + suffix;
+		}
+		return name.substring(0, brace) + suffix + name.substring(brace);
+	}
+}
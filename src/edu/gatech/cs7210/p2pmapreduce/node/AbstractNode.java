@@ -1,29 +1,88 @@
 package edu.gatech.cs7210.p2pmapreduce.node;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
-public abstract class AbstractNode implements INode {
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.Reconfigurable;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+public abstract class AbstractNode implements INode, Reconfigurable {
+	
+	protected ProcessExecutor processes = new ProcessExecutor(ApplicationContext.getInstance().getMaxProcesses(), 
+			ApplicationContext.getInstance().getOutputTailLines(), ApplicationContext.getInstance().getOutputTailBytes());
+	
+	private Histogram runtimes = MetricsRegistry.getInstance().histogram("process_runtime_us");
+	private LongAdder failures = MetricsRegistry.getInstance().counter("process_failures_total");
+	private LongAdder timeouts = MetricsRegistry.getInstance().counter("process_timeouts_total");
+	
+	public AbstractNode() {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.gauge("process_running", new Gauge() {
+			public long getValue() {
+				return processes.getRunning();
+			}
+		});
+		metrics.gauge("process_waiting", new Gauge() {
+			public long getValue() {
+				return processes.getWaiting();
+			}
+		});
+		ApplicationContext.getInstance().addReconfigurable(this);
+	}
+	
+	public void reconfigure(ApplicationContext appContext) {
+		processes.setMaxProcesses(appContext.getMaxProcesses());
+	}
+	
+	protected CompletableFuture<ProcessResult> executeCommandAsync(String command, long timeout) {
+		return executeCommandAsync(command, timeout, null);
+	}
+	
+	protected CompletableFuture<ProcessResult> executeCommandAsync(String command, long timeout, Consumer<String> lines) {
+		CompletableFuture<ProcessResult> future = processes.execute(command, timeout, lines);
+		future.whenComplete(new BiConsumer<ProcessResult, Throwable>() {
+			public void accept(ProcessResult result, Throwable t) {
+				if (result == null) {
+					return;
+				}
+				runtimes.record(result.getWallTime() * 1000);
+				if (result.isTimedOut()) {
+					timeouts.increment();
+				} else if (!result.isSuccess()) {
+					failures.increment();
+				}
+			}
+		});
+		return future;
+	}
 	
 	protected boolean executeCommand(String command) {
+		return executeCommand(command, ApplicationContext.getInstance().getCommandTimeout());
+	}
+	
+	protected boolean executeCommand(String command, long timeout) {
+		CompletableFuture<ProcessResult> future = executeCommandAsync(command, timeout);
 		try {
-			Process p = Runtime.getRuntime().exec(command);
-			InputStream s = p.getInputStream();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(s));
-			String line = reader.readLine();
-			while (line != null) {
-				System.out.println(line);
-				line = reader.readLine();
+			ProcessResult result = future.get();
+			if (!result.isSuccess()) {
+				System.err.println("Command [" + command + "] " + (result.isTimedOut() 
+						? "timed out" : "exited with " + result.getExitCode()) + " after " + result.getWallTime() + "ms");
 			}
-			return true;
-		} catch (IOException e) {
+			return result.isSuccess();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
 			System.err.println("Failed to execute command [" + command + "]");
-			e.printStackTrace();
-			System.exit(-1);
+			e.getCause().printStackTrace();
+			return false;
 		}
-		return false;
-		
 	}
 }
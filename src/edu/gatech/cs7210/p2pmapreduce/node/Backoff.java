@@ -0,0 +1,34 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.util.Random;
+
+/*
+ * Pauses between attempts to reach a peer that may still be starting up itself.
+ * The delay doubles after every pause up to max, and each pause is drawn from
+ * the upper half of the current delay so nodes restarted together spread out
+ * instead of retrying in lockstep.
+ */
+public class Backoff {
+	
+	private long delay;
+	private long max;
+	private Random random = new Random();
+	
+	public Backoff(long initial, long max) {
+		this.delay = Math.max(initial, 1);
+		this.max = Math.max(max, this.delay);
+	}
+	
+	// false if interrupted while waiting
+	public boolean pause() {
+		long pause = delay / 2 + (long)(random.nextDouble() * (delay - delay / 2));
+		delay = Math.min(delay * 2, max);
+		try {
+			Thread.sleep(pause);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
\ No newline at end of file
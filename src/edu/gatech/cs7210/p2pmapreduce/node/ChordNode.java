@@ -1,26 +1,128 @@
 package edu.gatech.cs7210.p2pmapreduce.node;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 import de.uniba.wiai.lspi.chord.data.URL;
 import de.uniba.wiai.lspi.chord.service.Chord;
+import de.uniba.wiai.lspi.chord.service.Key;
 import de.uniba.wiai.lspi.chord.service.ServiceException;
 import de.uniba.wiai.lspi.chord.service.impl.ChordImpl;
 import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.Reconfigurable;
+import edu.gatech.cs7210.p2pmapreduce.chord.BlockKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.DataRecord;
+import edu.gatech.cs7210.p2pmapreduce.chord.JobKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.JournalKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadRecord;
+import edu.gatech.cs7210.p2pmapreduce.chord.LocalitySelector;
+import edu.gatech.cs7210.p2pmapreduce.chord.MasterSelector;
+import edu.gatech.cs7210.p2pmapreduce.chord.PartitionKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.ResultKey;
+import edu.gatech.cs7210.p2pmapreduce.chord.RoutingCache;
+import edu.gatech.cs7210.p2pmapreduce.chord.TaskRecord;
 import edu.gatech.cs7210.p2pmapreduce.chord.UrlKey;
 import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.BatchTaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.CancelJobRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JobStatusRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.StreamJobRequest;
 import edu.gatech.cs7210.p2pmapreduce.comm.requests.TaskRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BatchTaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.BusyResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ErrorResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.JobStatusResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.TaskResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
 import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobHandle;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
 
-public class ChordNode {
+public class ChordNode implements Reconfigurable {
+	
+	// in seconds, read by Open Chord from chord.properties
+	private static final String STABILIZE_INTERVAL = "de.uniba.wiai.lspi.chord.service.impl.ChordImpl.StabilizeTask.interval";
 	
 	private Chord chord;
+	private MasterSelector selector;
+	private LocalitySelector locality = new LocalitySelector();
+	private RoutingCache routes;
+	private LoadRecord publishedLoad;
+	private ScheduledExecutorService reporter;
+	private Speculator speculator;
+	// per master, the timestamp of its latest load record and the time this node first saw it, on this node's clock
+	private Map<URL, long[]> heard = new HashMap<URL, long[]>();
+	private ThreadPoolExecutor resolver;
+	private volatile boolean joined = false;
+	private Histogram retrieveLatency = chordLatency("retrieve");
+	private Histogram insertLatency = chordLatency("insert");
+	private Histogram removeLatency = chordLatency("remove");
+	private LongAdder chordFailures = MetricsRegistry.getInstance().counter("chord_failures_total");
 	
 	public ChordNode() {
-		chord = new ChordImpl();
+		this(new ChordImpl());
+	}
+	
+	public ChordNode(Chord chord) {
+		this.chord = chord;
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		// records older than a few publish intervals belong to masters that have gone away
+		selector = new MasterSelector(appContext.getPlacementCandidates(), 
+				3L * appContext.getLoadPublishInterval(), new Random());
+		// the ring has settled after a join or failure within a stabilize round, and so have lookups of it,
+		// but the load records are replaced every publish interval
+		routes = new RoutingCache(appContext.getRoutingCacheSize(), 
+				Math.min(1000L * Long.getLong(STABILIZE_INTERVAL, 12), appContext.getLoadPublishInterval()));
+		appContext.addReconfigurable(this);
+	}
+	
+	public synchronized void reconfigure(ApplicationContext appContext) {
+		routes.setMaxEntries(appContext.getRoutingCacheSize());
+		if (resolver != null) {
+			Reconfigurable.resize(resolver, appContext.getBatchResolveThreads());
+		}
 	}
 	
 	public void runAsFirst() {
 		try {
-			chord.create(ApplicationContext.getInstance().getUrl());
+			// create(URL) in the bundled Open Chord fails setting up the local node, setting the URL first does not
+			chord.setURL(ApplicationContext.getInstance().getUrl());
+			chord.create();
 		} catch (ServiceException e) {
 			System.err.println("Could not create Chord service");
 			e.printStackTrace();
@@ -28,9 +130,115 @@ public class ChordNode {
 	}
 	
 	public URL run(URL bootstrapUrl, boolean isMaster) {
+		return join(Collections.singletonList(bootstrapUrl), isMaster);
+	}
+	
+	// joins through the first bootstrap node that answers, going round the list again after a growing pause
+	public URL join(List<URL> bootstrapUrls, boolean isMaster) {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		Backoff backoff = new Backoff(appContext.getJoinBackoff(), appContext.getJoinBackoffMax());
+		for (int round = 0; round <= appContext.getJoinRetries(); round++) {
+			if (round > 0 && !backoff.pause()) {
+				return null;
+			}
+			for (URL bootstrapUrl : bootstrapUrls) {
+				try {
+					// join chord topology as either a master or slave node
+					URL master = chord.join(appContext.getUrl(), bootstrapUrl, isMaster);
+					joined = true;
+					System.out.println("Joined Chord topology through [" + bootstrapUrl + "]" 
+							+ (round > 0 ? " after " + (round + 1) + " rounds" : ""));
+					return master;
+				} catch (ServiceException e) {
+					System.err.println("Could not join Chord topology through [" + bootstrapUrl + "]: " + e.getMessage());
+				}
+			}
+		}
+		System.err.println("Could not join Chord topology through any of " + bootstrapUrls);
+		return null;
+	}
+	
+	private static Histogram chordLatency(String operation) {
+		return MetricsRegistry.getInstance().histogram(MetricsRegistry.label("chord_latency_us", "op", operation));
+	}
+	
+	// the ring operations below time every call into the ring, failed ones included
+	private Set<Serializable> retrieve(Key key) throws ServiceException {
+		long start = System.nanoTime();
+		try {
+			return chord.retrieve(key);
+		} catch (ServiceException e) {
+			chordFailures.increment();
+			throw e;
+		} finally {
+			retrieveLatency.record((System.nanoTime() - start) / 1000);
+		}
+	}
+	
+	private URL insert(Key key, Serializable value) throws ServiceException {
+		long start = System.nanoTime();
+		try {
+			return chord.insert(key, value);
+		} catch (ServiceException e) {
+			chordFailures.increment();
+			throw e;
+		} finally {
+			insertLatency.record((System.nanoTime() - start) / 1000);
+		}
+	}
+	
+	private void remove(Key key, Serializable value) throws ServiceException {
+		long start = System.nanoTime();
+		try {
+			chord.remove(key, value);
+		} catch (ServiceException e) {
+			chordFailures.increment();
+			throw e;
+		} finally {
+			removeLatency.record((System.nanoTime() - start) / 1000);
+		}
+	}
+	
+	// a retrieve answered from the routing cache when it holds the key
+	private Set<Serializable> lookup(Key key) throws ServiceException {
+		long now = System.currentTimeMillis();
+		Set<Serializable> values = routes.get(key, now);
+		if (values == null) {
+			values = retrieve(key);
+			routes.put(key, values, now);
+		}
+		return values;
+	}
+	
+	public RoutingCache getRoutingCache() {
+		return this.routes;
+	}
+	
+	public boolean isJoined() {
+		return this.joined;
+	}
+	
+	public JobHandle publishTask(ITask task) {
+		return publishTask(task, 0);
+	}
+	
+	public JobHandle publishTask(ITask task, int priority) {
 		try {
-			// join chord topology as either a master or slave node
-			return chord.join(ApplicationContext.getInstance().getUrl(), bootstrapUrl, isMaster);
+			// prefer the master already holding the task's input, then the less loaded
+			// of the masters near this node, then the master responsible for this node
+			UrlKey key = new UrlKey(ApplicationContext.getInstance().getUrl());
+			URL masterUrl = locateInputs(task);
+			if (masterUrl == null) {
+				LoadRecord load = selectMaster(key);
+				if (load != null) {
+					masterUrl = load.getMasterUrl();
+				} else {
+					// insert into chord topology to find responsible master node
+					masterUrl = insert(key, ApplicationContext.getInstance().getUrl());
+				}
+			}
+			
+			return submitTask(task, priority, masterUrl);
 		} catch (ServiceException e) {
 			System.err.println("Could not create Chord service");
 			e.printStackTrace();
@@ -38,18 +246,705 @@ public class ChordNode {
 		return null;
 	}
 	
-	public void publishTask(ITask task) {
+	public List<JobHandle> publishTasks(Collection<ITask> tasks) {
+		return publishTasks(tasks, 0);
+	}
+	
+	// publishes the tasks with one request per master, answering with their handles in the order of
+	// the tasks and null for any task that could not be placed, or whose master did not say whether it was
+	public List<JobHandle> publishTasks(Collection<ITask> tasks, int priority) {
+		List<ITask> pending = new ArrayList<ITask>(tasks);
+		URL[] masters = resolveMasters(pending);
+		
+		Map<URL, List<Integer>> groups = new LinkedHashMap<URL, List<Integer>>();
+		for (int i = 0; i < masters.length; i++) {
+			if (masters[i] == null) {
+				continue;
+			}
+			List<Integer> group = groups.get(masters[i]);
+			if (group == null) {
+				group = new ArrayList<Integer>();
+				groups.put(masters[i], group);
+			}
+			group.add(i);
+		}
+		
+		// every batch is on the wire before the first response is awaited
+		CommandDispatcher dispatcher = new CommandDispatcher();
+		List<URL> urls = new ArrayList<URL>();
+		List<List<Integer>> batches = new ArrayList<List<Integer>>();
+		List<BatchTaskRequest> requests = new ArrayList<BatchTaskRequest>();
+		List<CompletableFuture<IResponse>> responses = new ArrayList<CompletableFuture<IResponse>>();
+		for (Map.Entry<URL, List<Integer>> group : groups.entrySet()) {
+			List<Integer> indexes = group.getValue();
+			for (int from = 0; from < indexes.size(); from += BatchTaskRequest.MAX_TASKS) {
+				List<Integer> batch = indexes.subList(from, Math.min(from + BatchTaskRequest.MAX_TASKS, indexes.size()));
+				List<ITask> batchTasks = new ArrayList<ITask>(batch.size());
+				for (Integer index : batch) {
+					batchTasks.add(pending.get(index));
+				}
+				BatchTaskRequest request = new BatchTaskRequest(batchTasks, group.getKey(), priority);
+				urls.add(group.getKey());
+				batches.add(batch);
+				requests.add(request);
+				responses.add(dispatcher.dispatchAsync(request));
+			}
+		}
+		
+		JobHandle[] handles = new JobHandle[masters.length];
+		for (int i = 0; i < responses.size(); i++) {
+			URL url = urls.get(i);
+			List<Integer> batch = batches.get(i);
+			IResponse response = dispatcher.await(url, responses.get(i));
+			if (response instanceof BusyResponse && awaitRetry((BusyResponse)response)) {
+				response = dispatcher.dispatch(requests.get(i));
+			}
+			if (response instanceof BatchTaskResponse && response.isSuccess()) {
+				List<JobStatus> statuses = ((BatchTaskResponse)response).getStatuses();
+				for (int j = 0; j < batch.size(); j++) {
+					JobStatus status = statuses.get(j);
+					if (status != null) {
+						handles[batch.get(j)] = new JobHandle(status.getJobId(), url);
+					}
+				}
+			} else if (response instanceof BusyResponse) {
+				// sending the tasks one at a time would only add to the load that turned them away
+				routes.invalidate(url);
+			} else if (response instanceof ErrorResponse && ((ErrorResponse)response).isUnsupported()) {
+				// a master that does not take batches still takes the tasks one at a time
+				for (Integer index : batch) {
+					handles[index] = submitTask(pending.get(index), priority, url);
+				}
+			} else {
+				// the master may have queued any of the tasks before the batch failed or its answer was lost,
+				// so they are not sent again where they could run twice
+				System.err.println("Batch of " + batch.size() + " tasks to [" + url + "] may or may not have been queued");
+				routes.invalidate(url);
+			}
+		}
+		return Arrays.asList(handles);
+	}
+	
+	// the master each task would be published to, with the same preferences as publishTask
+	private URL[] resolveMasters(List<ITask> tasks) {
+		URL[] masters = new URL[tasks.size()];
+		// input lookups are a ring round trip each, so they are made side by side
+		ExecutorService lookups = getResolver();
+		List<Future<URL>> located = new ArrayList<Future<URL>>(tasks.size());
+		for (final ITask task : tasks) {
+			located.add(lookups.submit(new Callable<URL>() {
+				public URL call() {
+					return locateInputs(task);
+				}
+			}));
+		}
+		
+		URL self = ApplicationContext.getInstance().getUrl();
+		UrlKey key = new UrlKey(self);
+		BigInteger position = MasterSelector.position(key);
+		LoadKey loadKey = new LoadKey(LoadKey.segment(position));
+		List<Serializable> loads = null;
 		try {
-			// insert into chord topology to find responsible master node
-			URL masterUrl = chord.insert(new UrlKey(ApplicationContext.getInstance().getUrl()), ApplicationContext.getInstance().getUrl());
-			
-			// submit task to master
-			CommandDispatcher dispatcher = new CommandDispatcher();
-			dispatcher.dispatch(new TaskRequest(task, masterUrl));
-			
+			loads = loadsFollowing(position, selector.getCandidates(), null, true);
 		} catch (ServiceException e) {
-			System.err.println("Could not create Chord service");
+			System.err.println("Could not retrieve master load records");
+			e.printStackTrace();
+		}
+		// the load records are read once for the whole batch, so the jobs placed so far
+		// are counted against their masters to keep them from all landing on one
+		Map<URL, Integer> assigned = routes.getAssigned(loadKey);
+		URL responsible = null;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < masters.length; i++) {
+			try {
+				masters[i] = located.get(i).get();
+			} catch (ExecutionException e) {
+				System.err.println("Could not locate inputs of task [" + tasks.get(i).getTaskName() + "]");
+				e.getCause().printStackTrace();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			if (masters[i] == null && loads != null) {
+				LoadRecord load = selector.select(key, loads, now, assigned);
+				if (load != null) {
+					masters[i] = load.getMasterUrl();
+					routes.assign(loadKey, masters[i]);
+				}
+			}
+			if (masters[i] == null) {
+				if (responsible == null) {
+					try {
+						// insert into chord topology to find responsible master node
+						responsible = insert(key, self);
+					} catch (ServiceException e) {
+						System.err.println("Could not find master responsible for [" + self + "]");
+						e.printStackTrace();
+						break;
+					}
+				}
+				masters[i] = responsible;
+			}
+			Integer count = assigned.get(masters[i]);
+			assigned.put(masters[i], count == null ? 1 : count + 1);
+		}
+		return masters;
+	}
+	
+	private synchronized ExecutorService getResolver() {
+		if (resolver == null) {
+			ThreadFactory factory = new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "task-resolver");
+					t.setDaemon(true);
+					return t;
+				}
+			};
+			int threads = ApplicationContext.getInstance().getBatchResolveThreads();
+			resolver = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+					new LinkedBlockingQueue<Runnable>(), factory);
+		}
+		return this.resolver;
+	}
+	
+	public JobHandle submitTask(ITask task, int priority, URL masterUrl) {
+		// submit task to master, which queues it and answers with the job id straight away
+		CommandDispatcher dispatcher = new CommandDispatcher();
+		IResponse response = dispatcher.dispatch(new TaskRequest(task, masterUrl, priority));
+		if (response instanceof BusyResponse && awaitRetry((BusyResponse)response)) {
+			response = dispatcher.dispatch(new TaskRequest(task, masterUrl, priority));
+		}
+		if (response instanceof TaskResponse && response.isSuccess()) {
+			return new JobHandle(((TaskResponse)response).getJobId(), masterUrl);
+		}
+		// the master is gone or turning work away, placement reads the ring again
+		routes.invalidate(masterUrl);
+		return null;
+	}
+	
+	// waits out a master's retry hint once, if it is within the request timeout, false if it is not
+	private static boolean awaitRetry(BusyResponse response) {
+		if (response.getRetryAfter() > ApplicationContext.getInstance().getRequestTimeout()) {
+			return false;
+		}
+		try {
+			Thread.sleep(response.getRetryAfter());
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	// publishes the task and follows it to completion, running a second copy elsewhere if it straggles
+	public CompletableFuture<JobStatus> runTask(ITask task, int priority) {
+		return getSpeculator().submit(task, priority);
+	}
+	
+	public synchronized Speculator getSpeculator() {
+		if (speculator == null) {
+			ApplicationContext appContext = ApplicationContext.getInstance();
+			speculator = new Speculator(this, appContext.getSpeculationPercentile(), 
+					appContext.getSpeculationMinSamples(), appContext.getSpeculationStallTimeout(), 
+					appContext.getSpeculationPollInterval(), appContext.getSpeculationHistory());
+		}
+		return this.speculator;
+	}
+	
+	// the master after the given one on the ring, where a second copy of its job is run
+	public URL successorMaster(URL master) {
+		try {
+			LoadRecord next = selector.successor(master, loadsFollowing(MasterSelector.position(master), 1, master, false), 
+					System.currentTimeMillis());
+			return next == null ? null : next.getMasterUrl();
+		} catch (ServiceException e) {
+			System.err.println("Could not retrieve master load records");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	public JobStatus getJobStatus(JobHandle job) {
+		JobStatus status = getJobStatus(job.getJobId(), job.getMasterUrl());
+		if (status == null) {
+			// the master may have failed and another one taken the job over
+			URL adopter = locateJob(job.getJobId());
+			if (adopter != null && !adopter.equals(job.getMasterUrl())) {
+				status = getJobStatus(job.getJobId(), adopter);
+			}
+		}
+		return status;
+	}
+	
+	private JobStatus getJobStatus(String jobId, URL masterUrl) {
+		CommandDispatcher dispatcher = new CommandDispatcher();
+		IResponse response = dispatcher.dispatch(new JobStatusRequest(jobId, masterUrl));
+		if (response instanceof JobStatusResponse) {
+			return ((JobStatusResponse)response).getStatus();
+		}
+		return null;
+	}
+	
+	// getJobStatus without waiting on it, a master that does not answer within timeout counts as gone
+	public CompletableFuture<JobStatus> getJobStatusAsync(final JobHandle job, final long timeout) {
+		return requestJobStatus(job.getJobId(), job.getMasterUrl(), timeout).thenCompose(
+				new Function<JobStatus, CompletionStage<JobStatus>>() {
+			public CompletionStage<JobStatus> apply(JobStatus status) {
+				if (status != null) {
+					return CompletableFuture.completedFuture(status);
+				}
+				// the master may have failed and another one taken the job over, the ring is read off the caller's thread
+				return CompletableFuture.supplyAsync(new Supplier<URL>() {
+					public URL get() {
+						return locateJob(job.getJobId());
+					}
+				}).thenCompose(new Function<URL, CompletionStage<JobStatus>>() {
+					public CompletionStage<JobStatus> apply(URL adopter) {
+						if (adopter != null && !adopter.equals(job.getMasterUrl())) {
+							return requestJobStatus(job.getJobId(), adopter, timeout);
+						}
+						return CompletableFuture.completedFuture(null);
+					}
+				});
+			}
+		});
+	}
+	
+	// the status, or null if the master does not know the job, cannot be reached or does not answer within timeout
+	private CompletableFuture<JobStatus> requestJobStatus(final String jobId, final URL masterUrl, final long timeout) {
+		// connecting to a master that has gone takes a while, so the request is sent off the caller's thread too
+		return CompletableFuture.supplyAsync(new Supplier<CompletableFuture<IResponse>>() {
+			public CompletableFuture<IResponse> get() {
+				return new CommandDispatcher().dispatchAsync(new JobStatusRequest(jobId, masterUrl))
+						.orTimeout(timeout, TimeUnit.MILLISECONDS);
+			}
+		}).thenCompose(new Function<CompletableFuture<IResponse>, CompletionStage<IResponse>>() {
+			public CompletionStage<IResponse> apply(CompletableFuture<IResponse> response) {
+				return response;
+			}
+		}).handle(new BiFunction<IResponse, Throwable, JobStatus>() {
+			public JobStatus apply(IResponse response, Throwable t) {
+				if (response instanceof JobStatusResponse) {
+					return ((JobStatusResponse)response).getStatus();
+				}
+				return null;
+			}
+		});
+	}
+	
+	// the progress and output of the job as it runs, then its output files, as the subscriber asks for them
+	public Flow.Publisher<IResponse> streamJob(JobHandle job) {
+		return new CommandDispatcher().stream(new StreamJobRequest(job.getJobId(), job.getMasterUrl()));
+	}
+	
+	public boolean cancelJob(JobHandle job) {
+		CommandDispatcher dispatcher = new CommandDispatcher();
+		if (dispatcher.dispatch(new CancelJobRequest(job.getJobId(), job.getMasterUrl())).isSuccess()) {
+			return true;
+		}
+		URL adopter = locateJob(job.getJobId());
+		return adopter != null && !adopter.equals(job.getMasterUrl()) 
+				&& dispatcher.dispatch(new CancelJobRequest(job.getJobId(), adopter)).isSuccess();
+	}
+	
+	// replaces the previous record of the job, if any, in the journal of the master that accepted it
+	public boolean journalTask(TaskRecord record, TaskRecord previous) {
+		try {
+			insert(new JournalKey(record.getMasterUrl()), record);
+			if (previous != null) {
+				remove(new JournalKey(previous.getMasterUrl()), previous);
+			}
+			return true;
+		} catch (ServiceException e) {
+			System.err.println("Could not journal job " + record);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	public void releaseTask(TaskRecord record) {
+		try {
+			remove(new JournalKey(record.getMasterUrl()), record);
+		} catch (ServiceException e) {
+			System.err.println("Could not release job " + record);
+			e.printStackTrace();
+		}
+	}
+	
+	// the jobs in a master's journal at their latest state, or null if it could not be read
+	public List<TaskRecord> getJournal(URL master) {
+		try {
+			List<TaskRecord> records = new ArrayList<TaskRecord>();
+			for (Serializable value : retrieve(new JournalKey(master))) {
+				if (value instanceof TaskRecord) {
+					records.add((TaskRecord)value);
+				}
+			}
+			// a job written twice by an interrupted state change is taken over once, at its latest state
+			Map<String, TaskRecord> latest = new LinkedHashMap<String, TaskRecord>();
+			for (TaskRecord record : records) {
+				TaskRecord other = latest.get(record.getJobId());
+				if (other == null || other.getTimestamp() < record.getTimestamp()) {
+					latest.put(record.getJobId(), record);
+				}
+			}
+			records.removeAll(latest.values());
+			for (TaskRecord stale : records) {
+				releaseTask(stale);
+			}
+			return new ArrayList<TaskRecord>(latest.values());
+		} catch (ServiceException e) {
+			System.err.println("Could not read the journal of [" + master + "]");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	// masters that have stopped publishing their load and whose jobs fall to this one, the next live master on the ring;
+	// records are aged on this node's clock, so a master whose clock is behind is not taken for gone
+	public List<LoadRecord> findOrphanedMasters() {
+		List<LoadRecord> orphaned = new ArrayList<LoadRecord>();
+		URL self = ApplicationContext.getInstance().getUrl();
+		List<Serializable> loads;
+		try {
+			// back to the live master before this one, the failed masters after it are this one's to take over
+			loads = loadsPreceding(MasterSelector.position(self), 1, self);
+		} catch (ServiceException e) {
+			System.err.println("Could not retrieve master load records");
+			e.printStackTrace();
+			return orphaned;
+		}
+		long now = System.currentTimeMillis();
+		// a master that crashed between publishing and withdrawing a record leaves two, it is alive if either is fresh
+		Map<URL, LoadRecord> latest = new HashMap<URL, LoadRecord>();
+		for (Serializable value : loads) {
+			if (value instanceof LoadRecord) {
+				LoadRecord load = (LoadRecord)value;
+				LoadRecord other = latest.get(load.getMasterUrl());
+				if (other == null || other.getTimestamp() < load.getTimestamp()) {
+					latest.put(load.getMasterUrl(), load);
+				}
+			}
+		}
+		List<LoadRecord> live = new ArrayList<LoadRecord>();
+		List<LoadRecord> silent = new ArrayList<LoadRecord>();
+		for (LoadRecord load : latest.values()) {
+			if (load.getMasterUrl().equals(self) || !isSilent(load, now)) {
+				live.add(load);
+			} else {
+				silent.add(load);
+			}
+		}
+		for (LoadRecord load : silent) {
+			LoadRecord next = selector.successor(load.getMasterUrl(), live);
+			if (next != null && next.getMasterUrl().equals(self)) {
+				orphaned.add(load);
+			}
+		}
+		return orphaned;
+	}
+	
+	// true once the master's latest record has stayed the same for longer than a record stays fresh
+	private boolean isSilent(LoadRecord load, long now) {
+		synchronized (heard) {
+			long[] seen = heard.get(load.getMasterUrl());
+			if (seen == null || seen[0] != load.getTimestamp()) {
+				heard.put(load.getMasterUrl(), new long[] { load.getTimestamp(), now });
+				return false;
+			}
+			return now - seen[1] > selector.getMaxAge();
+		}
+	}
+	
+	// the time this node first saw the master's latest load record, or -1 if it has seen none
+	public long lastHeard(URL master) {
+		synchronized (heard) {
+			long[] seen = heard.get(master);
+			return seen == null ? -1 : seen[1];
+		}
+	}
+	
+	// asks the master itself, one that answers anything at all within the read timeout is still up
+	public boolean isReachable(URL master) {
+		CompletableFuture<IResponse> response = new CommandDispatcher().dispatchAsync(new JobStatusRequest("", master));
+		try {
+			response.get(ApplicationContext.getInstance().getReadTimeout(), TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			response.cancel(true);
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			// not known to be gone
+			return true;
+		}
+	}
+	
+	// withdraws the load records of a master whose jobs have been taken over, up to the one seen last
+	public void forgetMaster(LoadRecord load) {
+		LoadKey key = loadKey(load.getMasterUrl());
+		try {
+			for (Serializable value : retrieve(key)) {
+				if (value instanceof LoadRecord && ((LoadRecord)value).getMasterUrl().equals(load.getMasterUrl())
+						&& ((LoadRecord)value).getTimestamp() <= load.getTimestamp()) {
+					remove(key, value);
+				}
+			}
+		} catch (ServiceException e) {
+			System.err.println("Could not withdraw the load records of [" + load.getMasterUrl() + "]");
+			e.printStackTrace();
+		}
+		synchronized (heard) {
+			heard.remove(load.getMasterUrl());
+		}
+	}
+	
+	// points clients holding a handle on the failed master at the one that took the job over
+	public void forwardJob(String jobId, URL master) {
+		JobKey key = new JobKey(jobId);
+		try {
+			for (Serializable value : retrieve(key)) {
+				remove(key, value);
+			}
+			insert(key, new JobHandle(jobId, master));
+		} catch (ServiceException e) {
+			System.err.println("Could not forward job [" + jobId + "] to [" + master + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	// the master that took the job over, or null if it has not moved
+	public URL locateJob(String jobId) {
+		try {
+			for (Serializable value : retrieve(new JobKey(jobId))) {
+				if (value instanceof JobHandle) {
+					return ((JobHandle)value).getMasterUrl();
+				}
+			}
+			return null;
+		} catch (ServiceException e) {
+			System.err.println("Could not locate job [" + jobId + "]");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private LoadRecord selectMaster(Key key) {
+		BigInteger position = MasterSelector.position(key);
+		LoadKey loadKey = new LoadKey(LoadKey.segment(position));
+		try {
+			LoadRecord load = selector.select(key, loadsFollowing(position, selector.getCandidates(), null, true), 
+					System.currentTimeMillis(), routes.getAssigned(loadKey));
+			if (load != null) {
+				routes.assign(loadKey, load.getMasterUrl());
+			}
+			return load;
+		} catch (ServiceException e) {
+			System.err.println("Could not retrieve master load records");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	// the load records of the ring a segment at a time from position round the ring, until wanted fresh
+	// masters other than exclude follow position within the segments read, or every segment has been read
+	private List<Serializable> loadsFollowing(BigInteger position, int wanted, URL exclude, boolean cached) 
+			throws ServiceException {
+		List<Serializable> loads = new ArrayList<Serializable>();
+		int first = LoadKey.segment(position);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < LoadKey.SEGMENTS; i++) {
+			LoadKey key = new LoadKey(first + i);
+			loads.addAll(cached ? lookup(key) : retrieve(key));
+			if (selector.countWithin(position, LoadKey.start(first + i + 1), loads, now, exclude) >= wanted) {
+				break;
+			}
+		}
+		return loads;
+	}
+	
+	// the same going back round the ring, until wanted fresh masters other than exclude precede position
+	private List<Serializable> loadsPreceding(BigInteger position, int wanted, URL exclude) throws ServiceException {
+		List<Serializable> loads = new ArrayList<Serializable>();
+		int last = LoadKey.segment(position);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < LoadKey.SEGMENTS; i++) {
+			loads.addAll(retrieve(new LoadKey(last - i)));
+			if (selector.countWithin(LoadKey.start(last - i), position, loads, now, exclude) >= wanted) {
+				break;
+			}
+		}
+		return loads;
+	}
+	
+	// a master's load record is kept in the segment of the ring its node is in
+	private static LoadKey loadKey(URL master) {
+		return new LoadKey(LoadKey.segment(MasterSelector.position(master)));
+	}
+	
+	public synchronized void publishLoad(LoadRecord load) {
+		LoadKey key = loadKey(load.getMasterUrl());
+		try {
+			if (publishedLoad != null) {
+				remove(key, publishedLoad);
+			} else {
+				// records left by this master before a restart
+				for (Serializable value : retrieve(key)) {
+					if (value instanceof LoadRecord && ((LoadRecord)value).getMasterUrl().equals(load.getMasterUrl())) {
+						remove(key, value);
+					}
+				}
+			}
+			insert(key, load);
+			publishedLoad = load;
+		} catch (ServiceException e) {
+			System.err.println("Could not publish master load record");
+			e.printStackTrace();
+		}
+	}
+	
+	public void startLoadReporting(final MasterNode master) {
+		int interval = ApplicationContext.getInstance().getLoadPublishInterval();
+		reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				publishLoad(master.getLoad(ApplicationContext.getInstance().getUrl()));
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+		// the load records are also how masters notice that one of them has failed
+		reporter.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					master.adoptOrphans();
+				} catch (RuntimeException e) {
+					// an exception would cancel the schedule
+					System.err.println("Failed to take over the jobs of failed masters");
+					e.printStackTrace();
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	private URL locateInputs(ITask task) {
+		List<String> inputs = task.getInputs();
+		if (inputs == null || inputs.isEmpty()) {
+			return null;
+		}
+		Map<String, Set<Serializable>> locations = new HashMap<String, Set<Serializable>>();
+		try {
+			for (String input : inputs) {
+				locations.put(input, lookup(new BlockKey(input)));
+			}
+		} catch (ServiceException e) {
+			System.err.println("Could not retrieve input locations for task [" + task.getTaskName() + "]");
+			e.printStackTrace();
+			return null;
+		}
+		return locality.select(locations);
+	}
+	
+	// the master holding the most bytes of a single input, or null if no master has published it
+	public URL locateInput(String input) {
+		try {
+			return locality.select(Collections.singletonMap(input, retrieve(new BlockKey(input))));
+		} catch (ServiceException e) {
+			System.err.println("Could not retrieve input location [" + input + "]");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	// registers the partition of a distributed job in the ring, returning the master responsible for it
+	public URL locatePartition(String jobId, int partition) {
+		try {
+			return insert(new PartitionKey(jobId, partition), jobId);
+		} catch (ServiceException e) {
+			System.err.println("Could not locate partition [" + partition + "] of job [" + jobId + "]");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	public void releasePartition(String jobId, int partition) {
+		try {
+			remove(new PartitionKey(jobId, partition), jobId);
+		} catch (ServiceException e) {
+			System.err.println("Could not release partition [" + partition + "] of job [" + jobId + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	public void publishData(DataRecord data) {
+		try {
+			insert(new BlockKey(data.getBlockId()), data);
+		} catch (ServiceException e) {
+			System.err.println("Could not publish data record [" + data + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	public void removeData(DataRecord data) {
+		try {
+			remove(new BlockKey(data.getBlockId()), data);
+		} catch (ServiceException e) {
+			System.err.println("Could not remove data record [" + data + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	// advertises a cached task result held by this master
+	public void publishResult(String key, long bytes) {
+		try {
+			insert(new ResultKey(key), new DataRecord(key, ApplicationContext.getInstance().getUrl(), bytes));
+		} catch (ServiceException e) {
+			System.err.println("Could not publish result [" + key + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	public void removeResult(String key, long bytes) {
+		try {
+			remove(new ResultKey(key), new DataRecord(key, ApplicationContext.getInstance().getUrl(), bytes));
+		} catch (ServiceException e) {
+			System.err.println("Could not remove result [" + key + "]");
+			e.printStackTrace();
+		}
+	}
+	
+	// another master holding the cached result, or null if none has published it
+	public URL locateResult(String key) {
+		try {
+			URL self = ApplicationContext.getInstance().getUrl();
+			for (Serializable value : retrieve(new ResultKey(key))) {
+				if (value instanceof DataRecord && !((DataRecord)value).getMasterUrl().equals(self)) {
+					return ((DataRecord)value).getMasterUrl();
+				}
+			}
+			return null;
+		} catch (ServiceException e) {
+			System.err.println("Could not locate result [" + key + "]");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	public void publishDataManifest(String manifest) {
+		// one "<path or block id> <bytes>" pair per line
+		try {
+			URL url = ApplicationContext.getInstance().getUrl();
+			for (String line : Files.readAllLines(new File(manifest).toPath(), Charset.forName("UTF-8"))) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length == 2 && !fields[0].startsWith("#")) {
+					publishData(new DataRecord(fields[0], url, Long.parseLong(fields[1])));
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to read data manifest [" + manifest + "]");
 			e.printStackTrace();
+		} catch (NumberFormatException e) {
+			System.err.println("Malformed data manifest [" + manifest + "]");
 		}
 	}
 }
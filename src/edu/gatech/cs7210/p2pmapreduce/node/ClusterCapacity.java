@@ -0,0 +1,173 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+/*
+ * The resources of a master's slaves as their heartbeats last reported them, and
+ * when each was last heard from. Every slave in the slaves file is tracked from
+ * the time the master first sees it there, but only one that has sent a heartbeat
+ * can be found stale, so slaves that do not run the heartbeat agent are kept. The totals over the slaves are published as
+ * gauges: processors and load as the average of the slaves, memory, disk and tasks
+ * summed.
+ */
+public class ClusterCapacity {
+	
+	private Map<String, Worker> workers = new HashMap<String, Worker>();
+	private LongAdder heartbeats = MetricsRegistry.getInstance().counter("cluster_heartbeats_total");
+	private LongAdder samples = MetricsRegistry.getInstance().counter("cluster_heartbeat_samples_total");
+	private LongAdder bytes = MetricsRegistry.getInstance().counter("cluster_heartbeat_bytes_total");
+	
+	public ClusterCapacity() {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.gauge("cluster_slaves_reporting", new Gauge() {
+			public long getValue() {
+				return getReporting();
+			}
+		});
+		metrics.gauge("cluster_cpu_permille", new Gauge() {
+			public long getValue() {
+				return average(ResourceSample.CPU);
+			}
+		});
+		metrics.gauge("cluster_load_average_hundredths", new Gauge() {
+			public long getValue() {
+				return average(ResourceSample.LOAD);
+			}
+		});
+		metrics.gauge("cluster_memory_total_kb", new Gauge() {
+			public long getValue() {
+				return sum(ResourceSample.MEMORY_TOTAL);
+			}
+		});
+		metrics.gauge("cluster_memory_available_kb", new Gauge() {
+			public long getValue() {
+				return sum(ResourceSample.MEMORY_AVAILABLE);
+			}
+		});
+		metrics.gauge("cluster_disk_free_mb", new Gauge() {
+			public long getValue() {
+				return sum(ResourceSample.DISK_FREE);
+			}
+		});
+		metrics.gauge("cluster_running_tasks", new Gauge() {
+			public long getValue() {
+				return sum(ResourceSample.RUNNING_TASKS);
+			}
+		});
+	}
+	
+	// keeps the newest of the samples, a batch delayed behind a later one changes nothing but the time last heard from
+	public synchronized void report(String host, List<ResourceSample> batch, int size, long now) {
+		heartbeats.increment();
+		samples.add(batch.size());
+		bytes.add(size);
+		Worker worker = workers.get(host);
+		if (worker == null) {
+			worker = new Worker(now);
+			workers.put(host, worker);
+		}
+		worker.seen = now;
+		for (ResourceSample sample : batch) {
+			if (worker.latest == null || sample.getTime() > worker.latest.getTime()) {
+				worker.latest = sample;
+			}
+		}
+	}
+	
+	// starts the wait for a heartbeat over, for a slave that has just joined
+	public synchronized void touch(String host, long now) {
+		Worker worker = workers.get(host);
+		if (worker == null) {
+			workers.put(host, new Worker(now));
+		} else {
+			worker.seen = now;
+		}
+	}
+	
+	public synchronized void touchAll(long now) {
+		for (Worker worker : workers.values()) {
+			worker.seen = now;
+		}
+	}
+	
+	// tracks the hosts not seen before from now on and forgets those no longer among them
+	public synchronized void retain(Collection<String> hosts, long now) {
+		workers.keySet().retainAll(hosts);
+		for (String host : hosts) {
+			if (!workers.containsKey(host)) {
+				workers.put(host, new Worker(now));
+			}
+		}
+	}
+	
+	public synchronized void remove(String host) {
+		workers.remove(host);
+	}
+	
+	// the hosts that have reported but not been heard from within timeout, with the time since they were
+	public synchronized Map<String, Long> getStale(long timeout, long now) {
+		Map<String, Long> stale = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Worker> entry : workers.entrySet()) {
+			if (entry.getValue().latest != null && now - entry.getValue().seen > timeout) {
+				stale.put(entry.getKey(), now - entry.getValue().seen);
+			}
+		}
+		return stale;
+	}
+	
+	// null until the host has sent a heartbeat
+	public synchronized ResourceSample getLatest(String host) {
+		Worker worker = workers.get(host);
+		return worker == null ? null : worker.latest;
+	}
+	
+	public synchronized int getReporting() {
+		int reporting = 0;
+		for (Worker worker : workers.values()) {
+			if (worker.latest != null) {
+				reporting++;
+			}
+		}
+		return reporting;
+	}
+	
+	public synchronized long sum(int field) {
+		long sum = 0;
+		for (Worker worker : workers.values()) {
+			if (worker.latest != null) {
+				sum += worker.latest.get(field);
+			}
+		}
+		return sum;
+	}
+	
+	public synchronized long average(int field) {
+		int reporting = getReporting();
+		return reporting == 0 ? 0 : sum(field) / reporting;
+	}
+	
+	public synchronized String toString() {
+		return "slaves=" + workers.size() + " reporting=" + getReporting() + " cpu=" + average(ResourceSample.CPU) / 10.0
+				+ "% memory=" + sum(ResourceSample.MEMORY_AVAILABLE) + "/" + sum(ResourceSample.MEMORY_TOTAL)
+				+ "kB disk=" + sum(ResourceSample.DISK_FREE) + "/" + sum(ResourceSample.DISK_TOTAL)
+				+ "MB tasks=" + sum(ResourceSample.RUNNING_TASKS);
+	}
+	
+	private static class Worker {
+		
+		private long seen;
+		private ResourceSample latest;
+		
+		public Worker(long seen) {
+			this.seen = seen;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.HeartbeatRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.JoinRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.HeartbeatResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+/*
+ * Keeps a slave in touch with the master it joined. The host is sampled every
+ * heartbeat interval and every batch of samples goes to the master in a single
+ * request, so the master hears from each slave once per batch rather than once
+ * per sample. A batch the master does not take is dropped, the next one carries
+ * newer readings. A master that no longer has the slave in its slaves file, after
+ * removing it for missed heartbeats or losing the file, is joined again. An
+ * interval of 0 pauses the agent until it is set again.
+ */
+public class HeartbeatAgent implements Runnable {
+	
+	private static final long PAUSED_CHECK = 1000;
+	
+	private URL master;
+	private ResourceSampler sampler;
+	private CommandDispatcher dispatcher = new CommandDispatcher();
+	private LongAdder sent = MetricsRegistry.getInstance().counter("heartbeats_sent_total");
+	private LongAdder failed = MetricsRegistry.getInstance().counter("heartbeats_failed_total");
+	private LongAdder rejoined = MetricsRegistry.getInstance().counter("heartbeat_rejoins_total");
+	
+	public HeartbeatAgent(URL master) {
+		this.master = master;
+		this.sampler = new ResourceSampler(new File(ApplicationContext.getInstance().getEngineSpillDir()));
+	}
+	
+	// runs until the thread is interrupted
+	public void run() {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		List<ResourceSample> batch = new ArrayList<ResourceSample>();
+		while (!Thread.currentThread().isInterrupted()) {
+			int interval = appContext.getHeartbeatInterval();
+			if (interval > 0) {
+				batch.add(sampler.sample());
+				if (batch.size() >= appContext.getHeartbeatBatch()) {
+					send(batch);
+					batch.clear();
+				}
+			}
+			try {
+				Thread.sleep(interval > 0 ? interval : PAUSED_CHECK);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private void send(List<ResourceSample> batch) {
+		IResponse response = dispatcher.dispatch(new HeartbeatRequest(master, ResourceSample.encode(batch)));
+		if (!(response instanceof HeartbeatResponse) || !response.isSuccess()) {
+			failed.increment();
+			return;
+		}
+		sent.increment();
+		if (!((HeartbeatResponse)response).isMember()) {
+			rejoined.increment();
+			System.err.println("Master [" + master + "] has no record of this slave, joining again");
+			if (!dispatcher.dispatch(new JoinRequest(master)).isSuccess()) {
+				System.err.println("Join request to [" + master + "] failed, retrying with the next heartbeat");
+			}
+		}
+	}
+}
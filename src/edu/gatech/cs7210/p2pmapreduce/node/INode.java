@@ -2,6 +2,7 @@ package edu.gatech.cs7210.p2pmapreduce.node;
 
 import de.uniba.wiai.lspi.chord.data.URL;
 import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
 
 public interface INode {
 
@@ -10,4 +11,10 @@ public interface INode {
 	public boolean update(URL url);
 	
 	public boolean executeTask(ITask task);
+	
+	public String submitTask(ITask task, int priority);
+	
+	public JobStatus getJobStatus(String jobId);
+	
+	public JobStatus cancelJob(String jobId);
 }
@@ -0,0 +1,584 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.Reconfigurable;
+import edu.gatech.cs7210.p2pmapreduce.comm.StreamSink;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.StreamEvent.Type;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+
+/*
+ * Queues the jobs submitted to a master and runs up to concurrency of them at a
+ * time, highest priority first. Within a priority the submitters share the master
+ * by start-time fair queuing: each job is tagged with the virtual time it may
+ * start, one job's length of the submitter's weight after the submitter's last
+ * job, and jobs start in tag order, so a submitter with a long backlog does not
+ * hold up one submitting a job now, and a submitter of weight 2 gets twice the
+ * jobs of one of weight 1 started while both have jobs waiting. With
+ * a result cache, a job whose output is cached is restored instead of run. With
+ * a task journal, every accepted job and its state changes are written to the
+ * ring, so another master can take the job over if this one fails, and a job
+ * taken over is dropped here before it starts or finishes. A job can be
+ * followed while it runs, its progress and output lines are sent as they change
+ * and the files it wrote once it has succeeded.
+ */
+public class JobScheduler {
+	
+	// the job client logs lines like "map 45% reduce 10%" as a Hadoop job advances
+	private static final Pattern HADOOP_PROGRESS = Pattern.compile("map (\\d+)% reduce (\\d+)%");
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// jobs submitted from this node itself or taken over from the journal
+	public static final String LOCAL = "local";
+	// the virtual length of a job of weight 1
+	private static final long TAG_SCALE = 1 << 20;
+	// finish tags are swept of submitters that have caught up after this many submissions
+	private static final int SWEEP_INTERVAL = 1024;
+	// the bounds of the retry hint, and the hint before any job has finished
+	private static final long MIN_RETRY = 100;
+	private static final long MAX_RETRY = 60000;
+	private static final long DEFAULT_RETRY = 1000;
+	
+	private AbstractNode node;
+	private ResultCache cache;
+	private TaskJournal journal;
+	private volatile long taskTimeout;
+	private ThreadPoolExecutor executor;
+	private AtomicLong sequence = new AtomicLong(0);
+	private Map<String, Job> jobs = new HashMap<String, Job>();
+	// finished jobs oldest first, each kept for status polls until history newer ones have finished
+	private ArrayDeque<String> retired = new ArrayDeque<String>();
+	private int history;
+	// jobs queued and not yet started, counted apart from the queue to be read without its lock
+	private AtomicInteger waiting = new AtomicInteger(0);
+	private volatile int queueLimit = 0;
+	// an estimate, a racing update is as good as either
+	private volatile long meanRunTime = 0;
+	private volatile Map<String, Integer> weights = Collections.emptyMap();
+	// the start tag of the job started last
+	private AtomicLong virtualTime = new AtomicLong(0);
+	// per submitter, the tag its next job may start at
+	private ConcurrentMap<String, Long> finishTags = new ConcurrentHashMap<String, Long>();
+	
+	public JobScheduler(AbstractNode node, ResultCache cache, TaskJournal journal, int concurrency, 
+			int history, long taskTimeout) {
+		this.node = node;
+		this.cache = cache;
+		this.journal = journal;
+		this.history = history;
+		this.taskTimeout = taskTimeout;
+		this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS, 
+				new PriorityBlockingQueue<Runnable>());
+	}
+	
+	// running jobs are not stopped when concurrency is lowered, fewer are started as they finish
+	public void setConcurrency(int concurrency) {
+		Reconfigurable.resize(executor, concurrency);
+	}
+	
+	public void setTaskTimeout(long taskTimeout) {
+		this.taskTimeout = taskTimeout;
+	}
+	
+	// 0 queues every job submitted
+	public void setQueueLimit(int queueLimit) {
+		this.queueLimit = queueLimit;
+	}
+	
+	// submitters not in weights have a weight of 1, jobs already tagged keep their tags
+	public void setWeights(Map<String, Integer> weights) {
+		this.weights = weights;
+	}
+	
+	// 0 while the queue has room for jobs more, otherwise a guess at the milliseconds until it has;
+	// a batch larger than the whole queue waits for it to be empty
+	public long getRetryAfter(int jobs) {
+		int limit = queueLimit;
+		int queued = waiting.get();
+		jobs = Math.min(jobs, limit);
+		if (limit == 0 || queued + jobs <= limit) {
+			return 0;
+		}
+		long mean = meanRunTime > 0 ? meanRunTime : DEFAULT_RETRY;
+		long retry = mean * (queued - limit + jobs) / Math.max(1, executor.getMaximumPoolSize());
+		return Math.max(MIN_RETRY, Math.min(MAX_RETRY, retry));
+	}
+	
+	public String submit(ITask task, int priority) {
+		return submit(task, priority, LOCAL);
+	}
+	
+	public String submit(ITask task, int priority, String submitter) {
+		long sequence = this.sequence.getAndIncrement();
+		if (sequence % SWEEP_INTERVAL == 0) {
+			sweep();
+		}
+		Job job = new Job(UUID.randomUUID().toString(), task, priority, sequence, tag(submitter), 
+				System.currentTimeMillis());
+		synchronized (jobs) {
+			jobs.put(job.jobId, job);
+		}
+		queue(job);
+		return job.jobId;
+	}
+	
+	// queues a job taken over from the journal of a failed master under its own id, false if it is already known here
+	public boolean resume(String jobId, ITask task, int priority, long submitted) {
+		Job job = new Job(jobId, task, priority, sequence.getAndIncrement(), tag(LOCAL), submitted);
+		synchronized (jobs) {
+			if (jobs.containsKey(jobId)) {
+				return false;
+			}
+			jobs.put(jobId, job);
+		}
+		queue(job);
+		return true;
+	}
+	
+	private void queue(Job job) {
+		if (journal != null) {
+			job.journaled = journal.accepted(job.jobId, job.task, job.priority, job.submitted);
+		}
+		waiting.incrementAndGet();
+		executor.execute(job);
+	}
+	
+	// a submitter idle while others ran starts from the current virtual time, not from where it left off
+	private long tag(String submitter) {
+		Integer weight = weights.get(submitter);
+		final long length = TAG_SCALE / (weight == null ? 1 : weight);
+		final long now = virtualTime.get();
+		long finish = finishTags.compute(submitter, new BiFunction<String, Long, Long>() {
+			public Long apply(String key, Long last) {
+				return Math.max(now, last == null ? 0 : last) + length;
+			}
+		});
+		return finish - length;
+	}
+	
+	// a submitter whose next job would start at the current virtual time needs no finish tag
+	private void sweep() {
+		long now = virtualTime.get();
+		for (Map.Entry<String, Long> entry : finishTags.entrySet()) {
+			if (entry.getValue() <= now) {
+				finishTags.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	private void advance(long tag) {
+		long now;
+		do {
+			now = virtualTime.get();
+		} while (tag > now && !virtualTime.compareAndSet(now, tag));
+	}
+	
+	// completes once the jobs known here are in the journal, so the client hears of them only then
+	public CompletableFuture<Void> journaled(Collection<String> jobIds) {
+		List<CompletableFuture<Void>> writes = new ArrayList<CompletableFuture<Void>>(jobIds.size());
+		synchronized (jobs) {
+			for (String jobId : jobIds) {
+				Job job = jobs.get(jobId);
+				if (job != null) {
+					writes.add(job.journaled);
+				}
+			}
+		}
+		return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()]));
+	}
+	
+	public JobStatus getStatus(String jobId) {
+		Job job = getJob(jobId);
+		return job == null ? null : job.getStatus();
+	}
+	
+	public JobStatus cancel(String jobId) {
+		Job job = getJob(jobId);
+		if (job == null) {
+			return null;
+		}
+		job.cancel();
+		return job.getStatus();
+	}
+	
+	// sends the job's events to the sink until the job ends or the sink is closed, false if the job is not known here
+	public boolean stream(String jobId, StreamSink sink) throws InterruptedException, IOException {
+		Job job = getJob(jobId);
+		if (job == null) {
+			return false;
+		}
+		job.follow(sink);
+		return true;
+	}
+	
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+	
+	public int getSubmitters() {
+		return finishTags.size();
+	}
+	
+	public int getRunning() {
+		return executor.getActiveCount();
+	}
+	
+	private Job getJob(String jobId) {
+		synchronized (jobs) {
+			return jobs.get(jobId);
+		}
+	}
+	
+	// a job still queued or running is never dropped, however old it is
+	private void retire(String jobId) {
+		synchronized (jobs) {
+			retired.add(jobId);
+			while (retired.size() > history) {
+				String forgotten = retired.poll();
+				jobs.remove(forgotten);
+				if (journal != null) {
+					journal.forget(forgotten);
+				}
+			}
+		}
+	}
+	
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	private class Job implements Runnable, Comparable<Job>, ProgressListener {
+		
+		private String jobId;
+		private ITask task;
+		private int priority;
+		private long sequence;
+		private long tag;
+		private volatile State state = State.QUEUED;
+		private long submitted;
+		private volatile long started;
+		private volatile long finished;
+		private volatile int exitCode = -1;
+		private volatile float progress = -1;
+		// only the last lines are kept, a stream that falls further behind skips the rest
+		private OutputTail output = new OutputTail(ApplicationContext.getInstance().getOutputTailLines(), 
+				ApplicationContext.getInstance().getOutputTailBytes());
+		// bumped on every change, for the streams following the job
+		private long version = 0;
+		private CompletableFuture<ProcessResult> process;
+		private Thread runner;
+		private volatile CompletableFuture<Void> journaled = CompletableFuture.completedFuture(null);
+		
+		public Job(String jobId, ITask task, int priority, long sequence, long tag, long submitted) {
+			this.jobId = jobId;
+			this.task = task;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.tag = tag;
+			this.submitted = submitted;
+		}
+		
+		public int compareTo(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			if (tag != other.tag) {
+				return tag < other.tag ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+		
+		public void run() {
+			waiting.decrementAndGet();
+			advance(tag);
+			// a job another master has taken over while it was queued here is left to that master
+			if (journal != null && !journal.owns(jobId)) {
+				drop();
+				return;
+			}
+			synchronized (this) {
+				if (state != State.QUEUED) {
+					return;
+				}
+				state = State.RUNNING;
+				started = System.currentTimeMillis();
+				// fingerprinting inputs and embedded tasks are cancelled by interrupting this thread
+				runner = Thread.currentThread();
+			}
+			if (journal != null) {
+				journal.started(jobId);
+			}
+			
+			State outcome;
+			try {
+				String cacheKey = cache == null ? null : cache.key(task);
+				if (cacheKey != null && cache.restore(cacheKey, task)) {
+					exitCode = 0;
+					outcome = State.SUCCEEDED;
+				} else {
+					outcome = task instanceof IEmbeddedTask ? runEmbedded() : runCommand();
+					if (outcome == State.SUCCEEDED && cacheKey != null) {
+						cache.store(cacheKey, task);
+					}
+				}
+			} catch (InterruptedException e) {
+				outcome = State.CANCELLED;
+			}
+			synchronized (this) {
+				runner = null;
+				// clear an interrupt from a cancel that raced with completion before the thread is reused
+				Thread.interrupted();
+			}
+			// and so is the result of one taken over while it ran, the other master reports its own
+			if (journal != null && outcome != State.CANCELLED && !journal.owns(jobId)) {
+				drop();
+				return;
+			}
+			finish(outcome);
+		}
+		
+		private State runCommand() {
+			CompletableFuture<ProcessResult> future;
+			synchronized (this) {
+				if (state.isFinished()) {
+					return state;
+				}
+				process = node.executeCommandAsync(task.getCommand(), taskTimeout, new Consumer<String>() {
+					public void accept(String line) {
+						Matcher matcher = HADOOP_PROGRESS.matcher(line);
+						if (matcher.find()) {
+							progress = (Integer.parseInt(matcher.group(1)) + Integer.parseInt(matcher.group(2))) / 200f;
+						}
+						output.add(line);
+						changed();
+					}
+				});
+				future = process;
+			}
+			
+			try {
+				ProcessResult result = future.get();
+				exitCode = result.getExitCode();
+				return result.isSuccess() ? State.SUCCEEDED : State.FAILED;
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				return State.CANCELLED;
+			} catch (ExecutionException e) {
+				System.err.println("Failed to execute task [" + task.getTaskName() + "]");
+				e.getCause().printStackTrace();
+				return State.FAILED;
+			} catch (CancellationException e) {
+				return State.CANCELLED;
+			}
+		}
+		
+		// embedded tasks run on the scheduler thread itself
+		private State runEmbedded() {
+			progress = 0;
+			try {
+				boolean success = ((IEmbeddedTask)task).execute(this);
+				exitCode = success ? 0 : 1;
+				return success ? State.SUCCEEDED : State.FAILED;
+			} catch (InterruptedException e) {
+				return State.CANCELLED;
+			} catch (Exception e) {
+				if (Thread.currentThread().isInterrupted()) {
+					return State.CANCELLED;
+				}
+				System.err.println("Failed to execute task [" + task.getTaskName() + "]");
+				e.printStackTrace();
+				exitCode = 1;
+				return State.FAILED;
+			}
+		}
+		
+		public void progress(float done) {
+			this.progress = done;
+			changed();
+		}
+		
+		private synchronized void changed() {
+			version++;
+			notifyAll();
+		}
+		
+		private synchronized void finish(State outcome) {
+			if (!state.isFinished()) {
+				state = outcome;
+				finished = System.currentTimeMillis();
+				if (started > 0) {
+					long mean = meanRunTime;
+					meanRunTime = mean == 0 ? finished - started : mean + (finished - started - mean) / 8;
+				}
+				if (journal != null) {
+					journal.finished(jobId, outcome);
+				}
+				retire(jobId);
+				changed();
+			}
+		}
+		
+		// forgotten here, so status polls on the old handle look the job up at the master that has it now
+		private void drop() {
+			synchronized (this) {
+				if (state.isFinished()) {
+					return;
+				}
+				state = State.CANCELLED;
+				finished = System.currentTimeMillis();
+				changed();
+			}
+			synchronized (jobs) {
+				jobs.remove(jobId, this);
+			}
+			journal.dropped(jobId);
+			System.out.println("Job [" + jobId + "] of task [" + task.getTaskName() + "] was taken over by another master");
+		}
+		
+		public void cancel() {
+			CompletableFuture<ProcessResult> running;
+			synchronized (this) {
+				if (state.isFinished()) {
+					return;
+				}
+				if (state == State.QUEUED && executor.remove(this)) {
+					waiting.decrementAndGet();
+				}
+				if (runner != null) {
+					runner.interrupt();
+				}
+				running = process;
+				finish(State.CANCELLED);
+			}
+			if (running != null) {
+				// takes the child process tree down with it
+				running.cancel(true);
+			}
+		}
+		
+		public synchronized JobStatus getStatus() {
+			return new JobStatus(jobId, task.getTaskName(), state, submitted, started, finished, exitCode, 
+					state == State.SUCCEEDED ? 1 : progress);
+		}
+		
+		// changes that come while the sink waits for credits are sent together once it has one
+		public void follow(StreamSink sink) throws InterruptedException, IOException {
+			long seen = -1;
+			long lines = 0;
+			JobStatus sent = null;
+			JobStatus status;
+			while (true) {
+				List<String> added;
+				synchronized (this) {
+					while (version == seen) {
+						wait();
+					}
+					seen = version;
+					status = getStatus();
+					added = output.getLines(lines);
+					lines = output.getTotal();
+				}
+				if (!added.isEmpty() && !sink.send(new StreamEvent(Type.OUTPUT, null, null, 0, join(added)))) {
+					return;
+				}
+				if (status.getState().isFinished()) {
+					break;
+				}
+				if (sent == null || sent.getState() != status.getState() || sent.getProgress() != status.getProgress()) {
+					if (!sink.send(new StreamEvent(Type.PROGRESS, status, null, 0, null))) {
+						return;
+					}
+					sent = status;
+				}
+			}
+			if (status.getState() == State.SUCCEEDED && !sendOutput(sink)) {
+				return;
+			}
+			sink.send(new StreamEvent(Type.END, status, null, 0, null));
+		}
+		
+		// embedded tasks write to the local file system, the output of commands is copied out of HDFS first
+		private boolean sendOutput(StreamSink sink) throws InterruptedException, IOException {
+			if (task.getOutput() == null) {
+				return true;
+			}
+			File output = new File(task.getOutput());
+			File temp = null;
+			try {
+				if (!(task instanceof IEmbeddedTask)) {
+					temp = Files.createTempDirectory("stream-").toFile();
+					output = new File(temp, output.getName());
+					if (!node.executeCommand(ApplicationContext.getInstance().getBinDir() + File.separator + "hadoop fs -get " 
+							+ ResultCache.quote(task.getOutput()) + " " + ResultCache.quote(output.getPath()))) {
+						throw new IOException("Could not get output from [" + task.getOutput() + "]");
+					}
+				}
+				for (File file : ResultCache.listFiles(output)) {
+					String path = file.equals(output) ? file.getName() 
+							: output.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+					FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					try {
+						long size = channel.size();
+						long position = 0;
+						// an empty file is still sent, as a chunk without data
+						do {
+							int length = (int)Math.min(CHUNK_SIZE, size - position);
+							if (!sink.send(new StreamEvent(Type.CHUNK, null, path, position, null), channel, position, length)) {
+								return false;
+							}
+							position += length;
+						} while (position < size);
+					} finally {
+						channel.close();
+					}
+				}
+				return true;
+			} finally {
+				if (temp != null) {
+					ResultCache.delete(temp);
+				}
+			}
+		}
+		
+		private byte[] join(List<String> lines) {
+			StringBuilder sb = new StringBuilder();
+			for (String line : lines) {
+				sb.append(line).append('\n');
+			}
+			return sb.toString().getBytes(UTF8);
+		}
+	}
+}
@@ -1,63 +1,261 @@
 package edu.gatech.cs7210.p2pmapreduce.node;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import de.uniba.wiai.lspi.chord.data.URL;
 import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadRecord;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Gauge;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
 import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
 
 public class MasterNode extends AbstractNode {
-
+	
 	public enum MasterType {
 		NAME_NODE, JOB_TRACKER
 	}
 	
+	private static final String JOINING_HOSTS_FILE = "slaves.joining";
+	
 	private MasterType type;
+	private ClusterCapacity capacity;
+	private MembershipManager membership;
+	private JobScheduler scheduler;
+	private ShuffleService shuffle;
+	private ResultCache cache;
+	private TaskJournal journal;
+	private volatile boolean started = false;
 	
 	public MasterNode(MasterType type) {
 		this.type = type;
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		this.capacity = new ClusterCapacity();
+		this.membership = new MembershipManager(this, capacity, appContext.getJoinBatchWindow(), 
+				appContext.getHeartbeatTimeout());
+		if (appContext.getResultCacheBytes() > 0) {
+			String cacheDir = appContext.getResultCacheDir() != null ? appContext.getResultCacheDir() 
+					: new File(appContext.getEngineSpillDir(), "results").getPath();
+			this.cache = new ResultCache(this, new File(cacheDir), appContext.getResultCacheBytes(), 
+					appContext.getResultCacheTtl(), appContext.isResultCachePublish());
+		}
+		if (appContext.isTaskJournal()) {
+			this.journal = new TaskJournal(appContext.getUrl());
+		}
+		this.scheduler = new JobScheduler(this, cache, journal, appContext.getSchedulerConcurrency(), 
+				appContext.getJobHistory(), appContext.getTaskTimeout());
+		scheduler.setQueueLimit(appContext.getAdmissionQueueLimit());
+		scheduler.setWeights(appContext.getAdmissionWeights());
+		this.shuffle = new ShuffleService(new File(appContext.getEngineSpillDir(), "shuffle"), 
+				appContext.getShuffleChunkSize(), appContext.getShuffleWindow(), appContext.getShuffleRetries());
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.gauge("scheduler_queued", new Gauge() {
+			public long getValue() {
+				return scheduler.getQueued();
+			}
+		});
+		metrics.gauge("scheduler_running", new Gauge() {
+			public long getValue() {
+				return scheduler.getRunning();
+			}
+		});
+		metrics.gauge("scheduler_submitters", new Gauge() {
+			public long getValue() {
+				return scheduler.getSubmitters();
+			}
+		});
+	}
+	
+	public void reconfigure(ApplicationContext appContext) {
+		super.reconfigure(appContext);
+		scheduler.setConcurrency(appContext.getSchedulerConcurrency());
+		scheduler.setTaskTimeout(appContext.getTaskTimeout());
+		scheduler.setQueueLimit(appContext.getAdmissionQueueLimit());
+		scheduler.setWeights(appContext.getAdmissionWeights());
+		membership.setWindow(appContext.getJoinBatchWindow());
+		membership.setTimeout(appContext.getHeartbeatTimeout());
 	}
 	
 	public MasterType getType() {
 		return this.type;
 	}
 	
+	public boolean isStarted() {
+		return this.started;
+	}
+	
 	public boolean run() {
-		return executeCommand(
+		started = executeCommand(
 				ApplicationContext.getInstance().getBinDir() + File.separator + "start-all.sh");
+		return started;
+	}
+	
+	// brings up the whole cluster the first time, and only the given hosts once it is up
+	synchronized boolean startDaemons(Collection<String> hosts) {
+		if (!started) {
+			return run();
+		}
+		return hosts.isEmpty() || startSlaves(hosts);
+	}
+	
+	// starts the daemons of the slaves that had joined before this master restarted, without waiting for them to join again
+	public boolean restartDaemons() {
+		if (membership.getSlaveCount() == 0) {
+			return true;
+		}
+		return startDaemons(Collections.<String>emptyList());
+	}
+	
+	// completes once the batch the slave joined with has been applied
+	public CompletableFuture<Boolean> join(String host) {
+		return membership.join(host);
 	}
 	
 	public boolean update(URL url) {
-		shutdownMaster();
-		updateSlaveConfiguration(url);
-		return run();
+		try {
+			return join(url.getHost()).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			System.err.println("Failed to add Slave node [" + url.getHost() + "]");
+			e.getCause().printStackTrace();
+			return false;
+		}
+	}
+	
+	// false if the slave is not in the slaves file, so it knows to join again
+	public boolean heartbeat(String host, byte[] samples) throws IOException {
+		List<ResourceSample> batch = ResourceSample.decode(samples);
+		if (!membership.isMember(host)) {
+			return false;
+		}
+		capacity.report(host, batch, samples.length, System.currentTimeMillis());
+		return true;
 	}
 	
 	public boolean executeTask(ITask task) {
-		return executeCommand(task.getCommand());
+		try {
+			String cacheKey = cache == null ? null : cache.key(task);
+			if (cacheKey != null && cache.restore(cacheKey, task)) {
+				return true;
+			}
+			boolean success = runTask(task);
+			if (success && cacheKey != null) {
+				cache.store(cacheKey, task);
+			}
+			return success;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	private boolean runTask(ITask task) {
+		if (task instanceof IEmbeddedTask) {
+			try {
+				return ((IEmbeddedTask)task).execute(null);
+			} catch (Exception e) {
+				System.err.println("Failed to execute task [" + task.getTaskName() + "]");
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return executeCommand(task.getCommand(), ApplicationContext.getInstance().getTaskTimeout());
+	}
+	
+	public String submitTask(ITask task, int priority) {
+		return scheduler.submit(task, priority);
+	}
+	
+	// queued fairly against the jobs of other submitters, by the address they were sent from
+	public String submitTask(ITask task, int priority, String submitter) {
+		return scheduler.submit(task, priority, submitter);
+	}
+	
+	public JobStatus getJobStatus(String jobId) {
+		return scheduler.getStatus(jobId);
+	}
+	
+	public JobStatus cancelJob(String jobId) {
+		return scheduler.cancel(jobId);
+	}
+	
+	public JobScheduler getScheduler() {
+		return this.scheduler;
+	}
+	
+	public ClusterCapacity getCapacity() {
+		return this.capacity;
+	}
+	
+	public ShuffleService getShuffle() {
+		return this.shuffle;
+	}
+	
+	// null when result caching is disabled
+	public ResultCache getResultCache() {
+		return this.cache;
+	}
+	
+	// null when the task journal is disabled
+	public TaskJournal getJournal() {
+		return this.journal;
+	}
+	
+	// takes back the jobs this master had accepted before a restart
+	public void recoverJobs() {
+		if (journal != null) {
+			journal.recover(scheduler);
+		}
+	}
+	
+	// takes over the jobs of failed masters that this master follows on the ring
+	public void adoptOrphans() {
+		if (journal != null) {
+			journal.adoptOrphans(scheduler);
+		}
+	}
+	
+	public LoadRecord getLoad(URL url) {
+		return new LoadRecord(url, scheduler.getQueued(), scheduler.getRunning(), 
+				membership.getSlaveCount(), System.currentTimeMillis());
 	}
 	
 	public boolean shutdownMaster() {
+		membership.shutdown();
+		if (journal != null) {
+			journal.shutdown();
+		}
+		scheduler.shutdown();
+		started = false;
 		return executeCommand(
 				ApplicationContext.getInstance().getBinDir() + File.separator + "stop-all.sh");
 	}
 	
-	private void updateSlaveConfiguration(URL url) {
-//		 update the Slave configuration file to include all Workers present
-//		 in the Chord overlay which are delegated to this Master server
+	boolean startSlaves(Collection<String> hosts) {
+		// hadoop-daemons.sh reads the hosts to start from a file under the config dir
+		ApplicationContext appContext = ApplicationContext.getInstance();
 		try {
-			ApplicationContext appContext = ApplicationContext.getInstance();
-			File slaveConfigFile = new File(appContext.getConfigDir() + 
-					File.separator + appContext.getSlaveConfigFile());
-			BufferedWriter writer = new BufferedWriter(new FileWriter(slaveConfigFile, true));
-			writer.write("\n" + url.getPath());
-			writer.close();
+			Files.write(new File(appContext.getConfigDir(), JOINING_HOSTS_FILE).toPath(), 
+					hosts, Charset.forName("UTF-8"));
 		} catch (IOException e) {
-			System.err.println("Failed to update slave config file");
+			System.err.println("Failed to write joining hosts file");
 			e.printStackTrace();
-			System.exit(-1);
+			return false;
 		}
+		
+		String daemons = appContext.getBinDir() + File.separator + "hadoop-daemons.sh --config " + 
+				appContext.getConfigDir() + " --hosts " + JOINING_HOSTS_FILE + " start ";
+		return executeCommand(daemons + "datanode") && executeCommand(daemons + "tasktracker");
 	}
 }
@@ -0,0 +1,244 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+
+/*
+ * Collects the slaves joining a master and applies them in batches. Joins that
+ * arrive within the batch window of the first one are written to the slaves file
+ * together, and only the daemons on the newly joined hosts are started, so the
+ * rest of the cluster and its running jobs are left alone.
+ *
+ * Slaves that have sent a heartbeat and then send none for timeout milliseconds
+ * are taken out of the slaves file again, checked every second on the same thread
+ * that applies the joins, so the two never write the file at once. Slaves that
+ * never send one, with the agent off or from before it, are kept, and a timeout
+ * of 0 keeps every slave.
+ */
+public class MembershipManager {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final long REAP_INTERVAL = 1000;
+	
+	private MasterNode master;
+	private ClusterCapacity capacity;
+	private volatile long window;
+	private volatile long timeout;
+	private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "membership");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private Map<String, PendingJoin> pending = new LinkedHashMap<String, PendingJoin>();
+	// the hosts in the slaves file, read from it the first time they are needed
+	private volatile Set<String> members;
+	private LongAdder removed = MetricsRegistry.getInstance().counter("cluster_slaves_removed_total");
+	
+	public MembershipManager(MasterNode master, ClusterCapacity capacity, long window, long timeout) {
+		this.master = master;
+		this.capacity = capacity;
+		this.window = window;
+		this.timeout = timeout;
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				reap();
+			}
+		}, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	// a batch already waiting keeps the window it was scheduled with
+	public void setWindow(long window) {
+		this.window = window;
+	}
+	
+	// slaves silent while removal was off get a full timeout from now before they are removed
+	public void setTimeout(long timeout) {
+		if (this.timeout == 0 && timeout > 0) {
+			capacity.touchAll(System.currentTimeMillis());
+		}
+		this.timeout = timeout;
+	}
+	
+	public CompletableFuture<Boolean> join(String host) {
+		synchronized (this) {
+			PendingJoin join = pending.get(host);
+			if (join == null) {
+				join = new PendingJoin(host);
+				if (pending.isEmpty()) {
+					executor.schedule(new Runnable() {
+						public void run() {
+							applyBatch();
+						}
+					}, window, TimeUnit.MILLISECONDS);
+				}
+				pending.put(host, join);
+			}
+			return join.future;
+		}
+	}
+	
+	private void applyBatch() {
+		List<PendingJoin> batch;
+		synchronized (this) {
+			batch = new ArrayList<PendingJoin>(pending.values());
+			pending.clear();
+		}
+		
+		Set<String> hosts = new LinkedHashSet<String>();
+		for (PendingJoin join : batch) {
+			hosts.add(join.host);
+		}
+		
+		boolean success;
+		try {
+			updateSlaveConfiguration(hosts);
+			success = master.startDaemons(hosts);
+		} catch (IOException e) {
+			System.err.println("Failed to update slave config file");
+			e.printStackTrace();
+			success = false;
+		}
+		
+		long now = System.currentTimeMillis();
+		for (PendingJoin join : batch) {
+			if (success) {
+				capacity.touch(join.host, now);
+				System.out.println("Worker [" + join.host + "] available after " + (now - join.requested) + "ms");
+			} else {
+				System.err.println("Worker [" + join.host + "] failed to join after " + (now - join.requested) + "ms");
+			}
+			join.future.complete(success);
+		}
+	}
+	
+	private void updateSlaveConfiguration(Set<String> hosts) throws IOException {
+		// update the Slave configuration file to include all Workers present
+		// in the Chord overlay which are delegated to this Master server
+		Path slaveConfigFile = slavesFile();
+		Set<String> slaves = readSlaves(slaveConfigFile);
+		if (!slaves.addAll(hosts)) {
+			members = Collections.unmodifiableSet(slaves);
+			return;
+		}
+		writeSlaves(slaveConfigFile, slaves);
+	}
+	
+	// takes the slaves not heard from within the timeout out of the slaves file
+	private void reap() {
+		long timeout = this.timeout;
+		if (timeout == 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		capacity.retain(getMembers(), now);
+		Map<String, Long> stale = capacity.getStale(timeout, now);
+		synchronized (this) {
+			// a slave joining again is given its time once the join is applied
+			stale.keySet().removeAll(pending.keySet());
+		}
+		if (stale.isEmpty()) {
+			return;
+		}
+		
+		try {
+			Path slaveConfigFile = slavesFile();
+			Set<String> slaves = readSlaves(slaveConfigFile);
+			slaves.removeAll(stale.keySet());
+			writeSlaves(slaveConfigFile, slaves);
+		} catch (IOException e) {
+			System.err.println("Failed to update slave config file");
+			e.printStackTrace();
+			return;
+		}
+		for (Map.Entry<String, Long> slave : stale.entrySet()) {
+			capacity.remove(slave.getKey());
+			removed.increment();
+			System.err.println("Worker [" + slave.getKey() + "] removed after " + slave.getValue() + "ms without a heartbeat");
+		}
+	}
+	
+	// write alongside and rename over, so Hadoop never reads a partial file
+	private void writeSlaves(Path slaveConfigFile, Set<String> slaves) throws IOException {
+		Path temp = slaveConfigFile.resolveSibling(slaveConfigFile.getFileName() + ".tmp");
+		Files.write(temp, slaves, UTF8);
+		Files.move(temp, slaveConfigFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		members = Collections.unmodifiableSet(slaves);
+	}
+	
+	private Path slavesFile() {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		return new File(appContext.getConfigDir() + File.separator + appContext.getSlaveConfigFile()).toPath();
+	}
+	
+	private Set<String> readSlaves(Path slaveConfigFile) throws IOException {
+		Set<String> slaves = new LinkedHashSet<String>();
+		if (Files.exists(slaveConfigFile)) {
+			for (String line : Files.readAllLines(slaveConfigFile, UTF8)) {
+				if (line.trim().length() > 0) {
+					slaves.add(line.trim());
+				}
+			}
+		}
+		return slaves;
+	}
+	
+	public int getSlaveCount() {
+		return getMembers().size();
+	}
+	
+	public boolean isMember(String host) {
+		return getMembers().contains(host);
+	}
+	
+	private Set<String> getMembers() {
+		Set<String> members = this.members;
+		if (members == null) {
+			try {
+				members = Collections.unmodifiableSet(readSlaves(slavesFile()));
+				this.members = members;
+			} catch (IOException e) {
+				System.err.println("Failed to read slave config file");
+				return Collections.emptySet();
+			}
+		}
+		return members;
+	}
+	
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	private static class PendingJoin {
+		
+		private String host;
+		private long requested = System.currentTimeMillis();
+		private CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		
+		public PendingJoin(String host) {
+			this.host = host;
+		}
+	}
+}
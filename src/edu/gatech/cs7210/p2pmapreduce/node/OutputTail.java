@@ -0,0 +1,96 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Keeps the last few lines written by a child process, overwriting the oldest
+ * so chatty commands cannot grow the buffer without bound. The lines kept also
+ * add up to at most maxBytes in UTF-8, dropping the oldest first, and a line
+ * longer than that on its own keeps only its end.
+ */
+public class OutputTail {
+
+	private String[] lines;
+	private int next = 0;
+	private int count = 0;
+	private long total = 0;
+	private int maxBytes;
+	private long bytes = 0;
+	
+	public OutputTail(int capacity, int maxBytes) {
+		this.lines = new String[Math.max(capacity, 1)];
+		this.maxBytes = Math.max(maxBytes, 1);
+	}
+	
+	public synchronized void add(String line) {
+		int size = size(line);
+		if (size > maxBytes) {
+			int start = line.length();
+			size = 0;
+			while (start > 0 && size + size(line.charAt(start - 1)) <= maxBytes) {
+				start--;
+				size += size(line.charAt(start));
+			}
+			line = line.substring(start);
+		}
+		if (count == lines.length) {
+			drop();
+		}
+		while (count > 0 && bytes + size > maxBytes) {
+			drop();
+		}
+		lines[next] = line;
+		next = (next + 1) % lines.length;
+		count++;
+		bytes += size;
+		total++;
+	}
+	
+	// forgets the oldest line kept
+	private void drop() {
+		int first = (next - count + lines.length) % lines.length;
+		bytes -= size(lines[first]);
+		lines[first] = null;
+		count--;
+	}
+	
+	private static int size(String line) {
+		int size = 0;
+		for (int i = 0; i < line.length(); i++) {
+			size += size(line.charAt(i));
+		}
+		return size;
+	}
+	
+	// a surrogate is half of a four byte character
+	private static int size(char c) {
+		if (c < 0x80) {
+			return 1;
+		}
+		if (c < 0x800) {
+			return 2;
+		}
+		return Character.isSurrogate(c) ? 2 : 3;
+	}
+	
+	// every line ever added, including those overwritten since
+	public synchronized long getTotal() {
+		return this.total;
+	}
+	
+	public synchronized List<String> getLines() {
+		return getLines(0);
+	}
+	
+	// the lines still kept that were added after the first from, counted as getTotal does
+	public synchronized List<String> getLines(long from) {
+		int skip = (int)Math.max(0, Math.min(count, from - (total - count)));
+		List<String> tail = new ArrayList<String>(count - skip);
+		int first = (next - count + lines.length) % lines.length;
+		for (int i = skip; i < count; i++) {
+			tail.add(lines[(first + i) % lines.length]);
+		}
+		return tail;
+	}
+}
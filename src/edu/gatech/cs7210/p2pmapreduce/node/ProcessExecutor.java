@@ -0,0 +1,305 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+ * Runs shell commands as child processes, at most maxProcesses at a time. The
+ * rest wait in a queue without a thread, and each is started when a running one
+ * finishes. Both output streams are drained on their own threads so a full pipe
+ * can never stall the child, and only a bounded tail of the output is kept for
+ * the result.
+ */
+public class ProcessExecutor {
+	
+	// how long to wait for the output to drain once the process itself has exited
+	private static final long DRAIN_TIMEOUT = 5000;
+	
+	private int maxProcesses;
+	private int tailLines;
+	private int tailBytes;
+	// the commands holding one of the maxProcesses slots, and those waiting for one, in order
+	private int active = 0;
+	private Deque<PendingCommand> waiting = new ArrayDeque<PendingCommand>();
+	private AtomicInteger running = new AtomicInteger(0);
+	private ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "process-executor");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	public ProcessExecutor(int maxProcesses, int tailLines, int tailBytes) {
+		this.maxProcesses = maxProcesses;
+		this.tailLines = tailLines;
+		this.tailBytes = tailBytes;
+	}
+	
+	public CompletableFuture<ProcessResult> execute(String command, long timeout) {
+		return execute(command, timeout, null);
+	}
+	
+	// lines, if not null, is handed every line of output as it is read
+	public CompletableFuture<ProcessResult> execute(final String command, final long timeout, 
+			final Consumer<String> lines) {
+		final PendingCommand pending = new PendingCommand(command, timeout, lines);
+		synchronized (this) {
+			if (active >= maxProcesses) {
+				waiting.add(pending);
+				// a command given up on while it waits leaves the queue
+				pending.future.whenComplete(new BiConsumer<ProcessResult, Throwable>() {
+					public void accept(ProcessResult result, Throwable t) {
+						synchronized (ProcessExecutor.this) {
+							waiting.remove(pending);
+						}
+					}
+				});
+				return pending.future;
+			}
+			active++;
+		}
+		start(pending);
+		return pending.future;
+	}
+	
+	private void start(PendingCommand pending) {
+		try {
+			threads.execute(pending);
+		} catch (RejectedExecutionException e) {
+			pending.future.completeExceptionally(e);
+			finished();
+		}
+	}
+	
+	// hands the slot of a command that has finished to the next one waiting
+	private void finished() {
+		synchronized (this) {
+			active--;
+		}
+		startWaiting();
+	}
+	
+	private void startWaiting() {
+		List<PendingCommand> started = new ArrayList<PendingCommand>();
+		synchronized (this) {
+			while (active < maxProcesses && !waiting.isEmpty()) {
+				started.add(waiting.poll());
+				active++;
+			}
+		}
+		for (PendingCommand pending : started) {
+			start(pending);
+		}
+	}
+	
+	public int getRunning() {
+		return running.get();
+	}
+	
+	// processes already running when the limit is lowered finish, new ones wait for the count to drop
+	public void setMaxProcesses(int maxProcesses) {
+		synchronized (this) {
+			this.maxProcesses = maxProcesses;
+		}
+		startWaiting();
+	}
+	
+	// commands waiting for one of the maxProcesses slots
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+	
+	private ProcessResult runProcess(String command, long timeout, Consumer<String> lines, 
+			CompletableFuture<ProcessResult> future) throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		// run through the shell so quoting and globs in task commands behave as typed
+		final Process process = new ProcessBuilder("/bin/sh", "-c", command).start();
+		process.getOutputStream().close();
+		running.incrementAndGet();
+		try {
+			return awaitProcess(process, command, start, timeout, lines, future);
+		} finally {
+			running.decrementAndGet();
+		}
+	}
+	
+	private ProcessResult awaitProcess(final Process process, String command, long start, long timeout, 
+			Consumer<String> lines, CompletableFuture<ProcessResult> future) throws InterruptedException {
+		
+		// a caller giving up on the result takes the process down with it
+		future.whenComplete(new BiConsumer<ProcessResult, Throwable>() {
+			public void accept(ProcessResult result, Throwable t) {
+				if (process.isAlive()) {
+					kill(process);
+				}
+			}
+		});
+		
+		OutputTail tail = new OutputTail(tailLines, tailBytes);
+		Future<?> stdout = threads.submit(new StreamDrainer(process.getInputStream(), tail, lines, System.out));
+		Future<?> stderr = threads.submit(new StreamDrainer(process.getErrorStream(), tail, lines, System.err));
+		
+		boolean timedOut = false;
+		if (timeout > 0) {
+			if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+				System.err.println("Command [" + command + "] timed out after " + timeout + "ms");
+				kill(process);
+				timedOut = true;
+			}
+		}
+		int exitCode = process.waitFor();
+		drain(stdout);
+		drain(stderr);
+		return new ProcessResult(command, exitCode, System.currentTimeMillis() - start, timedOut, tail.getLines());
+	}
+	
+	private void drain(Future<?> drainer) throws InterruptedException {
+		try {
+			drainer.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			System.err.println("Failed to read command output");
+		} catch (TimeoutException e) {
+			// a detached grandchild still holds the pipe open, leave it be
+			drainer.cancel(true);
+		}
+	}
+	
+	private void kill(Process process) {
+		// collect the tree first, children are re-parented once their parent dies
+		List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+		Iterator<ProcessHandle> descendants = process.descendants().iterator();
+		while (descendants.hasNext()) {
+			tree.add(descendants.next());
+		}
+		process.destroyForcibly();
+		for (ProcessHandle handle : tree) {
+			handle.destroyForcibly();
+		}
+	}
+	
+	public void shutdown() {
+		threads.shutdownNow();
+		List<PendingCommand> dropped;
+		synchronized (this) {
+			dropped = new ArrayList<PendingCommand>(waiting);
+			waiting.clear();
+		}
+		for (PendingCommand pending : dropped) {
+			pending.future.completeExceptionally(new RejectedExecutionException("Process executor shut down"));
+		}
+	}
+	
+	private class PendingCommand implements Runnable {
+		
+		private String command;
+		private long timeout;
+		private Consumer<String> lines;
+		private CompletableFuture<ProcessResult> future = new CompletableFuture<ProcessResult>();
+		
+		public PendingCommand(String command, long timeout, Consumer<String> lines) {
+			this.command = command;
+			this.timeout = timeout;
+			this.lines = lines;
+		}
+		
+		public void run() {
+			try {
+				if (!future.isDone()) {
+					future.complete(runProcess(command, timeout, lines, future));
+				}
+			} catch (IOException e) {
+				future.completeExceptionally(e);
+			} catch (InterruptedException e) {
+				future.completeExceptionally(e);
+			} finally {
+				finished();
+			}
+		}
+	}
+	
+	private static class StreamDrainer implements Runnable {
+		
+		// a line without an end is handed on in pieces of this many characters
+		private static final int MAX_LINE = 8192;
+		
+		private InputStream stream;
+		private OutputTail tail;
+		private Consumer<String> lines;
+		private PrintStream echo;
+		
+		public StreamDrainer(InputStream stream, OutputTail tail, Consumer<String> lines, PrintStream echo) {
+			this.stream = stream;
+			this.tail = tail;
+			this.lines = lines;
+			this.echo = echo;
+		}
+		
+		public void run() {
+			Reader reader = new BufferedReader(new InputStreamReader(stream));
+			StringBuilder line = new StringBuilder();
+			try {
+				// lines end as readLine ends them, at \n, \r or \r\n
+				boolean cr = false;
+				int c = reader.read();
+				while (c >= 0) {
+					if (c == '\n' || c == '\r') {
+						if (c == '\r' || !cr) {
+							emit(line);
+						}
+					} else {
+						if (line.length() >= MAX_LINE) {
+							emit(line);
+						}
+						line.append((char)c);
+					}
+					cr = c == '\r';
+					c = reader.read();
+				}
+				if (line.length() > 0) {
+					emit(line);
+				}
+			} catch (IOException e) {
+				// stream closed under us when the process was killed
+			} finally {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// nothing left to read
+				}
+			}
+		}
+		
+		private void emit(StringBuilder line) {
+			String s = line.toString();
+			line.setLength(0);
+			echo.println(s);
+			tail.add(s);
+			if (lines != null) {
+				lines.accept(s);
+			}
+		}
+	}
+	
+}
\ No newline at end of file
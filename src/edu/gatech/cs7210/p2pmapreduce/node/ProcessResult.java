@@ -0,0 +1,44 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.util.List;
+
+public class ProcessResult {
+
+	private String command;
+	private int exitCode;
+	private long wallTime;
+	private boolean timedOut;
+	private List<String> tail;
+	
+	public ProcessResult(String command, int exitCode, long wallTime, boolean timedOut, List<String> tail) {
+		this.command = command;
+		this.exitCode = exitCode;
+		this.wallTime = wallTime;
+		this.timedOut = timedOut;
+		this.tail = tail;
+	}
+	
+	public String getCommand() {
+		return this.command;
+	}
+	
+	public int getExitCode() {
+		return this.exitCode;
+	}
+	
+	public long getWallTime() {
+		return this.wallTime;
+	}
+	
+	public boolean isTimedOut() {
+		return this.timedOut;
+	}
+	
+	public List<String> getTail() {
+		return this.tail;
+	}
+	
+	public boolean isSuccess() {
+		return !this.timedOut && this.exitCode == 0;
+	}
+}
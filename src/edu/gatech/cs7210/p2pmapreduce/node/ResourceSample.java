@@ -0,0 +1,92 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.gatech.cs7210.p2pmapreduce.comm.codec.WireBuffer;
+
+/*
+ * What a slave's agent read of its host at one time. A batch of samples is
+ * encoded field by field as the difference from the sample before it, the first
+ * from zero, so the readings that barely change between samples of the same host
+ * take a byte each on the wire.
+ */
+public class ResourceSample {
+	
+	public static final int TIME = 0;
+	// busy time of all processors over the last interval, in thousandths
+	public static final int CPU = 1;
+	public static final int MEMORY_TOTAL = 2;
+	public static final int MEMORY_AVAILABLE = 3;
+	public static final int DISK_TOTAL = 4;
+	public static final int DISK_FREE = 5;
+	public static final int RUNNING_TASKS = 6;
+	// the one minute load average, in hundredths
+	public static final int LOAD = 7;
+	private static final int FIELDS = 8;
+	
+	private long[] values;
+	
+	public ResourceSample(long time, long cpu, long memoryTotal, long memoryAvailable, long diskTotal,
+			long diskFree, long runningTasks, long load) {
+		this(new long[] { time, cpu, memoryTotal, memoryAvailable, diskTotal, diskFree, runningTasks, load });
+	}
+	
+	private ResourceSample(long[] values) {
+		this.values = values;
+	}
+	
+	public long get(int field) {
+		return this.values[field];
+	}
+	
+	public long getTime() {
+		return this.values[TIME];
+	}
+	
+	public static byte[] encode(List<ResourceSample> samples) {
+		WireBuffer buffer = new WireBuffer(8 + samples.size() * FIELDS * 2);
+		buffer.putVarInt(samples.size());
+		long[] previous = new long[FIELDS];
+		for (ResourceSample sample : samples) {
+			for (int i = 0; i < FIELDS; i++) {
+				buffer.putSignedVarLong(sample.values[i] - previous[i]);
+			}
+			previous = sample.values;
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+	
+	public static List<ResourceSample> decode(byte[] bytes) throws IOException {
+		WireBuffer buffer = new WireBuffer(bytes, bytes.length);
+		try {
+			int count = buffer.getVarInt();
+			// every field takes at least a byte
+			if (count < 0 || count > bytes.length / FIELDS) {
+				throw new IOException("Malformed batch of [" + count + "] samples");
+			}
+			List<ResourceSample> samples = new ArrayList<ResourceSample>(count);
+			long[] previous = new long[FIELDS];
+			for (int n = 0; n < count; n++) {
+				long[] values = new long[FIELDS];
+				for (int i = 0; i < FIELDS; i++) {
+					values[i] = previous[i] + buffer.getSignedVarLong();
+				}
+				samples.add(new ResourceSample(values));
+				previous = values;
+			}
+			return samples;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated batch of samples");
+		}
+	}
+	
+	public String toString() {
+		return "cpu=" + values[CPU] / 10.0 + "% memory=" + values[MEMORY_AVAILABLE] + "/" + values[MEMORY_TOTAL]
+				+ "kB disk=" + values[DISK_FREE] + "/" + values[DISK_TOTAL] + "MB tasks=" + values[RUNNING_TASKS]
+				+ " load=" + values[LOAD] / 100.0;
+	}
+}
@@ -0,0 +1,141 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/*
+ * Reads the resources of this host from /proc: processor time from /proc/stat,
+ * memory from /proc/meminfo, the load average from /proc/loadavg and the Hadoop
+ * tasks running as the task JVMs found among the processes. Disk space is that of
+ * the file system holding dir. On a host without /proc the readings from it are
+ * left at zero.
+ */
+public class ResourceSampler {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// the main class of the JVMs a TaskTracker runs its tasks in
+	private static final byte[] TASK_CLASS = "org.apache.hadoop.mapred.Child".getBytes(UTF8);
+	
+	private File dir;
+	private Path proc = Paths.get("/proc");
+	// processor times at the previous sample, the busy share is taken over the time between samples
+	private long busy = 0;
+	private long total = 0;
+	
+	public ResourceSampler(File dir) {
+		this.dir = dir;
+	}
+	
+	public ResourceSample sample() {
+		long cpu = cpu();
+		long memoryTotal = 0;
+		long memoryAvailable = 0;
+		try {
+			for (String line : Files.readAllLines(proc.resolve("meminfo"), UTF8)) {
+				if (line.startsWith("MemTotal:")) {
+					memoryTotal = kilobytes(line);
+				} else if (line.startsWith("MemAvailable:")) {
+					memoryAvailable = kilobytes(line);
+				}
+			}
+		} catch (IOException e) {
+			// no /proc, the memory is left at zero
+		}
+		long load = 0;
+		try {
+			List<String> lines = Files.readAllLines(proc.resolve("loadavg"), UTF8);
+			if (!lines.isEmpty()) {
+				load = Math.round(Double.parseDouble(lines.get(0).split(" ")[0]) * 100);
+			}
+		} catch (IOException e) {
+			// no /proc, the load is left at zero
+		} catch (NumberFormatException e) {
+			System.err.println("Failed to read the load average");
+		}
+		File existing = dir.getAbsoluteFile();
+		while (existing != null && !existing.exists()) {
+			existing = existing.getParentFile();
+		}
+		long diskTotal = existing == null ? 0 : existing.getTotalSpace() >> 20;
+		long diskFree = existing == null ? 0 : existing.getUsableSpace() >> 20;
+		return new ResourceSample(System.currentTimeMillis(), cpu, memoryTotal, memoryAvailable,
+				diskTotal, diskFree, runningTasks(), load);
+	}
+	
+	// the first line sums the times of all processors: user nice system idle iowait irq softirq steal
+	private long cpu() {
+		try {
+			List<String> lines = Files.readAllLines(proc.resolve("stat"), UTF8);
+			String[] fields = lines.isEmpty() ? new String[0] : lines.get(0).trim().split("\\s+");
+			if (fields.length < 5 || !fields[0].equals("cpu")) {
+				return 0;
+			}
+			long total = 0;
+			for (int i = 1; i < fields.length && i <= 8; i++) {
+				total += Long.parseLong(fields[i]);
+			}
+			long idle = Long.parseLong(fields[4]) + (fields.length > 5 ? Long.parseLong(fields[5]) : 0);
+			long busy = total - idle;
+			long cpu = total > this.total ? 1000 * (busy - this.busy) / (total - this.total) : 0;
+			this.busy = busy;
+			this.total = total;
+			return Math.max(0, Math.min(1000, cpu));
+		} catch (IOException e) {
+			// no /proc, the processors are left at zero
+			return 0;
+		} catch (NumberFormatException e) {
+			System.err.println("Failed to read the processor times");
+			return 0;
+		}
+	}
+	
+	private int runningTasks() {
+		int tasks = 0;
+		try {
+			DirectoryStream<Path> processes = Files.newDirectoryStream(proc, "[0-9]*");
+			try {
+				for (Path process : processes) {
+					try {
+						if (contains(Files.readAllBytes(process.resolve("cmdline")), TASK_CLASS)) {
+							tasks++;
+						}
+					} catch (IOException e) {
+						// the process has exited since the listing
+					}
+				}
+			} finally {
+				processes.close();
+			}
+		} catch (IOException e) {
+			// no /proc, no tasks are counted
+		}
+		return tasks;
+	}
+	
+	private static boolean contains(byte[] bytes, byte[] part) {
+		for (int i = 0; i + part.length <= bytes.length; i++) {
+			int j = 0;
+			while (j < part.length && bytes[i + j] == part[j]) {
+				j++;
+			}
+			if (j == part.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static long kilobytes(String line) {
+		try {
+			return Long.parseLong(line.replaceAll("[^0-9]", ""));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,518 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.FetchResultRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ResultResponse;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.DistributedMapReduceTask;
+
+/*
+ * Keeps the output of successful tasks on local disk, so resubmitting a task
+ * over unchanged inputs restores its output instead of running the job again.
+ * Entries are keyed by a hash of the task and the size and modification time of
+ * each input, evicted least recently used first once they hold more than
+ * maxBytes, and dropped ttl milliseconds after they were created. With publish
+ * set, entries are advertised in the ring so another master can fetch them on a
+ * miss. The index is kept in memory and rebuilt from the directory on startup.
+ */
+public class ResultCache {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String ENTRY_FILE = "entry";
+	private static final String OUTPUT_DIR = "output";
+	private static final String TEMP_PREFIX = ".";
+	// results are sent to other masters inside a single response
+	private static final long REMOTE_MAX_BYTES = 16L * 1024 * 1024;
+	
+	private AbstractNode node;
+	private File dir;
+	private long maxBytes;
+	private long ttl;
+	private boolean publish;
+	private CommandDispatcher dispatcher = new CommandDispatcher();
+	// in access order, so the eldest entry is the least recently used
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes = 0;
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong remoteHits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+	
+	public ResultCache(AbstractNode node, File dir, long maxBytes, long ttl, boolean publish) {
+		this.node = node;
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.ttl = ttl;
+		this.publish = publish;
+		load();
+	}
+	
+	// null if the task cannot be cached, e.g. because an input could not be fingerprinted
+	public String key(ITask task) throws InterruptedException {
+		if (task instanceof DistributedMapReduceTask || task.getOutput() == null) {
+			// a distributed job leaves its output spread over the reducing masters
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(task.getCommand().getBytes(UTF8));
+			boolean local = task instanceof IEmbeddedTask;
+			if (local) {
+				// the command of an embedded task does not capture settings such as a grep pattern
+				digest.update(serialize(task));
+			}
+			List<String> inputs = task.getInputs();
+			for (String input : inputs == null ? Collections.<String>emptyList() : inputs) {
+				String fingerprint = local ? localFingerprint(input) : hdfsFingerprint(input);
+				if (fingerprint == null) {
+					return null;
+				}
+				digest.update(("\n" + input + "\n" + fingerprint).getBytes(UTF8));
+			}
+			return String.format("%040x", new BigInteger(1, digest.digest()));
+		} catch (IOException | NoSuchAlgorithmException e) {
+			System.err.println("Failed to fingerprint task [" + task.getTaskName() + "]");
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	// writes the cached output of the task back to its output path, false on a miss
+	public boolean restore(String key, ITask task) throws InterruptedException {
+		Entry entry = acquire(key);
+		if (entry == null && publish) {
+			entry = fetchRemote(key);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return false;
+		}
+		try {
+			File output = new File(entryDir(key), OUTPUT_DIR);
+			if (task instanceof IEmbeddedTask) {
+				File target = new File(task.getOutput());
+				delete(target);
+				copy(output, target);
+			} else {
+				// -rmr fails when there is nothing to remove, which is fine
+				runHadoop("fs -rmr " + quote(task.getOutput()));
+				if (!runHadoop("fs -put " + quote(output.getPath()) + " " + quote(task.getOutput()))) {
+					throw new IOException("Could not put output to [" + task.getOutput() + "]");
+				}
+			}
+			new File(entryDir(key), ENTRY_FILE).setLastModified(System.currentTimeMillis());
+			hits.incrementAndGet();
+			System.out.println("Restored output of task [" + task.getTaskName() + "] from result cache");
+			return true;
+		} catch (IOException e) {
+			System.err.println("Failed to restore cached output of task [" + task.getTaskName() + "]");
+			e.printStackTrace();
+			misses.incrementAndGet();
+			return false;
+		} finally {
+			release(entry);
+		}
+	}
+	
+	// copies the output of a task that just succeeded into the cache
+	public void store(String key, ITask task) throws InterruptedException {
+		File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+		try {
+			File output = new File(temp, OUTPUT_DIR);
+			if (task instanceof IEmbeddedTask) {
+				copy(new File(task.getOutput()), output);
+			} else if (!temp.mkdirs()
+					|| !runHadoop("fs -get " + quote(task.getOutput()) + " " + quote(output.getPath()))) {
+				throw new IOException("Could not get output from [" + task.getOutput() + "]");
+			}
+			long size = size(output);
+			if (size > maxBytes) {
+				delete(temp);
+				return;
+			}
+			commit(key, temp, size, System.currentTimeMillis());
+		} catch (IOException e) {
+			System.err.println("Failed to cache output of task [" + task.getTaskName() + "]");
+			e.printStackTrace();
+			delete(temp);
+		}
+	}
+	
+	// serves an entry to a master that found it through the ring
+	public ResultResponse fetch(FetchResultRequest request) {
+		Entry entry = acquire(request.getKey());
+		if (entry == null) {
+			return new ResultResponse(false, 0, null, null);
+		}
+		try {
+			if (entry.bytes > REMOTE_MAX_BYTES) {
+				return new ResultResponse(false, 0, null, null);
+			}
+			List<String> paths = new ArrayList<String>();
+			List<byte[]> contents = new ArrayList<byte[]>();
+			File output = new File(entryDir(entry.key), OUTPUT_DIR);
+			for (File file : listFiles(output)) {
+				paths.add(output.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+				contents.add(Files.readAllBytes(file.toPath()));
+			}
+			return new ResultResponse(true, entry.created, paths, contents);
+		} catch (IOException e) {
+			System.err.println("Failed to read cached result [" + entry.key + "]");
+			e.printStackTrace();
+			return new ResultResponse(false, 0, null, null);
+		} finally {
+			release(entry);
+		}
+	}
+	
+	public long getHits() {
+		return this.hits.get();
+	}
+	
+	public long getRemoteHits() {
+		return this.remoteHits.get();
+	}
+	
+	public long getMisses() {
+		return this.misses.get();
+	}
+	
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+	
+	public synchronized int getEntries() {
+		return this.entries.size();
+	}
+	
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+	
+	public String toString() {
+		return "hits=" + hits + " remoteHits=" + remoteHits + " misses=" + misses + " evictions=" + evictions
+				+ " entries=" + getEntries() + " bytes=" + getBytes();
+	}
+	
+	private synchronized Entry acquire(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (isExpired(entry, System.currentTimeMillis())) {
+			unpublish(Collections.singletonList(evict(entry)));
+			return null;
+		}
+		entry.readers++;
+		return entry;
+	}
+	
+	private synchronized void release(Entry entry) {
+		if (entry == null) {
+			return;
+		}
+		entry.readers--;
+		if (entry.evicted && entry.readers == 0) {
+			delete(entryDir(entry.key));
+		}
+	}
+	
+	// moves a fully written temp directory into place and evicts to make room for it
+	private void commit(String key, File temp, long size, long created) throws IOException {
+		// holds the creation time, and its modification time is the last use
+		Files.write(new File(temp, ENTRY_FILE).toPath(), String.valueOf(created).getBytes(UTF8));
+		List<Entry> evicted = new ArrayList<Entry>();
+		synchronized (this) {
+			if (entries.containsKey(key)) {
+				// an identical task finished first
+				delete(temp);
+				return;
+			}
+			Files.move(temp.toPath(), entryDir(key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			entries.put(key, new Entry(key, size, created));
+			bytes += size;
+			long now = System.currentTimeMillis();
+			Iterator<Entry> it = new ArrayList<Entry>(entries.values()).iterator();
+			while (it.hasNext()) {
+				Entry entry = it.next();
+				if (isExpired(entry, now) || (bytes > maxBytes && !entry.key.equals(key))) {
+					evicted.add(evict(entry));
+				}
+			}
+		}
+		unpublish(evicted);
+		if (publish) {
+			ApplicationContext.getInstance().getChordNode().publishResult(key, size);
+		}
+	}
+	
+	private Entry evict(Entry entry) {
+		entries.remove(entry.key);
+		bytes -= entry.bytes;
+		entry.evicted = true;
+		evictions.incrementAndGet();
+		if (entry.readers == 0) {
+			delete(entryDir(entry.key));
+		}
+		return entry;
+	}
+	
+	private void unpublish(List<Entry> evicted) {
+		if (!publish) {
+			return;
+		}
+		for (Entry entry : evicted) {
+			ApplicationContext.getInstance().getChordNode().removeResult(entry.key, entry.bytes);
+		}
+	}
+	
+	private Entry fetchRemote(String key) {
+		URL holder = ApplicationContext.getInstance().getChordNode().locateResult(key);
+		if (holder == null) {
+			return null;
+		}
+		IResponse response = dispatcher.dispatch(new FetchResultRequest(key, holder));
+		if (!(response instanceof ResultResponse) || !response.isSuccess()) {
+			return null;
+		}
+		ResultResponse result = (ResultResponse)response;
+		File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+		try {
+			File output = new File(temp, OUTPUT_DIR);
+			if (!output.mkdirs()) {
+				throw new IOException("Could not create [" + output + "]");
+			}
+			long size = 0;
+			for (int i = 0; i < result.getPaths().size(); i++) {
+				File file = new File(output, result.getPaths().get(i));
+				if (!file.getCanonicalPath().startsWith(output.getCanonicalPath() + File.separator)) {
+					throw new IOException("Result path [" + result.getPaths().get(i) + "] escapes the output");
+				}
+				file.getParentFile().mkdirs();
+				Files.write(file.toPath(), result.getContents().get(i));
+				size += result.getContents().get(i).length;
+			}
+			commit(key, temp, size, result.getCreated());
+			remoteHits.incrementAndGet();
+			return acquire(key);
+		} catch (IOException e) {
+			System.err.println("Failed to store result [" + key + "] fetched from [" + holder + "]");
+			e.printStackTrace();
+			delete(temp);
+			return null;
+		}
+	}
+	
+	// advertises the entries left by a previous run, once this master has joined the ring
+	public void publishAll() {
+		if (!publish) {
+			return;
+		}
+		List<Entry> current;
+		synchronized (this) {
+			current = new ArrayList<Entry>(entries.values());
+		}
+		for (Entry entry : current) {
+			ApplicationContext.getInstance().getChordNode().publishResult(entry.key, entry.bytes);
+		}
+	}
+	
+	// rebuilds the index from entries left by a previous run, least recently used first
+	private void load() {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.err.println("Could not create result cache directory [" + dir + "]");
+			return;
+		}
+		File[] children = dir.listFiles();
+		List<File> found = new ArrayList<File>();
+		for (File child : children == null ? new File[0] : children) {
+			if (child.getName().startsWith(TEMP_PREFIX) || !new File(child, ENTRY_FILE).isFile()) {
+				delete(child);
+			} else {
+				found.add(child);
+			}
+		}
+		Collections.sort(found, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(new File(a, ENTRY_FILE).lastModified(), new File(b, ENTRY_FILE).lastModified());
+			}
+		});
+		long now = System.currentTimeMillis();
+		for (File child : found) {
+			try {
+				long created = Long.parseLong(new String(Files.readAllBytes(new File(child, ENTRY_FILE).toPath()), UTF8).trim());
+				Entry entry = new Entry(child.getName(), size(new File(child, OUTPUT_DIR)), created);
+				if (isExpired(entry, now)) {
+					delete(child);
+					continue;
+				}
+				entries.put(entry.key, entry);
+				bytes += entry.bytes;
+			} catch (IOException | NumberFormatException e) {
+				System.err.println("Dropping unreadable result cache entry [" + child + "]");
+				delete(child);
+			}
+		}
+	}
+	
+	private boolean isExpired(Entry entry, long now) {
+		return ttl > 0 && now - entry.created > ttl;
+	}
+	
+	private File entryDir(String key) {
+		return new File(dir, key);
+	}
+	
+	private String localFingerprint(String input) {
+		File file = new File(input);
+		if (!file.exists()) {
+			return null;
+		}
+		StringBuilder fingerprint = new StringBuilder();
+		File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+		if (files == null) {
+			return null;
+		}
+		Arrays.sort(files);
+		for (File f : files) {
+			fingerprint.append(f.getName()).append(' ').append(f.length()).append(' ').append(f.lastModified()).append('\n');
+		}
+		return fingerprint.toString();
+	}
+	
+	// file count, total size and modification time of an HDFS path
+	private String hdfsFingerprint(String input) throws InterruptedException {
+		List<String> count = hadoopOutput("fs -count " + quote(input));
+		List<String> stat = hadoopOutput("fs -stat %Y " + quote(input));
+		if (count == null || stat == null) {
+			return null;
+		}
+		return count + " " + stat;
+	}
+	
+	private boolean runHadoop(String args) throws InterruptedException {
+		return hadoopOutput(args) != null;
+	}
+	
+	private List<String> hadoopOutput(String args) throws InterruptedException {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		CompletableFuture<ProcessResult> future = node.executeCommandAsync(
+				appContext.getBinDir() + File.separator + "hadoop " + args, appContext.getCommandTimeout());
+		try {
+			ProcessResult result = future.get();
+			return result.isSuccess() ? result.getTail() : null;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			System.err.println("Failed to run [hadoop " + args + "]");
+			e.getCause().printStackTrace();
+			return null;
+		}
+	}
+	
+	static String quote(String arg) {
+		return "'" + arg.replace("'", "'\\''") + "'";
+	}
+	
+	private static byte[] serialize(ITask task) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(task);
+		oos.close();
+		return bos.toByteArray();
+	}
+	
+	static List<File> listFiles(File file) {
+		List<File> files = new ArrayList<File>();
+		File[] children = file.listFiles();
+		if (children == null) {
+			if (file.isFile()) {
+				files.add(file);
+			}
+			return files;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			files.addAll(listFiles(child));
+		}
+		return files;
+	}
+	
+	private static long size(File file) {
+		long size = 0;
+		for (File f : listFiles(file)) {
+			size += f.length();
+		}
+		return size;
+	}
+	
+	private static void copy(File source, File target) throws IOException {
+		if (source.isDirectory()) {
+			if (!target.isDirectory() && !target.mkdirs()) {
+				throw new IOException("Could not create directory [" + target + "]");
+			}
+			File[] children = source.listFiles();
+			for (File child : children == null ? new File[0] : children) {
+				copy(child, new File(target, child.getName()));
+			}
+		} else if (source.isFile()) {
+			target.getParentFile().mkdirs();
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			throw new IOException("No output at [" + source + "]");
+		}
+	}
+	
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	private static class Entry {
+		
+		private String key;
+		private long bytes;
+		private long created;
+		// restores and fetches in progress, the files are removed once the last one is done
+		private int readers = 0;
+		private boolean evicted = false;
+		
+		public Entry(String key, long bytes, long created) {
+			this.key = key;
+			this.bytes = bytes;
+			this.created = created;
+		}
+	}
+}
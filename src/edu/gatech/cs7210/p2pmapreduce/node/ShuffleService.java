@@ -0,0 +1,424 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.comm.CommandDispatcher;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.MapRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ReduceRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ReleaseShuffleRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ResendRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.requests.ShuffleRequest;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ErrorResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.IResponse;
+import edu.gatech.cs7210.p2pmapreduce.comm.responses.ShuffleResponse;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.DistributedMapReduceTask;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceEngine;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceTask;
+
+/*
+ * Runs a MapReduce job across the masters of the ring. The master coordinating a
+ * job asks the masters holding its inputs to map them. Every partition of the job
+ * has a key in the ring, and each mapper streams its combined output for a
+ * partition in compressed chunks to the master responsible for that key, which
+ * reduces the partition once every mapper has delivered. Mappers keep their output
+ * until the job is released, so a partition whose master drops out is moved to
+ * the key's new owner and sent again without mapping anything twice.
+ */
+public class ShuffleService {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String DONE_FILE = "done";
+	private static final String RUN_FILE = "run";
+	private static final long RETRY_DELAY = 1000;
+	
+	private File dir;
+	private int chunkSize;
+	private int window;
+	private int retries;
+	private CommandDispatcher dispatcher = new CommandDispatcher();
+	
+	public ShuffleService(File dir, int chunkSize, int window, int retries) {
+		this.dir = dir;
+		this.chunkSize = chunkSize;
+		this.window = window;
+		this.retries = retries;
+	}
+	
+	public boolean run(DistributedMapReduceTask task, ProgressListener progress) throws InterruptedException {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		ChordNode chordNode = appContext.getChordNode();
+		String jobId = UUID.randomUUID().toString();
+		
+		List<URL> owners = new ArrayList<URL>();
+		Set<URL> participants = new LinkedHashSet<URL>();
+		Map<URL, List<String>> assignment = new LinkedHashMap<URL, List<String>>();
+		try {
+			for (int p = 0; p < task.getReducers(); p++) {
+				URL owner = chordNode.locatePartition(jobId, p);
+				if (owner == null) {
+					return false;
+				}
+				owners.add(owner);
+			}
+			// inputs are read where they are stored, the rest on this master
+			for (String input : task.getInputs()) {
+				URL mapper = chordNode.locateInput(input);
+				if (mapper == null) {
+					mapper = appContext.getUrl();
+				}
+				List<String> inputs = assignment.get(mapper);
+				if (inputs == null) {
+					inputs = new ArrayList<String>();
+					assignment.put(mapper, inputs);
+				}
+				inputs.add(input);
+			}
+			List<URL> mappers = new ArrayList<URL>(assignment.keySet());
+			participants.addAll(mappers);
+			participants.addAll(owners);
+			
+			Set<Integer> failed = new TreeSet<Integer>();
+			Map<URL, CompletableFuture<IResponse>> maps = new LinkedHashMap<URL, CompletableFuture<IResponse>>();
+			for (URL mapper : mappers) {
+				maps.put(mapper, dispatcher.dispatchAsync(
+						new MapRequest(jobId, task, assignment.get(mapper), owners, mapper)));
+			}
+			for (URL mapper : mappers) {
+				IResponse response = dispatcher.await(mapper, maps.get(mapper));
+				if (!(response instanceof ShuffleResponse) || !response.isSuccess()) {
+					System.err.println("Map of job [" + jobId + "] failed on [" + mapper + "]");
+					return false;
+				}
+				failed.addAll(((ShuffleResponse)response).getFailedPartitions());
+			}
+			if (progress != null) {
+				progress.progress(0.5f);
+			}
+			
+			Set<Integer> pending = new TreeSet<Integer>();
+			for (int p = 0; p < task.getReducers(); p++) {
+				pending.add(p);
+			}
+			for (int attempt = 0; !pending.isEmpty(); attempt++) {
+				if (attempt > retries) {
+					System.err.println("Giving up on partitions " + pending + " of job [" + jobId + "]");
+					return false;
+				}
+				for (Integer p : failed) {
+					if (!movePartition(jobId, p, owners, mappers, participants, attempt)) {
+						return false;
+					}
+				}
+				failed.clear();
+				
+				Map<Integer, CompletableFuture<IResponse>> reduces = new LinkedHashMap<Integer, CompletableFuture<IResponse>>();
+				for (Integer p : pending) {
+					reduces.put(p, dispatcher.dispatchAsync(new ReduceRequest(jobId, p, task, mappers, owners.get(p))));
+				}
+				for (Integer p : reduces.keySet()) {
+					IResponse response = dispatcher.await(owners.get(p), reduces.get(p));
+					if (response.isSuccess()) {
+						pending.remove(p);
+						if (progress != null) {
+							progress.progress(0.5f + 0.5f * (task.getReducers() - pending.size()) / task.getReducers());
+						}
+					} else {
+						failed.add(p);
+					}
+				}
+			}
+			return true;
+		} finally {
+			for (URL participant : participants) {
+				dispatcher.dispatchAsync(new ReleaseShuffleRequest(jobId, participant));
+			}
+			for (int p = 0; p < owners.size(); p++) {
+				chordNode.releasePartition(jobId, p);
+			}
+		}
+	}
+	
+	// finds the partition's owner again, giving the ring time to stabilize, and has every mapper resend to it
+	private boolean movePartition(String jobId, int partition, List<URL> owners, List<URL> mappers, 
+			Set<URL> participants, int attempt) throws InterruptedException {
+		Thread.sleep(RETRY_DELAY << attempt);
+		URL owner = ApplicationContext.getInstance().getChordNode().locatePartition(jobId, partition);
+		if (owner == null) {
+			return false;
+		}
+		System.out.println("Moving partition [" + partition + "] of job [" + jobId + "] from [" 
+				+ owners.get(partition) + "] to [" + owner + "]");
+		owners.set(partition, owner);
+		participants.add(owner);
+		for (URL mapper : mappers) {
+			if (!dispatcher.dispatch(new ResendRequest(jobId, partition, owner, mapper)).isSuccess()) {
+				System.err.println("Mapper [" + mapper + "] could not resend partition [" + partition + "]");
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public ShuffleResponse map(MapRequest request) {
+		String jobId = request.getJobId();
+		MapReduceTask task = request.getTask();
+		try {
+			newEngine().map(task, request.getInputs(), outputDir(jobId));
+		} catch (IOException e) {
+			System.err.println("Failed to map inputs " + request.getInputs() + " of job [" + jobId + "]");
+			e.printStackTrace();
+			return new ShuffleResponse(false, null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ShuffleResponse(false, null);
+		}
+		
+		List<Integer> failed = new ArrayList<Integer>();
+		List<URL> owners = request.getOwners();
+		for (int p = 0; p < owners.size(); p++) {
+			if (!send(jobId, p, owners.get(p))) {
+				failed.add(p);
+			}
+		}
+		return new ShuffleResponse(true, failed);
+	}
+	
+	public ShuffleResponse resend(ResendRequest request) {
+		return new ShuffleResponse(send(request.getJobId(), request.getPartition(), request.getOwner()), null);
+	}
+	
+	private boolean send(String jobId, int partition, URL owner) {
+		for (int attempt = 0; attempt <= retries; attempt++) {
+			try {
+				if (attempt > 0) {
+					Thread.sleep(RETRY_DELAY << (attempt - 1));
+				}
+				stream(jobId, partition, owner);
+				return true;
+			} catch (IOException e) {
+				System.err.println("Failed to shuffle partition [" + partition + "] of job [" + jobId 
+						+ "] to [" + owner + "]: " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	// sends the partition with up to window chunks awaiting acknowledgement
+	private void stream(String jobId, int partition, URL owner) throws IOException {
+		URL source = ApplicationContext.getInstance().getUrl();
+		Deque<CompletableFuture<IResponse>> inFlight = new ArrayDeque<CompletableFuture<IResponse>>();
+		InputStream in = new FileInputStream(MapReduceEngine.partitionFile(outputDir(jobId), partition));
+		try {
+			byte[] buffer = new byte[chunkSize];
+			int sequence = 0;
+			int read;
+			while ((read = readFully(in, buffer)) > 0) {
+				if (inFlight.size() >= window) {
+					check(owner, inFlight.poll());
+				}
+				inFlight.add(dispatcher.dispatchAsync(new ShuffleRequest(jobId, partition, source, sequence++, 
+						compress(buffer, read), false, owner)));
+			}
+			while (!inFlight.isEmpty()) {
+				check(owner, inFlight.poll());
+			}
+			check(owner, dispatcher.dispatchAsync(new ShuffleRequest(jobId, partition, source, sequence, null, true, owner)));
+		} finally {
+			in.close();
+		}
+	}
+	
+	private void check(URL owner, CompletableFuture<IResponse> future) throws IOException {
+		IResponse response = dispatcher.await(owner, future);
+		if (!response.isSuccess()) {
+			throw new IOException(response instanceof ErrorResponse ? ((ErrorResponse)response).getMessage() 
+					: "Chunk rejected");
+		}
+	}
+	
+	public ShuffleResponse receive(ShuffleRequest request) {
+		File sourceDir = new File(partitionDir(request.getJobId(), request.getPartition()), 
+				sourceName(request.getSource()));
+		try {
+			Files.createDirectories(sourceDir.toPath());
+			if (request.isLast()) {
+				write(new File(sourceDir, DONE_FILE), String.valueOf(request.getSequence()).getBytes(UTF8));
+			} else {
+				write(chunkFile(sourceDir, request.getSequence()), request.getData());
+			}
+			return new ShuffleResponse(true, null);
+		} catch (IOException e) {
+			System.err.println("Failed to store chunk of partition [" + request.getPartition() + "] of job [" 
+					+ request.getJobId() + "]");
+			e.printStackTrace();
+			return new ShuffleResponse(false, null);
+		}
+	}
+	
+	public ShuffleResponse reduce(ReduceRequest request) {
+		String jobId = request.getJobId();
+		int partition = request.getPartition();
+		File partitionDir = partitionDir(jobId, partition);
+		List<File> runs = new ArrayList<File>();
+		try {
+			for (URL source : request.getSources()) {
+				File sourceDir = new File(partitionDir, sourceName(source));
+				File done = new File(sourceDir, DONE_FILE);
+				if (!done.isFile()) {
+					System.err.println("Partition [" + partition + "] of job [" + jobId + "] is missing output from [" 
+							+ source + "]");
+					return new ShuffleResponse(false, null);
+				}
+				int chunks = Integer.parseInt(new String(Files.readAllBytes(done.toPath()), UTF8));
+				for (int i = 0; i < chunks; i++) {
+					if (!chunkFile(sourceDir, i).isFile()) {
+						throw new IOException("Missing chunk [" + i + "] from [" + source + "]");
+					}
+				}
+				// runs are mapped for the merge, so the chunks are inflated back into one file
+				File run = new File(sourceDir, RUN_FILE);
+				InputStream in = new SequenceInputStream(new ChunkEnumeration(sourceDir, chunks));
+				try {
+					Files.copy(in, run.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					in.close();
+				}
+				runs.add(run);
+			}
+			newEngine().reduce(request.getTask(), partition, runs);
+			delete(partitionDir);
+			return new ShuffleResponse(true, null);
+		} catch (IOException | UncheckedIOException e) {
+			System.err.println("Failed to reduce partition [" + partition + "] of job [" + jobId + "]");
+			e.printStackTrace();
+			return new ShuffleResponse(false, null);
+		}
+	}
+	
+	public ShuffleResponse release(ReleaseShuffleRequest request) {
+		delete(new File(dir, request.getJobId()));
+		return new ShuffleResponse(true, null);
+	}
+	
+	private MapReduceEngine newEngine() {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		return new MapReduceEngine(appContext.getEngineParallelism(), appContext.getEngineMemory(), 
+				new File(appContext.getEngineSpillDir()));
+	}
+	
+	private File outputDir(String jobId) {
+		return new File(new File(dir, jobId), "out");
+	}
+	
+	private File partitionDir(String jobId, int partition) {
+		return new File(new File(new File(dir, jobId), "in"), String.valueOf(partition));
+	}
+	
+	private static String sourceName(URL source) {
+		return source.getHost() + "_" + source.getPort();
+	}
+	
+	private static File chunkFile(File sourceDir, int sequence) {
+		return new File(sourceDir, String.format("%08d", sequence));
+	}
+	
+	// chunks can arrive out of order on the listener's handler pool, each is written whole and renamed into place
+	private static void write(File file, byte[] data) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Files.write(tmp.toPath(), data);
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	private static byte[] compress(byte[] data, int length) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		int read;
+		while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+			total += read;
+		}
+		return total;
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	// opens a source's chunks one at a time as the merge reaches them
+	private static class ChunkEnumeration implements Enumeration<InputStream> {
+		
+		private File sourceDir;
+		private int chunks;
+		private int next = 0;
+		
+		public ChunkEnumeration(File sourceDir, int chunks) {
+			this.sourceDir = sourceDir;
+			this.chunks = chunks;
+		}
+		
+		public boolean hasMoreElements() {
+			return next < chunks;
+		}
+		
+		public InputStream nextElement() {
+			if (next >= chunks) {
+				throw new NoSuchElementException();
+			}
+			try {
+				return new InflaterInputStream(new FileInputStream(chunkFile(sourceDir, next++)));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import de.uniba.wiai.lspi.chord.data.URL;
 import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
 import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
 
 public class SlaveNode extends AbstractNode {
 
@@ -34,4 +35,16 @@ public class SlaveNode extends AbstractNode {
 	public boolean executeTask(ITask task) {
 		return false;
 	}
+	
+	public String submitTask(ITask task, int priority) {
+		return null;
+	}
+	
+	public JobStatus getJobStatus(String jobId) {
+		return null;
+	}
+	
+	public JobStatus cancelJob(String jobId) {
+		return null;
+	}
 }
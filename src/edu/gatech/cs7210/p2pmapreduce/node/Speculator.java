@@ -0,0 +1,322 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobHandle;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+
+/*
+ * Follows the jobs a client publishes and works around slow masters. Each job is
+ * polled for its status and progress; once it has been out for longer than the
+ * given percentile of recent runtimes of tasks with the same name, has made no
+ * progress for stallTimeout, or its master stops answering, the task is submitted
+ * again to the master that follows on the ring. Whichever copy succeeds first
+ * wins and the other is cancelled. A job that fails outright is retried there
+ * the same way.
+ */
+public class Speculator {
+	
+	// polls a master may miss in a row before its copy of the job is given up on
+	private static final int MAX_MISSED_POLLS = 3;
+	
+	private ChordNode chordNode;
+	private int percentile;
+	private int minSamples;
+	private long stallTimeout;
+	private long pollInterval;
+	private int history;
+	private List<SpeculativeJob> jobs = new ArrayList<SpeculativeJob>();
+	// recent runtimes of successful jobs by task name, oldest overwritten first
+	private Map<String, Runtimes> runtimes = new HashMap<String, Runtimes>();
+	private AtomicLong speculated = new AtomicLong();
+	private AtomicLong wins = new AtomicLong();
+	private AtomicLong losses = new AtomicLong();
+	private ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "speculator");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	public Speculator(ChordNode chordNode, int percentile, int minSamples, long stallTimeout,
+			long pollInterval, int history) {
+		this.chordNode = chordNode;
+		this.percentile = percentile;
+		this.minSamples = minSamples;
+		this.stallTimeout = stallTimeout;
+		this.pollInterval = pollInterval;
+		this.history = history;
+		poller.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				poll();
+			}
+		}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	// completes with the status of the copy that finished first, cancelling the future cancels every copy
+	public CompletableFuture<JobStatus> submit(ITask task, int priority) {
+		CompletableFuture<JobStatus> future = new CompletableFuture<JobStatus>();
+		JobHandle handle = chordNode.publishTask(task, priority);
+		if (handle == null) {
+			future.completeExceptionally(new IOException("Could not publish task [" + task.getTaskName() + "]"));
+			return future;
+		}
+		SpeculativeJob job = new SpeculativeJob(task, priority, future);
+		job.attempts.add(new Attempt(handle, System.currentTimeMillis()));
+		synchronized (jobs) {
+			jobs.add(job);
+		}
+		return future;
+	}
+	
+	// how long a task may run before a second copy is started, -1 until enough runs have been seen
+	public synchronized long getThreshold(String taskName) {
+		Runtimes recent = runtimes.get(taskName);
+		if (recent == null || recent.count < minSamples) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(recent.values, recent.count);
+		Arrays.sort(sorted);
+		int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+	
+	public long getSpeculated() {
+		return this.speculated.get();
+	}
+	
+	// jobs where the second copy finished first
+	public long getWins() {
+		return this.wins.get();
+	}
+	
+	// jobs where the original copy finished first after all
+	public long getLosses() {
+		return this.losses.get();
+	}
+	
+	public void shutdown() {
+		poller.shutdownNow();
+	}
+	
+	private synchronized void record(String taskName, long runtime) {
+		Runtimes recent = runtimes.get(taskName);
+		if (recent == null) {
+			recent = new Runtimes(history);
+			runtimes.put(taskName, recent);
+		}
+		recent.values[recent.next] = runtime;
+		recent.next = (recent.next + 1) % recent.values.length;
+		recent.count = Math.min(recent.count + 1, recent.values.length);
+	}
+	
+	private void poll() {
+		List<SpeculativeJob> pending;
+		synchronized (jobs) {
+			pending = new ArrayList<SpeculativeJob>(jobs);
+		}
+		// every master is asked at once, one that has not answered by the next poll misses this one
+		long deadline = System.currentTimeMillis() + pollInterval;
+		Map<Attempt, CompletableFuture<JobStatus>> statuses = new HashMap<Attempt, CompletableFuture<JobStatus>>();
+		for (SpeculativeJob job : pending) {
+			if (!job.future.isCancelled()) {
+				for (Attempt attempt : job.attempts) {
+					statuses.put(attempt, chordNode.getJobStatusAsync(attempt.handle, pollInterval));
+				}
+			}
+		}
+		for (SpeculativeJob job : pending) {
+			try {
+				for (Attempt attempt : job.attempts) {
+					CompletableFuture<JobStatus> status = statuses.get(attempt);
+					if (status != null) {
+						attempt.refresh(await(attempt, status, deadline), System.currentTimeMillis());
+					}
+				}
+				if (poll(job, System.currentTimeMillis())) {
+					synchronized (jobs) {
+						jobs.remove(job);
+					}
+				}
+			} catch (RuntimeException e) {
+				System.err.println("Failed to poll job of task [" + job.task.getTaskName() + "]");
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// true once the job is done with
+	private boolean poll(SpeculativeJob job, long now) {
+		if (job.future.isCancelled()) {
+			cancel(job.attempts, null);
+			return true;
+		}
+		
+		Attempt primary = job.attempts.get(0);
+		for (Attempt attempt : job.attempts) {
+			if (attempt.status != null && attempt.status.getState() == State.SUCCEEDED) {
+				cancel(job.attempts, attempt);
+				record(job.task.getTaskName(), now - primary.submitted);
+				if (job.attempts.size() > 1) {
+					(attempt == primary ? losses : wins).incrementAndGet();
+				}
+				job.future.complete(attempt.status);
+				return true;
+			}
+		}
+		
+		boolean failed = true;
+		for (Attempt attempt : job.attempts) {
+			failed &= attempt.isFailed();
+		}
+		if (failed) {
+			if (job.attempts.size() == 1 && speculate(job, primary.missedPolls > 0 ? "lost its master" : "failed")) {
+				return false;
+			}
+			Attempt last = job.attempts.get(job.attempts.size() - 1);
+			if (last.status == null) {
+				job.future.completeExceptionally(new IOException("Lost contact with master ["
+						+ last.handle.getMasterUrl() + "]"));
+			} else {
+				job.future.complete(last.status);
+			}
+			return true;
+		}
+		
+		if (job.attempts.size() == 1) {
+			long threshold = getThreshold(job.task.getTaskName());
+			if (threshold >= 0 && now - primary.submitted > threshold) {
+				speculate(job, "slower than " + threshold + "ms");
+			} else if (stallTimeout > 0 && primary.isRunning() && now - primary.progressed > stallTimeout) {
+				speculate(job, "no progress for " + (now - primary.progressed) + "ms");
+			}
+		}
+		return false;
+	}
+	
+	private JobStatus await(Attempt attempt, CompletableFuture<JobStatus> status, long deadline) {
+		try {
+			return status.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			status.cancel(true);
+			return null;
+		} catch (ExecutionException e) {
+			System.err.println("Failed to poll job " + attempt.handle);
+			e.getCause().printStackTrace();
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	private boolean speculate(SpeculativeJob job, String reason) {
+		URL primary = job.attempts.get(0).handle.getMasterUrl();
+		URL next = chordNode.successorMaster(primary);
+		if (next == null) {
+			return false;
+		}
+		JobHandle handle = chordNode.submitTask(job.task, job.priority, next);
+		if (handle == null) {
+			return false;
+		}
+		System.out.println("Job " + job.attempts.get(0).handle + " of task [" + job.task.getTaskName() + "] "
+				+ reason + ", running a copy on [" + next + "]");
+		job.attempts.add(new Attempt(handle, System.currentTimeMillis()));
+		speculated.incrementAndGet();
+		return true;
+	}
+	
+	private void cancel(List<Attempt> attempts, Attempt winner) {
+		for (Attempt attempt : attempts) {
+			if (attempt != winner && !attempt.isFailed()) {
+				chordNode.cancelJob(attempt.handle);
+			}
+		}
+	}
+	
+	private static class SpeculativeJob {
+		
+		private ITask task;
+		private int priority;
+		private CompletableFuture<JobStatus> future;
+		// the original copy first
+		private List<Attempt> attempts = new ArrayList<Attempt>(2);
+		
+		public SpeculativeJob(ITask task, int priority, CompletableFuture<JobStatus> future) {
+			this.task = task;
+			this.priority = priority;
+			this.future = future;
+		}
+	}
+	
+	// one copy of a job, as last seen by the client; times are on the client's clock
+	private static class Attempt {
+		
+		private JobHandle handle;
+		private long submitted;
+		private JobStatus status;
+		private int missedPolls = 0;
+		private float progress = -1;
+		private long progressed;
+		
+		public Attempt(JobHandle handle, long submitted) {
+			this.handle = handle;
+			this.submitted = submitted;
+			this.progressed = submitted;
+		}
+		
+		public void refresh(JobStatus latest, long now) {
+			if (latest == null) {
+				missedPolls++;
+				return;
+			}
+			missedPolls = 0;
+			if (latest.getState() != State.RUNNING || latest.getProgress() != progress) {
+				// queued time does not count as a stall
+				progressed = now;
+			}
+			progress = latest.getProgress();
+			status = latest;
+		}
+		
+		public boolean isRunning() {
+			return status != null && status.getState() == State.RUNNING;
+		}
+		
+		public boolean isFailed() {
+			if (missedPolls >= MAX_MISSED_POLLS) {
+				return true;
+			}
+			return status != null && status.getState().isFinished() && status.getState() != State.SUCCEEDED;
+		}
+	}
+	
+	private static class Runtimes {
+		
+		private long[] values;
+		private int next = 0;
+		private int count = 0;
+		
+		public Runtimes(int history) {
+			this.values = new long[Math.max(history, 1)];
+		}
+	}
+}
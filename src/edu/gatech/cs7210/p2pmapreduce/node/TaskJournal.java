@@ -0,0 +1,218 @@
+package edu.gatech.cs7210.p2pmapreduce.node;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.chord.LoadRecord;
+import edu.gatech.cs7210.p2pmapreduce.chord.TaskRecord;
+import edu.gatech.cs7210.p2pmapreduce.metrics.Histogram;
+import edu.gatech.cs7210.p2pmapreduce.metrics.MetricsRegistry;
+import edu.gatech.cs7210.p2pmapreduce.task.ITask;
+import edu.gatech.cs7210.p2pmapreduce.task.JobStatus.State;
+
+/*
+ * Keeps a TaskRecord in the ring for every job this master knows of, under the
+ * master's JournalKey, which Chord replicates to the successors of the node
+ * holding it; a finished job's record is kept in its final state until the job
+ * is forgotten. When a master stops publishing its load, as timed on the clock
+ * of the next master on the ring, and does not answer that master either, the
+ * next master adopts the unfinished jobs left in its journal: queued jobs are
+ * queued again and running ones are started over, under the same job ids, and
+ * clients holding the old handle are pointed at the new master. The pointer also
+ * fences the job, a master that was only cut off drops a job that has moved
+ * before starting it or reporting its result. A master that comes back under the
+ * same address takes back its own journal the same way.
+ */
+public class TaskJournal {
+	
+	private URL self;
+	private Map<String, TaskRecord> records = new ConcurrentHashMap<String, TaskRecord>();
+	// state changes are written in order, off the scheduler threads
+	private ExecutorService writer;
+	private boolean closed = false;
+	private LongAdder adopted = MetricsRegistry.getInstance().counter("jobs_adopted_total");
+	private Histogram failoverDelay = MetricsRegistry.getInstance().histogram("failover_delay_ms");
+	
+	public TaskJournal(URL self) {
+		this.self = self;
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "task-journal");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	// written in order with the job's later changes, the future completes once the record is in the ring
+	// or could not be written, and the client is only told the job's id then
+	public CompletableFuture<Void> accepted(String jobId, ITask task, int priority, long submitted) {
+		final TaskRecord record = new TaskRecord(jobId, task, priority, State.QUEUED, self, submitted,
+				System.currentTimeMillis());
+		records.put(jobId, record);
+		final CompletableFuture<Void> written = new CompletableFuture<Void>();
+		boolean queued = write(new Runnable() {
+			public void run() {
+				ChordNode chordNode = ApplicationContext.getInstance().getChordNode();
+				if (chordNode != null) {
+					chordNode.journalTask(record, null);
+				}
+				written.complete(null);
+			}
+		});
+		if (!queued) {
+			written.complete(null);
+		}
+		return written;
+	}
+	
+	public void started(String jobId) {
+		replace(jobId, State.RUNNING);
+	}
+	
+	// kept in its final state, so a master taking over this one's journal does not run the job again
+	public void finished(String jobId, State outcome) {
+		replace(jobId, outcome);
+	}
+	
+	// the scheduler no longer knows the finished job, nor does the ring
+	public void forget(final String jobId) {
+		write(new Runnable() {
+			public void run() {
+				TaskRecord record = records.remove(jobId);
+				ChordNode chordNode = ApplicationContext.getInstance().getChordNode();
+				if (record != null && chordNode != null) {
+					chordNode.releaseTask(record);
+				}
+			}
+		});
+	}
+	
+	// false once another master has taken the job over
+	public boolean owns(String jobId) {
+		ChordNode chordNode = ApplicationContext.getInstance().getChordNode();
+		if (chordNode == null) {
+			return true;
+		}
+		URL master = chordNode.locateJob(jobId);
+		return master == null || master.equals(self);
+	}
+	
+	// the job has moved, its record is released by the master that took it over
+	public void dropped(final String jobId) {
+		write(new Runnable() {
+			public void run() {
+				records.remove(jobId);
+			}
+		});
+	}
+	
+	private void replace(final String jobId, final State state) {
+		write(new Runnable() {
+			public void run() {
+				TaskRecord previous = records.get(jobId);
+				ChordNode chordNode = ApplicationContext.getInstance().getChordNode();
+				if (previous == null || chordNode == null) {
+					return;
+				}
+				TaskRecord record = previous.withState(state, System.currentTimeMillis());
+				if (chordNode.journalTask(record, previous)) {
+					records.put(jobId, record);
+				}
+			}
+		});
+	}
+	
+	// false once the journal is shut down
+	private synchronized boolean write(Runnable change) {
+		if (!closed) {
+			writer.execute(change);
+		}
+		return !closed;
+	}
+	
+	// takes over the journals of the masters that have stopped publishing and that this master follows on the ring
+	public void adoptOrphans(JobScheduler scheduler) {
+		ChordNode chordNode = ApplicationContext.getInstance().getChordNode();
+		for (LoadRecord load : chordNode.findOrphanedMasters()) {
+			// the ring only says the master has gone quiet, one that still answers keeps its jobs
+			if (chordNode.isReachable(load.getMasterUrl())) {
+				continue;
+			}
+			// the last load report seen is the latest the master can have failed
+			long delay = System.currentTimeMillis() - chordNode.lastHeard(load.getMasterUrl());
+			int count = adopt(load.getMasterUrl(), scheduler);
+			if (count < 0) {
+				// tried again next round, the record is only dropped once the journal has been read
+				continue;
+			}
+			chordNode.forgetMaster(load);
+			if (count > 0) {
+				failoverDelay.record(delay);
+				System.out.println("Adopted " + count + " jobs of [" + load.getMasterUrl() + "] " + delay
+						+ "ms after its last load report was seen");
+			}
+		}
+	}
+	
+	// a master restarted under the same address queues again the jobs it had accepted before it went down
+	public void recover(JobScheduler scheduler) {
+		int count = adopt(self, scheduler);
+		if (count > 0) {
+			System.out.println("Recovered " + count + " jobs from the journal of [" + self + "]");
+		}
+	}
+	
+	// the number of jobs queued here, or -1 if the journal could not be read
+	private int adopt(URL master, JobScheduler scheduler) {
+		ChordNode chordNode = ApplicationContext.getInstance().getChordNode();
+		List<TaskRecord> journal = chordNode.getJournal(master);
+		if (journal == null) {
+			return -1;
+		}
+		int count = 0;
+		int restarted = 0;
+		for (TaskRecord record : journal) {
+			String jobId = record.getJobId();
+			if (record.equals(records.get(jobId))) {
+				continue;
+			}
+			// a job that had succeeded or failed is not run again, its record is only cleared away
+			if (record.getState().isFinished()) {
+				chordNode.releaseTask(record);
+				continue;
+			}
+			if (!master.equals(self)) {
+				// moved before it is queued here, so the old master drops it if it is still about to start it
+				chordNode.forwardJob(jobId, self);
+			}
+			// a job that was running is started over, its partial output is not known to be usable
+			if (scheduler.resume(jobId, record.getTask(), record.getPriority(), record.getSubmitted())) {
+				count++;
+				if (record.getState() == State.RUNNING) {
+					restarted++;
+				}
+			}
+			chordNode.releaseTask(record);
+		}
+		adopted.add(count);
+		if (restarted > 0) {
+			System.out.println("Restarted " + restarted + " jobs that were running on [" + master + "]");
+		}
+		return count;
+	}
+	
+	// the jobs cancelled by a shutdown stay in the ring, for the next master to take over
+	public synchronized void shutdown() {
+		closed = true;
+		writer.shutdown();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/*
+ * K-way merge of sorted cursors on a binary heap of cursor indexes. Records come
+ * out in key order without being copied; records with equal keys come out in
+ * the order of the cursors they came from.
+ */
+public class MergeCursor implements RecordCursor {
+	
+	private RecordCursor[] cursors;
+	private int[] heap;
+	private int size = 0;
+	private boolean started = false;
+	
+	public MergeCursor(List<? extends RecordCursor> sources) {
+		cursors = sources.toArray(new RecordCursor[sources.size()]);
+		heap = new int[cursors.length];
+		for (int i = 0; i < cursors.length; i++) {
+			if (cursors[i].next()) {
+				heap[size++] = i;
+			}
+		}
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+	
+	public boolean next() {
+		if (!started) {
+			started = true;
+			return size > 0;
+		}
+		if (size == 0) {
+			return false;
+		}
+		if (!cursors[heap[0]].next()) {
+			heap[0] = heap[--size];
+		}
+		if (size > 0) {
+			siftDown(0);
+		}
+		return size > 0;
+	}
+	
+	public ByteBuffer key() {
+		return cursors[heap[0]].key();
+	}
+	
+	public ByteBuffer value() {
+		return cursors[heap[0]].value();
+	}
+	
+	private boolean less(int a, int b) {
+		int c = Records.compare(cursors[a].key(), cursors[b].key());
+		return c < 0 || (c == 0 && a < b);
+	}
+	
+	private void siftDown(int i) {
+		int cursor = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && less(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!less(heap[child], cursor)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = cursor;
+	}
+}
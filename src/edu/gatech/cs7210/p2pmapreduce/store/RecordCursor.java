@@ -0,0 +1,17 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Walks key/value records in key order. key() and value() are views into the
+ * underlying buffer that the cursor reuses: they are only valid until the next
+ * call to next() and must not be modified.
+ */
+public interface RecordCursor {
+
+	public boolean next();
+	
+	public ByteBuffer key();
+	
+	public ByteBuffer value();
+}
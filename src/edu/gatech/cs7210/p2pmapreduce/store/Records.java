@@ -0,0 +1,77 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.nio.ByteBuffer;
+
+// byte-level helpers shared by the sort buffer, run files and merges
+public class Records {
+	
+	private Records() { }
+	
+	// unsigned lexicographic order, which for UTF-8 keys is code point order
+	public static int compare(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+		int length = Math.min(aLength, bLength);
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			long x = a.getLong(aOffset + i);
+			long y = b.getLong(bOffset + i);
+			if (x != y) {
+				return Long.compareUnsigned(x, y);
+			}
+		}
+		for (; i < length; i++) {
+			int x = a.get(aOffset + i) & 0xff;
+			int y = b.get(bOffset + i) & 0xff;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return aLength - bLength;
+	}
+	
+	// compares the remaining bytes of two buffers without moving either
+	public static int compare(ByteBuffer a, ByteBuffer b) {
+		return compare(a, a.position(), a.remaining(), b, b.position(), b.remaining());
+	}
+	
+	public static boolean equals(ByteBuffer a, byte[] b, int length) {
+		if (a.remaining() != length) {
+			return false;
+		}
+		int offset = a.position();
+		for (int i = 0; i < length; i++) {
+			if (a.get(offset + i) != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// first four bytes as an unsigned big-endian int, zero padded, so that prefixes order like the keys
+	static long prefix(byte[] key) {
+		long prefix = 0;
+		for (int i = 0; i < 4; i++) {
+			prefix = (prefix << 8) | (i < key.length ? key[i] & 0xff : 0);
+		}
+		return prefix;
+	}
+	
+	static void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7f) != 0) {
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+	
+	static int getVarInt(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException("Malformed varint in run");
+	}
+}
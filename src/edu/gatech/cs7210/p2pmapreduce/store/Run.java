@@ -0,0 +1,157 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * A sorted run file written by RunWriter, mapped read-only. Cursors read records
+ * straight out of the mapping, and seek() uses the sparse index to start close
+ * to a key. A single mapping limits a run to 2GB.
+ */
+public class Run {
+	
+	private File file;
+	private MappedByteBuffer buffer;
+	private long recordCount;
+	private int recordsEnd;
+	private int[] indexOffsets;
+	private ByteBuffer[] indexKeys;
+	
+	public Run(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Run [" + file + "] is too large to map");
+			}
+			if (size < RunWriter.FOOTER) {
+				throw new IOException("Run [" + file + "] is truncated");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			raf.close();
+		}
+		
+		int footer = buffer.capacity() - RunWriter.FOOTER;
+		long indexOffset = buffer.getLong(footer);
+		recordCount = buffer.getLong(footer + 8);
+		int entries = buffer.getInt(footer + 16);
+		if (buffer.getInt(footer + 20) != RunWriter.MAGIC || indexOffset > footer) {
+			throw new IOException("Run [" + file + "] has no valid footer");
+		}
+		recordsEnd = (int)indexOffset;
+		
+		ByteBuffer index = buffer.duplicate();
+		index.position(recordsEnd);
+		Records.getVarInt(index);
+		indexOffsets = new int[entries];
+		indexKeys = new ByteBuffer[entries];
+		for (int i = 0; i < entries; i++) {
+			indexOffsets[i] = (int)index.getLong();
+			int length = Records.getVarInt(index);
+			ByteBuffer key = index.duplicate();
+			key.limit(index.position() + length);
+			indexKeys[i] = key;
+			index.position(index.position() + length);
+		}
+	}
+	
+	public File getFile() {
+		return this.file;
+	}
+	
+	public long getRecordCount() {
+		return this.recordCount;
+	}
+	
+	public long length() {
+		return buffer.capacity();
+	}
+	
+	public Cursor cursor() {
+		return new Cursor(0);
+	}
+	
+	// a cursor whose first record is the first one with a key not less than key
+	public Cursor seek(ByteBuffer key) {
+		// last sampled key strictly below the target, so equal keys before it are not skipped
+		int low = 0;
+		int high = indexKeys.length - 1;
+		int start = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (Records.compare(indexKeys[middle], key) < 0) {
+				start = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		Cursor cursor = new Cursor(start < 0 ? 0 : indexOffsets[start]);
+		while (cursor.next()) {
+			if (Records.compare(cursor.key(), key) >= 0) {
+				cursor.pending = true;
+				break;
+			}
+		}
+		return cursor;
+	}
+	
+	// drops the mapping and the file, cursors on the run must not be used afterwards
+	public void delete() {
+		buffer = null;
+		indexKeys = null;
+		file.delete();
+	}
+	
+	public class Cursor implements RecordCursor {
+		
+		private ByteBuffer records = buffer.duplicate();
+		private ByteBuffer key = buffer.duplicate();
+		private ByteBuffer value = buffer.duplicate();
+		private boolean pending = false;
+		private boolean done = false;
+		
+		private Cursor(int offset) {
+			records.position(offset);
+			records.limit(recordsEnd + 1);
+		}
+		
+		public boolean next() {
+			if (pending) {
+				pending = false;
+				return true;
+			}
+			if (done) {
+				return false;
+			}
+			int keyLength = Records.getVarInt(records) - 1;
+			if (keyLength < 0) {
+				done = true;
+				return false;
+			}
+			int valueLength = Records.getVarInt(records);
+			int start = records.position();
+			key.clear();
+			key.position(start).limit(start + keyLength);
+			value.clear();
+			value.position(start + keyLength).limit(start + keyLength + valueLength);
+			records.position(start + keyLength + valueLength);
+			return true;
+		}
+		
+		public ByteBuffer key() {
+			return this.key;
+		}
+		
+		public ByteBuffer value() {
+			return this.value;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Writes records, which must arrive in key order, to a run file. Each record is
+ * its key length + 1 and value length as varints followed by the key and value
+ * bytes; a zero ends the records. Every INDEX_INTERVAL-th key goes into a sparse
+ * index block after the records, and a fixed footer at the end of the file
+ * locates the index.
+ */
+public class RunWriter {
+	
+	static final int INDEX_INTERVAL = 128;
+	static final int FOOTER = 24;
+	static final int MAGIC = 0x52554e31;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private File file;
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private long position = 0;
+	private long count = 0;
+	private List<Long> indexOffsets = new ArrayList<Long>();
+	private List<byte[]> indexKeys = new ArrayList<byte[]>();
+	
+	public RunWriter(File file) throws IOException {
+		this.file = file;
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.truncate(0);
+	}
+	
+	public void append(ByteBuffer key, ByteBuffer value) throws IOException {
+		int keyLength = key.remaining();
+		int valueLength = value.remaining();
+		if (count % INDEX_INTERVAL == 0) {
+			byte[] indexKey = new byte[keyLength];
+			key.duplicate().get(indexKey);
+			indexOffsets.add(position);
+			indexKeys.add(indexKey);
+		}
+		ensure(10 + keyLength + valueLength);
+		int start = buffer.position();
+		Records.putVarInt(buffer, keyLength + 1);
+		Records.putVarInt(buffer, valueLength);
+		putAll(key);
+		putAll(value);
+		position += buffer.position() - start;
+		count++;
+	}
+	
+	public void append(byte[] key, byte[] value) throws IOException {
+		append(ByteBuffer.wrap(key), ByteBuffer.wrap(value));
+	}
+	
+	public long getRecordCount() {
+		return this.count;
+	}
+	
+	// writes the index and footer and opens the finished run
+	public Run close() throws IOException {
+		try {
+			ensure(1);
+			buffer.put((byte)0);
+			position++;
+			long indexOffset = position;
+			ensure(5);
+			Records.putVarInt(buffer, indexKeys.size());
+			for (int i = 0; i < indexKeys.size(); i++) {
+				byte[] key = indexKeys.get(i);
+				ensure(15);
+				buffer.putLong(indexOffsets.get(i));
+				Records.putVarInt(buffer, key.length);
+				putAll(ByteBuffer.wrap(key));
+			}
+			ensure(FOOTER);
+			buffer.putLong(indexOffset);
+			buffer.putLong(count);
+			buffer.putInt(indexKeys.size());
+			buffer.putInt(MAGIC);
+			flush();
+		} finally {
+			channel.close();
+		}
+		return new Run(file);
+	}
+	
+	// abandons the run and removes its file
+	public void discard() {
+		try {
+			channel.close();
+		} catch (IOException ignored) { }
+		file.delete();
+	}
+	
+	// copies a source that may be larger than the write buffer, leaving its position alone
+	private void putAll(ByteBuffer source) throws IOException {
+		int offset = source.position();
+		while (offset < source.limit()) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(source.limit() - offset, buffer.remaining());
+			buffer.put(buffer.position(), source, offset, n);
+			buffer.position(buffer.position() + n);
+			offset += n;
+		}
+	}
+	
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < Math.min(bytes, BUFFER_SIZE)) {
+			flush();
+		}
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
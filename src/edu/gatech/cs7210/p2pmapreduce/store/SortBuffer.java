@@ -0,0 +1,167 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Collects records for several partitions in an off-heap arena and sorts them
+ * by partition and key. Records are laid out back to back as key length, value
+ * length, key and value; the heap only holds an offset and a sort key per
+ * record, the partition in the high half and the first four key bytes in the
+ * low half, so most comparisons never touch the arena.
+ */
+public class SortBuffer {
+	
+	private static final int HEADER = 8;
+	private static final int INSERTION_SORT = 16;
+	
+	private SpillStore store;
+	private ByteBuffer arena;
+	private int[] offsets = new int[1024];
+	private long[] sortKeys = new long[1024];
+	private int[] order;
+	private int count = 0;
+	
+	SortBuffer(SpillStore store, ByteBuffer arena) {
+		this.store = store;
+		this.arena = arena;
+	}
+	
+	// false if the record does not fit, the caller should spill and clear the buffer
+	public boolean add(int partition, byte[] key, byte[] value) {
+		if (arena.remaining() < HEADER + key.length + value.length) {
+			return false;
+		}
+		if (count == offsets.length) {
+			int[] grownOffsets = new int[count * 2];
+			System.arraycopy(offsets, 0, grownOffsets, 0, count);
+			offsets = grownOffsets;
+			long[] grownKeys = new long[count * 2];
+			System.arraycopy(sortKeys, 0, grownKeys, 0, count);
+			sortKeys = grownKeys;
+		}
+		offsets[count] = arena.position();
+		sortKeys[count] = ((long)partition << 32) | Records.prefix(key);
+		arena.putInt(key.length);
+		arena.putInt(value.length);
+		arena.put(key);
+		arena.put(value);
+		count++;
+		order = null;
+		return true;
+	}
+	
+	public int size() {
+		return this.count;
+	}
+	
+	public int getUsedBytes() {
+		return arena.position();
+	}
+	
+	public int getCapacity() {
+		return arena.capacity();
+	}
+	
+	public void sort() {
+		order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		mergeSort(order, new int[count], 0, count);
+	}
+	
+	// walks the records in sorted order, sorting first if needed
+	public Cursor cursor() {
+		if (order == null) {
+			sort();
+		}
+		return new Cursor();
+	}
+	
+	public void clear() {
+		arena.clear();
+		count = 0;
+		order = null;
+	}
+	
+	// hands the arena back to the store, the buffer must not be used afterwards
+	public void release() {
+		store.release(arena);
+		arena = null;
+	}
+	
+	private int compare(int a, int b) {
+		if (sortKeys[a] != sortKeys[b]) {
+			return sortKeys[a] < sortKeys[b] ? -1 : 1;
+		}
+		int aOffset = offsets[a];
+		int bOffset = offsets[b];
+		return Records.compare(arena, aOffset + HEADER, arena.getInt(aOffset), 
+				arena, bOffset + HEADER, arena.getInt(bOffset));
+	}
+	
+	// stable, so records with equal keys stay in the order they were added
+	private void mergeSort(int[] a, int[] scratch, int from, int to) {
+		if (to - from <= INSERTION_SORT) {
+			for (int i = from + 1; i < to; i++) {
+				int record = a[i];
+				int j = i - 1;
+				while (j >= from && compare(a[j], record) > 0) {
+					a[j + 1] = a[j];
+					j--;
+				}
+				a[j + 1] = record;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(a, scratch, from, middle);
+		mergeSort(a, scratch, middle, to);
+		if (compare(a[middle - 1], a[middle]) <= 0) {
+			return;
+		}
+		System.arraycopy(a, from, scratch, from, to - from);
+		int i = from;
+		int j = middle;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < middle && compare(scratch[i], scratch[j]) <= 0)) {
+				a[k] = scratch[i++];
+			} else {
+				a[k] = scratch[j++];
+			}
+		}
+	}
+	
+	public class Cursor implements RecordCursor {
+		
+		private int index = -1;
+		private ByteBuffer key = arena.duplicate();
+		private ByteBuffer value = arena.duplicate();
+		
+		public boolean next() {
+			if (++index >= count) {
+				return false;
+			}
+			int offset = offsets[order[index]];
+			int keyLength = arena.getInt(offset);
+			int valueLength = arena.getInt(offset + 4);
+			key.clear();
+			key.position(offset + HEADER).limit(offset + HEADER + keyLength);
+			value.clear();
+			value.position(offset + HEADER + keyLength).limit(offset + HEADER + keyLength + valueLength);
+			return true;
+		}
+		
+		public int partition() {
+			return (int)(sortKeys[order[index]] >>> 32);
+		}
+		
+		public ByteBuffer key() {
+			return this.key;
+		}
+		
+		public ByteBuffer value() {
+			return this.value;
+		}
+	}
+}
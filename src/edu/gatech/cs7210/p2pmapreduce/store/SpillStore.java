@@ -0,0 +1,94 @@
+package edu.gatech.cs7210.p2pmapreduce.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Intermediate key/value data for one job: off-heap sort buffers handed out
+ * against a fixed budget, and the sorted run files they are spilled to, all in
+ * a private directory removed by close(). Freed buffers are pooled for the next
+ * sort buffer of the same size and still count against the budget until a new
+ * allocation needs their room. Mapped run files are not counted, their pages
+ * belong to the page cache and are dropped under memory pressure.
+ */
+public class SpillStore {
+	
+	private File dir;
+	private long budget;
+	private long reserved = 0;
+	private Deque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+	private AtomicLong runs = new AtomicLong();
+	
+	public SpillStore(File parent, long budget) throws IOException {
+		this.dir = Files.createTempDirectory(parent.toPath(), "spill").toFile();
+		this.budget = budget;
+	}
+	
+	public SortBuffer newSortBuffer(int capacity) throws InterruptedException {
+		return new SortBuffer(this, allocate(capacity));
+	}
+	
+	// waits for room in the budget, so at most budget bytes of sort buffers exist at a time
+	synchronized ByteBuffer allocate(int capacity) throws InterruptedException {
+		if (capacity > budget) {
+			throw new IllegalArgumentException("Sort buffer of " + capacity + " bytes exceeds off-heap budget of " 
+					+ budget + " bytes");
+		}
+		while (true) {
+			for (Iterator<ByteBuffer> i = pool.iterator(); i.hasNext(); ) {
+				ByteBuffer buffer = i.next();
+				if (buffer.capacity() == capacity) {
+					i.remove();
+					buffer.clear();
+					return buffer;
+				}
+			}
+			if (reserved + capacity <= budget) {
+				reserved += capacity;
+				return ByteBuffer.allocateDirect(capacity);
+			}
+			if (!pool.isEmpty()) {
+				reserved -= pool.poll().capacity();
+			} else {
+				wait();
+			}
+		}
+	}
+	
+	synchronized void release(ByteBuffer buffer) {
+		pool.add(buffer);
+		notifyAll();
+	}
+	
+	public RunWriter newRun() throws IOException {
+		return new RunWriter(new File(dir, "run-" + runs.getAndIncrement()));
+	}
+	
+	public synchronized long getReserved() {
+		return this.reserved;
+	}
+	
+	public long getBudget() {
+		return this.budget;
+	}
+	
+	public void close() {
+		synchronized (this) {
+			pool.clear();
+			reserved = 0;
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,7 @@
+package edu.gatech.cs7210.p2pmapreduce.task;
+
+public interface IEmbeddedTask extends ITask {
+
+	// runs the task inside the master's JVM instead of through getCommand(), reporting to progress if not null
+	public boolean execute(ProgressListener progress) throws Exception;
+}
@@ -1,8 +1,17 @@
 package edu.gatech.cs7210.p2pmapreduce.task;
 
-public interface ITask {
+import java.io.Serializable;
+import java.util.List;
+
+public interface ITask extends Serializable {
 
 	public String getTaskName();
 	
 	public String getCommand();
+	
+	// HDFS paths or block ids the task reads, used to route it to the cluster holding them
+	public List<String> getInputs();
+	
+	// where the task writes its results, a local directory for embedded tasks and an HDFS path otherwise
+	public String getOutput();
 }
@@ -0,0 +1,42 @@
+package edu.gatech.cs7210.p2pmapreduce.task;
+
+import java.io.Serializable;
+
+import de.uniba.wiai.lspi.chord.data.URL;
+
+public class JobHandle implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private String jobId;
+	private URL masterUrl;
+	
+	public JobHandle(String jobId, URL masterUrl) {
+		this.jobId = jobId;
+		this.masterUrl = masterUrl;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public URL getMasterUrl() {
+		return this.masterUrl;
+	}
+	
+	public int hashCode() {
+		return jobId.hashCode();
+	}
+	
+	public boolean equals(Object o) {
+		if (!(o instanceof JobHandle)) {
+			return false;
+		}
+		JobHandle other = (JobHandle)o;
+		return other.jobId.equals(jobId) && other.masterUrl.equals(masterUrl);
+	}
+	
+	public String toString() {
+		return jobId + "@" + masterUrl;
+	}
+}
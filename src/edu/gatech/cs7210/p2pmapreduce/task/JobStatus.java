@@ -0,0 +1,75 @@
+package edu.gatech.cs7210.p2pmapreduce.task;
+
+import java.io.Serializable;
+
+public class JobStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	public enum State {
+		QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+		
+		public boolean isFinished() {
+			return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+		}
+	}
+	
+	private String jobId;
+	private String taskName;
+	private State state;
+	private long submitted;
+	private long started;
+	private long finished;
+	private int exitCode;
+	private float progress;
+	
+	public JobStatus(String jobId, String taskName, State state, long submitted, long started, 
+			long finished, int exitCode, float progress) {
+		this.jobId = jobId;
+		this.taskName = taskName;
+		this.state = state;
+		this.submitted = submitted;
+		this.started = started;
+		this.finished = finished;
+		this.exitCode = exitCode;
+		this.progress = progress;
+	}
+	
+	public String getJobId() {
+		return this.jobId;
+	}
+	
+	public String getTaskName() {
+		return this.taskName;
+	}
+	
+	public State getState() {
+		return this.state;
+	}
+	
+	public long getSubmitted() {
+		return this.submitted;
+	}
+	
+	public long getStarted() {
+		return this.started;
+	}
+	
+	public long getFinished() {
+		return this.finished;
+	}
+	
+	public int getExitCode() {
+		return this.exitCode;
+	}
+	
+	// fraction of the job done as last reported by the master running it, -1 if it reports none
+	public float getProgress() {
+		return this.progress;
+	}
+	
+	public String toString() {
+		return "[" + jobId + "] " + taskName + " " + state + (progress >= 0 && state == State.RUNNING 
+				? " " + Math.round(progress * 100) + "%" : "");
+	}
+}
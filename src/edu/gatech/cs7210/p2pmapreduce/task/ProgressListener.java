@@ -0,0 +1,7 @@
+package edu.gatech.cs7210.p2pmapreduce.task;
+
+// told what fraction of a running task is done, from 0 to 1
+public interface ProgressListener {
+
+	public void progress(float done);
+}
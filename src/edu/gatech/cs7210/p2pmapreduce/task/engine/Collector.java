@@ -0,0 +1,8 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.io.IOException;
+
+public interface Collector {
+
+	public void collect(String key, String value) throws IOException;
+}
@@ -0,0 +1,6 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+// a Reducer that is safe to run over partial map output before the shuffle; its output
+// is written straight back into a sorted run, so it must only collect under the key it was given
+public interface Combiner extends Reducer {
+}
@@ -0,0 +1,39 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.util.List;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.node.MasterNode;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * A MapReduceTask spread over the masters of the ring instead of run on one.
+ * Inputs are block ids published by the masters storing them (or paths local to
+ * the coordinating master); each partition's part-r-NNNNN file is written under
+ * the output directory of the master that reduced it.
+ */
+public class DistributedMapReduceTask extends MapReduceTask {
+
+	private static final long serialVersionUID = 1L;
+	
+	public DistributedMapReduceTask(MapReduceTask task) {
+		super(task.getTaskName(), task.getMapper(), task.getCombiner(), task.getReducer(), task.getInputs(), 
+				task.getOutput(), task.getReducers(), task.getSplitSize());
+	}
+	
+	public DistributedMapReduceTask(String taskName, Mapper mapper, Combiner combiner, Reducer reducer, 
+			List<String> inputs, String output, int reducers, long splitSize) {
+		super(taskName, mapper, combiner, reducer, inputs, output, reducers, splitSize);
+	}
+	
+	@Override
+	public String getCommand() {
+		return "distributed " + super.getCommand();
+	}
+	
+	@Override
+	public boolean execute(ProgressListener progress) throws Exception {
+		MasterNode master = (MasterNode)ApplicationContext.getInstance().getNode();
+		return master.getShuffle().run(this, progress);
+	}
+}
@@ -0,0 +1,99 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A byte range of an input file. Records are lines; a split owns the lines that
+ * start after its first byte and no later than its end offset (the first split
+ * also owns the line at offset zero), so the line straddling its start belongs
+ * to the split before it and the line straddling its end is read to completion.
+ */
+public class InputSplit {
+
+	private File file;
+	private long start;
+	private long length;
+	
+	public InputSplit(File file, long start, long length) {
+		this.file = file;
+		this.start = start;
+		this.length = length;
+	}
+	
+	public static List<InputSplit> split(List<File> files, long splitSize) {
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		for (File file : files) {
+			long size = file.length();
+			for (long start = 0; start < size; start += splitSize) {
+				splits.add(new InputSplit(file, start, Math.min(splitSize, size - start)));
+			}
+		}
+		return splits;
+	}
+	
+	public long getLength() {
+		return this.length;
+	}
+	
+	public void read(Mapper mapper, Collector output) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		try {
+			long position = 0;
+			long end = start + length;
+			ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+			if (start > 0) {
+				// the first line is the previous split's, whether it straddles the boundary or starts on it
+				position += skip(in, start);
+				position += readLine(in, line);
+			}
+			while (position <= end) {
+				line.reset();
+				int read = readLine(in, line);
+				if (read == 0) {
+					break;
+				}
+				position += read;
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Map interrupted");
+				}
+				mapper.map(line.toString("UTF-8"), output);
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static long skip(InputStream in, long count) throws IOException {
+		long skipped = 0;
+		while (skipped < count) {
+			long n = in.skip(count - skipped);
+			if (n <= 0) {
+				break;
+			}
+			skipped += n;
+		}
+		return skipped;
+	}
+	
+	// returns the number of bytes consumed including the newline, 0 at end of file
+	private static int readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+		int read = 0;
+		int b;
+		while ((b = in.read()) >= 0) {
+			read++;
+			if (b == '\n') {
+				break;
+			}
+			line.write(b);
+		}
+		return read;
+	}
+}
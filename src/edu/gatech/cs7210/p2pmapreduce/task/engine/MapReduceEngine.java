@@ -0,0 +1,563 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.gatech.cs7210.p2pmapreduce.store.MergeCursor;
+import edu.gatech.cs7210.p2pmapreduce.store.Records;
+import edu.gatech.cs7210.p2pmapreduce.store.RecordCursor;
+import edu.gatech.cs7210.p2pmapreduce.store.Run;
+import edu.gatech.cs7210.p2pmapreduce.store.RunWriter;
+import edu.gatech.cs7210.p2pmapreduce.store.SortBuffer;
+import edu.gatech.cs7210.p2pmapreduce.store.SpillStore;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * Runs a MapReduceTask inside the JVM. Splits are mapped in parallel on a
+ * fork-join pool; each map collects its output in an off-heap sort buffer from
+ * the job's SpillStore, and whenever the buffer fills up sorts it by partition
+ * and key, runs the combiner over it and spills one mapped run per partition.
+ * The memory budget is shared out as one sort buffer per map running at a time.
+ * Each partition then merges its runs and is reduced in parallel into a
+ * part-r-NNNNN file under the output directory, one "key<TAB>value" line per
+ * record.
+ */
+public class MapReduceEngine {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MIN_SORT_BUFFER = 64 * 1024;
+	
+	private int parallelism;
+	private long memoryBudget;
+	private File spillDir;
+	
+	public MapReduceEngine(int parallelism, long memoryBudget, File spillDir) {
+		this.parallelism = parallelism;
+		this.memoryBudget = memoryBudget;
+		this.spillDir = spillDir;
+	}
+	
+	// reports half the progress for the map phase and half for the reduce, progress may be null
+	public Counters run(final MapReduceTask task, final ProgressListener progress) throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		final List<InputSplit> splits = InputSplit.split(listInputs(task.getInputs()), task.getSplitSize());
+		final File output = outputDirectory(task.getOutput());
+		
+		final JobRun job = new JobRun(task, new SpillStore(spillDir, memoryBudget));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		final AtomicInteger done = new AtomicInteger();
+		try {
+			mapPhase(pool, job, splits, progress);
+			invoke(pool, task.getReducers(), new IndexedAction() {
+				public void run(int partition) throws IOException {
+					job.reduce(job.cursors(partition), new File(output, partName(partition)));
+					if (progress != null) {
+						progress.progress(0.5f + 0.5f * done.incrementAndGet() / task.getReducers());
+					}
+				}
+			});
+		} finally {
+			pool.shutdownNow();
+			job.store.close();
+		}
+		job.counters.wallTime = System.currentTimeMillis() - start;
+		job.counters.splits = splits.size();
+		return job.counters;
+	}
+	
+	/*
+	 * Runs only the map side of the task over the given inputs, leaving one sorted
+	 * and combined run file per partition in dir for a shuffle to move elsewhere.
+	 */
+	public Counters map(MapReduceTask task, List<String> inputs, final File dir) throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		List<InputSplit> splits = InputSplit.split(listInputs(inputs), task.getSplitSize());
+		outputDirectory(dir.getPath());
+		
+		final JobRun job = new JobRun(task, new SpillStore(spillDir, memoryBudget));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			mapPhase(pool, job, splits, null);
+			invoke(pool, task.getReducers(), new IndexedAction() {
+				public void run(int partition) throws IOException {
+					job.writePartition(partition, partitionFile(dir, partition));
+				}
+			});
+		} finally {
+			pool.shutdownNow();
+			job.store.close();
+		}
+		job.counters.wallTime = System.currentTimeMillis() - start;
+		job.counters.splits = splits.size();
+		return job.counters;
+	}
+	
+	// reduces one partition from run files written by map(), deleting them once read
+	public Counters reduce(MapReduceTask task, int partition, List<File> runs) throws IOException {
+		long start = System.currentTimeMillis();
+		JobRun job = new JobRun(task, null);
+		List<Run> opened = new ArrayList<Run>();
+		try {
+			List<RecordCursor> cursors = new ArrayList<RecordCursor>();
+			for (File file : runs) {
+				Run run = new Run(file);
+				opened.add(run);
+				cursors.add(run.cursor());
+			}
+			job.reduce(cursors, new File(outputDirectory(task.getOutput()), partName(partition)));
+		} finally {
+			for (Run run : opened) {
+				run.delete();
+			}
+		}
+		job.counters.wallTime = System.currentTimeMillis() - start;
+		return job.counters;
+	}
+	
+	public static File partitionFile(File dir, int partition) {
+		return new File(dir, String.format("partition-%05d", partition));
+	}
+	
+	private static String partName(int partition) {
+		return String.format("part-r-%05d", partition);
+	}
+	
+	private void mapPhase(ForkJoinPool pool, final JobRun job, final List<InputSplit> splits, 
+			final ProgressListener progress) throws IOException, InterruptedException {
+		final AtomicInteger done = new AtomicInteger();
+		invoke(pool, splits.size(), new IndexedAction() {
+			public void run(int index) throws IOException {
+				MapOutput mapOutput = new MapOutput(job);
+				try {
+					splits.get(index).read(job.task.getMapper(), mapOutput);
+					mapOutput.flush();
+				} finally {
+					mapOutput.release();
+				}
+				if (progress != null) {
+					progress.progress(0.5f * done.incrementAndGet() / splits.size());
+				}
+			}
+		});
+	}
+	
+	private static List<File> listInputs(List<String> paths) {
+		List<File> inputs = new ArrayList<File>();
+		for (String input : paths) {
+			File file = new File(input);
+			if (file.isDirectory()) {
+				File[] children = file.listFiles();
+				if (children != null) {
+					for (File child : children) {
+						if (child.isFile() && !child.isHidden()) {
+							inputs.add(child);
+						}
+					}
+				}
+			} else {
+				inputs.add(file);
+			}
+		}
+		return inputs;
+	}
+	
+	private static File outputDirectory(String path) throws IOException {
+		File output = new File(path);
+		if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("Could not create output directory [" + output + "]");
+		}
+		return output;
+	}
+	
+	private void invoke(ForkJoinPool pool, int count, IndexedAction action) throws IOException, InterruptedException {
+		if (count == 0) {
+			return;
+		}
+		try {
+			pool.submit(new Phase(action, 0, count)).get();
+		} catch (InterruptedException e) {
+			// interrupt the workers so the task stops between records
+			pool.shutdownNow();
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException)cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+	
+	public static class Counters {
+		
+		private int splits;
+		private AtomicLong mapOutputRecords = new AtomicLong();
+		private AtomicLong spills = new AtomicLong();
+		private AtomicLong outputRecords = new AtomicLong();
+		private long wallTime;
+		
+		public int getSplits() {
+			return this.splits;
+		}
+		
+		public long getMapOutputRecords() {
+			return this.mapOutputRecords.get();
+		}
+		
+		public long getSpills() {
+			return this.spills.get();
+		}
+		
+		public long getOutputRecords() {
+			return this.outputRecords.get();
+		}
+		
+		public long getWallTime() {
+			return this.wallTime;
+		}
+		
+		public String toString() {
+			return "splits=" + splits + " mapOutputRecords=" + mapOutputRecords + " spills=" + spills 
+					+ " outputRecords=" + outputRecords + " wallTime=" + wallTime + "ms";
+		}
+	}
+	
+	private interface IndexedAction {
+		public void run(int index) throws IOException;
+	}
+	
+	private static class Phase extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private IndexedAction action;
+		private int from;
+		private int to;
+		
+		public Phase(IndexedAction action, int from, int to) {
+			this.action = action;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from == 1) {
+				try {
+					action.run(from);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Phase(action, from, middle), new Phase(action, middle, to));
+		}
+	}
+	
+	/*
+	 * State shared by the map and reduce phases of one job: its spill store and the
+	 * runs spilled for each partition.
+	 */
+	private class JobRun {
+		
+		private MapReduceTask task;
+		private SpillStore store;
+		private List<List<Run>> runs = new ArrayList<List<Run>>();
+		private Counters counters = new Counters();
+		
+		public JobRun(MapReduceTask task, SpillStore store) {
+			this.task = task;
+			this.store = store;
+			for (int i = 0; i < task.getReducers(); i++) {
+				runs.add(new ArrayList<Run>());
+			}
+		}
+		
+		public int partition(String key) {
+			return (key.hashCode() & Integer.MAX_VALUE) % task.getReducers();
+		}
+		
+		public int sortBufferSize() {
+			long size = Math.min(Math.max(memoryBudget / parallelism, MIN_SORT_BUFFER), memoryBudget);
+			return (int)Math.min(size, Integer.MAX_VALUE - 8);
+		}
+		
+		public void addRun(int partition, Run run) {
+			List<Run> partitionRuns = runs.get(partition);
+			synchronized (partitionRuns) {
+				partitionRuns.add(run);
+			}
+		}
+		
+		public List<RecordCursor> cursors(int partition) {
+			List<RecordCursor> cursors = new ArrayList<RecordCursor>();
+			for (Run run : runs.get(partition)) {
+				cursors.add(run.cursor());
+			}
+			return cursors;
+		}
+		
+		// writes the buffer out as one run per partition it holds records for
+		public void spill(SortBuffer buffer) throws IOException {
+			SortBuffer.Cursor sorted = buffer.cursor();
+			boolean more = sorted.next();
+			while (more) {
+				PartitionSegment segment = new PartitionSegment(sorted);
+				RunWriter writer = store.newRun();
+				try {
+					write(segment, writer);
+				} catch (IOException e) {
+					writer.discard();
+					throw e;
+				}
+				addRun(segment.partition, writer.close());
+				more = segment.more;
+			}
+		}
+		
+		// merges the partition's runs into a single run file, combining each key once more
+		public void writePartition(int partition, File file) throws IOException {
+			RunWriter writer = new RunWriter(file);
+			try {
+				write(new MergeCursor(cursors(partition)), writer);
+			} catch (IOException e) {
+				writer.discard();
+				throw e;
+			}
+			writer.close();
+		}
+		
+		// copies sorted records to a run, through the combiner if the task has one
+		private void write(RecordCursor cursor, final RunWriter writer) throws IOException {
+			Combiner combiner = task.getCombiner();
+			if (combiner == null) {
+				while (cursor.next()) {
+					writer.append(cursor.key(), cursor.value());
+				}
+				return;
+			}
+			Collector output = new Collector() {
+				public void collect(String key, String value) throws IOException {
+					writer.append(key.getBytes(UTF8), value.getBytes(UTF8));
+				}
+			};
+			GroupIterator groups = new GroupIterator(cursor);
+			while (groups.nextGroup()) {
+				combiner.reduce(groups.key(), groups.values(), output);
+			}
+		}
+		
+		public void reduce(List<RecordCursor> cursors, File file) throws IOException {
+			GroupIterator groups = new GroupIterator(new MergeCursor(cursors));
+			final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+			try {
+				Collector output = new Collector() {
+					public void collect(String key, String value) throws IOException {
+						writer.write(key);
+						writer.write('\t');
+						writer.write(value);
+						writer.write('\n');
+						counters.outputRecords.incrementAndGet();
+					}
+				};
+				Reducer reducer = task.getReducer();
+				while (groups.nextGroup()) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new InterruptedIOException("Reduce interrupted");
+					}
+					reducer.reduce(groups.key(), groups.values(), output);
+				}
+			} finally {
+				writer.close();
+			}
+		}
+	}
+	
+	// collects one map task's output, spilling the sort buffer whenever it fills up
+	private class MapOutput implements Collector {
+		
+		private JobRun job;
+		private SortBuffer buffer;
+		
+		public MapOutput(JobRun job) throws IOException {
+			this.job = job;
+			try {
+				this.buffer = job.store.newSortBuffer(job.sortBufferSize());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a sort buffer");
+			}
+		}
+		
+		public void collect(String key, String value) throws IOException {
+			int partition = job.partition(key);
+			byte[] keyBytes = key.getBytes(UTF8);
+			byte[] valueBytes = value.getBytes(UTF8);
+			job.counters.mapOutputRecords.incrementAndGet();
+			if (buffer.add(partition, keyBytes, valueBytes)) {
+				return;
+			}
+			spill();
+			if (!buffer.add(partition, keyBytes, valueBytes)) {
+				throw new IOException("Record of " + (keyBytes.length + valueBytes.length) 
+						+ " bytes does not fit a sort buffer of " + buffer.getCapacity() + " bytes");
+			}
+		}
+		
+		public void flush() throws IOException {
+			if (buffer.size() > 0) {
+				spill();
+			}
+		}
+		
+		public void release() {
+			buffer.release();
+		}
+		
+		private void spill() throws IOException {
+			job.spill(buffer);
+			buffer.clear();
+			job.counters.spills.incrementAndGet();
+		}
+	}
+	
+	// the sorted records of one partition, stopping where the next partition starts
+	private static class PartitionSegment implements RecordCursor {
+		
+		private SortBuffer.Cursor sorted;
+		private int partition;
+		private boolean first = true;
+		private boolean ended = false;
+		// whether the sort buffer has records left for later partitions
+		private boolean more = false;
+		
+		public PartitionSegment(SortBuffer.Cursor sorted) {
+			this.sorted = sorted;
+			this.partition = sorted.partition();
+		}
+		
+		public boolean next() {
+			if (first) {
+				first = false;
+				return true;
+			}
+			if (ended) {
+				return false;
+			}
+			if (!sorted.next()) {
+				ended = true;
+				return false;
+			}
+			if (sorted.partition() != partition) {
+				ended = true;
+				more = true;
+				return false;
+			}
+			return true;
+		}
+		
+		public ByteBuffer key() {
+			return sorted.key();
+		}
+		
+		public ByteBuffer value() {
+			return sorted.value();
+		}
+	}
+	
+	/*
+	 * Hands out the records of a sorted cursor one key at a time, decoding the key
+	 * once per group and each value as it is read.
+	 */
+	private static class GroupIterator {
+		
+		private RecordCursor cursor;
+		private boolean started = false;
+		// whether the cursor is on a record that has not been handed out yet
+		private boolean has = false;
+		private byte[] groupKey = new byte[64];
+		private int groupKeyLength;
+		private String key;
+		private byte[] scratch = new byte[64];
+		
+		public GroupIterator(RecordCursor cursor) {
+			this.cursor = cursor;
+		}
+		
+		public boolean nextGroup() {
+			if (!started) {
+				started = true;
+				has = cursor.next();
+			} else {
+				// skip whatever the reducer left of the previous group
+				while (inGroup()) {
+					has = cursor.next();
+				}
+			}
+			if (!has) {
+				return false;
+			}
+			ByteBuffer k = cursor.key();
+			groupKeyLength = k.remaining();
+			if (groupKey.length < groupKeyLength) {
+				groupKey = new byte[Math.max(groupKeyLength, groupKey.length * 2)];
+			}
+			k.get(k.position(), groupKey, 0, groupKeyLength);
+			key = new String(groupKey, 0, groupKeyLength, UTF8);
+			return true;
+		}
+		
+		public String key() {
+			return this.key;
+		}
+		
+		public Iterator<String> values() {
+			return new Iterator<String>() {
+				public boolean hasNext() {
+					return inGroup();
+				}
+				
+				public String next() {
+					if (!inGroup()) {
+						throw new NoSuchElementException();
+					}
+					String value = decode(cursor.value());
+					has = cursor.next();
+					return value;
+				}
+			};
+		}
+		
+		private boolean inGroup() {
+			return has && Records.equals(cursor.key(), groupKey, groupKeyLength);
+		}
+		
+		private String decode(ByteBuffer bytes) {
+			int length = bytes.remaining();
+			if (scratch.length < length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			bytes.get(bytes.position(), scratch, 0, length);
+			return new String(scratch, 0, length, UTF8);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.io.File;
+import java.util.List;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.task.IEmbeddedTask;
+import edu.gatech.cs7210.p2pmapreduce.task.ProgressListener;
+
+/*
+ * A task run by the embedded MapReduceEngine on the master itself, for jobs too
+ * small to be worth a Hadoop job. Inputs are local files or directories of files.
+ */
+public class MapReduceTask implements IEmbeddedTask {
+
+	private static final long serialVersionUID = 1L;
+	
+	private String taskName;
+	private Mapper mapper;
+	private Combiner combiner;
+	private Reducer reducer;
+	private List<String> inputs;
+	private String output;
+	private int reducers;
+	private long splitSize;
+	
+	public MapReduceTask(String taskName, Mapper mapper, Combiner combiner, Reducer reducer, 
+			List<String> inputs, String output, int reducers, long splitSize) {
+		this.taskName = taskName;
+		this.mapper = mapper;
+		this.combiner = combiner;
+		this.reducer = reducer;
+		this.inputs = inputs;
+		this.output = output;
+		this.reducers = reducers;
+		this.splitSize = splitSize;
+	}
+	
+	@Override
+	public String getTaskName() {
+		return this.taskName;
+	}
+	
+	@Override
+	public String getCommand() {
+		// not run through a shell, but describes the job for logs and as a cache key
+		return "embedded " + mapper.getClass().getName() + " " + reducer.getClass().getName() 
+				+ " " + inputs + " " + output;
+	}
+	
+	@Override
+	public List<String> getInputs() {
+		return this.inputs;
+	}
+	
+	@Override
+	public boolean execute(ProgressListener progress) throws Exception {
+		ApplicationContext appContext = ApplicationContext.getInstance();
+		MapReduceEngine engine = new MapReduceEngine(appContext.getEngineParallelism(), 
+				appContext.getEngineMemory(), new File(appContext.getEngineSpillDir()));
+		MapReduceEngine.Counters counters = engine.run(this, progress);
+		System.out.println("Task [" + taskName + "] " + counters);
+		return true;
+	}
+	
+	public Mapper getMapper() {
+		return this.mapper;
+	}
+	
+	public Combiner getCombiner() {
+		return this.combiner;
+	}
+	
+	public Reducer getReducer() {
+		return this.reducer;
+	}
+	
+	@Override
+	public String getOutput() {
+		return this.output;
+	}
+	
+	public int getReducers() {
+		return this.reducers;
+	}
+	
+	public long getSplitSize() {
+		return this.splitSize;
+	}
+}
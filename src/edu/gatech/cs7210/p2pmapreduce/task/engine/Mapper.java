@@ -0,0 +1,9 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+public interface Mapper extends Serializable {
+
+	public void map(String record, Collector output) throws IOException;
+}
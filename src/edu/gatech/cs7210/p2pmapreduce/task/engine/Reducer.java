@@ -0,0 +1,10 @@
+package edu.gatech.cs7210.p2pmapreduce.task.engine;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Iterator;
+
+public interface Reducer extends Serializable {
+
+	public void reduce(String key, Iterator<String> values, Collector output) throws IOException;
+}
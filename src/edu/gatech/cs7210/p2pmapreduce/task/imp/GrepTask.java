@@ -0,0 +1,44 @@
+package edu.gatech.cs7210.p2pmapreduce.task.imp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.Collector;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceTask;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.Mapper;
+
+// counts the matches of a regex, the embedded counterpart of the hadoop-examples grep
+public class GrepTask extends MapReduceTask {
+
+	private static final long serialVersionUID = 1L;
+	
+	public GrepTask(List<String> inputs, String output, String regex, int reducers) {
+		super("grep", new RegexMapper(regex), new WordCountTask.SumReducer(), new WordCountTask.SumReducer(), 
+				inputs, output, reducers, ApplicationContext.getInstance().getEngineSplitSize());
+	}
+	
+	public static class RegexMapper implements Mapper {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private String regex;
+		private transient Pattern pattern;
+		
+		public RegexMapper(String regex) {
+			this.regex = regex;
+		}
+		
+		public void map(String record, Collector output) throws IOException {
+			if (pattern == null) {
+				pattern = Pattern.compile(regex);
+			}
+			Matcher matcher = pattern.matcher(record);
+			while (matcher.find()) {
+				output.collect(matcher.group(), "1");
+			}
+		}
+	}
+}
@@ -1,9 +1,14 @@
 package edu.gatech.cs7210.p2pmapreduce.task.imp;
 
+import java.util.Collections;
+import java.util.List;
+
 import edu.gatech.cs7210.p2pmapreduce.task.ITask;
 
 public class HadoopExamplesTask implements ITask {
 
+	private static final long serialVersionUID = 1L;
+
 	@Override
 	public String getTaskName() {
 		return "hadoop-examples";
@@ -13,4 +18,14 @@ public class HadoopExamplesTask implements ITask {
 	public String getCommand() {
 		return "bin/hadoop jar hadoop-examples-*.jar grep input output 'dfs[a-z.]+'";
 	}
+	
+	@Override
+	public List<String> getInputs() {
+		return Collections.singletonList("input");
+	}
+	
+	@Override
+	public String getOutput() {
+		return "output";
+	}
 }
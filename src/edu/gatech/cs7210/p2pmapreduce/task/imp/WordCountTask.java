@@ -0,0 +1,56 @@
+package edu.gatech.cs7210.p2pmapreduce.task.imp;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.gatech.cs7210.p2pmapreduce.ApplicationContext;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.Collector;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.Combiner;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.MapReduceTask;
+import edu.gatech.cs7210.p2pmapreduce.task.engine.Mapper;
+
+public class WordCountTask extends MapReduceTask {
+
+	private static final long serialVersionUID = 1L;
+	
+	public WordCountTask(List<String> inputs, String output, int reducers) {
+		super("wordcount", new TokenMapper(), new SumReducer(), new SumReducer(), inputs, output, reducers, 
+				ApplicationContext.getInstance().getEngineSplitSize());
+	}
+	
+	public static class TokenMapper implements Mapper {
+		
+		private static final long serialVersionUID = 1L;
+		
+		public void map(String record, Collector output) throws IOException {
+			int length = record.length();
+			int i = 0;
+			while (i < length) {
+				while (i < length && Character.isWhitespace(record.charAt(i))) {
+					i++;
+				}
+				int start = i;
+				while (i < length && !Character.isWhitespace(record.charAt(i))) {
+					i++;
+				}
+				if (i > start) {
+					output.collect(record.substring(start, i), "1");
+				}
+			}
+		}
+	}
+	
+	public static class SumReducer implements Combiner {
+		
+		private static final long serialVersionUID = 1L;
+		
+		public void reduce(String key, Iterator<String> values, Collector output) throws IOException {
+			long sum = 0;
+			while (values.hasNext()) {
+				sum += Long.parseLong(values.next());
+			}
+			output.collect(key, String.valueOf(sum));
+		}
+	}
+}